@@ -41,6 +41,7 @@ import com.att.aro.model.HttpRequestResponseInfo;
 import com.att.aro.model.PacketInfo;
 import com.att.aro.model.TCPSession;
 import com.att.aro.model.TraceData;
+import com.att.aro.model.UDPFlow;
 import com.att.aro.video.AROVideoPlayer;
 
 /**
@@ -84,6 +85,11 @@ public class AROAdvancedTabb extends JPanel {
 	private JScrollPane jContentViewScrollPane; // Content View
 	private JTextArea jContentTextArea; // Context text
 
+	// UDP flows view
+	private JScrollPane jUDPFlowsScrollPane;
+	private UDPFlowsTableModel jUDPFlowsTableModel = new UDPFlowsTableModel();
+	private DataTable<UDPFlow> jUDPFlowsTable;
+
 	// network profile panel
 	private DeviceNetworkProfilePanel deviceNetworkProfilePanel;
 
@@ -121,8 +127,10 @@ public class AROAdvancedTabb extends JPanel {
 		this.analysisData = analysisData;
 		if (analysisData != null) {
 			jTCPFlowsTableModel.setData(analysisData.getTcpSessions());
+			jUDPFlowsTableModel.setData(analysisData.getUdpFlows());
 		} else {
 			jTCPFlowsTableModel.setData(null);
+			jUDPFlowsTableModel.setData(null);
 		}
 		getGraphPanel().resetChart(analysisData);
 		deviceNetworkProfilePanel.refresh(analysisData);
@@ -217,6 +225,8 @@ public class AROAdvancedTabb extends JPanel {
 					null, getJPacketViewTapScrollPane(), null);
 			jTCPFlowsContentTabbedPane.addTab(rb.getString("tcp.tab.content"),
 					null, getJContentViewScrollPane(), null);
+			jTCPFlowsContentTabbedPane.addTab(rb.getString("udp.tab.flows"),
+					null, getJUDPFlowsScrollPane(), null);
 			jTCPFlowsContentTabbedPane.addChangeListener(new ChangeListener() {
 
 				@Override
@@ -336,6 +346,54 @@ public class AROAdvancedTabb extends JPanel {
 		return jContentViewScrollPane;
 	}
 
+	/**
+	 * Initializes and returns the Scroll Pane for the UDP Flows tab at the
+	 * bottom.
+	 */
+	private JScrollPane getJUDPFlowsScrollPane() {
+		if (jUDPFlowsScrollPane == null) {
+			jUDPFlowsScrollPane = new JScrollPane(getJUDPFlowsTable());
+		}
+		return jUDPFlowsScrollPane;
+	}
+
+	/**
+	 * Initializes and returns the UDP flows table. Selecting a flow moves the
+	 * chart to its first packet.
+	 */
+	private DataTable<UDPFlow> getJUDPFlowsTable() {
+		if (jUDPFlowsTable == null) {
+			jUDPFlowsTable = new DataTable<UDPFlow>(jUDPFlowsTableModel);
+			jUDPFlowsTable.setAutoCreateRowSorter(true);
+			jUDPFlowsTable.setGridColor(Color.LIGHT_GRAY);
+			jUDPFlowsTable.getSelectionModel().addListSelectionListener(
+					new ListSelectionListener() {
+						private UDPFlow flow;
+
+						@Override
+						public synchronized void valueChanged(
+								ListSelectionEvent arg0) {
+							UDPFlow flow = jUDPFlowsTable.getSelectedItem();
+							if (flow != null && flow != this.flow) {
+								double crossHairValue = flow.getStartTime();
+								boolean centerGraph = !(crossHairValue <= graphPanel
+										.getViewportUpperBound() && crossHairValue >= graphPanel
+										.getViewportLowerBound());
+								graphPanel.setGraphView(crossHairValue,
+										centerGraph);
+								if (aroVideoPlayer != null) {
+									aroVideoPlayer
+											.setMediaDisplayTime(graphPanel
+													.getCrosshair());
+								}
+							}
+							this.flow = flow;
+						}
+					});
+		}
+		return jUDPFlowsTable;
+	}
+
 	/**
 	 * Initializes and returns the TCPFlowsScrollPane.
 	 */
@@ -1123,14 +1123,13 @@ public class ApplicationResourceOptimizer extends JFrame {
 
 		try {
 			// Checks that all necessary pcap libraries are installed on the
-			// system.
+			// system. They are only needed for trace files that are not in
+			// libpcap format, which are read without native code.
 			PCapAdapter.ping();
 		} catch (UnsatisfiedLinkError ule) {
-			MessageDialogFactory.showErrorDialog(this, rb.getString("aro.winpcap_error"));
-			System.exit(-1);
-		} catch (Exception e) {
-			MessageDialogFactory.showErrorDialog(this, rb.getString("aro.winpcap_error"));
-			System.exit(-1);
+			logger.log(Level.WARNING, "Native pcap library not available", ule);
+		} catch (NoClassDefFoundError e) {
+			logger.log(Level.WARNING, "Native pcap library not available", e);
 		}
 
 		// Register aroWindowStateListener with the frame
@@ -101,7 +101,7 @@ public class PacketInfoTableModel extends DataTableModel<PacketInfo> {
 		case TYPE_COL:
 			return ResourceBundleManager.getEnumString(item.getTcpInfo());
 		case PAYLOAD_COL:
-			return item.getPacket().getPayloadLen();
+			return item.getPayloadLen();
 		case FLAGS_COL:
 			return item.getTcpFlagString();
 		}
@@ -37,7 +37,9 @@ public class RequestResponseTableModel extends DataTableModel<HttpRequestRespons
 	private static final String[] columns = { rb.getString("rrview.time"),
 			rb.getString("rrview.direction"), rb.getString("rrview.reqtye"),
 			rb.getString("rrview.hostname"), rb.getString("rrview.objectname"),
-			rb.getString("rrview.contentlen") };
+			rb.getString("rrview.contentlen"), rb.getString("rrview.ttfb"),
+			rb.getString("rrview.downloadtime"), rb.getString("rrview.goodput"),
+			rb.getString("rrview.handshakertt") };
 
 	private static final int TIME_COL = 0;
 	private static final int DIR_COL = 1;
@@ -45,6 +47,10 @@ public class RequestResponseTableModel extends DataTableModel<HttpRequestRespons
 	private static final int HOST_NAME_CONTENT_TYPE_COL = 3;
 	private static final int OBJ_NAME_CONTENT_LENGTH = 4;
 	private static final int ON_WIRE_CONTENT_LENGTH = 5;
+	private static final int TTFB_COL = 6;
+	private static final int DOWNLOAD_TIME_COL = 7;
+	private static final int GOODPUT_COL = 8;
+	private static final int HANDSHAKE_RTT_COL = 9;
 
 	/**
 	 * Initializes a new instance of the RequestResponseDetailsPanel class.
@@ -70,6 +76,14 @@ public class RequestResponseTableModel extends DataTableModel<HttpRequestRespons
 		TableColumnModel cols = super.createDefaultTableColumnModel();
 		TableColumn col = cols.getColumn(TIME_COL);
 		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(TTFB_COL);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(DOWNLOAD_TIME_COL);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(GOODPUT_COL);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.0")));
+		col = cols.getColumn(HANDSHAKE_RTT_COL);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
 		return cols;
 	}
 
@@ -88,6 +102,10 @@ public class RequestResponseTableModel extends DataTableModel<HttpRequestRespons
 	public Class<?> getColumnClass(int columnIndex) {
 		switch (columnIndex) {
 		case TIME_COL:
+		case TTFB_COL:
+		case DOWNLOAD_TIME_COL:
+		case GOODPUT_COL:
+		case HANDSHAKE_RTT_COL:
 			return Double.class;
 		default:
 			return super.getColumnClass(columnIndex);
@@ -123,6 +141,14 @@ public class RequestResponseTableModel extends DataTableModel<HttpRequestRespons
 				}
 			case ON_WIRE_CONTENT_LENGTH:
 				return item.getActualByteCount();
+			case TTFB_COL:
+				return item.getTimeToFirstByte();
+			case DOWNLOAD_TIME_COL:
+				return item.getDownloadTime();
+			case GOODPUT_COL:
+				return item.getGoodput();
+			case HANDSHAKE_RTT_COL:
+				return item.getSession().getHandshakeRtt();
 			}
 		}
 		return null;
@@ -38,13 +38,17 @@ public class SimpleDomainTableModel extends DataTableModel<DomainTCPSessions> {
 	private static final int NO_TCP = 1;
 	private static final int SESSION_LEN = 2;
 	private static final int NO_FILES = 3;
+	private static final int TTFB_MEDIAN = 4;
+	private static final int TTFB_95 = 5;
+	private static final int RTT_MEDIAN = 6;
 
 	private static final ResourceBundle rb = ResourceBundleManager
 			.getDefaultBundle();
 	private static final String[] columns = {
 			rb.getString("simple.domain.name"), rb.getString("simple.no.tcp"),
 			rb.getString("simple.session.length"),
-			rb.getString("simple.no.files") };
+			rb.getString("simple.no.files"), rb.getString("simple.ttfb.median"),
+			rb.getString("simple.ttfb.95"), rb.getString("simple.rtt.median") };
 
 	/**
 	 * Initializes a new instance of the SimpleDomainTableModel class.
@@ -72,6 +76,12 @@ public class SimpleDomainTableModel extends DataTableModel<DomainTCPSessions> {
 
 		col = cols.getColumn(SESSION_LEN);
 		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(TTFB_MEDIAN);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(TTFB_95);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(RTT_MEDIAN);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
 
 		return cols;
 	}
@@ -93,6 +103,9 @@ public class SimpleDomainTableModel extends DataTableModel<DomainTCPSessions> {
 		case NO_TCP:
 		case SESSION_LEN:
 		case NO_FILES:
+		case TTFB_MEDIAN:
+		case TTFB_95:
+		case RTT_MEDIAN:
 			return Double.class;
 		default:
 			return super.getColumnClass(columnIndex);
@@ -110,6 +123,12 @@ public class SimpleDomainTableModel extends DataTableModel<DomainTCPSessions> {
 			return item.getAvgSessionLength();
 		case NO_FILES:
 			return item.getNumFiles();
+		case TTFB_MEDIAN:
+			return item.getTimeToFirstBytePercentile(50);
+		case TTFB_95:
+			return item.getTimeToFirstBytePercentile(95);
+		case RTT_MEDIAN:
+			return item.getHandshakeRttPercentile(50);
 		default:
 			return null;
 		}
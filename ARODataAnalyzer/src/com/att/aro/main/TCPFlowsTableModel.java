@@ -16,6 +16,8 @@
 
 package com.att.aro.main;
 
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.text.DecimalFormat;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -29,6 +31,7 @@ import javax.swing.table.TableColumnModel;
 
 import com.att.aro.commonui.DataTableModel;
 import com.att.aro.commonui.NumberFormatRenderer;
+import com.att.aro.model.PacketInfo;
 import com.att.aro.model.TCPSession;
 
 /**
@@ -43,13 +46,20 @@ public class TCPFlowsTableModel extends DataTableModel<TCPSession> {
 	private static final int LOCALPORT_COL = 3;
 	private static final int REMOTEPORT_COL = 4;
 	private static final int PACKETCOUNT_COL = 5;
+	private static final int SRTT_COL = 6;
+	private static final int RETRANSMISSIONS_COL = 7;
+	private static final int RETRANSMITTED_BYTES_COL = 8;
+	private static final int DUP_ACKS_COL = 9;
+	private static final int ZERO_WINDOW_COL = 10;
 
 	private static final ResourceBundle rb = ResourceBundleManager.getDefaultBundle();
 	private static final String hostPortSeparator = rb.getString("tcp.hostPortSeparator");
 	private static final String stringListSeparator = rb.getString("stringListSeparator");
 	private static final String[] columns = { rb.getString("tcp.time"), rb.getString("tcp.app"),
 			rb.getString("tcp.domain"), rb.getString("tcp.local"), rb.getString("tcp.remote"),
-			rb.getString("tcp.packetcount") };
+			rb.getString("tcp.packetcount"), rb.getString("tcp.srtt"),
+			rb.getString("tcp.retransmissions"), rb.getString("tcp.retransmittedbytes"),
+			rb.getString("tcp.dupacks"), rb.getString("tcp.zerowindow") };
 
 	private Set<TCPSession> highlighted = new HashSet<TCPSession>();
 
@@ -86,6 +96,10 @@ public class TCPFlowsTableModel extends DataTableModel<TCPSession> {
 		TableColumnModel cols = super.createDefaultTableColumnModel();
 		TableColumn col = cols.getColumn(TIME_COL);
 		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(SRTT_COL);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(ZERO_WINDOW_COL);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
 		return cols;
 	}
 
@@ -104,7 +118,14 @@ public class TCPFlowsTableModel extends DataTableModel<TCPSession> {
 	public Class<?> getColumnClass(int columnIndex) {
 		switch (columnIndex) {
 		case TIME_COL:
+		case SRTT_COL:
+		case ZERO_WINDOW_COL:
 			return Double.class;
+		case RETRANSMISSIONS_COL:
+		case DUP_ACKS_COL:
+			return Integer.class;
+		case RETRANSMITTED_BYTES_COL:
+			return Long.class;
 		default:
 			return super.getColumnClass(columnIndex);
 		}
@@ -139,9 +160,28 @@ public class TCPFlowsTableModel extends DataTableModel<TCPSession> {
 		case LOCALPORT_COL:
 			return rb.getString("tcp.localhost") + hostPortSeparator + item.getLocalPort();
 		case REMOTEPORT_COL:
-			return item.getRemoteIP().getHostAddress() + hostPortSeparator + item.getRemotePort();
+			InetAddress remoteIP = item.getRemoteIP();
+			String host = remoteIP.getHostAddress();
+			if (remoteIP instanceof Inet6Address) {
+				host = "[" + host + "]";
+			}
+			return host + hostPortSeparator + item.getRemotePort();
 		case PACKETCOUNT_COL:
 			return item.getPackets().size();
+		case SRTT_COL:
+			return item.getStatistics().getSmoothedRtt();
+		case RETRANSMISSIONS_COL:
+			return item.getStatistics().getRetransmissionCount(PacketInfo.Direction.UPLINK)
+					+ item.getStatistics().getRetransmissionCount(PacketInfo.Direction.DOWNLINK);
+		case RETRANSMITTED_BYTES_COL:
+			return item.getStatistics().getRetransmittedBytes(PacketInfo.Direction.UPLINK)
+					+ item.getStatistics().getRetransmittedBytes(PacketInfo.Direction.DOWNLINK);
+		case DUP_ACKS_COL:
+			return item.getStatistics().getDuplicateAckCount(PacketInfo.Direction.UPLINK)
+					+ item.getStatistics().getDuplicateAckCount(PacketInfo.Direction.DOWNLINK);
+		case ZERO_WINDOW_COL:
+			return item.getStatistics().getZeroWindowTime(PacketInfo.Direction.UPLINK)
+					+ item.getStatistics().getZeroWindowTime(PacketInfo.Direction.DOWNLINK);
 		default:
 			return null;
 		}
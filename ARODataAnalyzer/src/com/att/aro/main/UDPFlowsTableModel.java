@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.main;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.text.DecimalFormat;
+import java.util.ResourceBundle;
+
+import javax.swing.table.TableColumn;
+import javax.swing.table.TableColumnModel;
+
+import com.att.aro.commonui.DataTableModel;
+import com.att.aro.commonui.NumberFormatRenderer;
+import com.att.aro.model.UDPFlow;
+
+/**
+ * Represents the table model used to display the UDP Flows data.
+ */
+public class UDPFlowsTableModel extends DataTableModel<UDPFlow> {
+	private static final long serialVersionUID = 1L;
+
+	private static final int TIME_COL = 0;
+	private static final int LOCALPORT_COL = 1;
+	private static final int REMOTEPORT_COL = 2;
+	private static final int PACKETCOUNT_COL = 3;
+	private static final int BYTES_COL = 4;
+	private static final int DURATION_COL = 5;
+	private static final int EXCHANGES_COL = 6;
+	private static final int INTERVAL_COL = 7;
+
+	private static final ResourceBundle rb = ResourceBundleManager.getDefaultBundle();
+	private static final String hostPortSeparator = rb.getString("tcp.hostPortSeparator");
+	private static final String[] columns = { rb.getString("tcp.time"),
+			rb.getString("tcp.local"), rb.getString("tcp.remote"),
+			rb.getString("tcp.packetcount"), rb.getString("udp.bytes"),
+			rb.getString("udp.duration"), rb.getString("udp.exchanges"),
+			rb.getString("udp.interval") };
+
+	/**
+	 * Constructor
+	 */
+	public UDPFlowsTableModel() {
+		super(columns);
+	}
+
+	/**
+	 * Returns a TableColumnModel that is based on the default table column
+	 * model for the DataTableModel class, with the time columns formatted to
+	 * milliseconds.
+	 *
+	 * @return A TableColumnModel object.
+	 */
+	@Override
+	public TableColumnModel createDefaultTableColumnModel() {
+		TableColumnModel cols = super.createDefaultTableColumnModel();
+		TableColumn col = cols.getColumn(TIME_COL);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(DURATION_COL);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		col = cols.getColumn(INTERVAL_COL);
+		col.setCellRenderer(new NumberFormatRenderer(new DecimalFormat("0.000")));
+		return cols;
+	}
+
+	/**
+	 * Returns a class representing the specified column. This method is
+	 * primarily used to sort numeric columns.
+	 *
+	 * @param columnIndex
+	 *             The index of the specified column.
+	 *
+	 * @return A class representing the specified column.
+	 *
+	 * @see javax.swing.table.AbstractTableModel#getColumnClass(int)
+	 */
+	@Override
+	public Class<?> getColumnClass(int columnIndex) {
+		switch (columnIndex) {
+		case TIME_COL:
+		case DURATION_COL:
+		case INTERVAL_COL:
+			return Double.class;
+		case PACKETCOUNT_COL:
+		case EXCHANGES_COL:
+			return Integer.class;
+		case BYTES_COL:
+			return Long.class;
+		default:
+			return super.getColumnClass(columnIndex);
+		}
+	}
+
+	@Override
+	protected Object getColumnValue(UDPFlow item, int columnIndex) {
+		switch (columnIndex) {
+		case TIME_COL:
+			return item.getStartTime();
+		case LOCALPORT_COL:
+			return rb.getString("tcp.localhost") + hostPortSeparator + item.getLocalPort();
+		case REMOTEPORT_COL:
+			InetAddress remoteIP = item.getRemoteIP();
+			String host = remoteIP.getHostAddress();
+			if (remoteIP instanceof Inet6Address) {
+				host = "[" + host + "]";
+			}
+			return host + hostPortSeparator + item.getRemotePort();
+		case PACKETCOUNT_COL:
+			return item.getPackets().size();
+		case BYTES_COL:
+			return item.getBytesTransferred();
+		case DURATION_COL:
+			return item.getDuration();
+		case EXCHANGES_COL:
+			return item.getExchangeTimes().length;
+		case INTERVAL_COL:
+			return item.getMeanExchangeInterval();
+		default:
+			return null;
+		}
+	}
+}
@@ -18,6 +18,7 @@ package com.att.aro.model;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumMap;
@@ -52,6 +53,10 @@ public class BurstCollectionAnalysis implements Serializable {
 	private static final double USER_EVENT_TOLERATE = 4.0f;
 	private static final double AVG_CPU_USAGE_THRESHOLD = 0.7;
 
+	// Most exchanges of a UDP flow that are checked for a periodic pattern
+	// at a time, which bounds the quadratic cost of the self correlation
+	private static final int MAX_PERIODIC_EXCHANGES = 128;
+
 	private TraceData.Analysis analysis;
 	private Profile profile;
 	private Set<Integer> mss = new HashSet<Integer>();
@@ -617,9 +622,10 @@ public class BurstCollectionAnalysis implements Serializable {
 					continue;
 			}
 
-			// Step 4: Server delay
+			// Step 4: Server delay, including UDP data sent by the server
 			if (pkt0.getDir() == PacketInfo.Direction.DOWNLINK
-					&& (info0 == TcpInfo.TCP_DATA || info0 == TcpInfo.TCP_ACK)) {
+					&& (info0 == TcpInfo.TCP_DATA || info0 == TcpInfo.TCP_ACK
+							|| (pkt0.isUDP() && payloadLen > 0))) {
 				b.addBurstInfo(BurstInfo.BURST_SERVER_DELAY);
 				continue;
 			}
@@ -803,10 +809,57 @@ public class BurstCollectionAnalysis implements Serializable {
 			}
 		}
 
+		// UDP flows whose exchanges repeat periodically, by the packets that
+		// begin their periodic exchanges. A flow needs more exchanges than the
+		// minimum number of periodic samples. Its exchanges are correlated in
+		// consecutive windows of a bounded size, the last window ending at its
+		// last exchange, and only the exchanges of periodic windows are kept.
+		Map<PacketInfo, UDPFlow> udpExchanges = new HashMap<PacketInfo, UDPFlow>();
+		for (UDPFlow flow : analysis.getUdpFlows()) {
+			double[] times = flow.getExchangeTimes();
+			if (times.length <= profile.getPeriodMinSamples()) {
+				continue;
+			}
+			int n = Math.min(times.length, MAX_PERIODIC_EXCHANGES);
+			boolean[] periodic = new boolean[times.length];
+			boolean found = false;
+			for (int start = 0; start < times.length; start += n) {
+				int from = Math.min(start, times.length - n);
+				List<Double> v = new ArrayList<Double>(n);
+				for (int i = from; i < from + n; ++i) {
+					v.add(Double.valueOf(times[i]));
+				}
+				if (SelfCorr(v)) {
+					Arrays.fill(periodic, from, from + n, true);
+					found = true;
+				}
+			}
+			if (found) {
+				int i = 0;
+				for (PacketInfo p : flow.getPackets()) {
+					if (i < times.length && p.getTimeStamp() == times[i]) {
+						if (periodic[i]) {
+							udpExchanges.put(p, flow);
+						}
+						++i;
+					}
+				}
+			}
+		}
+
 		for (Burst burst : burstCollection) {
 			if (!burst.getBurstInfos().contains(BurstInfo.BURST_CLIENT_DELAY)) {
 				continue;
 			}
+			UDPFlow flow = udpExchanges.get(burst.getBeginPacket());
+			if (flow != null) {
+				periodicCount++;
+				burst.setBurstInfo(BurstInfo.BURST_PERIODICAL);
+				hostPeriodicInfoSet.add(flow.getRemoteIP().toString() + ":"
+						+ flow.getRemotePort());
+				continue;
+			}
+
 			Packet beginPacket = burst.getBeginPacket().getPacket();
 			if (beginPacket instanceof IPPacket) {
 				IPPacket ip = (IPPacket) beginPacket;
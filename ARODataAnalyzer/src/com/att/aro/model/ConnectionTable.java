@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.util.Arrays;
+
+/**
+ * Assigns a small integer id to each distinct connection key. Ids are
+ * assigned in the order the keys are first seen, starting at 0, so they can
+ * be used as indexes of lists and arrays that hold per connection values.
+ * Keys are held in an open addressing hash of primitive values, so looking up
+ * a known key does not allocate.
+ */
+class ConnectionTable {
+
+	private long[] keys = new long[16];
+	private int size;
+
+	// Open addressing hash of key to id + 1. A value of 0 marks an empty slot.
+	private long[] slotKeys = new long[64];
+	private int[] slotIds = new int[64];
+
+	/**
+	 * Returns the id of the specified key, assigning a new id when the key has
+	 * not been seen before.
+	 *
+	 * @param key
+	 *            The connection key.
+	 * @return The connection id.
+	 */
+	int getId(long key) {
+		int mask = slotKeys.length - 1;
+		int slot = hash(key) & mask;
+		while (slotIds[slot] != 0) {
+			if (slotKeys[slot] == key) {
+				return slotIds[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int id = size++;
+		if (id == keys.length) {
+			keys = Arrays.copyOf(keys, id * 2);
+		}
+		keys[id] = key;
+		slotKeys[slot] = key;
+		slotIds[slot] = id + 1;
+
+		// Keep the load factor at or below one half
+		if (size * 2 > slotKeys.length) {
+			rehash(slotKeys.length * 2);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the specified key, or -1 if the key has not been seen.
+	 *
+	 * @param key
+	 *            The connection key.
+	 * @return The connection id.
+	 */
+	int find(long key) {
+		int mask = slotKeys.length - 1;
+		int slot = hash(key) & mask;
+		while (slotIds[slot] != 0) {
+			if (slotKeys[slot] == key) {
+				return slotIds[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the key that has the specified id.
+	 *
+	 * @param id
+	 *            The connection id.
+	 * @return The connection key.
+	 */
+	long getKey(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("Id: " + id + ", Size: " + size);
+		}
+		return keys[id];
+	}
+
+	/**
+	 * Returns the number of distinct keys. Valid ids are in the range 0 to
+	 * size() - 1.
+	 *
+	 * @return The number of connections.
+	 */
+	int size() {
+		return size;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = slotKeys;
+		int[] oldIds = slotIds;
+		slotKeys = new long[capacity];
+		slotIds = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldIds[i] != 0) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (slotIds[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slotKeys[slot] = oldKeys[i];
+				slotIds[slot] = oldIds[i];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the decoded content of requests/responses
+ * whose body is compressed. The cache holds at most a fixed number of bytes of
+ * content, and content larger than a quarter of that is not cached so that one
+ * object cannot flush the others. The cache is shared by all of the
+ * requests/responses of a trace and is cleared when another trace is opened.
+ */
+final class ContentCache {
+
+	/**
+	 * Maximum number of bytes of decoded content held by the cache.
+	 */
+	static final int BUDGET = 32 * 1024 * 1024;
+
+	// Access ordered, so that the eldest entry is the least recently used
+	private static final Map<HttpRequestResponseInfo, byte[]> entries = new LinkedHashMap<HttpRequestResponseInfo, byte[]>(
+			16, 0.75f, true);
+	private static int size;
+
+	private ContentCache() {
+	}
+
+	/**
+	 * Returns the decoded content of the specified request/response, or null
+	 * if it is not cached.
+	 */
+	static synchronized byte[] get(HttpRequestResponseInfo rrInfo) {
+		return entries.get(rrInfo);
+	}
+
+	/**
+	 * Caches the decoded content of the specified request/response, evicting
+	 * the least recently used content as needed to stay within the budget.
+	 */
+	static synchronized void put(HttpRequestResponseInfo rrInfo, byte[] content) {
+		if (content.length > BUDGET / 4) {
+			return;
+		}
+		byte[] old = entries.put(rrInfo, content);
+		size += content.length - (old != null ? old.length : 0);
+		Iterator<byte[]> iter = entries.values().iterator();
+		while (size > BUDGET && iter.hasNext()) {
+			size -= iter.next().length;
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Removes all of the cached content.
+	 */
+	static synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+/**
+ * Indexes of the per direction values of the session and flow statistics,
+ * which hold one array element for each of the up link and down link
+ * directions.
+ */
+final class DirectionIndex {
+
+	/**
+	 * Index of the up link values.
+	 */
+	static final int UPLINK = 0;
+
+	/**
+	 * Index of the down link values.
+	 */
+	static final int DOWNLINK = 1;
+
+	/**
+	 * Length of an array of per direction values.
+	 */
+	static final int COUNT = 2;
+
+	private DirectionIndex() {
+	}
+
+	/**
+	 * Returns the index of the values of the specified direction.
+	 * 
+	 * @param dir
+	 *            The packet direction.
+	 * @return The index, or -1 if the direction is null or unknown.
+	 */
+	static int of(PacketInfo.Direction dir) {
+		if (dir == null) {
+			return -1;
+		}
+		switch (dir) {
+		case UPLINK:
+			return UPLINK;
+		case DOWNLINK:
+			return DOWNLINK;
+		default:
+			return -1;
+		}
+	}
+}
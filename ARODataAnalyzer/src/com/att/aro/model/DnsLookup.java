@@ -0,0 +1,359 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.att.aro.pcap.UDPPacket;
+
+/**
+ * A DNS lookup made over UDP port 53, pairing a query with its response by
+ * transaction id. The resolution time is measured from the first query, so a
+ * query that is sent again with the same transaction id adds its wait to the
+ * lookup rather than starting another one.
+ */
+public class DnsLookup implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The UDP port of DNS servers.
+	 */
+	public static final int DNS_PORT = 53;
+
+	/**
+	 * Query type of an IPv4 address record.
+	 */
+	public static final int TYPE_A = 1;
+
+	/**
+	 * Query type of an IPv6 address record.
+	 */
+	public static final int TYPE_AAAA = 28;
+
+	private static final int HEADER_LEN = 12;
+	private static final int MAX_NAME_LEN = 255;
+
+	/**
+	 * Returns the DNS lookups made by the specified packets, in the order of
+	 * their first packet.
+	 *
+	 * @param packets
+	 *            The packets, in timestamp order.
+	 * @return A list of DNS lookups.
+	 */
+	static List<DnsLookup> extractDnsLookups(List<PacketInfo> packets) {
+		List<DnsLookup> result = new ArrayList<DnsLookup>();
+
+		// Latest lookup of each transaction id, client port and server
+		Map<Long, DnsLookup> lookups = new HashMap<Long, DnsLookup>();
+		for (PacketInfo packet : packets) {
+			if (!packet.isUDP()) {
+				continue;
+			}
+			boolean query = packet.getDestinationPort() == DNS_PORT;
+			if (!query && packet.getSourcePort() != DNS_PORT) {
+				continue;
+			}
+			DnsLookup message = decode((UDPPacket) packet.getPacket());
+			if (message == null || message.response == query) {
+				continue;
+			}
+
+			int clientPort = query ? packet.getSourcePort() : packet.getDestinationPort();
+			Long key = Long.valueOf(((long) message.transactionId << 48)
+					| ((long) clientPort << 32) | (packet.getRemoteEndpoint() & 0xFFFFFFFFL));
+			DnsLookup lookup = lookups.get(key);
+			if (query) {
+				if (lookup != null && lookup.responsePacket == null
+						&& lookup.queryPacket != null) {
+
+					// Sent again
+					++lookup.queryCount;
+					continue;
+				}
+				message.queryPacket = packet;
+				message.queryCount = 1;
+			} else {
+				if (lookup != null && lookup.responsePacket == null) {
+					lookup.setResponse(packet, message);
+					continue;
+				} else if (lookup != null) {
+
+					// Duplicate of a response that was already paired
+					continue;
+				}
+
+				// Response to a query made before the trace started
+				message.responsePacket = packet;
+			}
+			lookups.put(key, message);
+			result.add(message);
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the DNS message carried by the specified packet, returning a
+	 * lookup that holds the fields of the message, or null if the packet does
+	 * not carry a standard query or response.
+	 */
+	private static DnsLookup decode(UDPPacket udp) {
+		ByteBuffer bytes = udp.getBuffer();
+		int start = udp.getDataOffset();
+		int end = Math.min(bytes.limit(), start + udp.getPayloadLen());
+		if (end - start < HEADER_LEN) {
+			return null;
+		}
+
+		int flags = bytes.getShort(start + 2) & 0xFFFF;
+		int questions = bytes.getShort(start + 4) & 0xFFFF;
+		int answers = bytes.getShort(start + 6) & 0xFFFF;
+		if (((flags >> 11) & 0x0F) != 0 || questions == 0) {
+			return null;
+		}
+
+		DnsLookup result = new DnsLookup();
+		result.transactionId = bytes.getShort(start) & 0xFFFF;
+		result.response = (flags & 0x8000) != 0;
+		result.responseCode = flags & 0x000F;
+
+		// Only the first question is used, as by all common resolvers
+		int[] offset = { start + HEADER_LEN };
+		result.hostName = readName(bytes, start, end, offset);
+		if (result.hostName == null || offset[0] + 4 > end) {
+			return null;
+		}
+		result.queryType = bytes.getShort(offset[0]) & 0xFFFF;
+		offset[0] += 4;
+		for (int i = 1; i < questions; ++i) {
+			if (readName(bytes, start, end, offset) == null || offset[0] + 4 > end) {
+				return result;
+			}
+			offset[0] += 4;
+		}
+
+		// Answer records. A message cut short by the capture keeps the
+		// addresses decoded so far.
+		for (int i = 0; i < answers; ++i) {
+			if (readName(bytes, start, end, offset) == null || offset[0] + 10 > end) {
+				break;
+			}
+			int type = bytes.getShort(offset[0]) & 0xFFFF;
+			int length = bytes.getShort(offset[0] + 8) & 0xFFFF;
+			int data = offset[0] + 10;
+			if (data + length > end) {
+				break;
+			}
+			if ((type == TYPE_A && length == 4) || (type == TYPE_AAAA && length == 16)) {
+				byte[] address = new byte[length];
+				for (int j = 0; j < length; ++j) {
+					address[j] = bytes.get(data + j);
+				}
+				try {
+					result.addresses.add(InetAddress.getByAddress(address));
+				} catch (UnknownHostException e) {
+
+					// Cannot happen for a 4 or 16 byte address
+				}
+			}
+			offset[0] = data + length;
+		}
+		return result;
+	}
+
+	/**
+	 * Reads a possibly compressed domain name of the message that starts at
+	 * the specified position of a buffer. The offset of the name is passed in
+	 * the first element of the offset array, which is updated to the end of
+	 * the name.
+	 *
+	 * @return The name in lower case, or null if it is malformed.
+	 */
+	private static String readName(ByteBuffer bytes, int start, int end, int[] offset) {
+		StringBuilder name = new StringBuilder();
+		int pos = offset[0];
+		int next = -1;
+
+		// Each pointer must point backward, so a name cannot loop
+		int limit = pos;
+		while (true) {
+			if (pos >= end) {
+				return null;
+			}
+			int len = bytes.get(pos) & 0xFF;
+			if (len == 0) {
+				++pos;
+				break;
+			} else if ((len & 0xC0) == 0xC0) {
+				if (pos + 1 >= end) {
+					return null;
+				}
+				int pointer = start + (((len & 0x3F) << 8) | (bytes.get(pos + 1) & 0xFF));
+				if (pointer >= limit) {
+					return null;
+				}
+				if (next < 0) {
+					next = pos + 2;
+				}
+				pos = limit = pointer;
+			} else if ((len & 0xC0) == 0 && pos + 1 + len <= end) {
+				if (name.length() > 0) {
+					name.append('.');
+				}
+				for (int i = 1; i <= len; ++i) {
+					name.append(Character.toLowerCase((char) (bytes.get(pos + i) & 0xFF)));
+				}
+				if (name.length() > MAX_NAME_LEN) {
+					return null;
+				}
+				pos += 1 + len;
+			} else {
+				return null;
+			}
+		}
+		offset[0] = next >= 0 ? next : pos;
+		return name.toString();
+	}
+
+	private PacketInfo queryPacket;
+	private PacketInfo responsePacket;
+	private int queryCount;
+	private int transactionId;
+	private boolean response;
+	private String hostName;
+	private int queryType;
+	private int responseCode;
+	private List<InetAddress> addresses = new ArrayList<InetAddress>(1);
+
+	private DnsLookup() {
+	}
+
+	/**
+	 * Pairs the lookup with its response.
+	 */
+	private void setResponse(PacketInfo packet, DnsLookup message) {
+		this.responsePacket = packet;
+		this.responseCode = message.responseCode;
+		this.addresses = message.addresses;
+	}
+
+	/**
+	 * Returns the host name that was looked up.
+	 *
+	 * @return The host name in lower case.
+	 */
+	public String getHostName() {
+		return hostName;
+	}
+
+	/**
+	 * Returns the query type of the lookup, such as TYPE_A or TYPE_AAAA.
+	 *
+	 * @return The query type.
+	 */
+	public int getQueryType() {
+		return queryType;
+	}
+
+	/**
+	 * Returns the transaction id that pairs the query with its response.
+	 *
+	 * @return The transaction id.
+	 */
+	public int getTransactionId() {
+		return transactionId;
+	}
+
+	/**
+	 * Returns the first query packet of the lookup.
+	 *
+	 * @return The query packet, or null if the query was made before the
+	 *         trace started.
+	 */
+	public PacketInfo getQueryPacket() {
+		return queryPacket;
+	}
+
+	/**
+	 * Returns the response packet of the lookup.
+	 *
+	 * @return The response packet, or null if there was no response.
+	 */
+	public PacketInfo getResponsePacket() {
+		return responsePacket;
+	}
+
+	/**
+	 * Returns the number of times the query was sent.
+	 *
+	 * @return The query count, which is 0 if the query was made before the
+	 *         trace started.
+	 */
+	public int getQueryCount() {
+		return queryCount;
+	}
+
+	/**
+	 * Returns the time of the first packet of the lookup.
+	 *
+	 * @return The timestamp in seconds.
+	 */
+	public double getTimeStamp() {
+		return queryPacket != null ? queryPacket.getTimeStamp() : responsePacket
+				.getTimeStamp();
+	}
+
+	/**
+	 * Returns the time from the first query to the response.
+	 *
+	 * @return The resolution time in seconds, or null if the query or the
+	 *         response is not in the trace.
+	 */
+	public Double getResolutionTime() {
+		if (queryPacket == null || responsePacket == null) {
+			return null;
+		}
+		return Double.valueOf(responsePacket.getTimeStamp() - queryPacket.getTimeStamp());
+	}
+
+	/**
+	 * Returns the response code of the lookup. A value of 0 indicates
+	 * success, and 3 indicates that the name does not exist.
+	 *
+	 * @return The response code, or -1 if there was no response.
+	 */
+	public int getResponseCode() {
+		return responsePacket != null ? responseCode : -1;
+	}
+
+	/**
+	 * Returns the IPv4 and IPv6 addresses answered for the host name.
+	 *
+	 * @return A list of addresses, which is empty if there was no response or
+	 *         no address.
+	 */
+	public List<InetAddress> getAddresses() {
+		return Collections.unmodifiableList(addresses);
+	}
+}
@@ -17,6 +17,7 @@ package com.att.aro.model;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -34,6 +35,10 @@ public class DomainTCPSessions implements Serializable {
 	private double avgSessionLength;
 	private double numFiles;
 
+	// Sorted latency samples of the domain, in seconds
+	private double[] timesToFirstByte;
+	private double[] handshakeRtts;
+
 	/**
 	 * Returns a collection of DomainTCPSessions objects from the collection TCPSession objects found in the trace.
 	 * 
@@ -85,13 +90,38 @@ public class DomainTCPSessions implements Serializable {
 		this.domainName = domainName;
 		this.sessions = Collections.unmodifiableCollection(sessions);
 		double sessionLength = 0;
+		double[] ttfb = new double[sessions.size()];
+		double[] rtt = new double[sessions.size()];
+		int ttfbCount = 0;
+		int rttCount = 0;
 		for (TCPSession session : sessions) {
 			sessionLength += session.getSessionEndTime()
 					- session.getSessionStartTime();
 			numFiles += session.getFileDownloadCount();
+
+			Double handshakeRtt = session.getHandshakeRtt();
+			if (handshakeRtt != null) {
+				rtt[rttCount++] = handshakeRtt.doubleValue();
+			}
+
+			// Each transaction is counted once, at its request
+			for (HttpRequestResponseInfo rr : session.getRequestResponseInfo()) {
+				Double time = rr.getDirection() == HttpRequestResponseInfo.Direction.REQUEST ? rr
+						.getTimeToFirstByte() : null;
+				if (time != null) {
+					if (ttfbCount == ttfb.length) {
+						ttfb = Arrays.copyOf(ttfb, ttfbCount * 2);
+					}
+					ttfb[ttfbCount++] = time.doubleValue();
+				}
+			}
 		}
 		int size = sessions.size();
 		this.avgSessionLength = (double) sessionLength / size;
+		this.timesToFirstByte = Arrays.copyOf(ttfb, ttfbCount);
+		Arrays.sort(timesToFirstByte);
+		this.handshakeRtts = Arrays.copyOf(rtt, rttCount);
+		Arrays.sort(handshakeRtts);
 	}
 
 	/**
@@ -130,4 +160,43 @@ public class DomainTCPSessions implements Serializable {
 		return numFiles;
 	}
 
+	/**
+	 * Returns the specified percentile of the time to first byte of the HTTP
+	 * transactions of the domain.
+	 * 
+	 * @param percentile
+	 *            The percentile, from 0 to 100. A percentile of 50 is the
+	 *            median.
+	 * @return The time to first byte in seconds, or null if the domain has no
+	 *         complete HTTP transactions.
+	 */
+	public Double getTimeToFirstBytePercentile(double percentile) {
+		return percentile(timesToFirstByte, percentile);
+	}
+
+	/**
+	 * Returns the specified percentile of the TCP handshake round trip time
+	 * of the sessions of the domain.
+	 * 
+	 * @param percentile
+	 *            The percentile, from 0 to 100. A percentile of 50 is the
+	 *            median.
+	 * @return The round trip time in seconds, or null if no session of the
+	 *         domain was opened within the trace.
+	 */
+	public Double getHandshakeRttPercentile(double percentile) {
+		return percentile(handshakeRtts, percentile);
+	}
+
+	/**
+	 * Returns the nearest rank percentile of the specified sorted values.
+	 */
+	private static Double percentile(double[] values, double percentile) {
+		if (values.length == 0) {
+			return null;
+		}
+		int rank = (int) Math.ceil(percentile / 100.0 * values.length);
+		return values[Math.min(Math.max(rank - 1, 0), values.length - 1)];
+	}
+
 }
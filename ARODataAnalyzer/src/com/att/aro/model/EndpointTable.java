@@ -0,0 +1,278 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Assigns a small integer id to each distinct IP address of a trace. Ids are
+ * assigned in the order the addresses are first seen, starting at 0, so they
+ * can be used as indexes of arrays that hold per address values.
+ */
+public class EndpointTable implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = Logger.getLogger(EndpointTable.class.getName());
+
+	private List<InetAddress> addresses = new ArrayList<InetAddress>();
+
+	// Open addressing hash of IPv4 address to id + 1. A value of 0 marks an
+	// empty slot.
+	private int[] ipv4Keys = new int[256];
+	private int[] ipv4Ids = new int[256];
+
+	// Open addressing hash of IPv6 address, split into its upper and lower
+	// 64 bits, to id + 1
+	private long[] ipv6High = new long[64];
+	private long[] ipv6Low = new long[64];
+	private int[] ipv6Ids = new int[64];
+	private int ipv6Count;
+
+	// Addresses that are neither IPv4 nor IPv6
+	private Map<InetAddress, Integer> otherIds = new HashMap<InetAddress, Integer>();
+
+	/**
+	 * Returns the id of the specified address, assigning a new id when the
+	 * address has not been seen before.
+	 *
+	 * @param address
+	 *            The IP address.
+	 * @return The endpoint id.
+	 */
+	public int getId(InetAddress address) {
+		if (address instanceof Inet4Address) {
+			byte[] b = address.getAddress();
+			return getIPv4Id(((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16)
+					| ((b[2] & 0xFF) << 8) | (b[3] & 0xFF));
+		} else if (address instanceof Inet6Address) {
+			ByteBuffer b = ByteBuffer.wrap(address.getAddress());
+			return getIPv6Id(b.getLong(0), b.getLong(8));
+		}
+
+		Integer id = otherIds.get(address);
+		if (id == null) {
+			id = addresses.size();
+			addresses.add(address);
+			otherIds.put(address, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the specified IPv4 address, assigning a new id when the
+	 * address has not been seen before. No InetAddress object is created for
+	 * addresses that are already known.
+	 *
+	 * @param address
+	 *            The IPv4 address as a 32 bit value in network byte order.
+	 * @return The endpoint id.
+	 */
+	public int getIPv4Id(int address) {
+		int mask = ipv4Keys.length - 1;
+		int slot = hash(address) & mask;
+		while (ipv4Ids[slot] != 0) {
+			if (ipv4Keys[slot] == address) {
+				return ipv4Ids[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int id = addresses.size();
+		addresses.add(toInetAddress(address));
+		ipv4Keys[slot] = address;
+		ipv4Ids[slot] = id + 1;
+
+		// Keep the load factor at or below one half
+		if (addresses.size() * 2 > ipv4Keys.length) {
+			rehash(ipv4Keys.length * 2);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the specified IPv6 address, assigning a new id when the
+	 * address has not been seen before. No InetAddress object is created for
+	 * addresses that are already known. An IPv4 mapped address has the id of
+	 * the IPv4 address it maps.
+	 *
+	 * @param high
+	 *            The upper 64 bits of the IPv6 address in network byte order.
+	 * @param low
+	 *            The lower 64 bits of the IPv6 address in network byte order.
+	 * @return The endpoint id.
+	 */
+	public int getIPv6Id(long high, long low) {
+		if (high == 0 && (low >>> 32) == 0xFFFF) {
+			return getIPv4Id((int) low);
+		}
+
+		int mask = ipv6Ids.length - 1;
+		int slot = hash(high, low) & mask;
+		while (ipv6Ids[slot] != 0) {
+			if (ipv6High[slot] == high && ipv6Low[slot] == low) {
+				return ipv6Ids[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int id = addresses.size();
+		addresses.add(toInetAddress(high, low));
+		ipv6High[slot] = high;
+		ipv6Low[slot] = low;
+		ipv6Ids[slot] = id + 1;
+
+		// Keep the load factor at or below one half
+		if (++ipv6Count * 2 > ipv6Ids.length) {
+			rehashIPv6(ipv6Ids.length * 2);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the address that has the specified id.
+	 *
+	 * @param id
+	 *            The endpoint id.
+	 * @return The IP address.
+	 */
+	public InetAddress getAddress(int id) {
+		return addresses.get(id);
+	}
+
+	/**
+	 * Returns the number of distinct addresses. Valid ids are in the range 0
+	 * to size() - 1.
+	 *
+	 * @return The number of endpoints.
+	 */
+	public int size() {
+		return addresses.size();
+	}
+
+	/**
+	 * Writes the addresses to a trace cache.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(addresses.size());
+		for (InetAddress address : addresses) {
+			byte[] b = address.getAddress();
+			out.writeByte(b.length);
+			out.write(b);
+		}
+	}
+
+	/**
+	 * Reads the addresses from a trace cache. The addresses are assigned the
+	 * same ids they had when they were written.
+	 */
+	void read(ByteBuffer in) throws IOException {
+		int n = in.getInt();
+		for (int i = 0; i < n; ++i) {
+			byte[] b = new byte[in.get()];
+			in.get(b);
+			if (getId(InetAddress.getByAddress(b)) != i) {
+				throw new IOException("Duplicate endpoint in trace cache");
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		int[] keys = ipv4Keys;
+		int[] ids = ipv4Ids;
+		ipv4Keys = new int[capacity];
+		ipv4Ids = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < keys.length; ++i) {
+			if (ids[i] != 0) {
+				int slot = hash(keys[i]) & mask;
+				while (ipv4Ids[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				ipv4Keys[slot] = keys[i];
+				ipv4Ids[slot] = ids[i];
+			}
+		}
+	}
+
+	private void rehashIPv6(int capacity) {
+		long[] high = ipv6High;
+		long[] low = ipv6Low;
+		int[] ids = ipv6Ids;
+		ipv6High = new long[capacity];
+		ipv6Low = new long[capacity];
+		ipv6Ids = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < ids.length; ++i) {
+			if (ids[i] != 0) {
+				int slot = hash(high[i], low[i]) & mask;
+				while (ipv6Ids[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				ipv6High[slot] = high[i];
+				ipv6Low[slot] = low[i];
+				ipv6Ids[slot] = ids[i];
+			}
+		}
+	}
+
+	private static int hash(int address) {
+		int h = address * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(long high, long low) {
+		long h = (high * 0x9E3779B97F4A7C15L) ^ low;
+		return hash((int) (h ^ (h >>> 32)));
+	}
+
+	private static InetAddress toInetAddress(long high, long low) {
+		byte[] b = new byte[16];
+		ByteBuffer.wrap(b).putLong(high).putLong(low);
+		try {
+			return InetAddress.getByAddress(b);
+		} catch (UnknownHostException e) {
+
+			// Cannot happen for a 16 byte address
+			logger.warning("Unable to create IPv6 address: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static InetAddress toInetAddress(int address) {
+		byte[] b = new byte[] { (byte) (address >>> 24), (byte) (address >>> 16),
+				(byte) (address >>> 8), (byte) address };
+		try {
+			return InetAddress.getByAddress(b);
+		} catch (UnknownHostException e) {
+
+			// Cannot happen for a 4 byte address
+			logger.warning("Unable to create IPv4 address: " + e.getMessage());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decodes the date values of HTTP headers. The three formats allowed by HTTP
+ * are recognized by their shape:
+ * <ul>
+ * <li>RFC 1123: Sun, 06 Nov 1994 08:49:37 GMT</li>
+ * <li>RFC 1036: Sunday, 06-Nov-94 08:49:37 GMT</li>
+ * <li>ANSI C asctime(): Sun Nov 6 08:49:37 1994</li>
+ * </ul>
+ * The asctime format may also have a time zone before the year, as written
+ * by Date.toString, and is in GMT when it does not. The time is computed
+ * directly from the fields, so no DateFormat is shared and the class may be
+ * used by several threads at once. Recently decoded values are cached by the
+ * header text, because the same dates are repeated across the responses of a
+ * trace.
+ */
+final class HttpDate {
+
+	private static final Logger logger = Logger.getLogger(HttpDate.class
+			.getName());
+
+	private static final int CACHE_SIZE = 256;
+
+	// Cached time of a value that is not a valid date
+	private static final Long INVALID = Long.valueOf(Long.MIN_VALUE);
+
+	private static final String[] MONTHS = { "jan", "feb", "mar", "apr",
+			"may", "jun", "jul", "aug", "sep", "oct", "nov", "dec" };
+	private static final String[] MONTH_NAMES = { "january", "february",
+			"march", "april", "may", "june", "july", "august", "september",
+			"october", "november", "december" };
+	private static final String[] WEEKDAYS = { "mon", "tue", "wed", "thu",
+			"fri", "sat", "sun" };
+	private static final String[] WEEKDAY_NAMES = { "monday", "tuesday",
+			"wednesday", "thursday", "friday", "saturday", "sunday" };
+
+	// Zones that RFC 822 allows by name, with their offsets in minutes
+	private static final String[] ZONES = { "gmt", "ut", "utc", "z", "est",
+			"edt", "cst", "cdt", "mst", "mdt", "pst", "pdt" };
+	private static final int[] ZONE_OFFSETS = { 0, 0, 0, 0, -300, -240, -360,
+			-300, -420, -360, -480, -420 };
+
+	private static final Map<String, Long> cache = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Returns the date of the specified HTTP header value.
+	 *
+	 * @param value
+	 *            The header value.
+	 * @return The date, or null if the value is not a valid HTTP date.
+	 */
+	static Date parse(String value) {
+		if (value == null) {
+			return null;
+		}
+		Long time = cache.get(value);
+		if (time == null) {
+			time = new HttpDate(value.trim()).parse();
+			if (time == INVALID && logger.isLoggable(Level.FINE)) {
+				logger.fine("Unable to parse HTTP date: " + value);
+			}
+
+			// The cache is small, so it is simply started over when full
+			if (cache.size() >= CACHE_SIZE) {
+				cache.clear();
+			}
+			cache.put(value, time);
+		}
+		return time != INVALID ? new Date(time.longValue()) : null;
+	}
+
+	private String s;
+	private int pos;
+
+	// Offset in minutes of the zone of the value
+	private int zoneOffset;
+
+	private HttpDate(String s) {
+		this.s = s;
+	}
+
+	/**
+	 * Returns the time of the value in milliseconds, or INVALID.
+	 */
+	private Long parse() {
+		if (!isWeekday(word())) {
+			return INVALID;
+		}
+
+		int day;
+		int month;
+		int year;
+		int seconds;
+		if (skip(',')) {
+
+			// RFC 1123 or RFC 1036, which differ in the separators of the date
+			skipSpaces();
+			day = number(1, 2);
+			boolean rfc1036 = skip('-');
+			if (!rfc1036) {
+				skipSpaces();
+			}
+			month = month(word());
+			if (rfc1036 ? !skip('-') : !skipSpaces()) {
+				return INVALID;
+			}
+			year = year();
+			skipSpaces();
+			seconds = time();
+			skipSpaces();
+			if (!zone()) {
+				return INVALID;
+			}
+		} else {
+
+			// asctime, with an optional zone before the year
+			skipSpaces();
+			month = month(word());
+			skipSpaces();
+			day = number(1, 2);
+			skipSpaces();
+			seconds = time();
+			skipSpaces();
+			if (pos < s.length() && !Character.isDigit(s.charAt(pos))) {
+				if (!zone()) {
+					return INVALID;
+				}
+				skipSpaces();
+			}
+			year = year();
+		}
+		if (day < 1 || day > 31 || month < 0 || year < 0 || seconds < 0) {
+			return INVALID;
+		}
+
+		return Long.valueOf(toMillis(year, month, day, seconds) - zoneOffset
+				* 60000L);
+	}
+
+	/**
+	 * Reads a time zone into zoneOffset. Returns false if there is no known
+	 * zone at the current position. Zones other than GMT based ones and those
+	 * of RFC 822 are looked up by id and, like the standard time names they
+	 * usually are, taken to be in standard time.
+	 */
+	private boolean zone() {
+		if (pos < s.length() && (s.charAt(pos) == '+' || s.charAt(pos) == '-')) {
+			return offset();
+		}
+		int start = pos;
+		String name = word();
+		for (int i = 0; i < ZONES.length; ++i) {
+			if (ZONES[i].equalsIgnoreCase(name)) {
+				zoneOffset = ZONE_OFFSETS[i];
+				if (zoneOffset == 0 && pos < s.length()
+						&& (s.charAt(pos) == '+' || s.charAt(pos) == '-')) {
+
+					// GMT+hh:mm
+					return offset();
+				}
+				return true;
+			}
+		}
+
+		pos = start;
+		while (pos < s.length()
+				&& (Character.isLetter(s.charAt(pos)) || s.charAt(pos) == '/' || s
+						.charAt(pos) == '_')) {
+			++pos;
+		}
+		if (pos == start) {
+			return false;
+		}
+
+		// An unknown id is returned as GMT
+		TimeZone zone = TimeZone.getTimeZone(s.substring(start, pos));
+		zoneOffset = zone.getRawOffset() / 60000;
+		return !"GMT".equals(zone.getID());
+	}
+
+	/**
+	 * Reads a zone offset of the form +hhmm or +hh:mm into zoneOffset.
+	 */
+	private boolean offset() {
+		int sign = s.charAt(pos++) == '-' ? -1 : 1;
+		int hours = number(2, 2);
+		skip(':');
+		int minutes = number(2, 2);
+		zoneOffset = sign * (hours * 60 + minutes);
+		return hours >= 0 && minutes >= 0 && minutes < 60;
+	}
+
+	/**
+	 * Reads a time of the form hh:mm:ss, and returns the seconds of the day or
+	 * -1.
+	 */
+	private int time() {
+		int hours = number(1, 2);
+		if (!skip(':')) {
+			return -1;
+		}
+		int minutes = number(2, 2);
+		if (!skip(':')) {
+			return -1;
+		}
+		int seconds = number(2, 2);
+		if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59
+				|| seconds < 0 || seconds > 60) {
+			return -1;
+		}
+		return (hours * 60 + minutes) * 60 + seconds;
+	}
+
+	/**
+	 * Reads a year of 2 or 4 digits. Years of 2 digits are taken to be within
+	 * 80 years before and 20 years after the current year, as SimpleDateFormat
+	 * does.
+	 */
+	private int year() {
+		int start = pos;
+		int year = number(2, 4);
+		if (year >= 0 && pos - start == 2) {
+			int base = Calendar.getInstance().get(Calendar.YEAR) - 80;
+			year += base - base % 100;
+			if (year < base) {
+				year += 100;
+			}
+		} else if (pos - start != 4) {
+			return -1;
+		}
+		return year;
+	}
+
+	/**
+	 * Reads a number of the specified range of digits, or returns -1.
+	 */
+	private int number(int minDigits, int maxDigits) {
+		int start = pos;
+		int result = 0;
+		while (pos < s.length() && pos - start < maxDigits
+				&& s.charAt(pos) >= '0' && s.charAt(pos) <= '9') {
+			result = result * 10 + s.charAt(pos++) - '0';
+		}
+		return pos - start >= minDigits ? result : -1;
+	}
+
+	/**
+	 * Reads a run of ASCII letters, which may be empty.
+	 */
+	private String word() {
+		int start = pos;
+		while (pos < s.length()
+				&& ((s.charAt(pos) >= 'a' && s.charAt(pos) <= 'z') || (s
+						.charAt(pos) >= 'A' && s.charAt(pos) <= 'Z'))) {
+			++pos;
+		}
+		return s.substring(start, pos);
+	}
+
+	private boolean skip(char c) {
+		if (pos < s.length() && s.charAt(pos) == c) {
+			++pos;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean skipSpaces() {
+		int start = pos;
+		while (pos < s.length() && s.charAt(pos) == ' ') {
+			++pos;
+		}
+		return pos > start;
+	}
+
+	private static boolean isWeekday(String word) {
+		return indexOf(WEEKDAYS, word) >= 0
+				|| indexOf(WEEKDAY_NAMES, word) >= 0;
+	}
+
+	/**
+	 * Returns the month of the specified name, from 1 to 12, or -1.
+	 */
+	private static int month(String word) {
+		int month = indexOf(MONTHS, word);
+		if (month < 0) {
+			month = indexOf(MONTH_NAMES, word);
+		}
+		return month >= 0 ? month + 1 : -1;
+	}
+
+	private static int indexOf(String[] names, String word) {
+		for (int i = 0; i < names.length; ++i) {
+			if (names[i].equalsIgnoreCase(word)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the milliseconds since the epoch of the specified date and time
+	 * in GMT. Days past the end of the month roll over into the next month.
+	 */
+	private static long toMillis(int year, int month, int day, int seconds) {
+
+		// Days since the epoch of a proleptic Gregorian date, counting years
+		// from March so that the leap day is the last day of the year
+		long y = month <= 2 ? year - 1 : year;
+		long era = y / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+				+ day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		long days = era * 146097 + dayOfEra - 719468;
+		return (days * 86400 + seconds) * 1000;
+	}
+}
@@ -20,14 +20,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -36,8 +41,9 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
-import com.att.aro.pcap.TCPPacket;
 
 /**
  * Encapsulates information about an HTTP request or response. Converted from
@@ -72,6 +78,8 @@ public class HttpRequestResponseInfo implements
 	public static final String HTTP_POST = "POST";
 
 	private static final String GZIP = "gzip";
+	private static final String X_GZIP = "x-gzip";
+	private static final String DEFLATE = "deflate";
 
 	private static final Logger logger = Logger
 			.getLogger(HttpRequestResponseInfo.class.getName());
@@ -107,6 +115,7 @@ public class HttpRequestResponseInfo implements
 
 	// packets
 	private PacketInfo firstDataPacket;
+	private PacketInfo lastDataPacket;
 	private List<PacketInfo> packets;
 
 	// Cache info
@@ -131,6 +140,7 @@ public class HttpRequestResponseInfo implements
 	private Long maxStale;
 
 	private HttpRequestResponseInfo assocReqResp;
+	private List<HttpRequestResponseInfo> interimResponses;
 
 	/**
 	 * The HttpRequestResponseInfo.Direction Enumeration specifies constant values that 
@@ -150,29 +160,10 @@ public class HttpRequestResponseInfo implements
 	}
 
 	/**
-	 * This is a synchronized request/response builder class
+	 * Builds the requests/responses of one TCP session
 	 */
 	private static class RequestResponseBuilder {
 
-		/**
-		 * Date format pattern used to parse HTTP date headers in RFC 1123
-		 * format.
-		 */
-		private static final String PATTERN_RFC1123 = "EEE, dd MMM yyyy HH:mm:ss zzz";
-
-		/**
-		 * Date format pattern used to parse HTTP date headers in RFC 1036
-		 * format.
-		 */
-		private static final String PATTERN_RFC1036 = "EEEE, dd-MMM-yy HH:mm:ss zzz";
-
-		/**
-		 * Date format pattern used to parse HTTP date headers in ANSI C
-		 * <code>asctime()</code> format.
-		 */
-		private static final String PATTERN_ASCTIME = "EEE MMM d HH:mm:ss yyyy";
-		private static final String PATTERN_ASCTIME2 = "EEE MMM d HH:mm:ss zzz yyyy";
-
 		private static final String CHARSET = "charset";
 		private static final String CHUNKED = "chunked";
 		private static final String NOCACHE = "no-cache";
@@ -185,59 +176,48 @@ public class HttpRequestResponseInfo implements
 
 		private static Pattern strReRequestType = Pattern
 				.compile("(\\S*)\\s* \\s*(\\S*)\\s* \\s*(HTTP/1\\.[0|1]|RTSP/1\\.[0|1])");
-		private static Pattern strReRequestHost = Pattern.compile("[H|h]ost:");
-		private static Pattern strReResponseContentLength = Pattern
-				.compile("[C|c]ontent-[L|l]ength:");
-		private static Pattern strReTransferEncoding = Pattern
-				.compile("[T|t]ransfer-[E|e]ncoding:");
-		private static Pattern strReResponseContentType = Pattern
-				.compile("[C|c]ontent-[T|t]ype:");
-		private static Pattern strReResponseContentEncoding = Pattern
-				.compile("[C|c]ontent-[E|e]ncoding:");
 		private static Pattern strReResponseResults = Pattern
 				.compile("(HTTP/1\\.[0|1]|RTSP/1\\.[0|1])\\s* \\s*(\\d*)\\s* \\s*(.*)");
-		private static Pattern strReResponseEtag = Pattern
-				.compile("ETag\\s*:\\s*(W/)?\"(.*)\"");
-		private static Pattern strReResponseAge = Pattern
-				.compile("Age\\s*:\\s*(\\d*)");
-		private static Pattern strReResponseExpires = Pattern
-				.compile("Expires\\s*:(.*)");
-		private static Pattern strReResponseReferer = Pattern
-				.compile("Referer\\s*:(.*)");
-		private static Pattern strReResponseLastMod = Pattern
-				.compile("Last-Modified\\s*:(.*)");
-		private static Pattern strReResponseDate = Pattern
-				.compile("Date\\s*:(.*)");
-		private static Pattern strReResponsePragmaNoCache = Pattern
-				.compile("Pragma\\s*:\\s*no-cache");
-		private static Pattern strReResponseCacheControl = Pattern
-				.compile("Cache-Control\\s*:(.*)");
-		private static Pattern strReCacheMaxAge = Pattern
-				.compile("max-age\\s*=\\s*(\\d*)");
-		private static Pattern strReCacheSMaxAge = Pattern
-				.compile("s-maxage\\s*=\\s*(\\d*)");
-		private static Pattern strReCacheMinFresh = Pattern
-				.compile("min-fresh\\s*=\\s*(\\d*)");
-		private static Pattern strReCacheMaxStale = Pattern
-				.compile("max-stale\\s*(?:=\\s*(\\d*))?");
-		private static Pattern strReContentRange = Pattern
-				.compile("Content-Range\\s*:\\s*bytes (\\d*)\\s*-\\s*(\\d*)\\s*/\\s*(\\d*)");
-		private static Pattern strReIfModifiedSince = Pattern
-				.compile("If-Modified-Since\\s*:");
-		private static Pattern strReIfNoneMatch = Pattern
-				.compile("If-None-Match\\s*:");
+
+		private static final byte[] CRLF = { '\r', '\n' };
+		private static final byte[] HTTP_VERSION = ascii("HTTP/1.");
+		private static final byte[] RTSP_VERSION = ascii("RTSP/1.");
+
+		// Names of the headers that are parsed, in lower case
+		private static final byte[] HOST = ascii("host");
+		private static final byte[] CONTENT_LENGTH = ascii("content-length");
+		private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding");
+		private static final byte[] CONTENT_ENCODING = ascii("content-encoding");
+		private static final byte[] CONTENT_TYPE = ascii("content-type");
+		private static final byte[] DATE = ascii("date");
+		private static final byte[] PRAGMA = ascii("pragma");
+		private static final byte[] CACHE_CONTROL = ascii("cache-control");
+		private static final byte[] ETAG = ascii("etag");
+		private static final byte[] AGE = ascii("age");
+		private static final byte[] EXPIRES = ascii("expires");
+		private static final byte[] LAST_MODIFIED = ascii("last-modified");
+		private static final byte[] CONTENT_RANGE = ascii("content-range");
+		private static final byte[] REFERER = ascii("referer");
+		private static final byte[] IF_MODIFIED_SINCE = ascii("if-modified-since");
+		private static final byte[] IF_NONE_MATCH = ascii("if-none-match");
+		private static final byte[] NOCACHE_BYTES = ascii(NOCACHE);
+
+		private static final String MAXAGE = "max-age";
+		private static final String SMAXAGE = "s-maxage";
+		private static final String MINFRESH = "min-fresh";
+		private static final String MAXSTALE = "max-stale";
+		private static final String BYTES = "bytes ";
+		private static final String WEAK = "W/";
 
 		private TCPSession session;
 		private ArrayList<HttpRequestResponseInfo> result = new ArrayList<HttpRequestResponseInfo>();
 		private int counter;
-		private byte[] input;
+		private SegmentStream input;
+
+		// The current line, left in place in the input
+		private int lineStart;
+		private int lineEnd;
 
-		private DateFormat rfc1123 = new SimpleDateFormat(PATTERN_RFC1123);
-		private DateFormat rfc1036 = new SimpleDateFormat(PATTERN_RFC1036);
-		private DateFormat asctime = new SimpleDateFormat(PATTERN_ASCTIME);
-		private DateFormat asctime2 = new SimpleDateFormat(PATTERN_ASCTIME2);
-		private DateFormat[] dateFormats = { rfc1123, rfc1036, asctime,
-				asctime2 };
 
 		public RequestResponseBuilder(TCPSession session) throws IOException {
 			this.session = session;
@@ -246,16 +226,28 @@ public class HttpRequestResponseInfo implements
 			Collections.sort(result);
 			result.trimToSize();
 
-			// Associate requests/responses
-			List<HttpRequestResponseInfo> reqs = new ArrayList<HttpRequestResponseInfo>(
-					result.size());
+			// Associate requests/responses. Pipelined requests are answered
+			// in the order they were sent, and any interim 1xx responses come
+			// before the final response to the oldest pending request. A
+			// response when no request is pending answers a request that was
+			// not captured, and is left unassociated.
+			Deque<HttpRequestResponseInfo> pending = new ArrayDeque<HttpRequestResponseInfo>();
 			for (HttpRequestResponseInfo rr : result) {
 				if (rr.direction == Direction.REQUEST) {
-					reqs.add(rr);
-				} else if (rr.direction == Direction.RESPONSE) {
-					if (!reqs.isEmpty()) {
-						rr.assocReqResp = reqs.remove(0);
-						rr.assocReqResp.assocReqResp = rr;
+					pending.addLast(rr);
+				} else if (rr.direction == Direction.RESPONSE
+						&& !pending.isEmpty()) {
+					HttpRequestResponseInfo req = pending.peekFirst();
+					rr.assocReqResp = req;
+					if (rr.isInterim()) {
+						if (req.interimResponses == null) {
+							req.interimResponses = new ArrayList<HttpRequestResponseInfo>(
+									1);
+						}
+						req.interimResponses.add(rr);
+					} else {
+						pending.removeFirst();
+						req.assocReqResp = rr;
 					}
 				}
 			}
@@ -280,17 +272,17 @@ public class HttpRequestResponseInfo implements
 		 * 
 		 * @return A List of HttpRequestResponseInfo objects that contain the request/response data from a TCP session.
 		 */
-		public synchronized void extractHttpRequestResponseInfo(
+		public void extractHttpRequestResponseInfo(
 				PacketInfo.Direction direction) throws IOException {
 
 			SortedMap<Integer, PacketInfo> packetOffsets;
 			switch (direction) {
 			case DOWNLINK:
-				this.input = session.getStorageDl();
+				this.input = session.getStreamDl();
 				packetOffsets = session.getPacketOffsetsDl();
 				break;
 			case UPLINK:
-				this.input = session.getStorageUl();
+				this.input = session.getStreamUl();
 				packetOffsets = session.getPacketOffsetsUl();
 				break;
 			default:
@@ -302,51 +294,49 @@ public class HttpRequestResponseInfo implements
 			HttpRequestResponseInfo rrInfo = findNextRequestResponse(direction,
 					packetOffsets);
 
-			String line;
-			while ((line = readLine()) != null && rrInfo != null) {
+			while (rrInfo != null && nextLine()) {
 
-				if (line.length() == 0) {
+				if (lineEnd == lineStart) {
 					if (rrInfo.contentLength > 0) {
 						rrInfo.contentOffsetLength = new TreeMap<Integer, Integer>();
 						rrInfo.contentOffsetLength.put(counter,
 								rrInfo.contentLength);
 
 						// Skip content
-						counter = Math.min(input.length, counter
+						counter = Math.min(input.length(), counter
 								+ rrInfo.contentLength);
 					} else if (rrInfo.chunked) {
 						rrInfo.contentOffsetLength = new TreeMap<Integer, Integer>();
 						while (true) {
 
 							// Read each chunk
-							line = readLine();
-							if (line != null) {
-								String[] s = line.split(";");
-								int size = Integer.parseInt(s[0].trim(), 16);
-								if (size > 0) {
+							if (nextLine()) {
+								int size = parseChunkSize();
+								if (size < 0) {
+									logger.warning("Invalid chunk size: "
+											+ decode(lineStart, lineEnd));
+									break;
+								} else if (size > 0) {
 
 									// Save content offsets
 									rrInfo.contentOffsetLength.put(counter,
 											size);
 									rrInfo.contentLength += size;
-									for (int i = 0; i < size; ++i) {
-										readInput();
-									}
+									counter = Math.min(input.length(),
+											counter + size);
 
 									// CRLF at end of each chunk
-									line = readLine();
-									if (line != null && line.length() > 0) {
+									if (nextLine() && lineEnd > lineStart) {
 										logger.warning("Unexpected end of chunk: "
-												+ line);
+												+ decode(lineStart, lineEnd));
 									}
 								} else {
 									rrInfo.chunkModeFinished = true;
 
 									// End of chunks
-									line = readLine();
-									if (line != null && line.length() > 0) {
+									if (nextLine() && lineEnd > lineStart) {
 										logger.warning("Unexpected end of chunked data: "
-												+ line);
+												+ decode(lineStart, lineEnd));
 									}
 									break;
 								}
@@ -365,7 +355,7 @@ public class HttpRequestResponseInfo implements
 					}
 					rrInfo = findNextRequestResponse(direction, packetOffsets);
 				} else {
-					parseLine(line, rrInfo);
+					parseHeader(rrInfo);
 				}
 			}
 		}
@@ -394,17 +384,15 @@ public class HttpRequestResponseInfo implements
 
 			PacketInfo lastDataPacket = determineDataPacketAtIndex(
 					packetOffsets, counter - 1);
+			rrInfo.lastDataPacket = lastDataPacket;
 
-			long startSeq = ((TCPPacket) rrInfo.firstDataPacket.getPacket())
-					.getSequenceNumber();
-			long endSeq = ((TCPPacket) lastDataPacket.getPacket())
-					.getSequenceNumber();
+			long startSeq = rrInfo.firstDataPacket.getSequenceNumber();
+			long endSeq = lastDataPacket.getSequenceNumber();
 			ArrayList<PacketInfo> rrPackets = new ArrayList<PacketInfo>();
 			for (PacketInfo p : session.getPackets()) {
 				if (p.getDir() == direction) {
-					TCPPacket tcp = (TCPPacket) p.getPacket();
-					if (tcp.getSequenceNumber() >= startSeq
-							&& tcp.getSequenceNumber() <= endSeq
+					if (p.getSequenceNumber() >= startSeq
+							&& p.getSequenceNumber() <= endSeq
 									+ lastDataPacket.getPayloadLen()) {
 						rrPackets.add(p);
 						p.setRequestResponseInfo(rrInfo);
@@ -426,57 +414,51 @@ public class HttpRequestResponseInfo implements
 		private PacketInfo determineDataPacketAtIndex(
 				SortedMap<Integer, PacketInfo> packetOffsets, int index) {
 
-			// Determine the packets that make up the request/response
-			for (SortedMap.Entry<Integer, PacketInfo> entry : packetOffsets
-					.entrySet()) {
-				int packetOffset = entry.getKey().intValue();
-				if (index >= packetOffset
-						&& index < packetOffset
-								+ entry.getValue().getPayloadLen()) {
-					return entry.getValue();
+			// The packet at the index is the last one that starts at or
+			// before it. A packet whose payload was trimmed is followed
+			// directly by the next packet, so it is never found for an index
+			// past its data.
+			SortedMap<Integer, PacketInfo> head = packetOffsets
+					.headMap(index + 1);
+			if (!head.isEmpty()) {
+				int packetOffset = head.lastKey().intValue();
+				PacketInfo packet = head.get(packetOffset);
+				if (index < packetOffset + packet.getPayloadLen()) {
+					return packet;
 				}
 			}
 			return null;
 		}
 
 		/**
-		 * Read a line of text from the HTTP request/response stream
+		 * Finds the next line of the HTTP request/response stream. The line
+		 * ends at the next CRLF or at the end of the stream, and is left in
+		 * place in the stream from lineStart up to lineEnd.
 		 * 
-		 * @param input
-		 *            the request/response stream
-		 * @return Next line of text in stream or null if end of stream reached
-		 * @throws IOException
+		 * @return false if the end of the stream has been reached.
 		 */
-		private synchronized String readLine() throws IOException {
-			ByteArrayOutputStream output = new ByteArrayOutputStream();
-			int b;
-			try {
-
-				// Look for CRLF
-				while ((b = readInput()) != -1) {
-					switch (b) {
-					case '\r':
-						b = readInput();
-						if (b == '\n') {
-
-							// Return found line of text
-							return new String(output.toByteArray(), "UTF-8");
-						} else {
-							output.write('\r');
-							output.write(b);
-						}
-						break;
-					default:
-						output.write(b);
-					}
-				}
-
-				// End of stream
-				return output.size() > 0 ? new String(output.toByteArray(),
-						"UTF-8") : null;
-			} finally {
-				output.close();
+		private boolean nextLine() {
+			int length = input.length();
+			if (counter >= length) {
+				return false;
+			}
+			lineStart = counter;
+			int crlf = input.indexOf(CRLF, counter, length);
+			if (crlf >= 0) {
+				lineEnd = crlf;
+				counter = crlf + CRLF.length;
+			} else {
+				lineEnd = length;
+				counter = length;
 			}
+			return true;
+		}
+
+		/**
+		 * Decodes the specified bytes of the input as UTF-8 text.
+		 */
+		private String decode(int start, int end) throws IOException {
+			return new String(input.toByteArray(start, end - start), "UTF-8");
 		}
 
 		/**
@@ -490,51 +472,33 @@ public class HttpRequestResponseInfo implements
 		 * @return next HttpRequestResponseInfo object.
 		 * @throws IOException
 		 */
-		private synchronized HttpRequestResponseInfo findNextRequestResponse(
+		private HttpRequestResponseInfo findNextRequestResponse(
 				PacketInfo.Direction direction,
 				SortedMap<Integer, PacketInfo> packetOffsets)
 				throws IOException {
 			int index = counter;
-			String line = readLine();
-			while (line != null && line.length() == 0) {
+			boolean found = nextLine();
+			while (found && lineEnd == lineStart) {
 				index = counter;
-				line = readLine();
+				found = nextLine();
 			}
 
 			HttpRequestResponseInfo rrInfo = null;
-			if (line != null) {
-				Matcher matcher;
+			if (found) {
 				rrInfo = new HttpRequestResponseInfo(session, direction);
 				rrInfo.rrStart = index;
 
-				// Check for request type
-				matcher = strReRequestType.matcher(line);
-				if (matcher.lookingAt()) {
-					rrInfo.requestType = matcher.group(1);
-					rrInfo.direction = Direction.REQUEST;
-					rrInfo.objName = matcher.group(2);
-					try {
-						rrInfo.objUri = new URI(rrInfo.objName);
-						rrInfo.hostName = rrInfo.objUri.getHost();
-					} catch (URISyntaxException e) {
-						// Ignore since value does not have to be a URI
-					}
-					rrInfo.version = matcher.group(3);
-				}
-
-				// Get response
-				matcher = strReResponseResults.matcher(line);
-				if (matcher.lookingAt()) {
-					rrInfo.direction = Direction.RESPONSE;
-					rrInfo.version = matcher.group(1);
-					rrInfo.statusCode = Integer.parseInt(matcher.group(2));
-					rrInfo.responseResult = matcher.group(3);
+				// Only a line that holds a protocol version is decoded and
+				// matched as a request or status line
+				if (input.indexOf(HTTP_VERSION, lineStart, lineEnd) >= 0
+						|| input.indexOf(RTSP_VERSION, lineStart, lineEnd) >= 0) {
+					parseFirstLine(decode(lineStart, lineEnd), rrInfo);
 				}
 
 				if (rrInfo.direction == null) {
 
 					// Assume HTTPS encrypted here
-					while ((line = readLine()) != null && line.length() > 0);
+					while (nextLine() && lineEnd > lineStart);
 					rrInfo.rawSize = counter - index;
 					switch (direction) {
 					case UPLINK:
@@ -559,262 +523,361 @@ public class HttpRequestResponseInfo implements
 		}
 
 		/**
-		 * Parse data from the line of text
-		 * 
-		 * @param line
-		 * @param rrInfo
+		 * Parses a request or status line, setting the direction of the
+		 * request/response when the line is one.
 		 */
-		private synchronized void parseLine(String line,
-				HttpRequestResponseInfo rrInfo) {
+		private void parseFirstLine(String line, HttpRequestResponseInfo rrInfo) {
 			Matcher matcher;
-			String[] s;
 
-			// Get request host
-			matcher = strReRequestHost.matcher(line);
+			// Check for request type
+			matcher = strReRequestType.matcher(line);
 			if (matcher.lookingAt()) {
-				rrInfo.hostName = line.substring(matcher.end()).trim();
-				return;
-			}
-
-			// Get request content length
-			matcher = strReResponseContentLength.matcher(line);
-			if (matcher.lookingAt() && rrInfo.contentLength == 0) {
-				rrInfo.contentLength = Integer.parseInt(line.substring(
-						matcher.end()).trim());
-				return;
+				rrInfo.requestType = matcher.group(1);
+				rrInfo.direction = Direction.REQUEST;
+				rrInfo.objName = matcher.group(2);
+				try {
+					rrInfo.objUri = new URI(rrInfo.objName);
+					rrInfo.hostName = rrInfo.objUri.getHost();
+				} catch (URISyntaxException e) {
+					// Ignore since value does not have to be a URI
+				}
+				rrInfo.version = matcher.group(3);
 			}
 
-			// Get request transfer encoding
-			matcher = strReTransferEncoding.matcher(line);
+			// Get response
+			matcher = strReResponseResults.matcher(line);
 			if (matcher.lookingAt()) {
-				rrInfo.chunked = CHUNKED.equals(line.substring(matcher.end())
-						.trim());
-				return;
+				rrInfo.direction = Direction.RESPONSE;
+				rrInfo.version = matcher.group(1);
+				rrInfo.statusCode = Integer.parseInt(matcher.group(2));
+				rrInfo.responseResult = matcher.group(3);
 			}
+		}
 
-			// Get request transfer encoding
-			matcher = strReResponseContentEncoding.matcher(line);
-			if (matcher.lookingAt()) {
-				rrInfo.contentEncoding = line.substring(matcher.end()).trim();
+		/**
+		 * Parses the header on the current line. The header name is matched
+		 * in place without case, and only the values of the headers the model
+		 * keeps are decoded.
+		 * 
+		 * @param rrInfo
+		 *            The request/response the header belongs to.
+		 * @throws IOException
+		 */
+		private void parseHeader(HttpRequestResponseInfo rrInfo)
+				throws IOException {
+			int colon = indexOf(':', lineStart, lineEnd);
+			if (colon < 0) {
 				return;
 			}
+			int nameEnd = trimEnd(lineStart, colon);
+			int start = trimStart(colon + 1, lineEnd);
+			int end = trimEnd(start, lineEnd);
+
+			if (nameEquals(HOST, nameEnd)) {
+				rrInfo.hostName = decode(start, end);
+			} else if (nameEquals(CONTENT_LENGTH, nameEnd)) {
+				if (rrInfo.contentLength == 0) {
+					long length = parseDecimal(start, end);
+					if (length >= 0 && length <= Integer.MAX_VALUE) {
+						rrInfo.contentLength = (int) length;
+					} else {
+						logger.warning("Invalid content length: "
+								+ decode(start, end));
+					}
+				}
+			} else if (nameEquals(TRANSFER_ENCODING, nameEnd)) {
 
-			// Get content type
-			matcher = strReResponseContentType.matcher(line);
-			if (matcher.lookingAt()) {
-				s = line.substring(matcher.end()).trim().split(";");
-				rrInfo.contentType = s[0].trim();
-				for (int i = 1; i < s.length; ++i) {
-					int index = s[i].indexOf("=");
-					if (index >= 0) {
-						String attr = s[i].substring(0, index - 1).trim();
-						if (CHARSET.equals(attr)) {
-							rrInfo.charset = s[i].substring(index).trim();
-						}
+				// Chunked is the last of the transfer codings when present
+				String[] codings = decode(start, end).split(",");
+				rrInfo.chunked = CHUNKED.equalsIgnoreCase(codings[codings.length - 1]
+						.trim());
+			} else if (nameEquals(CONTENT_ENCODING, nameEnd)) {
+				rrInfo.contentEncoding = decode(start, end);
+			} else if (nameEquals(CONTENT_TYPE, nameEnd)) {
+				parseContentType(decode(start, end), rrInfo);
+			} else if (nameEquals(DATE, nameEnd)) {
+				rrInfo.date = HttpDate.parse(decode(start, end));
+			} else if (nameEquals(PRAGMA, nameEnd)) {
+				if (startsWith(NOCACHE_BYTES, start, end)) {
+					rrInfo.hasCacheHeaders = true;
+					rrInfo.pragmaNoCache = true;
+				}
+			} else if (nameEquals(CACHE_CONTROL, nameEnd)) {
+				parseCacheControl(decode(start, end), rrInfo);
+			} else if (rrInfo.direction == Direction.RESPONSE) {
+				if (nameEquals(ETAG, nameEnd)) {
+					String value = decode(start, end);
+					if (value.startsWith(WEAK)) {
+						value = value.substring(WEAK.length());
 					}
+					int last = value.lastIndexOf('"');
+					if (value.startsWith("\"") && last > 0) {
+						rrInfo.etag = value.substring(1, last);
+					}
+				} else if (nameEquals(AGE, nameEnd)) {
+					long age = parseDecimal(start, end);
+					if (age >= 0) {
+						rrInfo.age = age;
+					}
+				} else if (nameEquals(EXPIRES, nameEnd)) {
+					rrInfo.expires = HttpDate.parse(decode(start, end));
+				} else if (nameEquals(LAST_MODIFIED, nameEnd)) {
+					rrInfo.lastModified = HttpDate.parse(decode(start, end));
+				} else if (nameEquals(CONTENT_RANGE, nameEnd)) {
+					parseContentRange(decode(start, end), rrInfo);
+				}
+			} else if (rrInfo.direction == Direction.REQUEST) {
+				if (nameEquals(REFERER, nameEnd)) {
+					String value = decode(start, end);
+					try {
+						rrInfo.referrer = new URI(value);
+					} catch (URISyntaxException e) {
+						logger.warning("Invalid referrer URI: " + value);
+					}
+				} else if (nameEquals(IF_MODIFIED_SINCE, nameEnd)) {
+					rrInfo.ifModifiedSince = true;
+				} else if (nameEquals(IF_NONE_MATCH, nameEnd)) {
+					rrInfo.ifNoneMatch = true;
 				}
-				return;
 			}
+		}
 
-			// Date
-			matcher = strReResponseDate.matcher(line);
-			if (matcher.lookingAt()) {
-				rrInfo.date = readHttpDate(matcher.group(1));
-				return;
+		/**
+		 * Parses the media type and the charset parameter of a Content-Type
+		 * header value. A charset that is not supported is ignored.
+		 */
+		private static void parseContentType(String value,
+				HttpRequestResponseInfo rrInfo) {
+			String[] s = value.split(";");
+			rrInfo.contentType = s[0].trim();
+			for (int i = 1; i < s.length; ++i) {
+				int index = s[i].indexOf('=');
+				if (index >= 0
+						&& CHARSET.equalsIgnoreCase(s[i].substring(0, index)
+								.trim())) {
+					String charset = unquote(s[i].substring(index + 1).trim());
+					try {
+						if (Charset.isSupported(charset)) {
+							rrInfo.charset = charset;
+						}
+					} catch (IllegalCharsetNameException e) {
+						logger.warning("Invalid charset: " + charset);
+					}
+				}
 			}
+		}
 
-			// Pragma: no-cache
-			matcher = strReResponsePragmaNoCache.matcher(line);
-			if (matcher.lookingAt()) {
+		/**
+		 * Parses the directives of a Cache-Control header value.
+		 */
+		private static void parseCacheControl(String value,
+				HttpRequestResponseInfo rrInfo) {
+			String[] s = value.split(",");
+			if (s.length > 0) {
 				rrInfo.hasCacheHeaders = true;
-				rrInfo.pragmaNoCache = true;
-				return;
 			}
-
-			// Cache-Control
-			matcher = strReResponseCacheControl.matcher(line);
-			if (matcher.lookingAt()) {
-				s = matcher.group(1).split(",");
-				if (s.length > 0) {
-					rrInfo.hasCacheHeaders = true;
+			for (int i = 0; i < s.length; ++i) {
+				String directive = s[i].trim();
+				String argument = null;
+				int index = directive.indexOf('=');
+				if (index >= 0) {
+					argument = unquote(directive.substring(index + 1).trim());
+					directive = directive.substring(0, index).trim();
 				}
-				for (int i = 0; i < s.length; ++i) {
-					String directive = s[i].trim();
-					if (NOCACHE.equals(directive)) {
-						rrInfo.noCache = true;
-						continue;
-					} else if (NOSTORE.equals(directive)) {
-						rrInfo.noStore = true;
-						continue;
-					}
 
-					// max-age
-					matcher = strReCacheMaxAge.matcher(line);
-					if (matcher.lookingAt()) {
-						rrInfo.maxAge = Long.valueOf(matcher.group(1));
-						continue;
+				if (NOCACHE.equalsIgnoreCase(directive)) {
+					rrInfo.noCache = true;
+				} else if (NOSTORE.equalsIgnoreCase(directive)) {
+					rrInfo.noStore = true;
+				} else if (MAXAGE.equalsIgnoreCase(directive)) {
+					rrInfo.maxAge = parseSeconds(argument);
+				} else if (rrInfo.direction == Direction.REQUEST) {
+					if (ONLYIFCACHED.equalsIgnoreCase(directive)) {
+						rrInfo.onlyIfCached = true;
+					} else if (MINFRESH.equalsIgnoreCase(directive)) {
+						rrInfo.minFresh = parseSeconds(argument);
+					} else if (MAXSTALE.equalsIgnoreCase(directive)) {
+						rrInfo.maxStale = argument != null ? parseSeconds(argument)
+								: Long.valueOf(Long.MAX_VALUE);
 					}
-
-					if (rrInfo.direction == Direction.REQUEST) {
-						if (ONLYIFCACHED.equals(directive)) {
-							rrInfo.onlyIfCached = true;
-							continue;
-						}
-
-						// min-fresh
-						matcher = strReCacheMinFresh.matcher(line);
-						if (matcher.lookingAt()) {
-							rrInfo.minFresh = Long.valueOf(matcher.group(1));
-							continue;
-						}
-
-						// max-stale
-						matcher = strReCacheMaxStale.matcher(line);
-						if (matcher.lookingAt()) {
-							rrInfo.maxStale = matcher.group(1) != null ? Long
-									.valueOf(matcher.group(1)) : Long.MAX_VALUE;
-							continue;
-						}
-
-					} else if (rrInfo.direction == Direction.RESPONSE) {
-						if (PUBLIC.equals(directive)) {
-							rrInfo.publicCache = true;
-							continue;
-						} else if (PRIVATE.equals(directive)) {
-							rrInfo.privateCache = true;
-							continue;
-						} else if (MUSTREVALIDATE.equals(directive)) {
-							rrInfo.mustRevalidate = true;
-							continue;
-						} else if (PROXYREVALIDATE.equals(directive)) {
-							rrInfo.proxyRevalidate = true;
-							continue;
-						}
-
-						// s-maxage
-						matcher = strReCacheSMaxAge.matcher(line);
-						if (matcher.lookingAt()) {
-							rrInfo.sMaxAge = Long.valueOf(matcher.group(1));
-							continue;
-						}
-
+				} else if (rrInfo.direction == Direction.RESPONSE) {
+					if (PUBLIC.equalsIgnoreCase(directive)) {
+						rrInfo.publicCache = true;
+					} else if (PRIVATE.equalsIgnoreCase(directive)) {
+						rrInfo.privateCache = true;
+					} else if (MUSTREVALIDATE.equalsIgnoreCase(directive)) {
+						rrInfo.mustRevalidate = true;
+					} else if (PROXYREVALIDATE.equalsIgnoreCase(directive)) {
+						rrInfo.proxyRevalidate = true;
+					} else if (SMAXAGE.equalsIgnoreCase(directive)) {
+						rrInfo.sMaxAge = parseSeconds(argument);
 					}
 				}
-				return;
 			}
+		}
 
-			if (rrInfo.direction == Direction.RESPONSE) {
-
-				// ETag
-				matcher = strReResponseEtag.matcher(line);
-				if (matcher.lookingAt()) {
-					rrInfo.etag = matcher.group(2);
-					return;
+		/**
+		 * Parses a Content-Range header value of the form
+		 * "bytes first-last/full". A full length of "*" is left as 0.
+		 */
+		private static void parseContentRange(String value,
+				HttpRequestResponseInfo rrInfo) {
+			int dash = value.indexOf('-');
+			int slash = value.indexOf('/', dash + 1);
+			if (!value.regionMatches(true, 0, BYTES, 0, BYTES.length())
+					|| dash < BYTES.length() || slash < 0) {
+				return;
+			}
+			try {
+				int first = Integer.parseInt(value.substring(BYTES.length(),
+						dash).trim());
+				int last = Integer.parseInt(value.substring(dash + 1, slash)
+						.trim());
+				String full = value.substring(slash + 1).trim();
+				rrInfo.rangeFull = "*".equals(full) ? 0 : Long.parseLong(full);
+				rrInfo.rangeResponse = true;
+				rrInfo.rangeFirst = first;
+				rrInfo.rangeLast = last;
+				if (rrInfo.contentLength == 0) {
+					rrInfo.contentLength = rrInfo.rangeLast
+							- rrInfo.rangeFirst + 1;
 				}
+			} catch (NumberFormatException e) {
+				logger.warning("Invalid content range: " + value);
+			}
+		}
 
-				// Age
-				matcher = strReResponseAge.matcher(line);
-				if (matcher.lookingAt()) {
-					rrInfo.age = Long.valueOf(matcher.group(1));
-					return;
-				}
+		/**
+		 * Parses a number of seconds, returning null when the value is not a
+		 * number.
+		 */
+		private static Long parseSeconds(String value) {
+			try {
+				return value != null ? Long.valueOf(value) : null;
+			} catch (NumberFormatException e) {
+				logger.warning("Invalid number of seconds: " + value);
+				return null;
+			}
+		}
 
-				// Expires
-				matcher = strReResponseExpires.matcher(line);
-				if (matcher.lookingAt()) {
-					rrInfo.expires = readHttpDate(matcher.group(1));
-					return;
-				}
+		private static String unquote(String value) {
+			return value.length() >= 2 && value.startsWith("\"")
+					&& value.endsWith("\"") ? value.substring(1,
+					value.length() - 1) : value;
+		}
 
-				// Last modified
-				matcher = strReResponseLastMod.matcher(line);
-				if (matcher.lookingAt()) {
-					rrInfo.lastModified = readHttpDate(matcher.group(1));
-					return;
+		/**
+		 * Parses a chunk size line, ignoring chunk extensions.
+		 * 
+		 * @return The chunk size, or -1 if the line is not a valid chunk size.
+		 */
+		private int parseChunkSize() {
+			int end = indexOf(';', lineStart, lineEnd);
+			end = trimEnd(lineStart, end >= 0 ? end : lineEnd);
+			int start = trimStart(lineStart, end);
+			if (start == end || end - start > 7) {
+				return -1;
+			}
+			int size = 0;
+			for (int i = start; i < end; ++i) {
+				int digit = Character.digit(input.get(i), 16);
+				if (digit < 0) {
+					return -1;
 				}
+				size = size * 16 + digit;
+			}
+			return size;
+		}
 
-				// Content-Range
-				matcher = strReContentRange.matcher(line);
-				if (matcher.lookingAt()) {
-					rrInfo.rangeResponse = true;
-					rrInfo.rangeFirst = Integer.parseInt(matcher.group(1));
-					rrInfo.rangeLast = Integer.parseInt(matcher.group(2));
-					rrInfo.rangeFull = Long.parseLong(matcher.group(3));
-
-					if (rrInfo.contentLength == 0) {
-						rrInfo.contentLength = rrInfo.rangeLast
-								- rrInfo.rangeFirst + 1;
-					}
-					return;
+		/**
+		 * Parses the decimal digits at the start of the specified bytes.
+		 * 
+		 * @return The number, or -1 if there are no digits or the number is
+		 *         too large.
+		 */
+		private long parseDecimal(int start, int end) {
+			long result = 0;
+			int i = start;
+			for (; i < end && i - start < 18; ++i) {
+				byte b = input.get(i);
+				if (b < '0' || b > '9') {
+					break;
 				}
+				result = result * 10 + (b - '0');
+			}
+			return i > start && (i == end || !isDigit(input.get(i))) ? result
+					: -1;
+		}
 
-			} else if (rrInfo.direction == Direction.REQUEST) {
+		/**
+		 * Returns true if the header name on the current line, which ends at
+		 * the specified offset, is the specified lower case name.
+		 */
+		private boolean nameEquals(byte[] name, int nameEnd) {
+			return nameEnd - lineStart == name.length
+					&& startsWith(name, lineStart, nameEnd);
+		}
 
-				// Referrer
-				matcher = strReResponseReferer.matcher(line);
-				if (matcher.lookingAt()) {
-					try {
-						rrInfo.referrer = new URI(matcher.group(1).trim());
-					} catch (URISyntaxException e) {
-						logger.warning("Invalid referrer URI: "
-								+ matcher.group(1));
-					}
-					return;
+		/**
+		 * Returns true if the specified bytes start with the specified lower
+		 * case ASCII text, compared without case.
+		 */
+		private boolean startsWith(byte[] text, int start, int end) {
+			if (end - start < text.length) {
+				return false;
+			}
+			for (int i = 0; i < text.length; ++i) {
+				int b = input.get(start + i);
+				if (b >= 'A' && b <= 'Z') {
+					b += 'a' - 'A';
 				}
-
-				// If-Modified-Since
-				matcher = strReIfModifiedSince.matcher(line);
-				if (matcher.lookingAt()) {
-					rrInfo.ifModifiedSince = true;
-					return;
+				if (b != text[i]) {
+					return false;
 				}
+			}
+			return true;
+		}
 
-				// If-None-Match
-				matcher = strReIfNoneMatch.matcher(line);
-				if (matcher.lookingAt()) {
-					rrInfo.ifNoneMatch = true;
-					return;
+		private int indexOf(char c, int start, int end) {
+			for (int i = start; i < end; ++i) {
+				if (input.get(i) == c) {
+					return i;
 				}
+			}
+			return -1;
+		}
 
+		private int trimStart(int start, int end) {
+			while (start < end && isWhitespace(input.get(start))) {
+				++start;
 			}
+			return start;
 		}
 
-		/**
-		 * Reads from input stream keeping counter of how much has been read
-		 * 
-		 * @return
-		 * @throws IOException
-		 */
-		private synchronized int readInput() throws IOException {
-			int result;
-			if (counter < input.length) {
-				result = input[counter];
-				++counter;
-			} else {
-				result = -1;
+		private int trimEnd(int start, int end) {
+			while (end > start && isWhitespace(input.get(end - 1))) {
+				--end;
 			}
-			return result;
+			return end;
 		}
 
 		/**
-		 * Parses HTTP date formats. Synchronized because DateFormat objects are
-		 * not thread-safe.
-		 * 
-		 * @param value
-		 * @return formated Date value else null.
+		 * Returns true for the bytes String.trim removes.
 		 */
-		private synchronized Date readHttpDate(String value) {
-			if (value != null) {
-				for (DateFormat dateFormat : dateFormats) {
-					try {
-						return dateFormat.parse(value.trim());
-					} catch (ParseException e) {
-						// Ignore for now
-					}
-				}
+		private static boolean isWhitespace(byte b) {
+			return b >= 0 && b <= ' ';
+		}
+
+		private static boolean isDigit(byte b) {
+			return b >= '0' && b <= '9';
+		}
+
+		private static byte[] ascii(String s) {
+			byte[] result = new byte[s.length()];
+			for (int i = 0; i < result.length; ++i) {
+				result[i] = (byte) s.charAt(i);
 			}
-			logger.warning("Unable to parse HTTP date: " + value);
-			return null;
+			return result;
 		}
 
 	}
@@ -876,6 +939,32 @@ public class HttpRequestResponseInfo implements
 		return assocReqResp;
 	}
 
+	/**
+	 * Returns the interim (1xx) responses to an HTTP request, such as 100
+	 * Continue, that were received before its final response. The associated
+	 * request/response of an interim response is the request it answers.
+	 * 
+	 * @return A List of HttpRequestResponseInfo objects containing the interim
+	 *         responses, which is empty for a response or when there are none.
+	 */
+	public List<HttpRequestResponseInfo> getInterimResponses() {
+		return interimResponses != null ? Collections
+				.unmodifiableList(interimResponses) : Collections
+				.<HttpRequestResponseInfo> emptyList();
+	}
+
+	/**
+	 * Indicates whether this is an interim (1xx) HTTP response that is
+	 * followed by the final response to the same request. A 101 Switching
+	 * Protocols response is the final HTTP response on its connection.
+	 * 
+	 * @return A boolean value that is true if this is an interim response.
+	 */
+	public boolean isInterim() {
+		return direction == Direction.RESPONSE && statusCode >= 100
+				&& statusCode < 200 && statusCode != 101;
+	}
+
 	/**
 	 * Returns the timestamp of the first packet associated with this HttpRequestResponseInfo . This 
 	 * is the offset of the request/response within the current trace. 
@@ -887,6 +976,84 @@ public class HttpRequestResponseInfo implements
 		return firstDataPacket != null ? firstDataPacket.getTimeStamp() : 0.0;
 	}
 
+	/**
+	 * Returns the timestamp of the packet that carries the last byte of this
+	 * HttpRequestResponseInfo. Together with getTimeStamp for the request and
+	 * its associated response, this gives the first and last byte times of
+	 * each side of an HTTP transaction.
+	 * 
+	 * @return A double that is the last data packet timestamp. If the last
+	 *         data packet is null, then this method returns 0.
+	 */
+	public double getLastTimeStamp() {
+		return lastDataPacket != null ? lastDataPacket.getTimeStamp() : 0.0;
+	}
+
+	/**
+	 * Returns the time to first byte of the HTTP transaction of this
+	 * request/response. This is the time from the last byte of the request to
+	 * the first byte of its response, which is the delay of the server and
+	 * one network round trip.
+	 * 
+	 * @return The time to first byte in seconds, or null if the request or
+	 *         the final response of the transaction is not known.
+	 */
+	public Double getTimeToFirstByte() {
+		HttpRequestResponseInfo request = getTransactionRequest();
+		HttpRequestResponseInfo response = getTransactionResponse();
+		return request != null && response != null ? Double.valueOf(response
+				.getTimeStamp() - request.getLastTimeStamp()) : null;
+	}
+
+	/**
+	 * Returns the download duration of the HTTP transaction of this
+	 * request/response, from the first to the last byte of the response.
+	 * 
+	 * @return The download duration in seconds, or null if the final response
+	 *         of the transaction is not known.
+	 */
+	public Double getDownloadTime() {
+		HttpRequestResponseInfo response = getTransactionResponse();
+		return response != null ? Double.valueOf(response.getLastTimeStamp()
+				- response.getTimeStamp()) : null;
+	}
+
+	/**
+	 * Returns the goodput achieved by the response of the HTTP transaction of
+	 * this request/response. This is the number of bytes of the response body
+	 * received over its download duration.
+	 * 
+	 * @return The goodput in kilobits per second, or null if the final
+	 *         response is not known or arrived in a single packet.
+	 */
+	public Double getGoodput() {
+		HttpRequestResponseInfo response = getTransactionResponse();
+		Double time = getDownloadTime();
+		return response != null && time.doubleValue() > 0.0 ? Double
+				.valueOf(response.getActualByteCount() * 8 / 1000.0
+						/ time.doubleValue()) : null;
+	}
+
+	/**
+	 * Returns the request of the transaction of this request/response.
+	 */
+	private HttpRequestResponseInfo getTransactionRequest() {
+		if (direction == Direction.REQUEST) {
+			return this;
+		}
+		return isInterim() ? null : assocReqResp;
+	}
+
+	/**
+	 * Returns the final response of the transaction of this request/response.
+	 */
+	private HttpRequestResponseInfo getTransactionResponse() {
+		if (direction == Direction.REQUEST) {
+			return assocReqResp;
+		}
+		return direction == Direction.RESPONSE && !isInterim() ? this : null;
+	}
+
 	/**
 	 * Gets the real Date (the first packet Date) for the request/response. 
 	 * 
@@ -1032,6 +1199,16 @@ public class HttpRequestResponseInfo implements
 		return firstDataPacket;
 	}
 
+	/**
+	 * Returns the data packet that carries the last byte of the
+	 * request/response.
+	 * 
+	 * @return A PacketInfo object containing the last data packet.
+	 */
+	public PacketInfo getLastDataPacket() {
+		return lastDataPacket;
+	}
+
 	/**
 	 * Returns all of the packets in the HTTP request/response. 
 	 * 
@@ -1222,7 +1399,9 @@ public class HttpRequestResponseInfo implements
 	}
 
 	/**
-	 * Returns the binary content of the request/response body. 
+	 * Returns the binary content of the request/response body. Compressed
+	 * content is uncompressed, and kept in a cache of recently used content
+	 * so that it is not uncompressed again each time it is viewed.
 	 * 
 	 * @return An array of bytes containing the binary content of the request/response body, or Null 
 	 * if no content is found. 
@@ -1230,45 +1409,79 @@ public class HttpRequestResponseInfo implements
 	 * @throws ContentException - When part of the content is not available.
 	 */
 	public byte[] getContent() throws ContentException, IOException {
-		if (contentOffsetLength != null) {
-			byte[] buffer;
-			switch (packetDirection) {
-			case DOWNLINK:
-				buffer = session.getStorageDl();
-				break;
-			case UPLINK:
-				buffer = session.getStorageUl();
-				break;
-			default:
-				return null;
+		if (isCompressed()) {
+			byte[] content = ContentCache.get(this);
+			if (content != null) {
+				return content.clone();
 			}
+		}
 
+		InputStream input = getContentStream();
+		if (input != null) {
 			ByteArrayOutputStream output = new ByteArrayOutputStream(
 					(int) getActualByteCount());
+			try {
+				byte[] buffer = new byte[2048];
+				int len;
+				while ((len = input.read(buffer)) >= 0) {
+					output.write(buffer, 0, len);
+				}
+			} finally {
+				input.close();
+			}
+			byte[] content = output.toByteArray();
+			if (isCompressed()) {
+				ContentCache.put(this, content.clone());
+			}
+			return content;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a stream that reads the binary content of the request/response
+	 * body directly from the reassembled session storage. The chunks of a
+	 * chunked body are read in place, and gzip or deflate content is
+	 * uncompressed as it is read unless it is already cached.
+	 * 
+	 * @return An InputStream of the content of the request/response body, or
+	 *         null if no content is found.
+	 * 
+	 * @throws ContentException
+	 *             - When part of the content is not available.
+	 */
+	public InputStream getContentStream() throws ContentException, IOException {
+		SegmentStream storage = getStorage();
+		if (contentOffsetLength != null && storage != null) {
+			if (isCompressed()) {
+				byte[] content = ContentCache.get(this);
+				if (content != null) {
+					return new ByteArrayInputStream(content);
+				}
+			}
+
+			List<InputStream> parts = new ArrayList<InputStream>(
+					contentOffsetLength.size());
 			for (Map.Entry<Integer, Integer> entry : contentOffsetLength
 					.entrySet()) {
 				int start = entry.getKey();
 				int size = entry.getValue();
-				if (buffer.length < start + size) {
+				if (storage.length() < start + size) {
 					throw new ContentException("Content not available");
 				}
-				for (int i = start; i < start + size; ++i) {
-					output.write(buffer[i]);
-				}
+				parts.add(storage.getInputStream(start, size));
 			}
-			if (GZIP.equals(contentEncoding)) {
+			InputStream result = new SequenceInputStream(
+					Collections.enumeration(parts));
+			if (isGzip()) {
 
 				// Uncompress gzipped content
-				GZIPInputStream gzip = new GZIPInputStream(
-						new ByteArrayInputStream(output.toByteArray()));
-				output.reset();
-				buffer = new byte[2048];
-				int len;
-				while ((len = gzip.read(buffer)) >= 0) {
-					output.write(buffer, 0, len);
-				}
+				result = new GZIPInputStream(result);
+			} else if (isDeflate()) {
+				result = inflate(result);
 			}
-			return output.toByteArray();
+			return result;
 		} else {
 			return null;
 		}
@@ -1284,34 +1497,106 @@ public class HttpRequestResponseInfo implements
 		if (contentOffsetLength != null) {
 			FileOutputStream fos = new FileOutputStream(file);
 			try {
-				fos.write(getContent());
+				if (isCompressed()) {
+					InputStream input = getContentStream();
+					if (input != null) {
+						byte[] buffer = new byte[8192];
+						int len;
+						while ((len = input.read(buffer)) >= 0) {
+							fos.write(buffer, 0, len);
+						}
+					}
+				} else {
+					writeContent(fos);
+				}
 			} catch (ContentException e) {
 
 				// If we get a ContentException, just save the bytes we have
-				byte[] buffer;
-				switch (packetDirection) {
-				case DOWNLINK:
-					buffer = session.getStorageDl();
-					break;
-				case UPLINK:
-					buffer = session.getStorageUl();
-					break;
-				default:
-					buffer = new byte[0];
-				}
-
-				for (Map.Entry<Integer, Integer> entry : contentOffsetLength
-						.entrySet()) {
-					int start = entry.getKey();
-					int len = Math.min(entry.getValue(), buffer.length - start);
-					fos.write(buffer, start, len);
-				}
+				writeContent(fos);
 			} finally {
 				fos.close();
 			}
 		}
 	}
 
+	/**
+	 * Writes the bytes of the content that are available in the session
+	 * storage directly to the file.
+	 */
+	private void writeContent(FileOutputStream fos) throws IOException {
+		SegmentStream storage = getStorage();
+		if (storage != null) {
+			FileChannel channel = fos.getChannel();
+			for (Map.Entry<Integer, Integer> entry : contentOffsetLength
+					.entrySet()) {
+				storage.writeTo(channel, entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the content is compressed with an encoding that
+	 * getContentStream uncompresses.
+	 */
+	private boolean isCompressed() {
+		return isGzip() || isDeflate();
+	}
+
+	private boolean isGzip() {
+		return GZIP.equalsIgnoreCase(contentEncoding)
+				|| X_GZIP.equalsIgnoreCase(contentEncoding);
+	}
+
+	private boolean isDeflate() {
+		return DEFLATE.equalsIgnoreCase(contentEncoding);
+	}
+
+	/**
+	 * Returns a stream that uncompresses deflate content. HTTP specifies the
+	 * zlib format, but some servers send a raw deflate stream, so the zlib
+	 * header is checked for.
+	 */
+	private static InputStream inflate(InputStream input) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(input, 2);
+		byte[] header = new byte[2];
+		int len = 0;
+		int n;
+		while (len < header.length
+				&& (n = pushback.read(header, len, header.length - len)) >= 0) {
+			len += n;
+		}
+		pushback.unread(header, 0, len);
+
+		boolean zlib = len == 2 && (header[0] & 0x0F) == 8
+				&& (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+		final Inflater inflater = new Inflater(!zlib);
+		return new InflaterInputStream(pushback, inflater) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					inflater.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the reassembled session storage of the direction of this
+	 * request/response.
+	 */
+	private SegmentStream getStorage() {
+		switch (packetDirection) {
+		case DOWNLINK:
+			return session.getStreamDl();
+		case UPLINK:
+			return session.getStreamUl();
+		default:
+			return null;
+		}
+	}
+
 	/**
 	 * Gets the number of bytes in the request/response body. The actual byte count.
 	 * 
@@ -1319,20 +1604,10 @@ public class HttpRequestResponseInfo implements
 	 * null, then this method returns 0.
 	 */
 	public long getActualByteCount() {
-		if (contentOffsetLength != null) {
-
-			int bufferSize;
-			switch (packetDirection) {
-			case DOWNLINK:
-				bufferSize = session.getStorageDl().length;
-				break;
-			case UPLINK:
-				bufferSize = session.getStorageUl().length;
-				break;
-			default:
-				return 0;
-			}
+		SegmentStream storage = getStorage();
+		if (contentOffsetLength != null && storage != null) {
 
+			int bufferSize = storage.length();
 			long result = 0;
 			for (Map.Entry<Integer, Integer> entry : contentOffsetLength
 					.entrySet()) {
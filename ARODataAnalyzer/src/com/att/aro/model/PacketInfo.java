@@ -18,16 +18,23 @@ package com.att.aro.model;
 import java.io.Serializable;
 import java.net.InetAddress;
 
-import com.att.aro.pcap.IPPacket;
 import com.att.aro.pcap.Packet;
-import com.att.aro.pcap.TCPPacket;
 
 /**
  * A bean class that contains information about a packet in a TCP Session. 
+ * The information is stored in a row of a PacketTable and this object is a
+ * view of that row.
  */
 public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	private static final long serialVersionUID = 1L;
 
+	// TCP header flags
+	private static final int TCP_FIN = 0x01;
+	private static final int TCP_SYN = 0x02;
+	private static final int TCP_RST = 0x04;
+	private static final int TCP_PSH = 0x08;
+	private static final int TCP_ACK = 0x10;
+
 	/**
 	 * ENUM to maintain the Packet Direction.
 	 */
@@ -104,23 +111,9 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 		TCP_ACK_RECOVER
 	}
 
-	private int id; // 1-based
-	private double timestamp;
-	private Direction dir; // UPLINK / DOWNLINK direction
-
-	private TCPSession session;
-	private TcpInfo tcpInfo; // ********was DWORD
-	private Burst burst;
-	private String appName;
-
-	// state machine inference
-	private RRCState stateMachine; // ********was DWORD
-
-	private Packet packet;
-
-	private String strTcpFlags = "";
-
-	private HttpRequestResponseInfo httpRequestResponseInfo = null;
+	// The row of the packet table viewed by this object
+	private PacketTable table;
+	private int row;
 
 	/**
 	 * Initializes an instance of the PacketInfo class, using the specified packet data.
@@ -128,12 +121,17 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @param packet  A com.att.aro.pcap.Packet object containing the packet data.
 	 */
 	public PacketInfo(Packet packet) {
-		this.packet = packet;
-		this.timestamp = packet.getTimeStamp();
+		this.table = new PacketTable(1);
+		this.row = table.add(packet);
+	}
 
-		if (packet instanceof TCPPacket) {
-			setTcpFlagString((TCPPacket) packet);
-		}
+	/**
+	 * Initializes an instance of the PacketInfo class that is a view of the
+	 * specified row of a packet table.
+	 */
+	PacketInfo(PacketTable table, int row) {
+		this.table = table;
+		this.row = row;
 	}
 
 	/**
@@ -142,7 +140,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @param id  The packet id.
 	 */
 	public void setId(int id) {
-		this.id = id;
+		table.setId(row, id);
 	}
 
 	/**
@@ -151,7 +149,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return A com.att.aro.pcap.Packet object containing the packet data.
 	 */
 	public Packet getPacket() {
-		return packet;
+		return table.getPacket(row);
 	}
 
 	/**
@@ -160,7 +158,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return An int that is the id of the packet.
 	 */
 	public int getId() {
-		return id;
+		return table.getId(row);
 	}
 
 	/**
@@ -169,7 +167,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @param httpRequestResponseInfo - The HTTP request/response information to set.
 	 */
 	public void setRequestResponseInfo(HttpRequestResponseInfo httpRequestResponseInfo) {
-		this.httpRequestResponseInfo = httpRequestResponseInfo;
+		table.setRequestResponseInfo(row, httpRequestResponseInfo);
 	}
 
 	/**
@@ -178,7 +176,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return An HTTPRequestResponse object containing the packet request/response information.
 	 */
 	public HttpRequestResponseInfo getRequestResponseInfo() {
-		return httpRequestResponseInfo;
+		return table.getRequestResponseInfo(row);
 	}
 
 	/**
@@ -186,7 +184,30 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 */
 	@Override
 	public int compareTo(PacketInfo o) {
-		return Double.valueOf(this.timestamp).compareTo(o.timestamp);
+		return Double.valueOf(getTimeStamp()).compareTo(o.getTimeStamp());
+	}
+
+	/**
+	 * Two PacketInfo objects are equal when they view the same packet.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PacketInfo)) {
+			return false;
+		}
+		PacketInfo o = (PacketInfo) obj;
+		return table == o.table && row == o.row;
+	}
+
+	/**
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return row;
 	}
 
 	/**
@@ -196,7 +217,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * 
 	 */
 	public void setTimestamp(double timestamp) {
-		this.timestamp = timestamp;
+		table.setTimeStamp(row, timestamp);
 	}
 
 	/**
@@ -205,7 +226,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return The packet timestamp.
 	 */
 	public double getTimeStamp() {
-		return timestamp;
+		return table.getTimeStamp(row);
 	}
 
 	/**
@@ -214,7 +235,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return The packet direction. One of the values of the PacketInfo.Direction enumeration.
 	 */
 	public Direction getDir() {
-		return dir;
+		return table.getDir(row);
 	}
 
 	/**
@@ -223,25 +244,25 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return Remote IP address or null if it cannot be determined
 	 */
 	public InetAddress getRemoteIPAddress() {
-		if (packet instanceof IPPacket && dir != null) {
-			IPPacket ip = (IPPacket) packet;
-			switch (dir) {
-			case UPLINK :
-				return ip.getDestinationIPAddress();
-			case DOWNLINK :
-				return ip.getSourceIPAddress();
-			}
-		}
-		return null;
+		return table.getRemoteIPAddress(row);
 	}
 	
+	/**
+	 * Returns the endpoint id of the remote IP address.
+	 * @return Remote endpoint id or -1 if it cannot be determined
+	 * @see EndpointTable
+	 */
+	int getRemoteEndpoint() {
+		return table.getRemoteEndpoint(row);
+	}
+
 	/**
 	 * Sets the packet direction. 
 	 * 
 	 * @param dir  A PacketInfo.Direction enumeration value that indicates the packet direction.
 	 */
 	public void setDir(Direction dir) {
-		this.dir = dir;
+		table.setDir(row, dir);
 	}
 
 	/**
@@ -250,10 +271,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return The length (in bytes) of the packet.
 	 */
 	public int getLen() {
-
-		// Because the ethernet portion of the header does not go through the 3G
-		// RAN, we exclude it from the len
-		return packet.getLen() - packet.getDatalinkHeaderSize();
+		return table.getLen(row);
 	}
 
 	/**
@@ -262,7 +280,125 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return The payload length, in bytes.
 	 */
 	public int getPayloadLen() {
-		return packet.getPayloadLen();
+		return table.getPayloadLen(row);
+	}
+
+	/**
+	 * Returns the length (in bytes) of the packet, including the datalink
+	 * header.
+	 *
+	 * @return The length (in bytes) of the captured packet.
+	 */
+	int getPacketLen() {
+		return table.getPacketLen(row);
+	}
+
+	/**
+	 * Indicates whether the packet is an IP packet.
+	 *
+	 * @return A boolean value that is true if the packet is an IP packet.
+	 */
+	public boolean isIP() {
+		return table.getSourceEndpoint(row) != -1;
+	}
+
+	/**
+	 * Indicates whether the packet is a TCP packet.
+	 *
+	 * @return A boolean value that is true if the packet is a TCP packet.
+	 */
+	public boolean isTCP() {
+		return table.isTCP(row);
+	}
+
+	/**
+	 * Indicates whether the packet is a UDP packet.
+	 *
+	 * @return A boolean value that is true if the packet is a UDP packet.
+	 */
+	public boolean isUDP() {
+		return table.isUDP(row);
+	}
+
+	/**
+	 * Returns the source port of a TCP or UDP packet.
+	 *
+	 * @return The source port number.
+	 */
+	public int getSourcePort() {
+		return table.getSourcePort(row);
+	}
+
+	/**
+	 * Returns the destination port of a TCP or UDP packet.
+	 *
+	 * @return The destination port number.
+	 */
+	public int getDestinationPort() {
+		return table.getDestinationPort(row);
+	}
+
+	/**
+	 * Returns the sequence number of a TCP packet.
+	 *
+	 * @return The sequence number.
+	 */
+	public long getSequenceNumber() {
+		return table.getSequenceNumber(row);
+	}
+
+	/**
+	 * Returns the acknowledgment number of a TCP packet.
+	 *
+	 * @return The acknowledgment number.
+	 */
+	public long getAckNumber() {
+		return table.getAckNumber(row);
+	}
+
+	/**
+	 * Returns the window size of a TCP packet.
+	 *
+	 * @return The window size.
+	 */
+	public int getWindow() {
+		return table.getWindow(row);
+	}
+
+	/**
+	 * Indicates whether the ACK flag of a TCP packet is set.
+	 *
+	 * @return A boolean value that is true if the ACK flag is set.
+	 */
+	public boolean isACK() {
+		return (table.getFlags(row) & TCP_ACK) != 0;
+	}
+
+	/**
+	 * Indicates whether the RST flag of a TCP packet is set.
+	 *
+	 * @return A boolean value that is true if the RST flag is set.
+	 */
+	public boolean isRST() {
+		return (table.getFlags(row) & TCP_RST) != 0;
+	}
+
+	/**
+	 * Indicates whether the SYN flag of a TCP packet is set.
+	 *
+	 * @return A boolean value that is true if the SYN flag is set.
+	 */
+	public boolean isSYN() {
+		return (table.getFlags(row) & TCP_SYN) != 0;
+	}
+
+	/**
+	 * Indicates whether the FIN flag of a TCP packet is set.
+	 *
+	 * @return A boolean value that is true if the FIN flag is set.
+	 */
+	public boolean isFIN() {
+		return (table.getFlags(row) & TCP_FIN) != 0;
 	}
 
 	/**
@@ -271,7 +407,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @param tcpInfo  The TCP information to set.
 	 */
 	public void setTcpInfo(TcpInfo tcpInfo) {
-		this.tcpInfo = tcpInfo;
+		table.setTcpInfo(row, tcpInfo);
 	}
 
 	/**
@@ -280,7 +416,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return A PacketInfo.TcpInfo enumeration value.
 	 */
 	public TcpInfo getTcpInfo() {
-		return tcpInfo;
+		return table.getTcpInfo(row);
 	}
 
 	/**
@@ -289,7 +425,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @param burst  The burst information to set.
 	 */
 	public void setBurst(Burst burst) {
-		this.burst = burst;
+		table.setBurst(row, burst);
 	}
 
 	/**
@@ -298,7 +434,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return A Burst object containing the burst informaiton.
 	 */
 	public Burst getBurst() {
-		return burst;
+		return table.getBurst(row);
 	}
 
 	/**
@@ -307,7 +443,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @param stateMachine  The RRC state machine value.
 	 */
 	public void setStateMachine(RRCState stateMachine) {
-		this.stateMachine = stateMachine;
+		table.setStateMachine(row, stateMachine);
 	}
 
 	/**
@@ -316,7 +452,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return An RRCState enumeration value.
 	 */
 	public RRCState getStateMachine() {
-		return stateMachine;
+		return table.getStateMachine(row);
 	}
 
 	/**
@@ -325,7 +461,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return A string containing the application name.
 	 */
 	public String getAppName() {
-		return appName;
+		return table.getAppName(row);
 	}
 
 	/**
@@ -334,7 +470,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @param appName - The application name to set.
 	 */
 	public void setAppName(String appName) {
-		this.appName = appName;
+		table.setAppName(row, appName);
 	}
 
 	/**
@@ -343,7 +479,7 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @return A TCPSession object that containing this packet.
 	 */
 	public TCPSession getSession() {
-		return session;
+		return table.getSession(row);
 	}
 
 	/**
@@ -352,36 +488,31 @@ public class PacketInfo implements Comparable<PacketInfo>, Serializable {
 	 * @param session - The TCP session to set.
 	 */
 	public void setSession(TCPSession session) {
-		this.session = session;
+		table.setSession(row, session);
 	}
 
 	/**
-	 * Sets a TCP flag as per TCPPacket type.
+	 * Returns the TCP flag that indicates the TCPPacket type. 
 	 * 
-	 * @param tcpPacket
+	 * @return A string containing the TCP flag for the packet.
 	 */
-	private void setTcpFlagString(TCPPacket tcpPacket) {
+	public String getTcpFlagString() {
+		if (!table.isTCP(row)) {
+			return "";
+		}
+		int flags = table.getFlags(row);
 		StringBuilder strBuf = new StringBuilder();
-		if (tcpPacket.isACK())
+		if ((flags & TCP_ACK) != 0)
 			strBuf.append("A");
-		if (tcpPacket.isPSH())
+		if ((flags & TCP_PSH) != 0)
 			strBuf.append("P");
-		if (tcpPacket.isRST())
+		if ((flags & TCP_RST) != 0)
 			strBuf.append("R");
-		if (tcpPacket.isSYN())
+		if ((flags & TCP_SYN) != 0)
 			strBuf.append("S");
-		if (tcpPacket.isFIN())
+		if ((flags & TCP_FIN) != 0)
 			strBuf.append("F");
-		strTcpFlags = strBuf.toString();
-	}
-
-	/**
-	 * Returns the TCP flag that indicates the TCPPacket type. 
-	 * 
-	 * @return A string containing the TCP flag for the packet.
-	 */
-	public String getTcpFlagString() {
-		return strTcpFlags;
+		return strBuf.toString();
 	}
 
 }
@@ -0,0 +1,884 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.att.aro.model.PacketInfo.Direction;
+import com.att.aro.model.PacketInfo.TcpInfo;
+import com.att.aro.pcap.FragmentReassembler;
+import com.att.aro.pcap.IPPacket;
+import com.att.aro.pcap.PCapFileReader;
+import com.att.aro.pcap.Packet;
+import com.att.aro.pcap.TCPPacket;
+import com.att.aro.pcap.UDPPacket;
+
+/**
+ * Stores the packets of a trace in parallel primitive arrays, one array per
+ * packet attribute. Each row is exposed as a PacketInfo object that is a
+ * lightweight view of the row, so the per packet cost is a handful of array
+ * elements instead of a PacketInfo object graph.
+ */
+public class PacketTable extends AbstractList<PacketInfo> implements RandomAccess,
+		Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final byte NONE = -1;
+
+	// Values of the transport protocol column
+	private static final byte TCP = 6;
+	private static final byte UDP = 17;
+
+	// Runs shorter than this are insertion sorted before they are merged
+	private static final int SORT_RUN = 16;
+
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final TcpInfo[] TCP_INFOS = TcpInfo.values();
+	private static final RRCState[] RRC_STATES = RRCState.values();
+
+	private int size;
+
+	// The packets of the rows, until the table is attached to the pcap file
+	// they were read from. From then on only the reassembled IP datagrams are
+	// held, and the other packets are read from the file when requested.
+	private Packet[] packets;
+	private Map<Integer, Packet> datagrams = new HashMap<Integer, Packet>();
+
+	// Packet attributes
+	private int[] ids;
+	private double[] timestamps;
+	private int[] lens;
+	private char[] datalinkLens;
+	private int[] payloadLens;
+	private byte[] dirs;
+	private int[] sourceEndpoints;
+	private int[] destinationEndpoints;
+	private char[] sourcePorts;
+	private char[] destinationPorts;
+	private int[] seqs;
+	private int[] acks;
+	private byte[] flags;
+	private char[] windows;
+	private byte[] protocols;
+	private short[] appIds;
+
+	// Analysis results
+	private byte[] tcpInfos;
+	private byte[] rrcStates;
+	private TCPSession[] sessions;
+	private Burst[] bursts;
+	private HttpRequestResponseInfo[] requestResponses;
+
+	// File offsets of the packet records when the packets are read on demand
+	private long[] recordOffsets;
+	private transient PCapFileReader source;
+
+	// Values referenced by index from the columns
+	private EndpointTable endpoints;
+	private List<String> appNames = new ArrayList<String>();
+	private Map<String, Short> appNameIndex = new HashMap<String, Short>();
+
+	/**
+	 * Initializes an instance of the PacketTable class with the specified
+	 * initial capacity.
+	 *
+	 * @param capacity
+	 *            The number of packets the table can hold before growing.
+	 */
+	public PacketTable(int capacity) {
+		this(capacity, new EndpointTable());
+	}
+
+	/**
+	 * Initializes an instance of the PacketTable class with the specified
+	 * initial capacity, that assigns the addresses of its packets ids from the
+	 * specified endpoint table.
+	 *
+	 * @param capacity
+	 *            The number of packets the table can hold before growing.
+	 * @param endpoints
+	 *            The endpoint table of the trace.
+	 */
+	public PacketTable(int capacity, EndpointTable endpoints) {
+		this.endpoints = endpoints;
+		allocate(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Appends a row for the specified packet.
+	 *
+	 * @param packet
+	 *            The packet to add.
+	 * @return The index of the new row.
+	 */
+	public int add(Packet packet) {
+		if (size == ids.length) {
+			allocate(size * 2);
+		}
+
+		int row = size++;
+		if (packets != null) {
+			packets[row] = packet;
+		} else {
+			datagrams.put(row, packet);
+		}
+		timestamps[row] = packet.getTimeStamp();
+
+		// Because the ethernet portion of the header does not go through the
+		// 3G RAN, we exclude it from the len
+		lens[row] = packet.getLen() - packet.getDatalinkHeaderSize();
+		datalinkLens[row] = (char) packet.getDatalinkHeaderSize();
+		payloadLens[row] = packet.getPayloadLen();
+		dirs[row] = NONE;
+		if (packet instanceof IPPacket) {
+			IPPacket ip = (IPPacket) packet;
+			if (ip.getIPVersion() == 6) {
+				sourceEndpoints[row] = endpoints.getIPv6Id(ip.getSourceIPv6AddressHigh(),
+						ip.getSourceIPv6AddressLow());
+				destinationEndpoints[row] = endpoints.getIPv6Id(
+						ip.getDestinationIPv6AddressHigh(), ip.getDestinationIPv6AddressLow());
+			} else {
+				sourceEndpoints[row] = endpoints.getIPv4Id(ip.getSourceIPv4Address());
+				destinationEndpoints[row] = endpoints.getIPv4Id(ip.getDestinationIPv4Address());
+			}
+		} else {
+			sourceEndpoints[row] = NONE;
+			destinationEndpoints[row] = NONE;
+		}
+		appIds[row] = NONE;
+		tcpInfos[row] = NONE;
+		rrcStates[row] = NONE;
+		protocols[row] = NONE;
+		if (packet instanceof TCPPacket) {
+			TCPPacket tcp = (TCPPacket) packet;
+			sourcePorts[row] = (char) tcp.getSourcePort();
+			destinationPorts[row] = (char) tcp.getDestinationPort();
+			seqs[row] = (int) tcp.getSequenceNumber();
+			acks[row] = (int) tcp.getAckNumber();
+			flags[row] = (byte) tcp.getFlags();
+			windows[row] = (char) tcp.getWindow();
+			protocols[row] = TCP;
+		} else if (packet instanceof UDPPacket) {
+			UDPPacket udp = (UDPPacket) packet;
+			protocols[row] = UDP;
+			sourcePorts[row] = (char) udp.getSourcePort();
+			destinationPorts[row] = (char) udp.getDestinationPort();
+		}
+		return row;
+	}
+
+	/**
+	 * Returns a PacketInfo view of the specified row.
+	 *
+	 * @see java.util.AbstractList#get(int)
+	 */
+	@Override
+	public PacketInfo get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return new PacketInfo(this, index);
+	}
+
+	/**
+	 * @see java.util.AbstractCollection#size()
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all rows from the table.
+	 *
+	 * @see java.util.AbstractList#clear()
+	 */
+	@Override
+	public void clear() {
+		if (packets != null) {
+			Arrays.fill(packets, 0, size, null);
+		} else {
+			packets = new Packet[ids.length];
+		}
+		datagrams.clear();
+		clearAnalysis();
+		size = 0;
+		recordOffsets = null;
+		source = null;
+		appNames.clear();
+		appNameIndex.clear();
+	}
+
+	/**
+	 * Clears the results of a previous analysis (TCP info, RRC state, session,
+	 * burst and request/response) from all rows.
+	 */
+	public void clearAnalysis() {
+		Arrays.fill(tcpInfos, 0, size, NONE);
+		Arrays.fill(rrcStates, 0, size, NONE);
+		Arrays.fill(sessions, 0, size, null);
+		Arrays.fill(bursts, 0, size, null);
+		Arrays.fill(requestResponses, 0, size, null);
+	}
+
+	/**
+	 * A copy of the results of the session extraction (TCP info, session and
+	 * request/response) of all rows of a table.
+	 */
+	static class SessionColumns {
+		private byte[] tcpInfos;
+		private TCPSession[] sessions;
+		private HttpRequestResponseInfo[] requestResponses;
+	}
+
+	/**
+	 * Returns a copy of the session extraction results of all rows, so that
+	 * they can be restored after a later analysis has changed them.
+	 */
+	SessionColumns saveSessionColumns() {
+		SessionColumns result = new SessionColumns();
+		result.tcpInfos = Arrays.copyOf(tcpInfos, size);
+		result.sessions = Arrays.copyOf(sessions, size);
+		result.requestResponses = Arrays.copyOf(requestResponses, size);
+		return result;
+	}
+
+	/**
+	 * Restores session extraction results saved by saveSessionColumns.
+	 */
+	void restoreSessionColumns(SessionColumns columns) {
+		System.arraycopy(columns.tcpInfos, 0, tcpInfos, 0, columns.tcpInfos.length);
+		System.arraycopy(columns.sessions, 0, sessions, 0, columns.sessions.length);
+		System.arraycopy(columns.requestResponses, 0, requestResponses, 0,
+				columns.requestResponses.length);
+	}
+
+	/**
+	 * Sorts the rows of the table by timestamp. The sort is stable, so rows
+	 * with equal timestamps keep their order. PacketInfo views obtained before
+	 * the sort refer to row positions and do not follow their packets.
+	 */
+	public void sort() {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; ++i) {
+			sorted = timestamps[i - 1] <= timestamps[i];
+		}
+		if (sorted) {
+			return;
+		}
+
+		int[] rows = sortedRows();
+		if (packets != null) {
+			packets = permute(packets, new Packet[packets.length], rows);
+		}
+		if (!datagrams.isEmpty()) {
+			Map<Integer, Packet> moved = new HashMap<Integer, Packet>();
+			for (int i = 0; i < size; ++i) {
+				Packet packet = datagrams.get(rows[i]);
+				if (packet != null) {
+					moved.put(i, packet);
+				}
+			}
+			datagrams = moved;
+		}
+		ids = permute(ids, rows);
+		timestamps = permute(timestamps, rows);
+		lens = permute(lens, rows);
+		datalinkLens = permute(datalinkLens, rows);
+		payloadLens = permute(payloadLens, rows);
+		dirs = permute(dirs, rows);
+		sourceEndpoints = permute(sourceEndpoints, rows);
+		destinationEndpoints = permute(destinationEndpoints, rows);
+		sourcePorts = permute(sourcePorts, rows);
+		destinationPorts = permute(destinationPorts, rows);
+		seqs = permute(seqs, rows);
+		acks = permute(acks, rows);
+		flags = permute(flags, rows);
+		windows = permute(windows, rows);
+		protocols = permute(protocols, rows);
+		appIds = permute(appIds, rows);
+		tcpInfos = permute(tcpInfos, rows);
+		rrcStates = permute(rrcStates, rows);
+		if (recordOffsets != null) {
+			recordOffsets = permute(recordOffsets, rows);
+		}
+		sessions = permute(sessions, new TCPSession[sessions.length], rows);
+		bursts = permute(bursts, new Burst[bursts.length], rows);
+		requestResponses = permute(requestResponses,
+				new HttpRequestResponseInfo[requestResponses.length], rows);
+	}
+
+	/**
+	 * Attaches the table to the pcap file that its packets were read from.
+	 * The packets that are the data of a single pcap record are released,
+	 * and are read from the file again when they are requested.
+	 *
+	 * @param source
+	 *            The pcap file opened for random access.
+	 * @param recordOffsets
+	 *            The file offsets of the packet records of the pcap file,
+	 *            indexed by packet id - 1.
+	 */
+	void attach(PCapFileReader source, long[] recordOffsets) {
+		this.recordOffsets = new long[ids.length];
+		for (int i = 0; i < size; ++i) {
+			this.recordOffsets[i] = recordOffsets[ids[i] - 1];
+			if (packets[i] != null && packets[i].isReassembled()) {
+				datagrams.put(i, packets[i]);
+			}
+		}
+		packets = null;
+		this.source = source;
+	}
+
+	/**
+	 * Returns the packet of the specified row. For a table attached to its
+	 * pcap file the packet is read from the file on each request, and decoded
+	 * as it was when the trace was read.
+	 */
+	public Packet getPacket(int row) {
+		if (packets != null) {
+			return packets[row];
+		}
+		Packet packet = datagrams.isEmpty() ? null : datagrams.get(row);
+		if (packet == null && source != null) {
+			try {
+				packet = FragmentReassembler.asFragment(source
+						.readPacket(recordOffsets[row]));
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to read packet " + ids[row], e);
+			}
+		}
+		return packet;
+	}
+
+	/**
+	 * Returns the packet id of the specified row.
+	 */
+	public int getId(int row) {
+		return ids[row];
+	}
+
+	void setId(int row, int id) {
+		ids[row] = id;
+	}
+
+	/**
+	 * Returns the timestamp of the specified row.
+	 */
+	public double getTimeStamp(int row) {
+		return timestamps[row];
+	}
+
+	void setTimeStamp(int row, double timestamp) {
+		timestamps[row] = timestamp;
+	}
+
+	/**
+	 * Returns the length of the packet in the specified row, excluding the
+	 * datalink header.
+	 */
+	public int getLen(int row) {
+		return lens[row];
+	}
+
+	/**
+	 * Returns the length of the packet in the specified row, including the
+	 * datalink header.
+	 */
+	public int getPacketLen(int row) {
+		return lens[row] + datalinkLens[row];
+	}
+
+	/**
+	 * Returns the payload length of the packet in the specified row.
+	 */
+	public int getPayloadLen(int row) {
+		return payloadLens[row];
+	}
+
+	/**
+	 * Returns the direction of the packet in the specified row, or null if it
+	 * has not been determined.
+	 */
+	public Direction getDir(int row) {
+		byte dir = dirs[row];
+		return dir != NONE ? DIRECTIONS[dir] : null;
+	}
+
+	void setDir(int row, Direction dir) {
+		dirs[row] = dir != null ? (byte) dir.ordinal() : NONE;
+	}
+
+	/**
+	 * Returns the endpoint table that assigns the endpoint ids of the rows.
+	 */
+	public EndpointTable getEndpoints() {
+		return endpoints;
+	}
+
+	/**
+	 * Returns the endpoint id of the source address of the specified row, or
+	 * -1 if it is not an IP packet.
+	 */
+	public int getSourceEndpoint(int row) {
+		return sourceEndpoints[row];
+	}
+
+	/**
+	 * Returns the endpoint id of the destination address of the specified
+	 * row, or -1 if it is not an IP packet.
+	 */
+	public int getDestinationEndpoint(int row) {
+		return destinationEndpoints[row];
+	}
+
+	/**
+	 * Returns the endpoint id of the remote address of the specified row, or
+	 * -1 if it cannot be determined.
+	 */
+	public int getRemoteEndpoint(int row) {
+		byte dir = dirs[row];
+		if (dir == Direction.UPLINK.ordinal()) {
+			return destinationEndpoints[row];
+		} else if (dir == Direction.DOWNLINK.ordinal()) {
+			return sourceEndpoints[row];
+		}
+		return NONE;
+	}
+
+	/**
+	 * Returns the remote IP address of the packet in the specified row, or
+	 * null if it cannot be determined.
+	 */
+	public InetAddress getRemoteIPAddress(int row) {
+		int endpoint = getRemoteEndpoint(row);
+		return endpoint != NONE ? endpoints.getAddress(endpoint) : null;
+	}
+
+	/**
+	 * Returns true if the packet in the specified row is a TCP packet.
+	 */
+	public boolean isTCP(int row) {
+		return protocols[row] == TCP;
+	}
+
+	/**
+	 * Returns true if the packet in the specified row is a UDP packet.
+	 */
+	public boolean isUDP(int row) {
+		return protocols[row] == UDP;
+	}
+
+	/**
+	 * Returns the source port of the TCP or UDP packet in the specified row.
+	 */
+	public int getSourcePort(int row) {
+		return sourcePorts[row];
+	}
+
+	/**
+	 * Returns the destination port of the TCP or UDP packet in the specified
+	 * row.
+	 */
+	public int getDestinationPort(int row) {
+		return destinationPorts[row];
+	}
+
+	/**
+	 * Returns the sequence number of the TCP packet in the specified row.
+	 */
+	public long getSequenceNumber(int row) {
+		return seqs[row] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Returns the acknowledgment number of the TCP packet in the specified
+	 * row.
+	 */
+	public long getAckNumber(int row) {
+		return acks[row] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Returns the TCP flags of the packet in the specified row.
+	 */
+	public int getFlags(int row) {
+		return flags[row] & 0xFF;
+	}
+
+	/**
+	 * Returns the window size of the TCP packet in the specified row.
+	 */
+	public int getWindow(int row) {
+		return windows[row];
+	}
+
+	/**
+	 * Returns the application name of the specified row.
+	 */
+	public String getAppName(int row) {
+		short app = appIds[row];
+		return app != NONE ? appNames.get(app) : null;
+	}
+
+	void setAppName(int row, String appName) {
+		if (appName == null) {
+			appIds[row] = NONE;
+			return;
+		}
+		Short app = appNameIndex.get(appName);
+		if (app == null) {
+			app = (short) appNames.size();
+			appNames.add(appName);
+			appNameIndex.put(appName, app);
+		}
+		appIds[row] = app;
+	}
+
+	TcpInfo getTcpInfo(int row) {
+		byte tcpInfo = tcpInfos[row];
+		return tcpInfo != NONE ? TCP_INFOS[tcpInfo] : null;
+	}
+
+	void setTcpInfo(int row, TcpInfo tcpInfo) {
+		tcpInfos[row] = tcpInfo != null ? (byte) tcpInfo.ordinal() : NONE;
+	}
+
+	RRCState getStateMachine(int row) {
+		byte state = rrcStates[row];
+		return state != NONE ? RRC_STATES[state] : null;
+	}
+
+	void setStateMachine(int row, RRCState state) {
+		rrcStates[row] = state != null ? (byte) state.ordinal() : NONE;
+	}
+
+	TCPSession getSession(int row) {
+		return sessions[row];
+	}
+
+	void setSession(int row, TCPSession session) {
+		sessions[row] = session;
+	}
+
+	Burst getBurst(int row) {
+		return bursts[row];
+	}
+
+	void setBurst(int row, Burst burst) {
+		bursts[row] = burst;
+	}
+
+	HttpRequestResponseInfo getRequestResponseInfo(int row) {
+		return requestResponses[row];
+	}
+
+	void setRequestResponseInfo(int row, HttpRequestResponseInfo rr) {
+		requestResponses[row] = rr;
+	}
+
+	/**
+	 * Writes the packet attribute columns to a trace cache.
+	 *
+	 * @param out
+	 *            The cache stream.
+	 * @param recordOffsets
+	 *            The file offsets of the packet records of the pcap file,
+	 *            indexed by packet id - 1.
+	 * @throws IOException
+	 */
+	void write(DataOutputStream out, long[] recordOffsets) throws IOException {
+		out.writeInt(size);
+		TraceCache.writeStrings(out, appNames);
+		long[] offsets = new long[size];
+		for (int i = 0; i < size; ++i) {
+			offsets[i] = recordOffsets[ids[i] - 1];
+		}
+		TraceCache.writeLongs(out, offsets, size);
+		TraceCache.writeInts(out, ids, size);
+		TraceCache.writeDoubles(out, timestamps, size);
+		TraceCache.writeInts(out, lens, size);
+		TraceCache.writeChars(out, datalinkLens, size);
+		TraceCache.writeInts(out, payloadLens, size);
+		TraceCache.writeBytes(out, dirs, size);
+		TraceCache.writeInts(out, sourceEndpoints, size);
+		TraceCache.writeInts(out, destinationEndpoints, size);
+		TraceCache.writeChars(out, sourcePorts, size);
+		TraceCache.writeChars(out, destinationPorts, size);
+		TraceCache.writeInts(out, seqs, size);
+		TraceCache.writeInts(out, acks, size);
+		TraceCache.writeBytes(out, flags, size);
+		TraceCache.writeChars(out, windows, size);
+		TraceCache.writeBytes(out, protocols, size);
+		TraceCache.writeShorts(out, appIds, size);
+
+		// Reassembled IP datagrams are not the data of a single pcap record,
+		// so their data is written to the cache
+		int count = 0;
+		for (int i = 0; i < size; ++i) {
+			Packet packet = packets != null ? packets[i] : datagrams.get(i);
+			if (packet != null && packet.isReassembled()) {
+				++count;
+			}
+		}
+		out.writeInt(count);
+		for (int i = 0; i < size; ++i) {
+			Packet packet = packets != null ? packets[i] : datagrams.get(i);
+			if (packet != null && packet.isReassembled()) {
+				byte[] data = packet.getData();
+				out.writeInt(i);
+				out.writeLong(packet.getSeconds());
+				out.writeLong(packet.getMicroSeconds());
+				out.writeInt(packet.getLen());
+				out.writeInt(packet.getDatalinkHeaderSize());
+				out.writeInt(data.length);
+				out.write(data);
+			}
+		}
+	}
+
+	/**
+	 * Reads the packet attribute columns from a trace cache. The packets
+	 * themselves are read from the pcap file when they are requested.
+	 *
+	 * @param in
+	 *            The cache buffer.
+	 * @param source
+	 *            The pcap file opened for random access.
+	 * @throws IOException
+	 */
+	void read(ByteBuffer in, PCapFileReader source) throws IOException {
+		int n = in.getInt();
+		int capacity = Math.max(n, 1);
+		allocate(capacity);
+		size = n;
+		packets = null;
+		datagrams.clear();
+		appNames.clear();
+		appNameIndex.clear();
+		for (String appName : TraceCache.readStrings(in)) {
+			appNameIndex.put(appName, (short) appNames.size());
+			appNames.add(appName);
+		}
+		this.source = source;
+		recordOffsets = TraceCache.readLongs(in, n, capacity);
+		ids = TraceCache.readInts(in, n, capacity);
+		timestamps = TraceCache.readDoubles(in, n, capacity);
+		lens = TraceCache.readInts(in, n, capacity);
+		datalinkLens = TraceCache.readChars(in, n, capacity);
+		payloadLens = TraceCache.readInts(in, n, capacity);
+		dirs = TraceCache.readBytes(in, n, capacity);
+		sourceEndpoints = TraceCache.readInts(in, n, capacity);
+		destinationEndpoints = TraceCache.readInts(in, n, capacity);
+		sourcePorts = TraceCache.readChars(in, n, capacity);
+		destinationPorts = TraceCache.readChars(in, n, capacity);
+		seqs = TraceCache.readInts(in, n, capacity);
+		acks = TraceCache.readInts(in, n, capacity);
+		flags = TraceCache.readBytes(in, n, capacity);
+		windows = TraceCache.readChars(in, n, capacity);
+		protocols = TraceCache.readBytes(in, n, capacity);
+		appIds = TraceCache.readShorts(in, n, capacity);
+		for (int i = in.getInt(); i > 0; --i) {
+			int row = in.getInt();
+			long seconds = in.getLong();
+			long microSeconds = in.getLong();
+			int len = in.getInt();
+			int datalinkHdrLen = in.getInt();
+			byte[] data = new byte[in.getInt()];
+			in.get(data);
+			datagrams.put(row, Packet.createDatagram(seconds, microSeconds, len,
+					datalinkHdrLen, data));
+		}
+		clearAnalysis();
+	}
+
+	/**
+	 * Resizes all columns to the specified capacity.
+	 */
+	private void allocate(int capacity) {
+		if (recordOffsets != null) {
+			recordOffsets = Arrays.copyOf(recordOffsets, capacity);
+		}
+		if (ids == null) {
+			packets = new Packet[capacity];
+			ids = new int[capacity];
+			timestamps = new double[capacity];
+			lens = new int[capacity];
+			datalinkLens = new char[capacity];
+			payloadLens = new int[capacity];
+			dirs = new byte[capacity];
+			sourceEndpoints = new int[capacity];
+			destinationEndpoints = new int[capacity];
+			sourcePorts = new char[capacity];
+			destinationPorts = new char[capacity];
+			seqs = new int[capacity];
+			acks = new int[capacity];
+			flags = new byte[capacity];
+			windows = new char[capacity];
+			protocols = new byte[capacity];
+			appIds = new short[capacity];
+			tcpInfos = new byte[capacity];
+			rrcStates = new byte[capacity];
+			sessions = new TCPSession[capacity];
+			bursts = new Burst[capacity];
+			requestResponses = new HttpRequestResponseInfo[capacity];
+		} else {
+			if (packets != null) {
+				packets = Arrays.copyOf(packets, capacity);
+			}
+			ids = Arrays.copyOf(ids, capacity);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+			lens = Arrays.copyOf(lens, capacity);
+			datalinkLens = Arrays.copyOf(datalinkLens, capacity);
+			payloadLens = Arrays.copyOf(payloadLens, capacity);
+			dirs = Arrays.copyOf(dirs, capacity);
+			sourceEndpoints = Arrays.copyOf(sourceEndpoints, capacity);
+			destinationEndpoints = Arrays.copyOf(destinationEndpoints, capacity);
+			sourcePorts = Arrays.copyOf(sourcePorts, capacity);
+			destinationPorts = Arrays.copyOf(destinationPorts, capacity);
+			seqs = Arrays.copyOf(seqs, capacity);
+			acks = Arrays.copyOf(acks, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			windows = Arrays.copyOf(windows, capacity);
+			protocols = Arrays.copyOf(protocols, capacity);
+			appIds = Arrays.copyOf(appIds, capacity);
+			tcpInfos = Arrays.copyOf(tcpInfos, capacity);
+			rrcStates = Arrays.copyOf(rrcStates, capacity);
+			sessions = Arrays.copyOf(sessions, capacity);
+			bursts = Arrays.copyOf(bursts, capacity);
+			requestResponses = Arrays.copyOf(requestResponses, capacity);
+		}
+	}
+
+	/**
+	 * Returns the rows in timestamp order. The row indexes are merge sorted
+	 * by the timestamp column, which keeps rows with equal timestamps in
+	 * order.
+	 */
+	private int[] sortedRows() {
+		int[] rows = new int[size];
+		for (int i = 0; i < size; ++i) {
+			rows[i] = i;
+		}
+
+		// Insertion sort of short runs
+		for (int start = 0; start < size; start += SORT_RUN) {
+			int end = Math.min(start + SORT_RUN, size);
+			for (int i = start + 1; i < end; ++i) {
+				int row = rows[i];
+				double timestamp = timestamps[row];
+				int j = i;
+				for (; j > start && Double.compare(timestamps[rows[j - 1]], timestamp) > 0; --j) {
+					rows[j] = rows[j - 1];
+				}
+				rows[j] = row;
+			}
+		}
+
+		// Merge pairs of sorted runs of doubling width
+		int[] from = rows;
+		int[] to = new int[size];
+		for (int width = SORT_RUN; width < size; width *= 2) {
+			for (int start = 0; start < size; start += 2 * width) {
+				int mid = Math.min(start + width, size);
+				int end = Math.min(mid + width, size);
+				int i = start;
+				int j = mid;
+				int k = start;
+				while (i < mid && j < end) {
+					if (Double.compare(timestamps[from[j]], timestamps[from[i]]) < 0) {
+						to[k++] = from[j++];
+					} else {
+						to[k++] = from[i++];
+					}
+				}
+				System.arraycopy(from, i, to, k, mid - i);
+				System.arraycopy(from, j, to, k + mid - i, end - j);
+			}
+			int[] swap = from;
+			from = to;
+			to = swap;
+		}
+		return from;
+	}
+
+	private <T> T[] permute(T[] column, T[] result, int[] rows) {
+		for (int i = 0; i < size; ++i) {
+			result[i] = column[rows[i]];
+		}
+		return result;
+	}
+
+	private long[] permute(long[] column, int[] rows) {
+		long[] result = new long[column.length];
+		for (int i = 0; i < size; ++i) {
+			result[i] = column[rows[i]];
+		}
+		return result;
+	}
+
+	private int[] permute(int[] column, int[] rows) {
+		int[] result = new int[column.length];
+		for (int i = 0; i < size; ++i) {
+			result[i] = column[rows[i]];
+		}
+		return result;
+	}
+
+	private double[] permute(double[] column, int[] rows) {
+		double[] result = new double[column.length];
+		for (int i = 0; i < size; ++i) {
+			result[i] = column[rows[i]];
+		}
+		return result;
+	}
+
+	private short[] permute(short[] column, int[] rows) {
+		short[] result = new short[column.length];
+		for (int i = 0; i < size; ++i) {
+			result[i] = column[rows[i]];
+		}
+		return result;
+	}
+
+	private char[] permute(char[] column, int[] rows) {
+		char[] result = new char[column.length];
+		for (int i = 0; i < size; ++i) {
+			result[i] = column[rows[i]];
+		}
+		return result;
+	}
+
+	private byte[] permute(byte[] column, int[] rows) {
+		byte[] result = new byte[column.length];
+		for (int i = 0; i < size; ++i) {
+			result[i] = column[rows[i]];
+		}
+		return result;
+	}
+}
@@ -208,13 +208,14 @@ public class ProfileLTE extends Profile {
 			// Assume no throughput
 			return deltaTime * lteBeta;
 		case LTE_CONTINUOUS:
-			for (Throughput t : Throughput.calculateThroughput(time1, time2,
-					getThroughputWindow(), packets)) {
-				result += (((lteAlphaUp / 1000.0) * t.getUploadMbps())
-						+ ((lteAlphaDown / 1000.0) * t.getDownloadMbps()) + lteBeta)
-						* t.getSamplePeriod();
-			}
-			break;
+			// The throughput windows partition the time range and the energy
+			// is linear in throughput, so the energy of the range only depends
+			// on the bytes transferred in it
+			ThroughputIndex index = ThroughputIndex.getIndex(packets);
+			double upMb = index.getUploadBytes(time1, time2) * 8 / 1000.0 / 1000.0;
+			double downMb = index.getDownloadBytes(time1, time2) * 8 / 1000.0 / 1000.0;
+			return ((lteAlphaUp / 1000.0) * upMb) + ((lteAlphaDown / 1000.0) * downMb)
+					+ (lteBeta * deltaTime);
 		case LTE_DRX_SHORT :
 			return (deltaTime / drxShortPingPeriod)
 					* ((drxPingTime * drxShortPingPower) + ((drxShortPingPeriod - drxPingTime) * lteTailPower));
@@ -0,0 +1,568 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * A reassembled TCP stream. The stream is a list of segments that reference
+ * the payloads of the packets it was reassembled from, rather than a copy of
+ * them, together with the offset of each segment in the stream. Bytes are
+ * accessed by their offset in the stream, and any range of the stream can be
+ * read through an InputStream or a list of ByteBuffer views without copying
+ * the whole stream.
+ * <p>
+ * A stream may be given a memory budget. Once the bytes appended exceed the
+ * budget, the rest of the stream is copied into a temporary memory mapped
+ * file, where consecutive payloads are held as one segment. Those bytes are
+ * then read from the file through the same methods. The file is deleted as
+ * soon as it is created, and its regions stay mapped until the stream is
+ * garbage collected, because a mapping cannot be released explicitly. On
+ * Windows a mapped file cannot be deleted, so it is deleted when the JVM
+ * exits. If it is still mapped then, it is left in the temporary directory
+ * and is removed the next time a stream spills.
+ * <p>
+ * Offsets are int values, so a stream holds at most Integer.MAX_VALUE bytes.
+ * Bytes appended beyond that are dropped with a warning.
+ * <p>
+ * A stream is only appended to while its session is reassembled, after which
+ * it is not modified and may be read by several threads.
+ */
+public class SegmentStream implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = Logger.getLogger(SegmentStream.class
+			.getName());
+
+	// Size of each region of the spill file that is mapped at one time
+	private static final int SPILL_WINDOW_SIZE = 16 * 1024 * 1024;
+
+	// Name of the spill files in the temporary directory
+	private static final String SPILL_PREFIX = "aro";
+	private static final String SPILL_SUFFIX = ".tcp";
+
+	// Whether the spill files left by earlier runs have been removed
+	private static boolean staleSpillFilesRemoved;
+
+	private transient ByteBuffer[] segments = new ByteBuffer[8];
+
+	// Offset of each segment, with one more element than there are segments
+	// holding the length of the stream
+	private transient int[] offsets = new int[9];
+	private transient int count;
+
+	// Segment of the last byte read, to speed up sequential reads
+	private transient int lastSegment;
+
+	// Bytes appended before the rest is spilled to a file, or a negative
+	// value for no limit
+	private transient long memoryBudget;
+
+	// Spill file and the mapped region being written, and the position in
+	// the region of the last segment, or -1 if a new segment is to be started
+	private transient RandomAccessFile spillFile;
+	private transient MappedByteBuffer spillWindow;
+	private transient long spillWindowStart;
+	private transient int spillSegmentStart = -1;
+	private transient boolean spilled;
+
+	// Whether bytes beyond the maximum length have been dropped
+	private transient boolean truncated;
+
+	/**
+	 * Initializes an empty instance of the SegmentStream class that is held in
+	 * memory.
+	 */
+	SegmentStream() {
+		this(-1);
+	}
+
+	/**
+	 * Initializes an empty instance of the SegmentStream class with the
+	 * specified memory budget.
+	 * 
+	 * @param memoryBudget
+	 *            The number of bytes held in memory before the rest of the
+	 *            stream is spilled to a file, or a negative value for no limit.
+	 */
+	SegmentStream(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Appends the specified bytes of a buffer to the end of the stream. The
+	 * bytes are referenced, not copied, so they must not be changed afterwards,
+	 * unless the memory budget has been exceeded in which case they are copied
+	 * to the spill file.
+	 */
+	void append(ByteBuffer data, int offset, int length) {
+		if (length > Integer.MAX_VALUE - length()) {
+			if (!truncated) {
+				logger.warning("Reassembled TCP stream is longer than "
+						+ Integer.MAX_VALUE + " bytes, the rest is dropped");
+				truncated = true;
+			}
+			length = Integer.MAX_VALUE - length();
+		}
+		if (length <= 0) {
+			return;
+		}
+		ByteBuffer segment = data.duplicate();
+		segment.limit(offset + length);
+		segment.position(offset);
+		if (memoryBudget >= 0 && length() + (long) length > memoryBudget
+				&& spill(segment)) {
+			return;
+		}
+		addSegment(segment.slice());
+	}
+
+	/**
+	 * Releases the spill file once the stream is complete. Segments already
+	 * read from the file remain valid.
+	 */
+	void finish() {
+		if (spillFile != null) {
+			try {
+				spillFile.close();
+			} catch (IOException e) {
+				logger.warning("Unable to close spill file: " + e.getMessage());
+			}
+			spillFile = null;
+			spillWindow = null;
+		}
+		memoryBudget = -1;
+	}
+
+	/**
+	 * Returns true if part of the stream is held in a spill file.
+	 *
+	 * @return true if the stream exceeded its memory budget.
+	 */
+	public boolean isSpilled() {
+		return spilled;
+	}
+
+	private void addSegment(ByteBuffer segment) {
+		if (count == segments.length) {
+			segments = Arrays.copyOf(segments, count * 2);
+			offsets = Arrays.copyOf(offsets, count * 2 + 1);
+		}
+		segments[count] = segment;
+		offsets[count + 1] = offsets[count] + segment.remaining();
+		++count;
+	}
+
+	/**
+	 * Copies the bytes of the segment to the spill file. Bytes written next to
+	 * those of the last segment extend it.
+	 * 
+	 * @return false if the file could not be written, in which case the
+	 *         stream is held in memory from now on.
+	 */
+	private boolean spill(ByteBuffer segment) {
+		int length = segment.remaining();
+		try {
+			if (spillWindow == null || spillWindow.remaining() < length) {
+				mapSpillWindow(length);
+			}
+		} catch (IOException e) {
+			logger.warning("Unable to spill reassembled data to disk: "
+					+ e.getMessage());
+			finish();
+			return false;
+		}
+
+		int start = spillWindow.position();
+		spillWindow.put(segment);
+		if (spillSegmentStart >= 0) {
+			ByteBuffer extended = spillWindow.duplicate();
+			extended.limit(spillWindow.position());
+			extended.position(spillSegmentStart);
+			segments[count - 1] = extended.slice();
+			offsets[count] += length;
+		} else {
+			ByteBuffer added = spillWindow.duplicate();
+			added.limit(spillWindow.position());
+			added.position(start);
+			addSegment(added.slice());
+			spillSegmentStart = start;
+		}
+		return true;
+	}
+
+	/**
+	 * Maps the next region of the spill file, creating the file first when
+	 * needed.
+	 */
+	private void mapSpillWindow(int minSize) throws IOException {
+		if (spillFile == null) {
+			File file = File.createTempFile(SPILL_PREFIX, SPILL_SUFFIX);
+			removeStaleSpillFiles(file);
+			spillFile = new RandomAccessFile(file, "rw");
+			spilled = true;
+
+			// The file stays readable through the mapped regions once deleted
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		} else {
+			spillWindowStart += spillWindow.position();
+		}
+		spillWindow = spillFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+				spillWindowStart, Math.max(SPILL_WINDOW_SIZE, minSize));
+		spillSegmentStart = -1;
+	}
+
+	/**
+	 * Removes the spill files that earlier runs could not delete, from the
+	 * directory of the specified new spill file. A file that is still mapped
+	 * by a running analyzer cannot be deleted on Windows, and on other
+	 * systems spill files are deleted as soon as they are created.
+	 */
+	private static synchronized void removeStaleSpillFiles(File spillFile) {
+		if (staleSpillFilesRemoved) {
+			return;
+		}
+		staleSpillFilesRemoved = true;
+		File[] files = spillFile.getAbsoluteFile().getParentFile().listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(SPILL_PREFIX) && name.endsWith(SPILL_SUFFIX)
+					&& !file.equals(spillFile.getAbsoluteFile()) && file.isFile()) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes in the stream.
+	 *
+	 * @return The length of the stream.
+	 */
+	public int length() {
+		return offsets[count];
+	}
+
+	/**
+	 * Returns the byte at the specified offset of the stream.
+	 *
+	 * @param index
+	 *            The offset of the byte.
+	 * @return The byte.
+	 */
+	public byte get(int index) {
+		int s = segmentAt(index);
+		return segments[s].get(index - offsets[s]);
+	}
+
+	/**
+	 * Copies bytes of the stream into the specified array.
+	 *
+	 * @param index
+	 *            The offset of the first byte to copy.
+	 * @param dst
+	 *            The array into which bytes are copied.
+	 * @param off
+	 *            The offset in the array of the first byte.
+	 * @param len
+	 *            The number of bytes to copy.
+	 * @return The number of bytes copied, which is less than len when the
+	 *         stream ends first.
+	 */
+	public int get(int index, byte[] dst, int off, int len) {
+		len = Math.min(len, length() - index);
+		if (len <= 0) {
+			return 0;
+		}
+		int s = segmentAt(index);
+		int copied = 0;
+		while (copied < len) {
+			ByteBuffer segment = segments[s].duplicate();
+			segment.position(index + copied - offsets[s]);
+			int n = Math.min(len - copied, segment.remaining());
+			segment.get(dst, off + copied, n);
+			copied += n;
+			++s;
+		}
+		return copied;
+	}
+
+	/**
+	 * Returns the offset of the first occurrence of the specified bytes that
+	 * lies wholly within a range of the stream. The stream is scanned in place.
+	 *
+	 * @param pattern
+	 *            The bytes to find.
+	 * @param from
+	 *            The offset at which to start the search.
+	 * @param to
+	 *            The offset at which the range ends.
+	 * @return The offset of the bytes, or -1 if they are not found.
+	 */
+	public int indexOf(byte[] pattern, int from, int to) {
+		from = Math.max(from, 0);
+		int last = Math.min(to, length()) - pattern.length;
+		if (from > last) {
+			return -1;
+		} else if (pattern.length == 0) {
+			return from;
+		}
+		byte first = pattern[0];
+		int s = segmentAt(from);
+		int i = from;
+		while (i <= last) {
+			ByteBuffer segment = segments[s];
+			int base = offsets[s];
+			int end = Math.min(offsets[s + 1], last + 1);
+			for (; i < end; ++i) {
+				if (segment.get(i - base) == first && matches(pattern, i)) {
+					return i;
+				}
+			}
+			++s;
+		}
+		return -1;
+	}
+
+	private boolean matches(byte[] pattern, int index) {
+		for (int k = 1; k < pattern.length; ++k) {
+			if (get(index + k) != pattern[k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a copy of the specified bytes of the stream.
+	 *
+	 * @param index
+	 *            The offset of the first byte.
+	 * @param len
+	 *            The number of bytes.
+	 * @return An array of the bytes, which is shorter than len when the stream
+	 *         ends first.
+	 */
+	public byte[] toByteArray(int index, int len) {
+		byte[] result = new byte[Math.max(0, Math.min(len, length() - index))];
+		get(index, result, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * Returns read only views of the specified bytes of the stream, one for
+	 * each segment they span. No bytes are copied.
+	 *
+	 * @param index
+	 *            The offset of the first byte.
+	 * @param len
+	 *            The number of bytes.
+	 * @return The buffers, which hold fewer than len bytes when the stream
+	 *         ends first.
+	 */
+	public ByteBuffer[] getBuffers(int index, int len) {
+		len = Math.min(len, length() - index);
+		if (len <= 0) {
+			return new ByteBuffer[0];
+		}
+		int first = segmentAt(index);
+		int last = segmentAt(index + len - 1);
+		ByteBuffer[] result = new ByteBuffer[last - first + 1];
+		for (int s = first; s <= last; ++s) {
+			ByteBuffer segment = segments[s].asReadOnlyBuffer();
+			if (s == last) {
+				segment.limit(index + len - offsets[s]);
+			}
+			if (s == first) {
+				segment.position(index - offsets[s]);
+			}
+			result[s - first] = segment.slice();
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the specified bytes of the stream to a channel, directly from
+	 * the segments.
+	 *
+	 * @param channel
+	 *            The channel to write to.
+	 * @param index
+	 *            The offset of the first byte.
+	 * @param len
+	 *            The number of bytes.
+	 * @throws IOException
+	 */
+	public void writeTo(WritableByteChannel channel, int index, int len)
+			throws IOException {
+		for (ByteBuffer buffer : getBuffers(index, len)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Returns an InputStream that reads the whole stream.
+	 *
+	 * @return The input stream.
+	 */
+	public InputStream getInputStream() {
+		return getInputStream(0, length());
+	}
+
+	/**
+	 * Returns an InputStream that reads the specified bytes of the stream.
+	 *
+	 * @param index
+	 *            The offset of the first byte.
+	 * @param len
+	 *            The number of bytes, which is limited to the end of the
+	 *            stream.
+	 * @return The input stream.
+	 */
+	public InputStream getInputStream(final int index, int len) {
+		final int end = index + Math.max(0, Math.min(len, length() - index));
+		return new InputStream() {
+			private int pos = index;
+			private int mark = index;
+
+			@Override
+			public int read() {
+				return pos < end ? get(pos++) & 0xFF : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if (len == 0) {
+					return 0;
+				}
+				int n = get(pos, b, off, Math.min(len, end - pos));
+				if (n == 0) {
+					return -1;
+				}
+				pos += n;
+				return n;
+			}
+
+			@Override
+			public long skip(long n) {
+				long skipped = Math.max(0, Math.min(n, end - pos));
+				pos += skipped;
+				return skipped;
+			}
+
+			@Override
+			public int available() {
+				return end - pos;
+			}
+
+			@Override
+			public boolean markSupported() {
+				return true;
+			}
+
+			@Override
+			public synchronized void mark(int readlimit) {
+				mark = pos;
+			}
+
+			@Override
+			public synchronized void reset() {
+				pos = mark;
+			}
+		};
+	}
+
+	/**
+	 * Returns the index of the segment that holds the byte at the specified
+	 * offset.
+	 */
+	private int segmentAt(int index) {
+		if (index < 0 || index >= length()) {
+			throw new IndexOutOfBoundsException("Index: " + index
+					+ ", Length: " + length());
+		}
+
+		// Reads are mostly sequential, so try the last and the next segment
+		// before searching
+		int s = lastSegment;
+		if (s < count && offsets[s] <= index) {
+			if (index < offsets[s + 1]) {
+				return s;
+			} else if (s + 1 < count && index < offsets[s + 2]) {
+				lastSegment = s + 1;
+				return s + 1;
+			}
+		}
+
+		int low = 0;
+		int high = count - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (offsets[mid] <= index) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		lastSegment = low;
+		return low;
+	}
+
+	/**
+	 * Writes the bytes of the stream.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(length());
+		byte[] buffer = new byte[8192];
+		for (int i = 0; i < length(); i += buffer.length) {
+			int n = get(i, buffer, 0, buffer.length);
+			out.write(buffer, 0, n);
+		}
+	}
+
+	/**
+	 * Reads the bytes of the stream into a single segment.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		segments = new ByteBuffer[1];
+		offsets = new int[2];
+		memoryBudget = -1;
+		append(ByteBuffer.wrap(data), 0, data.length);
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The session stage of a trace analysis. Holds the TCP sessions, the UDP
+ * flows, the DNS lookups and the cache analysis of a set of rows of the
+ * packet table, together with the per packet results (TCP info, session and
+ * request/response) that the session extraction stores in the table.
+ * <p>
+ * The results depend only on the analyzed packets, so a stage is reused by a
+ * later analysis of the same rows, such as one with a different profile. A
+ * stage of all of the packets is also subset for an analysis of some of them,
+ * in which case only the connections that are partly included are
+ * reassembled again.
+ */
+class SessionStage {
+
+	private PacketTable table;
+	private BitSet rows;
+	private List<TCPSession> tcpSessions;
+	private List<UDPFlow> udpFlows;
+	private List<DnsLookup> dnsLookups;
+	private List<DnsLookup> traceDnsLookups;
+	private CacheAnalysis cacheAnalysis;
+	private PacketTable.SessionColumns columns;
+
+	// Number of packets of each connection, counted on the first subset
+	private ConnectionCounts connectionSizes;
+
+	/**
+	 * Runs the session stage on the specified packets.
+	 *
+	 * @param table
+	 *            The packet table of the trace.
+	 * @param packets
+	 *            The packets to be analyzed, in timestamp order.
+	 * @param rows
+	 *            The rows of the table of the packets.
+	 * @param traceDnsLookups
+	 *            The DNS lookups of all of the packets of the trace, which
+	 *            name the sessions that have no HTTP host name.
+	 * @throws IOException
+	 */
+	SessionStage(PacketTable table, List<PacketInfo> packets, BitSet rows,
+			List<DnsLookup> traceDnsLookups) throws IOException {
+		this(table, packets, rows, new ArrayList<UDPFlow>(), traceDnsLookups);
+	}
+
+	private SessionStage(PacketTable table, List<PacketInfo> packets, BitSet rows,
+			List<UDPFlow> udpFlows, List<DnsLookup> traceDnsLookups)
+			throws IOException {
+		this(table, packets, rows, TCPSession.extractTCPSessions(packets, udpFlows),
+				udpFlows, traceDnsLookups);
+	}
+
+	private SessionStage(PacketTable table, List<PacketInfo> packets, BitSet rows,
+			List<TCPSession> tcpSessions, List<UDPFlow> udpFlows,
+			List<DnsLookup> traceDnsLookups) throws IOException {
+		this.table = table;
+		this.rows = rows;
+		this.tcpSessions = tcpSessions;
+		this.udpFlows = udpFlows;
+		this.traceDnsLookups = traceDnsLookups;
+		this.dnsLookups = DnsLookup.extractDnsLookups(packets);
+		TCPSession.resolveDomainNames(tcpSessions, traceDnsLookups);
+		this.cacheAnalysis = new CacheAnalysis(tcpSessions);
+		this.columns = table.saveSessionColumns();
+	}
+
+	/**
+	 * Returns true if this stage analyzed the specified rows.
+	 */
+	boolean isStageOf(BitSet rows) {
+		return this.rows.equals(rows);
+	}
+
+	/**
+	 * Restores the per packet results of this stage, which another analysis
+	 * may have changed since.
+	 */
+	void restore() {
+		table.restoreSessionColumns(columns);
+	}
+
+	/**
+	 * Returns the session stage of a subset of the packets of this stage. The
+	 * sessions of the connections whose packets are all included are reused,
+	 * and the included packets of the other connections are extracted again.
+	 * The sessions are listed in the order extractTCPSessions would list them
+	 * for the subset. The UDP flows of the subset are grouped again, which
+	 * only takes a pass over the packets.
+	 *
+	 * @param packets
+	 *            The packets to be analyzed, in timestamp order.
+	 * @param rows
+	 *            The rows of the table of the packets.
+	 * @return The session stage of the packets.
+	 * @throws IOException
+	 */
+	SessionStage subset(List<PacketInfo> packets, BitSet rows)
+			throws IOException {
+		if (connectionSizes == null) {
+			connectionSizes = new ConnectionCounts(table);
+		}
+		restore();
+
+		ConnectionCounts counts = new ConnectionCounts(packets);
+		List<PacketInfo> partial = new ArrayList<PacketInfo>();
+		UDPFlow.Extractor udp = new UDPFlow.Extractor();
+		for (PacketInfo packet : packets) {
+			udp.add(packet);
+			long key = TCPSession.getConnectionKey(packet);
+			if (key != TCPSession.NO_CONNECTION
+					&& counts.get(key) != connectionSizes.get(key)) {
+
+				// Clear the results restored from this stage
+				packet.setTcpInfo(null);
+				packet.setSession(null);
+				packet.setRequestResponseInfo(null);
+				partial.add(packet);
+			}
+		}
+
+		List<List<TCPSession>> extracted = counts.group(TCPSession
+				.extractTCPSessions(partial));
+		List<List<TCPSession>> reused = counts.group(tcpSessions);
+
+		// The first session of each connection is listed in the order the
+		// connections are first seen, and the sessions restarted by a new
+		// SYN follow them all
+		List<TCPSession> sessions = new ArrayList<TCPSession>();
+		List<TCPSession> restarted = new ArrayList<TCPSession>();
+		for (int id = 0; id < extracted.size(); ++id) {
+			List<TCPSession> s = extracted.get(id);
+			if (s.isEmpty()) {
+				s = reused.get(id);
+			}
+			if (!s.isEmpty()) {
+				sessions.add(s.get(0));
+				restarted.addAll(s.subList(1, s.size()));
+			}
+		}
+		sessions.addAll(restarted);
+		return new SessionStage(table, packets, rows, sessions, udp.getFlows(),
+				traceDnsLookups);
+	}
+
+	/**
+	 * Returns the TCP sessions of the analyzed packets.
+	 */
+	List<TCPSession> getTcpSessions() {
+		return tcpSessions;
+	}
+
+	/**
+	 * Returns the UDP flows of the analyzed packets.
+	 */
+	List<UDPFlow> getUdpFlows() {
+		return udpFlows;
+	}
+
+	/**
+	 * Returns the DNS lookups of the analyzed packets.
+	 */
+	List<DnsLookup> getDnsLookups() {
+		return dnsLookups;
+	}
+
+	/**
+	 * Returns the cache analysis of the TCP sessions.
+	 */
+	CacheAnalysis getCacheAnalysis() {
+		return cacheAnalysis;
+	}
+
+	/**
+	 * Number of TCP packets of each connection of a list of packets, with the
+	 * connections numbered in the order they are first seen.
+	 */
+	private static class ConnectionCounts {
+		private ConnectionTable connections = new ConnectionTable();
+		private int[] counts = new int[16];
+
+		private ConnectionCounts(List<PacketInfo> packets) {
+			for (PacketInfo packet : packets) {
+				long key = TCPSession.getConnectionKey(packet);
+				if (key != TCPSession.NO_CONNECTION) {
+					int id = connections.getId(key);
+					if (id == counts.length) {
+						counts = Arrays.copyOf(counts, id * 2);
+					}
+					++counts[id];
+				}
+			}
+		}
+
+		/**
+		 * Returns the number of packets of the connection with the specified
+		 * key, or 0 if there are none.
+		 */
+		private int get(long key) {
+			int id = connections.find(key);
+			return id >= 0 ? counts[id] : 0;
+		}
+
+		/**
+		 * Groups the specified sessions by connection. The list at each
+		 * connection id holds the sessions of that connection, and sessions of
+		 * other connections are left out.
+		 */
+		private List<List<TCPSession>> group(List<TCPSession> sessions) {
+			List<List<TCPSession>> result = new ArrayList<List<TCPSession>>(
+					connections.size());
+			for (int i = 0; i < connections.size(); ++i) {
+				result.add(new ArrayList<TCPSession>(1));
+			}
+			for (TCPSession session : sessions) {
+				int id = connections.find(session.getConnectionKey());
+				if (id >= 0) {
+					result.get(id).add(session);
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -15,26 +15,34 @@
 */
 package com.att.aro.model;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import com.att.aro.model.PacketInfo.Direction;
 import com.att.aro.model.PacketInfo.TcpInfo;
-import com.att.aro.pcap.TCPPacket;
+import com.att.aro.pcap.Packet;
 
 /**
  * Represents a TCP session, acting as a bean class for session information. Provides methods for 
@@ -85,6 +93,13 @@ public class TCPSession implements Serializable {
 
 	}
 
+	// Largest number of threads that analyze sessions
+	private static final int MAX_ANALYSIS_THREADS = 8;
+
+	// Connection key of packets that do not belong to a connection. The same
+	// value would only be packed for the broadcast address.
+	static final long NO_CONNECTION = -1L;
+
 	private static final Logger logger = Logger.getLogger(TCPSession.class
 			.getName());
 	private InetAddress remoteIP;
@@ -94,7 +109,9 @@ public class TCPSession implements Serializable {
 	 * Domain name is the initial host name requested that initiated a TCP
 	 * session. This value is either the host name specified by the first HTTP
 	 * request in the session or the referrer domain that caused this session to
-	 * be opened
+	 * be opened. Sessions without an HTTP request are named by the server name
+	 * of their TLS ClientHello, or else by the DNS lookup that answered their
+	 * remote IP address, if any.
 	 */
 	private String domainName;
 	private int fileDownloadCount;
@@ -104,40 +121,149 @@ public class TCPSession implements Serializable {
 	private List<PacketInfo> packets = new ArrayList<PacketInfo>();
 	private Set<String> appNames = new HashSet<String>(1);
 	private Termination sessionTermination;
+	private TCPSessionStatistics statistics;
+	private Double handshakeRtt;
+	private TLSSessionInfo tlsSessionInfo;
 	private List<HttpRequestResponseInfo> requestResponseInfo = new ArrayList<HttpRequestResponseInfo>();
 
-	private byte[] storageUl;
+	private SegmentStream storageUl;
 	private SortedMap<Integer, PacketInfo> packetOffsetsUl;
-	private byte[] storageDl;
+	private SegmentStream storageDl;
 	private SortedMap<Integer, PacketInfo> packetOffsetsDl;
 
 	/**
 	 * Tracks information about a reassembled session
 	 */
 	private static class Reassembler {
+		long memoryBudget;
 		Long baseSeq;
 		long seq = -1;
-		List<PacketInfo> ooid = new ArrayList<PacketInfo>();
-		ByteArrayOutputStream storage = new ByteArrayOutputStream();
+
+		// Out of order packets by relative sequence number, with the packets
+		// of each sequence number in the order they arrived
+		TreeMap<Long, List<PacketInfo>> ooid = new TreeMap<Long, List<PacketInfo>>();
+
+		// Out of order packets whose data had already been reassembled when
+		// their turn came
+		List<PacketInfo> duplicates = new ArrayList<PacketInfo>();
+
+		SegmentStream storage;
 		SortedMap<Integer, PacketInfo> packetOffsets = new TreeMap<Integer, PacketInfo>();
 
+		/**
+		 * Initializes a reassembler whose storage holds the specified number
+		 * of bytes in memory before it is spilled to a file.
+		 */
+		Reassembler(long memoryBudget) {
+			this.memoryBudget = memoryBudget;
+			this.storage = new SegmentStream(memoryBudget);
+		}
+
+		/**
+		 * Appends the payload of the packet to the reassembled storage,
+		 * skipping the specified number of bytes at its start. The payload is
+		 * referenced by the storage, not copied.
+		 * 
+		 * @return true if the whole payload was captured and written.
+		 */
+		boolean write(PacketInfo pi, int skip) {
+			Packet p = pi.getPacket();
+			ByteBuffer data = p.getBuffer();
+			int l = p.getPayloadLen();
+			int dataOffset = p.getDataOffset();
+			if (data.limit() < dataOffset + l) {
+				return false;
+			}
+			packetOffsets.put(storage.length(), pi);
+			storage.append(data, dataOffset + skip, l - skip);
+			return true;
+		}
+
+		/**
+		 * Returns true if the packet at the specified relative sequence
+		 * number is a partial retransmission, whose payload begins before
+		 * the next expected byte and ends after it.
+		 */
+		boolean overlaps(long seq, PacketInfo pi) {
+			return pi.getPayloadLen() > 0 && seq < this.seq
+					&& seq + pi.getPayloadLen() > this.seq;
+		}
+
+		/**
+		 * Appends a packet that begins at or before the next expected
+		 * sequence number. Data that has already been reassembled is trimmed
+		 * from its payload.
+		 */
+		void append(PacketInfo pi, long seq) {
+			if (pi.getPayloadLen() > 0) {
+				pi.setTcpInfo(TcpInfo.TCP_DATA);
+				if (write(pi, (int) (this.seq - seq))) {
+					this.seq = seq + pi.getPayloadLen();
+				}
+			}
+			if (pi.isSYN() || pi.isFIN())
+				++this.seq;
+		}
+
+		/**
+		 * Holds a packet that begins after the next expected sequence number
+		 * until the data before it has been reassembled.
+		 */
+		void addOutOfOrder(long seq, PacketInfo pi) {
+			List<PacketInfo> list = ooid.get(seq);
+			if (list == null) {
+				list = new ArrayList<PacketInfo>(1);
+				ooid.put(seq, list);
+			}
+			list.add(pi);
+		}
+
+		/**
+		 * Appends the held packets that have become contiguous with the
+		 * reassembled data, in sequence number order. Each held packet is
+		 * visited once, so draining takes O(log n) per packet.
+		 */
+		void drain() {
+			while (!ooid.isEmpty() && ooid.firstKey() <= seq) {
+				Map.Entry<Long, List<PacketInfo>> entry = ooid.firstEntry();
+				long first = entry.getKey();
+				List<PacketInfo> list = entry.getValue();
+				PacketInfo pi = list.remove(0);
+				if (list.isEmpty()) {
+					ooid.remove(first);
+				}
+				if (first == seq || overlaps(first, pi)) {
+					append(pi, first);
+				} else {
+					duplicates.add(pi);
+				}
+			}
+		}
+
+		/**
+		 * Marks the packets with data that was not reassembled as
+		 * duplicates.
+		 */
+		void markDuplicates() {
+			for (List<PacketInfo> list : ooid.values()) {
+				duplicates.addAll(list);
+			}
+			for (PacketInfo p : duplicates) {
+				if (p.getPayloadLen() > 0) {
+					p.setTcpInfo(TcpInfo.TCP_DATA_DUP);
+				}
+			}
+		}
+
 		void clear() {
 			baseSeq = null;
 			seq = -1;
 			ooid.clear();
-			storage.reset();
+			duplicates.clear();
+			storage = new SegmentStream(memoryBudget);
 			packetOffsets = new TreeMap<Integer, PacketInfo>();
 		}
 
-		/**
-		 * @see java.lang.Object#finalize()
-		 */
-		@Override
-		protected void finalize() throws Throwable {
-			super.finalize();
-			storage.close();
-		}
-
 	}
 
 	/**
@@ -156,6 +282,91 @@ public class TCPSession implements Serializable {
 		this.localPort = localPort;
 	}
 
+	/**
+	 * Returns the key that identifies the connection of the specified packet,
+	 * or NO_CONNECTION if it is not a TCP packet or its direction is unknown.
+	 * The sessions that extractTCPSessions creates from the packets of one
+	 * connection all have the key of that connection. Creating the key does
+	 * not allocate.
+	 */
+	static long getConnectionKey(PacketInfo packet) {
+		if (!packet.isTCP()) {
+			return NO_CONNECTION;
+		}
+		if (packet.getDir() == Direction.UPLINK) {
+			return getConnectionKey(packet.getSourcePort(),
+					packet.getDestinationPort(), packet.getRemoteEndpoint());
+		} else if (packet.getDir() == Direction.DOWNLINK) {
+			return getConnectionKey(packet.getDestinationPort(),
+					packet.getSourcePort(), packet.getRemoteEndpoint());
+		}
+		return NO_CONNECTION;
+	}
+
+	/**
+	 * Returns the key that identifies the connection of this session.
+	 */
+	long getConnectionKey() {
+		return getConnectionKey(localPort, remotePort, packets.get(0)
+				.getRemoteEndpoint());
+	}
+
+	/**
+	 * Packs the endpoint id of the remote address and the local and remote
+	 * ports of a connection into a single value. Endpoint ids are used rather
+	 * than the addresses so that IPv4 and IPv6 connections are keyed alike.
+	 * UDP flows are keyed the same way.
+	 */
+	static long getConnectionKey(int localPort, int remotePort,
+			int remoteEndpoint) {
+		return ((remoteEndpoint & 0xFFFFFFFFL) << 32) | ((localPort & 0xFFFF) << 16)
+				| (remotePort & 0xFFFF);
+	}
+
+	/**
+	 * Names the sessions that have no HTTP host name by the DNS lookups of the
+	 * trace. A session is named by the latest lookup that answered its remote
+	 * IP address before the session started.
+	 *
+	 * @param sessions
+	 *            The sessions to name.
+	 * @param lookups
+	 *            The DNS lookups of the trace, in timestamp order.
+	 */
+	static void resolveDomainNames(List<TCPSession> sessions, List<DnsLookup> lookups) {
+		Map<InetAddress, List<DnsLookup>> lookupsByAddress = new HashMap<InetAddress, List<DnsLookup>>();
+		for (DnsLookup lookup : lookups) {
+			for (InetAddress address : lookup.getAddresses()) {
+				List<DnsLookup> l = lookupsByAddress.get(address);
+				if (l == null) {
+					l = new ArrayList<DnsLookup>(1);
+					lookupsByAddress.put(address, l);
+				}
+				l.add(lookup);
+			}
+		}
+
+		for (TCPSession s : sessions) {
+			if (s.remoteHostName != null) {
+				continue;
+			}
+			List<DnsLookup> l = lookupsByAddress.get(s.remoteIP);
+			String name = null;
+			if (l != null && !s.packets.isEmpty()) {
+				double start = s.packets.get(0).getTimeStamp();
+				double latest = Double.NEGATIVE_INFINITY;
+				for (DnsLookup lookup : l) {
+					double time = lookup.getResponsePacket().getTimeStamp();
+					if (time <= start && time >= latest) {
+						name = lookup.getHostName();
+						latest = time;
+					}
+				}
+			}
+			s.domainName = name != null ? name : s.remoteIP.getHostAddress();
+		}
+	}
+
 	/**
 	 * Creates a List of TCP sessions using the specified Collection of packets.
 	 * 
@@ -167,29 +378,52 @@ public class TCPSession implements Serializable {
 	 */
 	public static List<TCPSession> extractTCPSessions(
 			Collection<PacketInfo> packets) throws IOException {
-		Map<String, TCPSession> sess = new LinkedHashMap<String, TCPSession>();
+		return extractTCPSessions(packets, null);
+	}
+
+	/**
+	 * Creates a List of TCP sessions using the specified Collection of
+	 * packets, and groups the UDP packets into flows in the same pass.
+	 * 
+	 * @param packets  A collection of PacketInfo objects holding the packet information.
+	 * 
+	 * @param udpFlows  A list to which the UDP flows of the packets are added,
+	 *        or null if they are not needed.
+	 * 
+	 * @return The collection of tcp sessions that are found from the packets
+	 *         data.
+	 * @throws IOException
+	 */
+	public static List<TCPSession> extractTCPSessions(
+			Collection<PacketInfo> packets, List<UDPFlow> udpFlows)
+			throws IOException {
+		UDPFlow.Extractor udp = udpFlows != null ? new UDPFlow.Extractor() : null;
+
+		// Packets are grouped by a primitive connection key, so grouping does
+		// not allocate for packets of known connections
+		ConnectionTable connections = new ConnectionTable();
+		List<TCPSession> sessions = new ArrayList<TCPSession>();
 		for (PacketInfo packet : packets) {
 
-			if (!(packet.getPacket() instanceof TCPPacket)) {
+			if (!packet.isTCP()) {
+				if (udp != null) {
+					udp.add(packet);
+				}
 				continue;
 			}
 
-			TCPPacket tcp = (TCPPacket) packet.getPacket();
 			int localPort;
 			int remotePort;
-			InetAddress remoteIP;
 
 			switch (packet.getDir()) {
 			case UPLINK:
-				localPort = tcp.getSourcePort();
-				remoteIP = tcp.getDestinationIPAddress();
-				remotePort = tcp.getDestinationPort();
+				localPort = packet.getSourcePort();
+				remotePort = packet.getDestinationPort();
 				break;
 
 			case DOWNLINK:
-				localPort = tcp.getDestinationPort();
-				remoteIP = tcp.getSourceIPAddress();
-				remotePort = tcp.getSourcePort();
+				localPort = packet.getDestinationPort();
+				remotePort = packet.getSourcePort();
 				break;
 
 			default:
@@ -200,274 +434,292 @@ public class TCPSession implements Serializable {
 			// Clear TCP Info
 			packet.setTcpInfo(null);
 
-			String key = localPort + " " + remotePort + " "
-					+ remoteIP.getHostAddress();
-			TCPSession s = sess.get(key);
-			if (s == null) {
-				s = new TCPSession(remoteIP, remotePort, localPort);
-				sess.put(key, s);
+			int id = connections.getId(getConnectionKey(localPort, remotePort,
+					packet.getRemoteEndpoint()));
+			if (id == sessions.size()) {
+				sessions.add(new TCPSession(packet.getRemoteIPAddress(),
+						remotePort, localPort));
 			}
-			s.packets.add(packet);
+			sessions.get(id).packets.add(packet);
+		}
+		if (udpFlows != null) {
+			udpFlows.addAll(udp.getFlows());
 		}
 
-		// Reassemble sessions
-		List<TCPSession> sessions = new ArrayList<TCPSession>(sess.values());
-		Reassembler ul = new Reassembler();
-		Reassembler dl = new Reassembler();
-		for (int i = 0; i < sessions.size(); ++i) {
-
-			// Iterator is not used because items may be added to list during
-			// iterations
-			TCPSession session = sessions.get(i);
-
-			// Reset variables
-			boolean bTerminated = false;
-			ul.clear();
-			dl.clear();
-
-			PacketInfo lastPacket = null;
-			for (PacketInfo pi : session.packets) {
-				TCPPacket p = (TCPPacket) pi.getPacket();
-
-				Reassembler xl;
-				switch (pi.getDir()) {
-				case UPLINK:
-					xl = ul;
-					break;
-
-				case DOWNLINK:
-					xl = dl;
-					break;
-
-				default:
-					logger.warning("91 - No direction for packet");
-					continue;
+		// Reassemble and parse sessions. Sessions do not share any state, so
+		// each session is analyzed by its own task. The packets from a SYN
+		// that restarts a connection form a new session, which is listed
+		// after the existing sessions and analyzed by a task of its own.
+		if (sessions.isEmpty()) {
+			return sessions;
+		}
+		long memoryBudget = UserPreferences.getInstance()
+				.getReassemblyMemoryBudget();
+		int threads = Math.min(sessions.size(), Math.min(MAX_ANALYSIS_THREADS, Runtime
+				.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<TCPSession> pending = new ArrayList<TCPSession>(sessions);
+			while (!pending.isEmpty()) {
+				List<SessionTask> tasks = new ArrayList<SessionTask>(pending.size());
+				for (TCPSession session : pending) {
+					tasks.add(new SessionTask(session, memoryBudget));
 				}
+				pending.clear();
+				for (Future<TCPSession> result : executor.invokeAll(tasks)) {
+					try {
+						TCPSession restarted = result.get();
+						if (restarted != null) {
+							sessions.add(restarted);
+							pending.add(restarted);
+						}
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof RuntimeException) {
+							throw (RuntimeException) cause;
+						} else if (cause instanceof Error) {
+							throw (Error) cause;
+						}
+						throw new IOException(cause.getMessage());
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted analyzing TCP sessions");
+		} finally {
+			executor.shutdown();
+		}
+		return sessions;
+	}
 
-				if (p.isSYN()) {
-					pi.setTcpInfo(TcpInfo.TCP_ESTABLISH);
-					if (xl.baseSeq == null
-							|| xl.baseSeq.equals(p.getSequenceNumber())) {
+	/**
+	 * Task that reassembles and parses one session, using its own
+	 * reassemblers. The result is the session of the packets from a SYN that
+	 * restarted the connection, or null if it was not restarted.
+	 */
+	private static class SessionTask implements Callable<TCPSession> {
+		private TCPSession session;
+		private long memoryBudget;
 
-						// Finds establish
-						xl.baseSeq = p.getSequenceNumber();
-						if (p.getPayloadLen() != 0) {
-							logger.warning("92 - Payload in establish packet");
-						}
-					} else {
+		private SessionTask(TCPSession session, long memoryBudget) {
+			this.session = session;
+			this.memoryBudget = memoryBudget;
+		}
 
-						// New TCP session
-						List<PacketInfo> currentList = session.packets;
-						int index = currentList.indexOf(pi);
-						if (!bTerminated) {
-							logger.warning("28 - Session termination not found");
-						}
+		@Override
+		public TCPSession call() throws IOException {
+			TCPSession restarted = reassemble(session,
+					new Reassembler(memoryBudget), new Reassembler(memoryBudget));
+			parse(session);
+			return restarted;
+		}
+	}
 
-						// Correct packet list in original session
-						session.packets = new ArrayList<PacketInfo>(
-								currentList.subList(0, index));
+	/**
+	 * Reassembles the uplink and downlink streams of the session.
+	 * 
+	 * @return The session of the packets from a new SYN that restarted the
+	 *         connection, in which case the packet list of this session ends
+	 *         before that SYN, or null if the session was not restarted.
+	 */
+	private static TCPSession reassemble(TCPSession session, Reassembler ul,
+			Reassembler dl) {
 
-						// Create new session for remaining packets
-						TCPSession newSession = new TCPSession(
-								session.remoteIP, session.remotePort,
-								session.localPort);
-						newSession.packets.addAll(currentList.subList(index,
-								currentList.size()));
-						sessions.add(session);
+		// Reset variables
+		boolean bTerminated = false;
+		TCPSession newSession = null;
+		ul.clear();
+		dl.clear();
 
-						// Break out of packet loop
-						break;
-					}
+		PacketInfo lastPacket = null;
+		for (PacketInfo pi : session.packets) {
+			Reassembler xl;
+			switch (pi.getDir()) {
+			case UPLINK:
+				xl = ul;
+				break;
 
-				} else {
-					if (p.isFIN() || p.isRST()) {
-
-						// Calculate session termination info
-						if (!bTerminated && lastPacket != null) {
-							double delay = pi.getTimeStamp()
-									- lastPacket.getTimeStamp();
-							session.sessionTermination = new Termination(pi,
-									delay);
-						}
+			case DOWNLINK:
+				xl = dl;
+				break;
 
-						// Mark session terminated
-						bTerminated = true;
-						if (p.isFIN()) {
-							pi.setTcpInfo(TcpInfo.TCP_CLOSE);
-						} else if (p.isRST()) {
-							pi.setTcpInfo(TcpInfo.TCP_RESET);
-						}
+			default:
+				logger.warning("91 - No direction for packet");
+				continue;
+			}
 
+			if (pi.isSYN()) {
+				pi.setTcpInfo(TcpInfo.TCP_ESTABLISH);
+				if (xl.baseSeq == null
+						|| xl.baseSeq.equals(pi.getSequenceNumber())) {
+
+					// Finds establish
+					xl.baseSeq = pi.getSequenceNumber();
+					if (pi.getPayloadLen() != 0) {
+						logger.warning("92 - Payload in establish packet");
 					}
+				} else {
 
-					// I believe this handles case where we have joined in the
-					// middle of a TCP session
-					if (xl.baseSeq == null) {
-						switch (pi.getDir()) {
-						case UPLINK:
-							ul.baseSeq = p.getSequenceNumber();
-							dl.baseSeq = p.getAckNumber();
-							break;
-						case DOWNLINK:
-							dl.baseSeq = p.getSequenceNumber();
-							ul.baseSeq = p.getAckNumber();
-							break;
-						}
+					// New TCP session
+					List<PacketInfo> currentList = session.packets;
+					int index = currentList.indexOf(pi);
+					if (!bTerminated) {
+						logger.warning("28 - Session termination not found");
 					}
-				}
 
-				// Get appName (there really should be only one per TCP session
-				String appName = pi.getAppName();
-				if (appName != null) {
-					session.appNames.add(appName);
-				}
+					// Correct packet list in original session
+					session.packets = new ArrayList<PacketInfo>(
+							currentList.subList(0, index));
 
-				// Link packet to session
-				pi.setSession(session);
+					// Create new session for remaining packets
+					newSession = new TCPSession(session.remoteIP,
+							session.remotePort, session.localPort);
+					newSession.packets.addAll(currentList.subList(index,
+							currentList.size()));
 
-				long seq = p.getSequenceNumber() - xl.baseSeq;
-				if (seq < 0) {
-					seq += 0xFFFFFFFF;
+					// Break out of packet loop
+					break;
 				}
 
-				if (xl.seq == -1)
-					xl.seq = seq;
-
-				if (seq == xl.seq) {
-					if (p.getPayloadLen() > 0) {
-						pi.setTcpInfo(TcpInfo.TCP_DATA);
-						byte[] data = p.getData();
-						int l = p.getPayloadLen();
-						int dataOffset = p.getDataOffset();
-						if (data.length >= dataOffset + l) {
-							xl.packetOffsets.put(xl.storage.size(), pi);
-							xl.storage.write(data, dataOffset, l);
-							xl.seq += l;
-						}
+			} else {
+				if (pi.isFIN() || pi.isRST()) {
+
+					// Calculate session termination info
+					if (!bTerminated && lastPacket != null) {
+						double delay = pi.getTimeStamp()
+								- lastPacket.getTimeStamp();
+						session.sessionTermination = new Termination(pi,
+								delay);
 					}
-					if (p.isSYN() || p.isFIN())
-						++xl.seq;
-
-					while (true) {
-						boolean bOODone = true;
-						List<PacketInfo> fixed = new ArrayList<PacketInfo>(
-								xl.ooid.size());
-						for (PacketInfo pi1 : xl.ooid) {
-							TCPPacket p1 = (TCPPacket) pi1.getPacket();
-
-							seq = p1.getSequenceNumber() - xl.baseSeq;
-							if (seq < 0) {
-								seq += 0xFFFFFFFF;
-							}
-
-							if (seq == xl.seq) {
-								if (p.getPayloadLen() > 0) {
-									pi1.setTcpInfo(TcpInfo.TCP_DATA);
-									byte[] data = p1.getData();
-									int l = p1.getPayloadLen();
-									int dataOffset = p1.getDataOffset();
-									if (data.length >= dataOffset + l) {
-										xl.packetOffsets.put(xl.storage.size(),
-												pi1);
-										xl.storage.write(data, dataOffset, l);
-										xl.seq += l;
-									}
-								}
-								if (p1.isSYN() || p1.isFIN())
-									++xl.seq;
-								fixed.add(pi1);
-								bOODone = false;
-							} else if (p1.getPayloadLen() == 0
-									&& seq == xl.seq - 1 && p1.isACK()
-									&& !p1.isSYN() && !p1.isFIN()
-									&& !p1.isRST()) {
-								logger.warning("31 - ???");
-							}
-						}
-						xl.ooid.removeAll(fixed);
-						if (bOODone)
-							break;
+
+					// Mark session terminated
+					bTerminated = true;
+					if (pi.isFIN()) {
+						pi.setTcpInfo(TcpInfo.TCP_CLOSE);
+					} else if (pi.isRST()) {
+						pi.setTcpInfo(TcpInfo.TCP_RESET);
 					}
 
-				} else { // out of order packet, i.e., seq != *XLseq
-					if (p.getPayloadLen() == 0 && seq == xl.seq - 1
-							&& p.isACK() && !p.isSYN() && !p.isFIN()
-							&& !p.isRST()) {
-						if (pi.getTcpInfo() != null) {
-							logger.warning("94 - ???");
-						}
-						pi.setTcpInfo(TcpInfo.TCP_KEEP_ALIVE);
-					} else {
-						xl.ooid.add(pi);
+				}
+
+				// I believe this handles case where we have joined in the
+				// middle of a TCP session
+				if (xl.baseSeq == null) {
+					switch (pi.getDir()) {
+					case UPLINK:
+						ul.baseSeq = pi.getSequenceNumber();
+						dl.baseSeq = pi.getAckNumber();
+						break;
+					case DOWNLINK:
+						dl.baseSeq = pi.getSequenceNumber();
+						ul.baseSeq = pi.getAckNumber();
+						break;
 					}
 				}
+			}
 
-				lastPacket = pi;
-			} // packet loop
-			session.storageDl = dl.storage.toByteArray();
-			session.packetOffsetsDl = dl.packetOffsets;
-			session.storageUl = ul.storage.toByteArray();
-			session.packetOffsetsUl = ul.packetOffsets;
+			// Get appName (there really should be only one per TCP session
+			String appName = pi.getAppName();
+			if (appName != null) {
+				session.appNames.add(appName);
+			}
 
-			for (PacketInfo p : dl.ooid) {
-				if (p.getPacket().getPayloadLen() > 0) {
-					p.setTcpInfo(TcpInfo.TCP_DATA_DUP);
-				}
+			// Link packet to session
+			pi.setSession(session);
+
+			long seq = pi.getSequenceNumber() - xl.baseSeq;
+			if (seq < 0) {
+				seq += 0xFFFFFFFF;
 			}
 
-			for (PacketInfo p : ul.ooid) {
-				if (p.getPacket().getPayloadLen() > 0) {
-					p.setTcpInfo(TcpInfo.TCP_DATA_DUP);
+			if (xl.seq == -1)
+				xl.seq = seq;
+
+			if (seq == xl.seq || xl.overlaps(seq, pi)) {
+				xl.append(pi, seq);
+				xl.drain();
+			} else { // out of order packet, i.e., seq != *XLseq
+				if (pi.getPayloadLen() == 0 && seq == xl.seq - 1
+						&& pi.isACK() && !pi.isSYN() && !pi.isFIN()
+						&& !pi.isRST()) {
+					if (pi.getTcpInfo() != null) {
+						logger.warning("94 - ???");
+					}
+					pi.setTcpInfo(TcpInfo.TCP_KEEP_ALIVE);
+				} else {
+					xl.addOutOfOrder(seq, pi);
 				}
 			}
-		}
 
-		// More session parsing
-		for (TCPSession s : sessions) {
-			for (PacketInfo p : s.packets) {
-				s.bytesTransferred += p.getPacket().getLen();
-			}
-			s.analyzeACK();
-			s.analyzeZeroWindow();
-			s.analyzeRecoverPkts();
-
-			// TODO Validate TCP info is set on all
-			// CheckTCPInfo(s);
-
-			// // TODO Check this?
-			// s.pStorageUL->CheckPacketsRange();
-			// s.pStorageDL->CheckPacketsRange();
-			//
-
-			// Parse HTTP request response info
-			s.requestResponseInfo = HttpRequestResponseInfo
-					.extractHttpRequestResponseInfo(s);
-			for (HttpRequestResponseInfo rr : s.requestResponseInfo) {
-				if (rr.getDirection() == HttpRequestResponseInfo.Direction.REQUEST) {
-
-					// Assume first host found is same for entire session
-					if (s.domainName == null) {
-						String host = rr.getHostName();
-						if (host != null) {
-							URI referrer = rr.getReferrer();
-							s.remoteHostName = host;
-							s.domainName = referrer != null ? referrer
-									.getHost() : host;
-						}
-					}
-				} else if (rr.getDirection() == HttpRequestResponseInfo.Direction.RESPONSE) {
-					if (rr.getContentLength() > 0) {
-						++s.fileDownloadCount;
+			lastPacket = pi;
+		} // packet loop
+		dl.storage.finish();
+		ul.storage.finish();
+		session.storageDl = dl.storage;
+		session.packetOffsetsDl = dl.packetOffsets;
+		session.storageUl = ul.storage;
+		session.packetOffsetsUl = ul.packetOffsets;
+
+		dl.markDuplicates();
+		ul.markDuplicates();
+		return newSession;
+	}
+
+	/**
+	 * Analyzes the packets of a reassembled session and parses its HTTP
+	 * requests and responses.
+	 */
+	private static void parse(TCPSession s) throws IOException {
+		for (PacketInfo p : s.packets) {
+			s.bytesTransferred += p.getPacketLen();
+		}
+		s.analyzeACK();
+		s.analyzeZeroWindow();
+		s.analyzeRecoverPkts();
+		s.statistics = new TCPSessionStatistics(s.packets);
+		s.handshakeRtt = s.measureHandshakeRtt();
+		s.tlsSessionInfo = TLSSessionInfo.parse(s.storageUl, s.packetOffsetsUl,
+				s.storageDl, s.packetOffsetsDl);
+
+		// TODO Validate TCP info is set on all
+		// CheckTCPInfo(s);
+
+		// // TODO Check this?
+		// s.pStorageUL->CheckPacketsRange();
+		// s.pStorageDL->CheckPacketsRange();
+		//
+
+		// Parse HTTP request response info
+		s.requestResponseInfo = HttpRequestResponseInfo
+				.extractHttpRequestResponseInfo(s);
+		for (HttpRequestResponseInfo rr : s.requestResponseInfo) {
+			if (rr.getDirection() == HttpRequestResponseInfo.Direction.REQUEST) {
+
+				// Assume first host found is same for entire session
+				if (s.domainName == null) {
+					String host = rr.getHostName();
+					if (host != null) {
+						URI referrer = rr.getReferrer();
+						s.remoteHostName = host;
+						s.domainName = referrer != null ? referrer
+								.getHost() : host;
 					}
 				}
-			}
-			if (s.domainName == null) {
-				s.domainName = s.remoteIP.getHostAddress();
+			} else if (rr.getDirection() == HttpRequestResponseInfo.Direction.RESPONSE) {
+				if (rr.getContentLength() > 0) {
+					++s.fileDownloadCount;
+				}
 			}
 		}
-		ul.clear();
-		dl.clear();
-		return sessions;
+		if (s.domainName == null && s.tlsSessionInfo != null
+				&& s.tlsSessionInfo.getServerName() != null) {
+			s.remoteHostName = s.tlsSessionInfo.getServerName();
+			s.domainName = s.remoteHostName;
+		}
+		if (s.domainName == null) {
+			s.domainName = s.remoteIP.getHostAddress();
+		}
 	}
 
 	/**
@@ -569,6 +821,43 @@ public class TCPSession implements Serializable {
 		return packets.get(packets.size() - 1).getTimeStamp();
 	}
 
+	/**
+	 * Returns the round trip time of the TCP handshake, from the SYN sent by
+	 * the device to the SYN-ACK of the remote host. 
+	 * 
+	 * @return The handshake round trip time in seconds, or null if the session
+	 *         was not opened by the device within the trace.
+	 */
+	public Double getHandshakeRtt() {
+		return handshakeRtt;
+	}
+
+	/**
+	 * Measures the handshake round trip time from the SYN and SYN-ACK that
+	 * precede the first data of the session.
+	 */
+	private Double measureHandshakeRtt() {
+		PacketInfo syn = null;
+		for (PacketInfo packet : packets) {
+			if (packet.getPayloadLen() > 0) {
+
+				// The handshake is over once data is sent
+				break;
+			}
+			if (packet.isSYN()) {
+				if (packet.getDir() == PacketInfo.Direction.UPLINK
+						&& !packet.isACK()) {
+					syn = packet;
+				} else if (syn != null
+						&& packet.getDir() == PacketInfo.Direction.DOWNLINK
+						&& packet.isACK()) {
+					return packet.getTimeStamp() - syn.getTimeStamp();
+				}
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Return the request/response information for all of the packets. 
 	 * 
@@ -584,29 +873,74 @@ public class TCPSession implements Serializable {
 	 * @return The result string.
 	 */
 	public String getDataText() {
-		StringBuffer buf = new StringBuffer(storageUl.length + storageDl.length);
-		buf.append(new String(storageUl));
-		buf.append(new String(storageDl));
+		StringBuilder buf = new StringBuilder(storageUl.length()
+				+ storageDl.length());
+		try {
+			appendText(buf, storageUl);
+			appendText(buf, storageDl);
+		} catch (IOException e) {
+
+			// Cannot happen when reading from storage
+			logger.warning("Unable to decode session data: " + e.getMessage());
+		}
 		String result = buf.toString();
 		System.gc();
 		return result;
 	}
 
 	/**
-	 * Return the uplink storage. 
+	 * Decodes the storage in the default charset and appends it to the
+	 * buffer, without copying the storage to an array first.
+	 */
+	private static void appendText(StringBuilder buf, SegmentStream storage)
+			throws IOException {
+		Reader reader = new InputStreamReader(storage.getInputStream());
+		char[] chars = new char[8192];
+		int n;
+		while ((n = reader.read(chars)) >= 0) {
+			buf.append(chars, 0, n);
+		}
+	}
+
+	/**
+	 * Return the uplink storage. The storage is copied into the returned
+	 * array, so {@link #getStreamUl()} should be preferred for read only
+	 * access.
 	 * 
 	 * @return An array of bytes containing the uplink storage.
 	 */
 	public byte[] getStorageUl() {
-		return storageUl;
+		return storageUl.toByteArray(0, storageUl.length());
 	}
 
 	/**
-	 * Return the downlink storage. 
+	 * Return the downlink storage. The storage is copied into the returned
+	 * array, so {@link #getStreamDl()} should be preferred for read only
+	 * access.
 	 * 
 	 * @return An array of bytes containing the downlink storage.
 	 */
 	public byte[] getStorageDl() {
+		return storageDl.toByteArray(0, storageDl.length());
+	}
+
+	/**
+	 * Return the uplink storage as a stream that references the packet
+	 * payloads without copying them. 
+	 * 
+	 * @return The reassembled uplink stream.
+	 */
+	public SegmentStream getStreamUl() {
+		return storageUl;
+	}
+
+	/**
+	 * Return the downlink storage as a stream that references the packet
+	 * payloads without copying them. 
+	 * 
+	 * @return The reassembled downlink stream.
+	 */
+	public SegmentStream getStreamDl() {
 		return storageDl;
 	}
 
@@ -642,6 +976,27 @@ public class TCPSession implements Serializable {
 		return sessionTermination;
 	}
 
+	/**
+	 * Returns the transport statistics of the session, such as its round trip
+	 * times and retransmissions. 
+	 * 
+	 * @return A TCPSessionStatistics object containing the statistics.
+	 */
+	public TCPSessionStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Returns the TLS records and handshake of the session, such as the
+	 * server name and the approximate number of transactions.
+	 *
+	 * @return A TLSSessionInfo object, or null if the session does not begin
+	 *         with a TLS ClientHello.
+	 */
+	public TLSSessionInfo getTLSSessionInfo() {
+		return tlsSessionInfo;
+	}
+
 	/**
 	 * Analyze the packet to find the TCPInfo. Marked flags: TCP_ACK,
 	 * TCP_ACK_DUP, TCP_WINDOW_UPDATE, TCP_KEEP_ALIVE_ACK
@@ -655,13 +1010,11 @@ public class TCPSession implements Serializable {
 		Set<Long> dlAliveAck = new HashSet<Long>();
 
 		for (PacketInfo pi : packets) {
-			TCPPacket p = (TCPPacket) pi.getPacket();
-
-			if (!p.isACK())
+			if (!pi.isACK())
 				continue;
 
-			long ackNum = p.getAckNumber();
-			int win = p.getWindow();
+			long ackNum = pi.getAckNumber();
+			int win = pi.getWindow();
 
 			Map<Long, Integer> pAckWinSize;
 			Set<Long> pAliveAck;
@@ -686,16 +1039,16 @@ public class TCPSession implements Serializable {
 			}
 
 			if (pi.getTcpInfo() == TcpInfo.TCP_KEEP_ALIVE) {
-				pAliveAck.add(p.getSequenceNumber());
+				pAliveAck.add(pi.getSequenceNumber());
 				continue;
 			}
 
 			int tcpFlag;
-			if (p.isFIN()) {
+			if (pi.isFIN()) {
 				tcpFlag = 1;
-			} else if (p.isSYN()) {
+			} else if (pi.isSYN()) {
 				tcpFlag = 2;
-			} else if (p.isRST()) {
+			} else if (pi.isRST()) {
 				tcpFlag = 4;
 			} else {
 				tcpFlag = 0;
@@ -703,16 +1056,16 @@ public class TCPSession implements Serializable {
 			long key = ((ackNum << 32) | tcpFlag);
 
 			// TODO Verify change in asserts ie getTCP!=null is ok
-			int payloadLen = p.getPayloadLen();
+			int payloadLen = pi.getPayloadLen();
 			if (pAliveAck2.contains(ackNum - 1) && payloadLen == 0
-					&& !p.isSYN() && !p.isFIN() && !p.isRST()) {
+					&& !pi.isSYN() && !pi.isFIN() && !pi.isRST()) {
 				if (pi.getTcpInfo() != null) {
 					logger.warning("34 - Packet already typed");
 				}
 				pi.setTcpInfo(TcpInfo.TCP_KEEP_ALIVE);
 			} else if (!pAckWinSize.containsKey(key)) {
 				pAckWinSize.put(key, win);
-				if (payloadLen == 0 && !p.isSYN() && !p.isFIN() && !p.isRST()) {
+				if (payloadLen == 0 && !pi.isSYN() && !pi.isFIN() && !pi.isRST()) {
 					if (pi.getTcpInfo() != null) {
 						logger.warning("98 - Packet already typed");
 					}
@@ -721,7 +1074,7 @@ public class TCPSession implements Serializable {
 			} else {
 				int prevWin = pAckWinSize.get(key);
 				if (win == prevWin) {
-					if (payloadLen == 0 && !p.isRST()
+					if (payloadLen == 0 && !pi.isRST()
 							&& pi.getTcpInfo() != TcpInfo.TCP_KEEP_ALIVE) {
 						if (pi.getTcpInfo() != null
 								&& pi.getTcpInfo() != TcpInfo.TCP_ESTABLISH
@@ -732,7 +1085,7 @@ public class TCPSession implements Serializable {
 					}
 				} else {
 					pAckWinSize.put(key, win);
-					if (payloadLen == 0 && !p.isRST()
+					if (payloadLen == 0 && !pi.isRST()
 							&& pi.getTcpInfo() != TcpInfo.TCP_KEEP_ALIVE) {
 						if (pi.getTcpInfo() != null
 								&& pi.getTcpInfo() != TcpInfo.TCP_ESTABLISH
@@ -752,9 +1105,8 @@ public class TCPSession implements Serializable {
 	 */
 	private void analyzeZeroWindow() {
 		for (PacketInfo pi : packets) {
-			TCPPacket p = (TCPPacket) pi.getPacket();
-			if (p.getPayloadLen() == 0 && p.getWindow() == 0 && !p.isSYN()
-					&& !p.isFIN() && !p.isRST()) {
+			if (pi.getPayloadLen() == 0 && pi.getWindow() == 0 && !pi.isSYN()
+					&& !pi.isFIN() && !pi.isRST()) {
 				pi.setTcpInfo(TcpInfo.TCP_ZERO_WINDOW);
 			}
 		}
@@ -769,51 +1121,49 @@ public class TCPSession implements Serializable {
 		// "Recover data": its seq equals to the duplicated ACK
 		// "Recover ack": its ack equals to the duplicated DATA + payload len
 
-		Map<Long, TCPPacket> dupAckUl = new HashMap<Long, TCPPacket>();
-		Map<Long, TCPPacket> dupAckDl = new HashMap<Long, TCPPacket>();
-		Map<Long, TCPPacket> dupSeqUl = new HashMap<Long, TCPPacket>();
-		Map<Long, TCPPacket> dupSeqDl = new HashMap<Long, TCPPacket>();
+		Map<Long, PacketInfo> dupAckUl = new HashMap<Long, PacketInfo>();
+		Map<Long, PacketInfo> dupAckDl = new HashMap<Long, PacketInfo>();
+		Map<Long, PacketInfo> dupSeqUl = new HashMap<Long, PacketInfo>();
+		Map<Long, PacketInfo> dupSeqDl = new HashMap<Long, PacketInfo>();
 
 		for (PacketInfo pi : packets) {
-			TCPPacket p = (TCPPacket) pi.getPacket();
-
 			TcpInfo pType = pi.getTcpInfo();
 			PacketInfo.Direction dir = pi.getDir();
 			if (pType == TcpInfo.TCP_DATA_DUP) {
 				if (dir == PacketInfo.Direction.UPLINK) {
-					dupSeqUl.put(p.getSequenceNumber() + p.getPayloadLen(), p);
+					dupSeqUl.put(pi.getSequenceNumber() + pi.getPayloadLen(), pi);
 				} else {
-					dupSeqDl.put(p.getSequenceNumber() + p.getPayloadLen(), p);
+					dupSeqDl.put(pi.getSequenceNumber() + pi.getPayloadLen(), pi);
 				}
 			}
 
 			// Duplicated data means duplicated ack as well
 			if (pType == TcpInfo.TCP_ACK_DUP || pType == TcpInfo.TCP_DATA_DUP) {
 				if (dir == PacketInfo.Direction.UPLINK) {
-					dupAckUl.put(p.getAckNumber(), p);
+					dupAckUl.put(pi.getAckNumber(), pi);
 				} else {
-					dupAckDl.put(p.getAckNumber(), p);
+					dupAckDl.put(pi.getAckNumber(), pi);
 				}
 			}
 
 			if (pType == TcpInfo.TCP_DATA) {
 				if (dir == PacketInfo.Direction.UPLINK
-						&& dupAckDl.containsKey(p.getSequenceNumber())) {
+						&& dupAckDl.containsKey(pi.getSequenceNumber())) {
 					pi.setTcpInfo(TcpInfo.TCP_DATA_RECOVER);
 				}
 				if (dir == PacketInfo.Direction.DOWNLINK
-						&& dupAckUl.containsKey(p.getSequenceNumber())) {
+						&& dupAckUl.containsKey(pi.getSequenceNumber())) {
 					pi.setTcpInfo(TcpInfo.TCP_DATA_RECOVER);
 				}
 			}
 
 			if (pType == TcpInfo.TCP_ACK) {
 				if (dir == PacketInfo.Direction.UPLINK
-						&& dupSeqDl.containsKey(p.getAckNumber())) {
+						&& dupSeqDl.containsKey(pi.getAckNumber())) {
 					pi.setTcpInfo(TcpInfo.TCP_DATA_RECOVER);
 				}
 				if (dir == PacketInfo.Direction.DOWNLINK
-						&& dupSeqUl.containsKey(p.getAckNumber())) {
+						&& dupSeqUl.containsKey(pi.getAckNumber())) {
 					pi.setTcpInfo(TcpInfo.TCP_DATA_RECOVER);
 				}
 			}
@@ -826,9 +1176,9 @@ public class TCPSession implements Serializable {
 			if (pType == TcpInfo.TCP_ACK || pType == TcpInfo.TCP_ACK_DUP
 					|| pType == TcpInfo.TCP_ACK_RECOVER) {
 				if (dir == PacketInfo.Direction.UPLINK)
-					dupAckDl.remove(p.getSequenceNumber());
+					dupAckDl.remove(pi.getSequenceNumber());
 				if (dir == PacketInfo.Direction.DOWNLINK)
-					dupAckUl.remove(p.getSequenceNumber());
+					dupAckUl.remove(pi.getSequenceNumber());
 			}
 
 			// DL: TCP_DATA_DUP with seq = 1, len = 2
@@ -840,9 +1190,9 @@ public class TCPSession implements Serializable {
 			// But vise versa is not true
 			if (pType == TcpInfo.TCP_DATA || pType == TcpInfo.TCP_DATA_RECOVER) {
 				if (dir == PacketInfo.Direction.UPLINK)
-					dupAckUl.remove(p.getAckNumber());
+					dupAckUl.remove(pi.getAckNumber());
 				if (dir == PacketInfo.Direction.DOWNLINK)
-					dupAckDl.remove(p.getAckNumber());
+					dupAckDl.remove(pi.getAckNumber());
 			}
 		}
 	}
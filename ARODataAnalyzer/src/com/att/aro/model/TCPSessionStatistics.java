@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import com.att.aro.model.PacketInfo.TcpInfo;
+
+/**
+ * Transport statistics of a TCP session, computed in a single pass over its
+ * packets.
+ * <p>
+ * Round trip times are sampled by matching the data sent by the device with
+ * the acknowledgments of the remote host. Following Karn's rule, no sample is
+ * taken from an acknowledgment of data that was retransmitted, and the
+ * samples are smoothed as specified by RFC 6298. A data segment that starts
+ * below the highest sequence number already seen in its direction is counted
+ * as a retransmission. In the downlink this includes segments that only
+ * arrive out of order, because a trace captured on the device cannot tell
+ * them apart from retransmissions of segments lost upstream.
+ */
+public class TCPSessionStatistics implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final long SEQUENCE_MASK = 0xFFFFFFFFL;
+	private static final long HALF_SEQUENCE_SPACE = 0x80000000L;
+
+	private double[] rttSamples = new double[0];
+	private double smoothedRtt;
+	private double rttVariation;
+	private int[] retransmissions = new int[DirectionIndex.COUNT];
+	private long[] retransmittedBytes = new long[DirectionIndex.COUNT];
+	private int[] duplicateAcks = new int[DirectionIndex.COUNT];
+	private double[] zeroWindowTimes = new double[DirectionIndex.COUNT];
+
+	/**
+	 * Computes the statistics of the specified packets of a session. The
+	 * TCP info of the packets must already be set.
+	 */
+	TCPSessionStatistics(List<PacketInfo> packets) {
+
+		// Sequence numbers relative to the first one of each direction, and
+		// the end of the highest sequence number seen
+		long[] baseSeq = new long[DirectionIndex.COUNT];
+		boolean[] hasBaseSeq = new boolean[DirectionIndex.COUNT];
+		long[] highestSeq = new long[DirectionIndex.COUNT];
+
+		// Start of the current zero window of each direction, or NaN
+		double[] zeroWindowStart = { Double.NaN, Double.NaN };
+
+		// Uplink data that is not acknowledged yet, in sequence order
+		long[] pendingEnd = new long[16];
+		double[] pendingTime = new double[16];
+		boolean[] pendingRetransmitted = new boolean[16];
+		int head = 0;
+		int tail = 0;
+
+		int sampleCount = 0;
+		double lastTime = 0.0;
+		for (PacketInfo pi : packets) {
+			int d = DirectionIndex.of(pi.getDir());
+			if (d < 0) {
+				continue;
+			}
+			double time = pi.getTimeStamp();
+			lastTime = time;
+
+			// Data, including the sequence number taken by SYN and FIN. Keep
+			// alive probes resend old data on purpose and are left out.
+			int payloadLen = pi.getPayloadLen();
+			long length = payloadLen + (pi.isSYN() ? 1 : 0) + (pi.isFIN() ? 1 : 0);
+			if (length > 0 && pi.getTcpInfo() != TcpInfo.TCP_KEEP_ALIVE) {
+				if (!hasBaseSeq[d]) {
+					baseSeq[d] = pi.getSequenceNumber();
+					hasBaseSeq[d] = true;
+				}
+				long start = relative(pi.getSequenceNumber(), baseSeq[d]);
+				long end = start + length;
+				boolean retransmitted = start < highestSeq[d];
+				if (retransmitted) {
+					++retransmissions[d];
+					retransmittedBytes[d] += Math.min(payloadLen,
+							Math.min(end, highestSeq[d]) - start);
+					if (d == DirectionIndex.UPLINK) {
+						for (int i = head; i < tail; ++i) {
+							if (pendingEnd[i] > start) {
+								pendingRetransmitted[i] = true;
+							}
+						}
+					}
+				}
+				if (end > highestSeq[d]) {
+					highestSeq[d] = end;
+					if (d == DirectionIndex.UPLINK) {
+						if (tail == pendingEnd.length) {
+							if (head > 0) {
+								System.arraycopy(pendingEnd, head, pendingEnd, 0,
+										tail - head);
+								System.arraycopy(pendingTime, head, pendingTime, 0,
+										tail - head);
+								System.arraycopy(pendingRetransmitted, head,
+										pendingRetransmitted, 0, tail - head);
+								tail -= head;
+								head = 0;
+							} else {
+								pendingEnd = Arrays.copyOf(pendingEnd, tail * 2);
+								pendingTime = Arrays.copyOf(pendingTime, tail * 2);
+								pendingRetransmitted = Arrays.copyOf(
+										pendingRetransmitted, tail * 2);
+							}
+						}
+						pendingEnd[tail] = end;
+						pendingTime[tail] = time;
+						pendingRetransmitted[tail] = retransmitted;
+						++tail;
+					}
+				}
+			}
+
+			// Acknowledgment of uplink data. The sample is taken from the
+			// latest segment acknowledged.
+			if (d == DirectionIndex.DOWNLINK && pi.isACK()
+					&& hasBaseSeq[DirectionIndex.UPLINK]) {
+				long ack = relative(pi.getAckNumber(), baseSeq[DirectionIndex.UPLINK]);
+				if (ack <= highestSeq[DirectionIndex.UPLINK]) {
+					int acked = -1;
+					while (head < tail && pendingEnd[head] <= ack) {
+						acked = head++;
+					}
+					if (acked >= 0 && !pendingRetransmitted[acked]) {
+						double rtt = time - pendingTime[acked];
+						if (sampleCount == rttSamples.length) {
+							rttSamples = Arrays.copyOf(rttSamples,
+									Math.max(16, sampleCount * 2));
+						}
+						rttSamples[sampleCount++] = rtt;
+						smooth(rtt, sampleCount == 1);
+					}
+				}
+			}
+
+			if (pi.getTcpInfo() == TcpInfo.TCP_ACK_DUP) {
+				++duplicateAcks[d];
+			}
+
+			// The window advertised by a packet is that of its sender
+			if (!pi.isSYN() && !pi.isRST()) {
+				if (pi.getWindow() == 0) {
+					if (Double.isNaN(zeroWindowStart[d])) {
+						zeroWindowStart[d] = time;
+					}
+				} else if (!Double.isNaN(zeroWindowStart[d])) {
+					zeroWindowTimes[d] += time - zeroWindowStart[d];
+					zeroWindowStart[d] = Double.NaN;
+				}
+			}
+		}
+
+		for (int d = 0; d < zeroWindowStart.length; ++d) {
+			if (!Double.isNaN(zeroWindowStart[d])) {
+				zeroWindowTimes[d] += lastTime - zeroWindowStart[d];
+			}
+		}
+		rttSamples = Arrays.copyOf(rttSamples, sampleCount);
+	}
+
+	/**
+	 * Returns a sequence number relative to the specified base. Sequence
+	 * numbers up to 2^31 before the base are negative, which happens when the
+	 * trace begins after the session and older data is retransmitted.
+	 */
+	private static long relative(long seq, long base) {
+		long result = (seq - base) & SEQUENCE_MASK;
+		return result < HALF_SEQUENCE_SPACE ? result : result
+				- (SEQUENCE_MASK + 1);
+	}
+
+	/**
+	 * Updates the smoothed round trip time and its variation with a sample,
+	 * as specified by RFC 6298.
+	 */
+	private void smooth(double rtt, boolean first) {
+		if (first) {
+			smoothedRtt = rtt;
+			rttVariation = rtt / 2;
+		} else {
+			rttVariation = 0.75 * rttVariation + 0.25
+					* Math.abs(smoothedRtt - rtt);
+			smoothedRtt = 0.875 * smoothedRtt + 0.125 * rtt;
+		}
+	}
+
+	/**
+	 * Returns the round trip time samples of the session, in the order they
+	 * were taken.
+	 *
+	 * @return An array of round trip times in seconds.
+	 */
+	public double[] getRttSamples() {
+		return rttSamples.clone();
+	}
+
+	/**
+	 * Returns the smoothed round trip time of the session after its last
+	 * sample.
+	 *
+	 * @return The smoothed round trip time in seconds, or null if there are no
+	 *         samples.
+	 */
+	public Double getSmoothedRtt() {
+		return rttSamples.length > 0 ? Double.valueOf(smoothedRtt) : null;
+	}
+
+	/**
+	 * Returns the round trip time variation of the session after its last
+	 * sample.
+	 *
+	 * @return The round trip time variation in seconds, or null if there are
+	 *         no samples.
+	 */
+	public Double getRttVariation() {
+		return rttSamples.length > 0 ? Double.valueOf(rttVariation) : null;
+	}
+
+	/**
+	 * Returns the number of data segments retransmitted in the specified
+	 * direction.
+	 *
+	 * @param dir
+	 *            The direction of the data.
+	 * @return The number of retransmitted segments.
+	 */
+	public int getRetransmissionCount(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? retransmissions[d] : 0;
+	}
+
+	/**
+	 * Returns the number of payload bytes retransmitted in the specified
+	 * direction.
+	 *
+	 * @param dir
+	 *            The direction of the data.
+	 * @return The number of retransmitted bytes.
+	 */
+	public long getRetransmittedBytes(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? retransmittedBytes[d] : 0;
+	}
+
+	/**
+	 * Returns the number of duplicate acknowledgments sent in the specified
+	 * direction.
+	 *
+	 * @param dir
+	 *            The direction of the acknowledgments.
+	 * @return The number of duplicate acknowledgments.
+	 */
+	public int getDuplicateAckCount(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? duplicateAcks[d] : 0;
+	}
+
+	/**
+	 * Returns the total time that the receive window advertised in the
+	 * specified direction was zero.
+	 *
+	 * @param dir
+	 *            The direction of the packets that advertise the window.
+	 * @return The zero window time in seconds.
+	 */
+	public double getZeroWindowTime(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? zeroWindowTimes[d] : 0.0;
+	}
+}
@@ -0,0 +1,437 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * The TLS record layer of a TCP session, read from its reassembled streams.
+ * Only the unencrypted parts of the handshake are decoded: the server name
+ * (SNI) and application protocols (ALPN) offered by the ClientHello, and the
+ * version and protocol selected by the ServerHello.
+ * <p>
+ * The application data itself cannot be decoded, so the number of
+ * transactions is approximated by counting each run of uplink application
+ * data records that is answered by downlink application data.
+ */
+public class TLSSessionInfo implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	// Record content types
+	private static final int CHANGE_CIPHER_SPEC = 20;
+	private static final int HANDSHAKE = 22;
+	private static final int APPLICATION_DATA = 23;
+	private static final int HEARTBEAT = 24;
+
+	// Handshake message types
+	private static final int CLIENT_HELLO = 1;
+	private static final int SERVER_HELLO = 2;
+
+	// Extension types
+	private static final int EXT_SERVER_NAME = 0;
+	private static final int EXT_ALPN = 16;
+	private static final int EXT_SUPPORTED_VERSIONS = 43;
+
+	private static final int RECORD_HEADER_LEN = 5;
+	private static final int HANDSHAKE_HEADER_LEN = 4;
+	private static final int MAX_RECORD_LEN = 16384 + 2048;
+	private static final int MAX_HELLO_LEN = 65536;
+
+	/**
+	 * Reads the TLS records of a session from its reassembled streams.
+	 *
+	 * @return The TLS information, or null if the uplink stream does not
+	 *         begin with a ClientHello.
+	 */
+	static TLSSessionInfo parse(SegmentStream ul,
+			SortedMap<Integer, PacketInfo> packetOffsetsUl, SegmentStream dl,
+			SortedMap<Integer, PacketInfo> packetOffsetsDl) {
+		byte[] clientHello = readHello(ul, CLIENT_HELLO);
+		if (clientHello == null) {
+			return null;
+		}
+
+		TLSSessionInfo result = new TLSSessionInfo();
+		result.parseHello(clientHello, true);
+		byte[] serverHello = readHello(dl, SERVER_HELLO);
+		if (serverHello != null) {
+			result.parseHello(serverHello, false);
+		}
+
+		double[] ulTimes = result.readRecords(DirectionIndex.UPLINK, ul, packetOffsetsUl);
+		double[] dlTimes = result.readRecords(DirectionIndex.DOWNLINK, dl, packetOffsetsDl);
+
+		// Merge the application data records of both directions by time
+		int i = 0;
+		int j = 0;
+		boolean request = false;
+		while (i < ulTimes.length || j < dlTimes.length) {
+			if (j == dlTimes.length || (i < ulTimes.length && ulTimes[i] <= dlTimes[j])) {
+				request = true;
+				++i;
+			} else {
+				if (request) {
+					++result.transactionCount;
+					request = false;
+				}
+				++j;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the header and body of the first handshake message of a stream,
+	 * which may be split over several records, or null if the stream does not
+	 * begin with a handshake message of the specified type.
+	 */
+	private static byte[] readHello(SegmentStream stream, int type) {
+		byte[] message = null;
+		int length = 0;
+		int offset = 0;
+		while (offset + RECORD_HEADER_LEN <= stream.length()) {
+			int recordLen = recordLength(stream, offset);
+			if (recordLen < 0 || stream.get(offset) != HANDSHAKE) {
+				return null;
+			}
+			int start = offset + RECORD_HEADER_LEN;
+			int n = Math.min(recordLen, stream.length() - start);
+			if (message == null) {
+				if (n < HANDSHAKE_HEADER_LEN || stream.get(start) != type) {
+					return null;
+				}
+				int messageLen = ((stream.get(start + 1) & 0xFF) << 16)
+						| ((stream.get(start + 2) & 0xFF) << 8)
+						| (stream.get(start + 3) & 0xFF);
+				if (messageLen > MAX_HELLO_LEN) {
+					return null;
+				}
+				message = new byte[HANDSHAKE_HEADER_LEN + messageLen];
+			}
+			length += stream.get(start, message, length, Math.min(n, message.length
+					- length));
+			if (length == message.length) {
+				return message;
+			}
+			offset = start + recordLen;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the length of the record at the specified offset of a stream,
+	 * or -1 if the bytes at the offset are not a TLS record header.
+	 */
+	private static int recordLength(SegmentStream stream, int offset) {
+		int type = stream.get(offset);
+		int length = ((stream.get(offset + 3) & 0xFF) << 8)
+				| (stream.get(offset + 4) & 0xFF);
+		if (type < CHANGE_CIPHER_SPEC || type > HEARTBEAT
+				|| stream.get(offset + 1) != 3 || length > MAX_RECORD_LEN) {
+			return -1;
+		}
+		return length;
+	}
+
+	private String serverName;
+	private List<String> offeredProtocols = Collections.emptyList();
+	private String selectedProtocol;
+	private int version;
+	private int[] recordCounts = new int[DirectionIndex.COUNT];
+	private long[] recordBytes = new long[DirectionIndex.COUNT];
+	private long[] handshakeBytes = new long[DirectionIndex.COUNT];
+	private long[] applicationDataBytes = new long[DirectionIndex.COUNT];
+	private int transactionCount;
+
+	private TLSSessionInfo() {
+	}
+
+	/**
+	 * Counts the records of one direction, stopping at the first bytes that
+	 * are not a record, such as those following a gap in the stream.
+	 *
+	 * @return The times of the application data records of the direction.
+	 */
+	private double[] readRecords(int d, SegmentStream stream,
+			SortedMap<Integer, PacketInfo> packetOffsets) {
+		double[] times = new double[16];
+		int count = 0;
+		int offset = 0;
+		while (offset + RECORD_HEADER_LEN <= stream.length()) {
+			int recordLen = recordLength(stream, offset);
+			if (recordLen < 0) {
+				break;
+			}
+
+			// A record cut short by the end of the trace counts the bytes
+			// that were captured
+			int type = stream.get(offset);
+			long bytes = Math.min(RECORD_HEADER_LEN + recordLen, stream.length() - offset);
+			++recordCounts[d];
+			recordBytes[d] += bytes;
+			if (type == HANDSHAKE) {
+				handshakeBytes[d] += bytes;
+			} else if (type == APPLICATION_DATA) {
+				applicationDataBytes[d] += bytes;
+				SortedMap<Integer, PacketInfo> head = packetOffsets.headMap(offset + 1);
+				if (!head.isEmpty()) {
+					if (count == times.length) {
+						times = Arrays.copyOf(times, count * 2);
+					}
+					times[count++] = head.get(head.lastKey()).getTimeStamp();
+				}
+			}
+			offset += RECORD_HEADER_LEN + recordLen;
+		}
+		return Arrays.copyOf(times, count);
+	}
+
+	/**
+	 * Decodes the extensions of a ClientHello or ServerHello message. A
+	 * malformed message keeps the fields decoded before the error.
+	 */
+	private void parseHello(byte[] message, boolean client) {
+		int pos = HANDSHAKE_HEADER_LEN;
+		if (pos + 2 > message.length) {
+			return;
+		}
+		if (!client) {
+			version = readShort(message, pos);
+		}
+
+		// Version, random and session id
+		pos += 34;
+		if (pos >= message.length) {
+			return;
+		}
+		pos += 1 + (message[pos] & 0xFF);
+
+		// Cipher suites and compression methods
+		if (client) {
+			if (pos + 2 > message.length) {
+				return;
+			}
+			pos += 2 + readShort(message, pos);
+			if (pos >= message.length) {
+				return;
+			}
+			pos += 1 + (message[pos] & 0xFF);
+		} else {
+			pos += 3;
+		}
+
+		if (pos + 2 > message.length) {
+			return;
+		}
+		int end = Math.min(message.length, pos + 2 + readShort(message, pos));
+		pos += 2;
+		while (pos + 4 <= end) {
+			int type = readShort(message, pos);
+			int length = readShort(message, pos + 2);
+			pos += 4;
+			if (pos + length > end) {
+				return;
+			}
+			switch (type) {
+			case EXT_SERVER_NAME:
+				if (client) {
+					serverName = readServerName(message, pos, pos + length);
+				}
+				break;
+			case EXT_ALPN:
+				List<String> protocols = readProtocols(message, pos, pos + length);
+				if (client) {
+					offeredProtocols = protocols;
+				} else if (protocols.size() == 1) {
+					selectedProtocol = protocols.get(0);
+				}
+				break;
+			case EXT_SUPPORTED_VERSIONS:
+				if (!client && length == 2) {
+					version = readShort(message, pos);
+				}
+				break;
+			}
+			pos += length;
+		}
+	}
+
+	/**
+	 * Returns the host name of a server name extension, or null if it has
+	 * none.
+	 */
+	private static String readServerName(byte[] message, int pos, int end) {
+		if (pos + 2 > end) {
+			return null;
+		}
+		end = Math.min(end, pos + 2 + readShort(message, pos));
+		pos += 2;
+		while (pos + 3 <= end) {
+			int type = message[pos] & 0xFF;
+			int length = readShort(message, pos + 1);
+			pos += 3;
+			if (pos + length > end) {
+				return null;
+			}
+			if (type == 0 && length > 0) {
+				StringBuilder name = new StringBuilder(length);
+				for (int i = pos; i < pos + length; ++i) {
+					name.append(Character.toLowerCase((char) (message[i] & 0xFF)));
+				}
+				return name.toString();
+			}
+			pos += length;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the protocol names of an ALPN extension.
+	 */
+	private static List<String> readProtocols(byte[] message, int pos, int end) {
+		List<String> result = new ArrayList<String>();
+		if (pos + 2 > end) {
+			return result;
+		}
+		end = Math.min(end, pos + 2 + readShort(message, pos));
+		pos += 2;
+		while (pos < end) {
+			int length = message[pos] & 0xFF;
+			++pos;
+			if (pos + length > end) {
+				break;
+			}
+			StringBuilder name = new StringBuilder(length);
+			for (int i = pos; i < pos + length; ++i) {
+				name.append((char) (message[i] & 0xFF));
+			}
+			result.add(name.toString());
+			pos += length;
+		}
+		return result;
+	}
+
+	private static int readShort(byte[] message, int pos) {
+		return ((message[pos] & 0xFF) << 8) | (message[pos + 1] & 0xFF);
+	}
+
+	/**
+	 * Returns the server name sent by the device in its ClientHello.
+	 *
+	 * @return The server name in lower case, or null if none was sent.
+	 */
+	public String getServerName() {
+		return serverName;
+	}
+
+	/**
+	 * Returns the application protocols offered by the device in its
+	 * ClientHello, such as "h2" and "http/1.1".
+	 *
+	 * @return A list of protocol names, which is empty if none were offered.
+	 */
+	public List<String> getOfferedProtocols() {
+		return Collections.unmodifiableList(offeredProtocols);
+	}
+
+	/**
+	 * Returns the application protocol selected by the ServerHello. From TLS
+	 * 1.3 the selection is encrypted, in which case it is not known.
+	 *
+	 * @return The protocol name, or null if it is not known.
+	 */
+	public String getSelectedProtocol() {
+		return selectedProtocol;
+	}
+
+	/**
+	 * Returns the TLS version selected by the ServerHello, such as 0x0303
+	 * for TLS 1.2 or 0x0304 for TLS 1.3.
+	 *
+	 * @return The version, or 0 if there is no ServerHello in the trace.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of TLS records sent in the specified direction.
+	 *
+	 * @param dir
+	 *            The direction of the records.
+	 * @return The number of records.
+	 */
+	public int getRecordCount(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? recordCounts[d] : 0;
+	}
+
+	/**
+	 * Returns the number of bytes of the TLS records sent in the specified
+	 * direction, including the record headers.
+	 *
+	 * @param dir
+	 *            The direction of the records.
+	 * @return The number of bytes.
+	 */
+	public long getRecordBytes(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? recordBytes[d] : 0;
+	}
+
+	/**
+	 * Returns the number of bytes of the handshake records sent in the
+	 * specified direction, including the record headers. From TLS 1.3 most of
+	 * the handshake is sent as application data.
+	 *
+	 * @param dir
+	 *            The direction of the records.
+	 * @return The number of bytes.
+	 */
+	public long getHandshakeBytes(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? handshakeBytes[d] : 0;
+	}
+
+	/**
+	 * Returns the number of bytes of the application data records sent in
+	 * the specified direction, including the record headers.
+	 *
+	 * @param dir
+	 *            The direction of the records.
+	 * @return The number of bytes.
+	 */
+	public long getApplicationDataBytes(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? applicationDataBytes[d] : 0;
+	}
+
+	/**
+	 * Returns the approximate number of request and response transactions
+	 * of the session, which is the number of runs of uplink application data
+	 * that were followed by downlink application data.
+	 *
+	 * @return The number of transactions.
+	 */
+	public int getTransactionCount() {
+		return transactionCount;
+	}
+}
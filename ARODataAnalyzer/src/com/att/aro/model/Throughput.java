@@ -17,7 +17,6 @@ package com.att.aro.model;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -33,7 +32,8 @@ public class Throughput implements Serializable {
 	 * @param maxTS The sampling window for each throughput point
 	 * @param packets List of packets to calculate throughput on.  This method
 	 * assumes these packets are sorted by timestamp.  Results are undefined
-	 * for unsorted packet list.
+	 * for unsorted packet list.  The bytes of each sample are looked up in
+	 * the throughput index of the packets.
 	 * @return The list of throughput values.
 	 */
 	public static List<Throughput> calculateThroughput(double startTime,
@@ -46,98 +46,31 @@ public class Throughput implements Serializable {
 
 		// Build data set
 		if (packets.size() > 0) {
-
-			Iterator<PacketInfo> headIter = packets.iterator();
-			Iterator<PacketInfo> tailIter = packets.iterator();
+			ThroughputIndex index = ThroughputIndex.getIndex(packets);
 
 			int nSteps = (int) ((maxTS - startTime) / thStep);
-			long headUpAccum = 0;
-			long tailUpAccum = 0;
-			long headDownAccum = 0;
-			long tailDownAccum = 0;
-			if (headIter.hasNext() && tailIter.hasNext()) {
-
-				PacketInfo head = headIter.next();
-				PacketInfo tail = tailIter.next();
-				double beginTS;
-				double endTS = startTime;
-				for (int i = 1; i <= nSteps; i++) {
-					// Set up time slot
-					endTS += thStep;
-					beginTS = endTS - thBin;
-					if (beginTS < startTime)
-						continue;
-
-					// Determine the number of bytes downloaded in the
-					// current
-					// slot
-					while (head != null && head.getTimeStamp() < beginTS) {
-						if (head.getDir() != null) {
-							switch (head.getDir()) {
-							case UPLINK :
-								headUpAccum += head.getLen();
-								break;
-							case DOWNLINK :
-								headDownAccum += head.getLen();
-								break;
-							}
-						}
-						head = headIter.hasNext() ? headIter.next() : null;
-					}
-					while (tail != null && tail.getTimeStamp() < endTS) {
-						if (tail.getDir() != null) {
-							switch (tail.getDir()) {
-							case UPLINK :
-								tailUpAccum += tail.getLen();
-								break;
-							case DOWNLINK :
-								tailDownAccum += tail.getLen();
-								break;
-							}
-						}
-						tail = tailIter.hasNext() ? tailIter.next() : null;
-					}
-
-					// Add slot to data set
-					result.add(new Throughput(beginTS, endTS, tailUpAccum
-							- headUpAccum, tailDownAccum - headDownAccum));
-				}
-				
-				// Add an entry for leftover bin
-				if (maxTS > endTS) {
-					beginTS = (maxTS - thBin) + (endTS + thStep - maxTS);
-					
-					while (head != null && head.getTimeStamp() < beginTS) {
-						if (head.getDir() != null) {
-							switch (head.getDir()) {
-							case UPLINK :
-								headUpAccum += head.getLen();
-								break;
-							case DOWNLINK :
-								headDownAccum += head.getLen();
-								break;
-							}
-						}
-						head = headIter.hasNext() ? headIter.next() : null;
-					}
-					while (tail != null && tail.getTimeStamp() < maxTS) {
-						if (tail.getDir() != null) {
-							switch (tail.getDir()) {
-							case UPLINK :
-								tailUpAccum += tail.getLen();
-								break;
-							case DOWNLINK :
-								tailDownAccum += tail.getLen();
-								break;
-							}
-						}
-						tail = tailIter.hasNext() ? tailIter.next() : null;
-					}
-					
-					// Add slot to data set
-					result.add(new Throughput(beginTS, maxTS, tailUpAccum
-							- headUpAccum, tailDownAccum - headDownAccum));
-				}
+			double beginTS;
+			double endTS = startTime;
+			for (int i = 1; i <= nSteps; i++) {
+				// Set up time slot
+				endTS += thStep;
+				beginTS = endTS - thBin;
+				if (beginTS < startTime)
+					continue;
+
+				// Add slot to data set with the number of bytes transferred
+				// in the current slot
+				result.add(new Throughput(beginTS, endTS, index.getUploadBytes(
+						beginTS, endTS), index.getDownloadBytes(beginTS, endTS)));
+			}
+
+			// Add an entry for leftover bin
+			if (maxTS > endTS) {
+				beginTS = (maxTS - thBin) + (endTS + thStep - maxTS);
+
+				// Add slot to data set
+				result.add(new Throughput(beginTS, maxTS, index.getUploadBytes(
+						beginTS, maxTS), index.getDownloadBytes(beginTS, maxTS)));
 			}
 		}
 		return result;
@@ -0,0 +1,221 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.att.aro.model.PacketInfo.Direction;
+
+/**
+ * Cumulative uplink, downlink, total and payload byte counts of a list of
+ * packets sorted by timestamp. The number of bytes transferred in any time
+ * window is found by binary search on the timestamps, without iterating over
+ * the packets.
+ */
+public class ThroughputIndex implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Returns the throughput index of the specified packets. The index of the
+	 * packet list of an analysis is built once and shared by all callers,
+	 * for other lists a new index is built.
+	 *
+	 * @param packets
+	 *            The packets, sorted by timestamp.
+	 * @return The throughput index of the packets.
+	 */
+	public static ThroughputIndex getIndex(List<PacketInfo> packets) {
+		if (packets instanceof IndexedPacketList) {
+			return ((IndexedPacketList) packets).getThroughputIndex();
+		}
+		return new ThroughputIndex(packets);
+	}
+
+	/**
+	 * Returns an unmodifiable view of the specified packets that keeps the
+	 * throughput index of the packets, for use as the packet list of an
+	 * analysis.
+	 */
+	static List<PacketInfo> indexedList(List<PacketInfo> packets) {
+		return new IndexedPacketList(packets);
+	}
+
+	/**
+	 * Unmodifiable packet list that builds its throughput index on first use.
+	 */
+	private static class IndexedPacketList extends AbstractList<PacketInfo>
+			implements RandomAccess, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private List<PacketInfo> packets;
+		private transient ThroughputIndex index;
+
+		private IndexedPacketList(List<PacketInfo> packets) {
+			this.packets = packets;
+		}
+
+		@Override
+		public PacketInfo get(int index) {
+			return packets.get(index);
+		}
+
+		@Override
+		public int size() {
+			return packets.size();
+		}
+
+		private synchronized ThroughputIndex getThroughputIndex() {
+			if (index == null) {
+				index = new ThroughputIndex(packets);
+			}
+			return index;
+		}
+	}
+
+	private double[] timestamps;
+
+	// Bytes of the packets before each index, with one more element than
+	// there are packets
+	private long[] uploadBytes;
+	private long[] downloadBytes;
+	private long[] totalBytes;
+	private long[] payloadBytes;
+
+	/**
+	 * Initializes an instance of the ThroughputIndex class for the specified
+	 * packets.
+	 *
+	 * @param packets
+	 *            The packets, sorted by timestamp. Results are undefined for
+	 *            an unsorted packet list.
+	 */
+	public ThroughputIndex(List<PacketInfo> packets) {
+		int n = packets.size();
+		timestamps = new double[n];
+		uploadBytes = new long[n + 1];
+		downloadBytes = new long[n + 1];
+		totalBytes = new long[n + 1];
+		payloadBytes = new long[n + 1];
+		for (int i = 0; i < n; ++i) {
+			PacketInfo packet = packets.get(i);
+			timestamps[i] = packet.getTimeStamp();
+			Direction dir = packet.getDir();
+			uploadBytes[i + 1] = uploadBytes[i]
+					+ (dir == Direction.UPLINK ? packet.getLen() : 0);
+			downloadBytes[i + 1] = downloadBytes[i]
+					+ (dir == Direction.DOWNLINK ? packet.getLen() : 0);
+			totalBytes[i + 1] = totalBytes[i] + packet.getLen();
+			payloadBytes[i + 1] = payloadBytes[i] + packet.getPayloadLen();
+		}
+	}
+
+	/**
+	 * Returns the number of uplink bytes of the packets whose timestamp is at
+	 * or after the begin time and before the end time.
+	 *
+	 * @param beginTime
+	 *            The begin time of the window.
+	 * @param endTime
+	 *            The end time of the window.
+	 * @return The number of bytes.
+	 */
+	public long getUploadBytes(double beginTime, double endTime) {
+		return uploadBytes[indexOf(endTime)] - uploadBytes[indexOf(beginTime)];
+	}
+
+	/**
+	 * Returns the number of downlink bytes of the packets whose timestamp is
+	 * at or after the begin time and before the end time.
+	 *
+	 * @param beginTime
+	 *            The begin time of the window.
+	 * @param endTime
+	 *            The end time of the window.
+	 * @return The number of bytes.
+	 */
+	public long getDownloadBytes(double beginTime, double endTime) {
+		return downloadBytes[indexOf(endTime)] - downloadBytes[indexOf(beginTime)];
+	}
+
+	/**
+	 * Returns the number of bytes of all packets whose timestamp is at or
+	 * after the begin time and at or before the end time.
+	 *
+	 * @param beginTime
+	 *            The begin time of the range.
+	 * @param endTime
+	 *            The end time of the range.
+	 * @return The number of bytes.
+	 */
+	public long getTotalBytes(double beginTime, double endTime) {
+		return beginTime <= endTime ? totalBytes[indexAfter(endTime)] - totalBytes[indexOf(beginTime)]
+				: 0;
+	}
+
+	/**
+	 * Returns the number of payload bytes of all packets whose timestamp is
+	 * at or after the begin time and at or before the end time.
+	 *
+	 * @param beginTime
+	 *            The begin time of the range.
+	 * @param endTime
+	 *            The end time of the range.
+	 * @return The number of payload bytes.
+	 */
+	public long getPayloadBytes(double beginTime, double endTime) {
+		return beginTime <= endTime ? payloadBytes[indexAfter(endTime)] - payloadBytes[indexOf(beginTime)]
+				: 0;
+	}
+
+	/**
+	 * Returns the number of packets whose timestamp is before the specified
+	 * time.
+	 */
+	private int indexOf(double time) {
+		int low = 0;
+		int high = timestamps.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (timestamps[mid] < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the number of packets whose timestamp is at or before the
+	 * specified time.
+	 */
+	private int indexAfter(double time) {
+		int low = 0;
+		int high = timestamps.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (timestamps[mid] <= time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
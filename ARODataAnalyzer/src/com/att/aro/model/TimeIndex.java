@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Index of a list of trace events by time. When the events are sorted by
+ * begin time and do not overlap, the events of a time range are found by
+ * binary search. Only the first and the last of them may extend beyond the
+ * range, and the events in between are returned as a view of the list rather
+ * than a copy. Lists that are not ordered are filtered one event at a time.
+ *
+ * @param <T>
+ *            The event type.
+ */
+abstract class TimeIndex<T> {
+
+	private List<T> events;
+	private double[] beginTimes;
+	private double[] endTimes;
+	private boolean ordered = true;
+
+	/**
+	 * Initializes an instance of the TimeIndex class for the specified
+	 * events.
+	 */
+	TimeIndex(List<T> events) {
+		this.events = events;
+		int n = events.size();
+		beginTimes = new double[n];
+		endTimes = new double[n];
+		for (int i = 0; i < n; ++i) {
+			T event = events.get(i);
+			beginTimes[i] = getBeginTime(event);
+			endTimes[i] = getEndTime(event);
+			if (endTimes[i] < beginTimes[i]
+					|| (i > 0 && beginTimes[i] < endTimes[i - 1])) {
+				ordered = false;
+			}
+		}
+	}
+
+	/**
+	 * Returns the begin time of the specified event.
+	 */
+	abstract double getBeginTime(T event);
+
+	/**
+	 * Returns the end time of the specified event.
+	 */
+	abstract double getEndTime(T event);
+
+	/**
+	 * Returns the specified event if it is within the time range, a copy of
+	 * the event limited to the time range if it is partly within the range,
+	 * or null if it is to be excluded. By default only events that are wholly
+	 * within the range are included.
+	 */
+	T filter(T event, double beginTime, double endTime) {
+		return getBeginTime(event) >= beginTime && getEndTime(event) <= endTime ? event
+				: null;
+	}
+
+	/**
+	 * Returns true if the events are sorted by begin time and do not overlap.
+	 */
+	boolean isOrdered() {
+		return ordered;
+	}
+
+	/**
+	 * Returns the index of the first event that ends at or after the
+	 * specified time. Only valid for ordered events.
+	 */
+	int first(double beginTime) {
+		int low = 0;
+		int high = endTimes.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (endTimes[mid] < beginTime) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns one more than the index of the last event that begins at or
+	 * before the specified time. Only valid for ordered events.
+	 */
+	int last(double endTime) {
+		int low = 0;
+		int high = beginTimes.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (beginTimes[mid] <= endTime) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the events of the specified time range, as filtered by the
+	 * filter method. The returned list is unmodifiable.
+	 *
+	 * @param beginTime
+	 *            The begin time of the range.
+	 * @param endTime
+	 *            The end time of the range.
+	 * @return The list of events.
+	 */
+	List<T> subList(double beginTime, double endTime) {
+		if (!ordered || beginTime > endTime) {
+			List<T> result = new ArrayList<T>();
+			for (T event : events) {
+				T filtered = filter(event, beginTime, endTime);
+				if (filtered != null) {
+					result.add(filtered);
+				}
+			}
+			return Collections.unmodifiableList(result);
+		}
+
+		// Events between the first and the last are within the range
+		int first = first(beginTime);
+		int last = last(endTime);
+		if (first >= last) {
+			return Collections.emptyList();
+		}
+		T head = filter(events.get(first), beginTime, endTime);
+		if (last - first == 1) {
+			return head != null ? Collections.singletonList(head) : Collections
+					.<T> emptyList();
+		}
+		T tail = filter(events.get(last - 1), beginTime, endTime);
+		return new RangeList<T>(head, events.subList(first + 1, last - 1), tail);
+	}
+
+	/**
+	 * Unmodifiable list of a view of the events within a time range, preceded
+	 * and followed by the events at the ends of the range when included.
+	 */
+	private static class RangeList<T> extends AbstractList<T> implements
+			RandomAccess {
+		private T head;
+		private List<T> middle;
+		private T tail;
+		private int offset;
+
+		private RangeList(T head, List<T> middle, T tail) {
+			this.head = head;
+			this.middle = middle;
+			this.tail = tail;
+			this.offset = head != null ? 1 : 0;
+		}
+
+		@Override
+		public T get(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index
+						+ ", Size: " + size());
+			}
+			if (index < offset) {
+				return head;
+			}
+			index -= offset;
+			return index < middle.size() ? middle.get(index) : tail;
+		}
+
+		@Override
+		public int size() {
+			return offset + middle.size() + (tail != null ? 1 : 0);
+		}
+	}
+}
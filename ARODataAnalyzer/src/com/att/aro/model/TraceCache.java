@@ -0,0 +1,550 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.att.aro.model.BluetoothInfo.BluetoothState;
+import com.att.aro.model.CameraInfo.CameraState;
+import com.att.aro.model.GpsInfo.GpsState;
+import com.att.aro.model.ScreenStateInfo.ScreenState;
+import com.att.aro.model.UserEvent.UserEventType;
+import com.att.aro.model.WifiInfo.WifiState;
+
+/**
+ * Reads and writes the binary cache file of a trace directory. The cache
+ * holds the result of loading the trace so that reopening the trace does not
+ * parse the pcap file and the other trace files again. It is stored next to
+ * the trace directory and is only used while the name, size and modification
+ * time of every file in the trace directory match the values recorded in it,
+ * and while the preferences that change how a trace is loaded have the values
+ * it was written with.
+ * <p>
+ * The file starts with a magic number, the format version, the load
+ * preferences and the list of trace files, followed by the body written by TraceData and the magic
+ * number again as a trailer. The body uses the primitive and list encodings
+ * of this class.
+ */
+class TraceCache {
+
+	private static final Logger logger = Logger.getLogger(TraceCache.class.getName());
+
+	private static final int MAGIC = 0x41524f43; // "AROC"
+
+	/**
+	 * Version of the cache format. Must be incremented on any change to the
+	 * format, so that caches written by older versions are not used.
+	 */
+	private static final int VERSION = 5;
+
+	private static final String SUFFIX = ".arocache";
+
+	private static final int NULL_LENGTH = -1;
+
+	/**
+	 * Returns the values of the preferences that change the result of loading
+	 * a trace, in the order they are recorded in the cache.
+	 */
+	private static long[] getLoadSettings() {
+		return new long[] { UserPreferences.getInstance().getFragmentMemoryBudget() };
+	}
+
+	/**
+	 * Returns the cache file of the specified trace directory.
+	 */
+	static File getCacheFile(File traceDir) {
+		return new File(traceDir.getAbsoluteFile().getParentFile(), traceDir.getName() + SUFFIX);
+	}
+
+	/**
+	 * Maps the cache file of the specified trace directory.
+	 *
+	 * @param traceDir
+	 *            The trace directory.
+	 * @return A buffer positioned at the start of the cache body, or null if
+	 *         there is no cache or the cache is out of date.
+	 */
+	static ByteBuffer open(File traceDir) {
+		File file = getCacheFile(traceDir);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			ByteBuffer in;
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				FileChannel channel = fis.getChannel();
+				if (channel.size() > Integer.MAX_VALUE) {
+					return null;
+				}
+				in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				fis.close();
+			}
+
+			// The trailer is only written when the whole body was written
+			if (in.limit() < 12 || in.getInt(in.limit() - 4) != MAGIC || in.getInt() != MAGIC
+					|| in.getInt() != VERSION) {
+				return null;
+			}
+
+			// Check the load preferences
+			long[] settings = getLoadSettings();
+			if (in.getInt() != settings.length) {
+				return null;
+			}
+			for (long setting : settings) {
+				if (in.getLong() != setting) {
+					return null;
+				}
+			}
+
+			// Check the trace files
+			File[] sources = getSourceFiles(traceDir);
+			if (in.getInt() != sources.length) {
+				return null;
+			}
+			for (File source : sources) {
+				if (!source.getName().equals(readString(in)) || in.getLong() != source.length()
+						|| in.getLong() != source.lastModified()) {
+					return null;
+				}
+			}
+			return in;
+		} catch (IOException e) {
+			logger.warning("Unable to read trace cache " + file + ": " + e.getMessage());
+		} catch (BufferUnderflowException e) {
+			logger.warning("Truncated trace cache " + file);
+		}
+		return null;
+	}
+
+	/**
+	 * Creates the cache file of the specified trace directory. The file is
+	 * written to a temporary file that replaces the cache file when the
+	 * returned stream is passed to the commit method.
+	 *
+	 * @param traceDir
+	 *            The trace directory.
+	 * @return A stream positioned at the start of the cache body.
+	 * @throws IOException
+	 */
+	static DataOutputStream create(File traceDir) throws IOException {
+		File tmp = new File(getCacheFile(traceDir).getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			long[] settings = getLoadSettings();
+			out.writeInt(settings.length);
+			for (long setting : settings) {
+				out.writeLong(setting);
+			}
+			File[] sources = getSourceFiles(traceDir);
+			out.writeInt(sources.length);
+			for (File source : sources) {
+				writeString(out, source.getName());
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+			}
+		} catch (IOException e) {
+			out.close();
+			tmp.delete();
+			throw e;
+		}
+		return out;
+	}
+
+	/**
+	 * Closes the stream returned by the create method and replaces the cache
+	 * file when the body was written successfully.
+	 *
+	 * @param traceDir
+	 *            The trace directory.
+	 * @param out
+	 *            The stream returned by the create method.
+	 * @param success
+	 *            true if the complete body has been written.
+	 * @throws IOException
+	 */
+	static void commit(File traceDir, DataOutputStream out, boolean success) throws IOException {
+		File file = getCacheFile(traceDir);
+		File tmp = new File(file.getPath() + ".tmp");
+		if (success) {
+			out.writeInt(MAGIC);
+		}
+		out.close();
+		if (success) {
+			file.delete();
+			if (tmp.renameTo(file)) {
+				return;
+			}
+			logger.warning("Unable to rename trace cache " + tmp);
+		}
+		tmp.delete();
+	}
+
+	/**
+	 * Returns the files of the trace directory sorted by name.
+	 */
+	private static File[] getSourceFiles(File traceDir) throws IOException {
+		File[] files = traceDir.listFiles();
+		if (files == null) {
+			throw new IOException("Unable to list trace directory " + traceDir);
+		}
+		List<File> result = new ArrayList<File>(files.length);
+		for (File file : files) {
+			if (file.isFile()) {
+				result.add(file);
+			}
+		}
+		File[] sources = result.toArray(new File[result.size()]);
+		Arrays.sort(sources, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return o1.getName().compareTo(o2.getName());
+			}
+		});
+		return sources;
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(NULL_LENGTH);
+		} else {
+			byte[] b = s.getBytes("UTF-8");
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	static String readString(ByteBuffer in) throws IOException {
+		int len = in.getInt();
+		if (len == NULL_LENGTH) {
+			return null;
+		}
+		byte[] b = new byte[len];
+		in.get(b);
+		return new String(b, "UTF-8");
+	}
+
+	static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			writeString(out, s);
+		}
+	}
+
+	static List<String> readStrings(ByteBuffer in) throws IOException {
+		int n = in.getInt();
+		List<String> result = new ArrayList<String>(n);
+		for (int i = 0; i < n; ++i) {
+			result.add(readString(in));
+		}
+		return result;
+	}
+
+	static void writeInts(DataOutputStream out, int[] values, int n) throws IOException {
+		for (int i = 0; i < n; ++i) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	static int[] readInts(ByteBuffer in, int n, int capacity) {
+		int[] result = new int[capacity];
+		in.asIntBuffer().get(result, 0, n);
+		in.position(in.position() + n * 4);
+		return result;
+	}
+
+	static void writeLongs(DataOutputStream out, long[] values, int n) throws IOException {
+		for (int i = 0; i < n; ++i) {
+			out.writeLong(values[i]);
+		}
+	}
+
+	static long[] readLongs(ByteBuffer in, int n, int capacity) {
+		long[] result = new long[capacity];
+		in.asLongBuffer().get(result, 0, n);
+		in.position(in.position() + n * 8);
+		return result;
+	}
+
+	static void writeDoubles(DataOutputStream out, double[] values, int n) throws IOException {
+		for (int i = 0; i < n; ++i) {
+			out.writeDouble(values[i]);
+		}
+	}
+
+	static double[] readDoubles(ByteBuffer in, int n, int capacity) {
+		double[] result = new double[capacity];
+		in.asDoubleBuffer().get(result, 0, n);
+		in.position(in.position() + n * 8);
+		return result;
+	}
+
+	static void writeShorts(DataOutputStream out, short[] values, int n) throws IOException {
+		for (int i = 0; i < n; ++i) {
+			out.writeShort(values[i]);
+		}
+	}
+
+	static short[] readShorts(ByteBuffer in, int n, int capacity) {
+		short[] result = new short[capacity];
+		in.asShortBuffer().get(result, 0, n);
+		in.position(in.position() + n * 2);
+		return result;
+	}
+
+	static void writeChars(DataOutputStream out, char[] values, int n) throws IOException {
+		for (int i = 0; i < n; ++i) {
+			out.writeChar(values[i]);
+		}
+	}
+
+	static char[] readChars(ByteBuffer in, int n, int capacity) {
+		char[] result = new char[capacity];
+		in.asCharBuffer().get(result, 0, n);
+		in.position(in.position() + n * 2);
+		return result;
+	}
+
+	static void writeBytes(DataOutputStream out, byte[] values, int n) throws IOException {
+		out.write(values, 0, n);
+	}
+
+	static byte[] readBytes(ByteBuffer in, int n, int capacity) {
+		byte[] result = new byte[capacity];
+		in.get(result, 0, n);
+		return result;
+	}
+
+	private static void writeOrdinal(DataOutputStream out, Enum<?> value) throws IOException {
+		out.writeByte(value != null ? value.ordinal() : NULL_LENGTH);
+	}
+
+	private static <T extends Enum<T>> T readOrdinal(ByteBuffer in, T[] values) {
+		byte ordinal = in.get();
+		return ordinal != NULL_LENGTH ? values[ordinal] : null;
+	}
+
+	static void writeCpuActivities(DataOutputStream out, List<CpuActivity> list)
+			throws IOException {
+		out.writeInt(list.size());
+		for (CpuActivity e : list) {
+			out.writeDouble(e.getBeginTimeStamp());
+			out.writeDouble(e.getEndTimeStamp());
+			out.writeDouble(e.getUsage());
+		}
+	}
+
+	static List<CpuActivity> readCpuActivities(ByteBuffer in) {
+		int n = in.getInt();
+		List<CpuActivity> result = new ArrayList<CpuActivity>(n);
+		for (int i = 0; i < n; ++i) {
+			result.add(new CpuActivity(in.getDouble(), in.getDouble(), in.getDouble()));
+		}
+		return result;
+	}
+
+	static void writeGpsInfos(DataOutputStream out, List<GpsInfo> list) throws IOException {
+		out.writeInt(list.size());
+		for (GpsInfo e : list) {
+			out.writeDouble(e.getBeginTimeStamp());
+			out.writeDouble(e.getEndTimeStamp());
+			writeOrdinal(out, e.getGpsState());
+		}
+	}
+
+	static List<GpsInfo> readGpsInfos(ByteBuffer in) {
+		int n = in.getInt();
+		List<GpsInfo> result = new ArrayList<GpsInfo>(n);
+		for (int i = 0; i < n; ++i) {
+			result.add(new GpsInfo(in.getDouble(), in.getDouble(), readOrdinal(in, GpsState
+					.values())));
+		}
+		return result;
+	}
+
+	static void writeBluetoothInfos(DataOutputStream out, List<BluetoothInfo> list)
+			throws IOException {
+		out.writeInt(list.size());
+		for (BluetoothInfo e : list) {
+			out.writeDouble(e.getBeginTimeStamp());
+			out.writeDouble(e.getEndTimeStamp());
+			writeOrdinal(out, e.getBluetoothState());
+		}
+	}
+
+	static List<BluetoothInfo> readBluetoothInfos(ByteBuffer in) {
+		int n = in.getInt();
+		List<BluetoothInfo> result = new ArrayList<BluetoothInfo>(n);
+		for (int i = 0; i < n; ++i) {
+			result.add(new BluetoothInfo(in.getDouble(), in.getDouble(), readOrdinal(in,
+					BluetoothState.values())));
+		}
+		return result;
+	}
+
+	static void writeWifiInfos(DataOutputStream out, List<WifiInfo> list) throws IOException {
+		out.writeInt(list.size());
+		for (WifiInfo e : list) {
+			out.writeDouble(e.getBeginTimeStamp());
+			out.writeDouble(e.getEndTimeStamp());
+			writeOrdinal(out, e.getWifiState());
+			writeString(out, e.getWifiMacAddress());
+			writeString(out, e.getWifiRSSI());
+			writeString(out, e.getWifiSSID());
+		}
+	}
+
+	static List<WifiInfo> readWifiInfos(ByteBuffer in) throws IOException {
+		int n = in.getInt();
+		List<WifiInfo> result = new ArrayList<WifiInfo>(n);
+		for (int i = 0; i < n; ++i) {
+			result.add(new WifiInfo(in.getDouble(), in.getDouble(), readOrdinal(in, WifiState
+					.values()), readString(in), readString(in), readString(in)));
+		}
+		return result;
+	}
+
+	static void writeBatteryInfos(DataOutputStream out, List<BatteryInfo> list)
+			throws IOException {
+		out.writeInt(list.size());
+		for (BatteryInfo e : list) {
+			out.writeDouble(e.getBatteryTimeStamp());
+			out.writeBoolean(e.isBatteryState());
+			out.writeInt(e.getBatteryLevel());
+			out.writeInt(e.getBatteryTemp());
+		}
+	}
+
+	static List<BatteryInfo> readBatteryInfos(ByteBuffer in) {
+		int n = in.getInt();
+		List<BatteryInfo> result = new ArrayList<BatteryInfo>(n);
+		for (int i = 0; i < n; ++i) {
+			result.add(new BatteryInfo(in.getDouble(), in.get() != 0, in.getInt(), in.getInt()));
+		}
+		return result;
+	}
+
+	static void writeRadioInfos(DataOutputStream out, List<RadioInfo> list) throws IOException {
+		out.writeInt(list.size());
+		for (RadioInfo e : list) {
+			out.writeDouble(e.getTimeStamp());
+			out.writeBoolean(e.isLte());
+			if (e.isLte()) {
+				out.writeInt(e.getLteSignalStrength());
+				out.writeInt(e.getLteRsrp());
+				out.writeInt(e.getLteRsrq());
+				out.writeInt(e.getLteRssnr());
+				out.writeInt(e.getLteCqi());
+			} else {
+				out.writeDouble(e.getSignalStrength());
+			}
+		}
+	}
+
+	static List<RadioInfo> readRadioInfos(ByteBuffer in) {
+		int n = in.getInt();
+		List<RadioInfo> result = new ArrayList<RadioInfo>(n);
+		for (int i = 0; i < n; ++i) {
+			double timeStamp = in.getDouble();
+			if (in.get() != 0) {
+				result.add(new RadioInfo(timeStamp, in.getInt(), in.getInt(), in.getInt(), in
+						.getInt(), in.getInt()));
+			} else {
+				result.add(new RadioInfo(timeStamp, in.getDouble()));
+			}
+		}
+		return result;
+	}
+
+	static void writeCameraInfos(DataOutputStream out, List<CameraInfo> list)
+			throws IOException {
+		out.writeInt(list.size());
+		for (CameraInfo e : list) {
+			out.writeDouble(e.getBeginTimeStamp());
+			out.writeDouble(e.getEndTimeStamp());
+			writeOrdinal(out, e.getCameraState());
+		}
+	}
+
+	static List<CameraInfo> readCameraInfos(ByteBuffer in) {
+		int n = in.getInt();
+		List<CameraInfo> result = new ArrayList<CameraInfo>(n);
+		for (int i = 0; i < n; ++i) {
+			result.add(new CameraInfo(in.getDouble(), in.getDouble(), readOrdinal(in,
+					CameraState.values())));
+		}
+		return result;
+	}
+
+	static void writeScreenStateInfos(DataOutputStream out, List<ScreenStateInfo> list)
+			throws IOException {
+		out.writeInt(list.size());
+		for (ScreenStateInfo e : list) {
+			out.writeDouble(e.getBeginTimeStamp());
+			out.writeDouble(e.getEndTimeStamp());
+			writeOrdinal(out, e.getScreenState());
+			writeString(out, e.getScreenBrightness());
+			out.writeInt(e.getScreenTimeout());
+		}
+	}
+
+	static List<ScreenStateInfo> readScreenStateInfos(ByteBuffer in) throws IOException {
+		int n = in.getInt();
+		List<ScreenStateInfo> result = new ArrayList<ScreenStateInfo>(n);
+		for (int i = 0; i < n; ++i) {
+			result.add(new ScreenStateInfo(in.getDouble(), in.getDouble(), readOrdinal(in,
+					ScreenState.values()), readString(in), in.getInt()));
+		}
+		return result;
+	}
+
+	static void writeUserEvents(DataOutputStream out, List<UserEvent> list) throws IOException {
+		out.writeInt(list.size());
+		for (UserEvent e : list) {
+			writeOrdinal(out, e.getEventType());
+			out.writeDouble(e.getPressTime());
+			out.writeDouble(e.getReleaseTime());
+		}
+	}
+
+	static List<UserEvent> readUserEvents(ByteBuffer in) {
+		int n = in.getInt();
+		List<UserEvent> result = new ArrayList<UserEvent>(n);
+		for (int i = 0; i < n; ++i) {
+			result.add(new UserEvent(readOrdinal(in, UserEventType.values()), in.getDouble(), in
+					.getDouble()));
+		}
+		return result;
+	}
+}
@@ -16,15 +16,22 @@
 package com.att.aro.model;
 
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -32,11 +39,15 @@ import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -51,8 +62,10 @@ import com.att.aro.model.ScreenStateInfo.ScreenState;
 import com.att.aro.model.UserEvent.UserEventType;
 import com.att.aro.model.WifiInfo.WifiState;
 import com.att.aro.pcap.IPPacket;
+import com.att.aro.pcap.FragmentReassembler;
 import com.att.aro.pcap.NetmonAdapter;
 import com.att.aro.pcap.PCapAdapter;
+import com.att.aro.pcap.PCapFileReader;
 import com.att.aro.pcap.Packet;
 import com.att.aro.pcap.PacketListener;
 
@@ -90,6 +103,7 @@ public class TraceData implements Serializable {
 
 		// List of packets included in analysis (application filtered)
 		private List<PacketInfo> packets;
+		private BitSet rows;
 		private Map<Integer, Integer> packetSizeToCountMap = new HashMap<Integer, Integer>();
 
 		// Analysis results
@@ -100,6 +114,9 @@ public class TraceData implements Serializable {
 		private double packetsDuration = 0.0;
 		private double avgKbps = 0.0;
 		private List<TCPSession> tcpSessions;
+		private List<UDPFlow> udpFlows;
+		private List<DnsLookup> dnsLookups;
+		private transient SessionStage sessionStage;
 		private RRCStateMachine rrcStateMachine;
 		private CacheAnalysis cacheAnalysis;
 		private BestPractices bestPractice;
@@ -108,6 +125,12 @@ public class TraceData implements Serializable {
 		// List of Burst Collection Info
 		private BurstCollectionAnalysis bcAnalysis;
 
+		// Time index of the RRC state ranges with the prefix sums of their
+		// energy and active time, for time range analysis
+		private transient TimeIndex<RrcStateRange> rrcIndex;
+		private transient double[] rrcEnergy;
+		private transient double[] rrcActiveTime;
+
 		// CPU activity info
 		private List<CpuActivity> cpuActivityList = new ArrayList<CpuActivity>();
 
@@ -157,24 +180,36 @@ public class TraceData implements Serializable {
 			if (timeRange != null) {
 				double beginTime = timeRange.getBeginTime();
 				double endTime = timeRange.getEndTime();
-				this.cpuActivityList = getCpuInfosForTheTimeRange(TraceData.this.cpuActivityList,
-						beginTime, endTime);
-				this.gpsInfos = getGpsInfosForTheTimeRange(TraceData.this.gpsInfos, beginTime,
-						endTime);
-				this.bluetoothInfos = getBluetoothInfosForTheTimeRange(
-						TraceData.this.bluetoothInfos, beginTime, endTime);
-				this.wifiInfos = getWifiInfosForTheTimeRange(TraceData.this.wifiInfos, beginTime,
-						endTime);
-				this.batteryInfos = getBatteryInfosForTheTimeRange(TraceData.this.batteryInfos,
-						beginTime, endTime);
-				this.radioInfos = getRadioInfosForTheTimeRange(TraceData.this.radioInfos,
-						beginTime, endTime);
-				this.cameraInfos = getCameraInfosForTheTimeRange(TraceData.this.cameraInfos,
-						beginTime, endTime);
-				this.screenStateInfos = getScreenInfosForTheTimeRange(
-						TraceData.this.screenStateInfos, beginTime, endTime);
-				this.userEvents = getUserEventsForTheTimeRange(TraceData.this.userEvents,
-						beginTime, endTime);
+				createEventIndexes();
+				this.cpuActivityList = cpuIndex.subList(beginTime, endTime);
+				this.gpsInfos = gpsIndex.subList(beginTime, endTime);
+				this.bluetoothInfos = bluetoothIndex.subList(beginTime, endTime);
+				this.wifiInfos = wifiIndex.subList(beginTime, endTime);
+				this.batteryInfos = batteryIndex.subList(beginTime, endTime);
+				this.radioInfos = radioIndex.subList(beginTime, endTime);
+				this.cameraInfos = cameraIndex.subList(beginTime, endTime);
+				this.screenStateInfos = screenStateIndex.subList(beginTime, endTime);
+				this.userEvents = userEventIndex.subList(beginTime, endTime);
+
+				// Active durations within the time range
+				for (GpsInfo gpsInfo : gpsInfos) {
+					if (gpsInfo.getGpsState() == GpsState.GPS_ACTIVE) {
+						this.gpsActiveDuration += gpsInfo.getEndTimeStamp()
+								- gpsInfo.getBeginTimeStamp();
+					}
+				}
+				for (BluetoothInfo bluetoothInfo : bluetoothInfos) {
+					if (bluetoothInfo.getBluetoothState() == BluetoothState.BLUETOOTH_CONNECTED) {
+						this.bluetoothActiveDuration += bluetoothInfo.getEndTimeStamp()
+								- bluetoothInfo.getBeginTimeStamp();
+					}
+				}
+				for (CameraInfo cameraInfo : cameraInfos) {
+					if (cameraInfo.getCameraState() == CameraState.CAMERA_ON) {
+						this.cameraActiveDuration += cameraInfo.getEndTimeStamp()
+								- cameraInfo.getBeginTimeStamp();
+					}
+				}
 
 			} else {
 				this.cpuActivityList = TraceData.this.cpuActivityList;
@@ -196,7 +231,9 @@ public class TraceData implements Serializable {
 
 				// Filter packets based upon selected app names
 				packets = new ArrayList<PacketInfo>();
-				for (PacketInfo packet : TraceData.this.allPackets) {
+				rows = new BitSet(allPackets.size());
+				for (int i = 0; i < allPackets.size(); ++i) {
+					PacketInfo packet = allPackets.get(i);
 
 					// Check time range
 					double timestamp = packet.getTimeStamp();
@@ -215,13 +252,20 @@ public class TraceData implements Serializable {
 					}
 
 					packets.add(packet);
+					rows.set(i);
 				}
 			} else {
 
 				// No filter. Use all packets
 				packets = TraceData.this.allPackets;
+				rows = new BitSet(allPackets.size());
+				rows.set(0, allPackets.size());
 			}
 
+			// The throughput index of the packets is built once per analysis
+			// for the energy calculations of all RRC state ranges
+			packets = ThroughputIndex.indexedList(packets);
+
 			this.filter = filter != null ? new AnalysisFilter(filter) : new AnalysisFilter(
 					TraceData.this);
 			runAnalysis();
@@ -235,60 +279,113 @@ public class TraceData implements Serializable {
 		 */
 		public TimeRangeAnalysis performTimeRangeAnalysis(double analyzeBeginTime,
 				double analyzeEndTime) {
+			ThroughputIndex index = ThroughputIndex.getIndex(packets);
+			long payloadLength = index.getPayloadBytes(analyzeBeginTime, analyzeEndTime);
+			long totalBytes = index.getTotalBytes(analyzeBeginTime, analyzeEndTime);
+
+			// Energy and active time of the RRC state ranges. Ranges between
+			// the first and the last are within the time range, and their
+			// totals are taken from the prefix sums.
+			double[] result = new double[2];
 			List<RrcStateRange> rrcCollection = this.rrcStateMachine.getRRcStateRanges();
-			long payloadLength = 0;
-			long totalBytes = 0;
-			int n = packets.size();
-
-			for (int i = 0; i < n; i++) {
-				PacketInfo p = packets.get(i);
-				if (p.getTimeStamp() >= analyzeBeginTime && p.getTimeStamp() <= analyzeEndTime) {
-					payloadLength += p.getPayloadLen();
-					totalBytes += p.getLen();
+			TimeIndex<RrcStateRange> rrcIndex = getRrcIndex();
+			if (rrcIndex.isOrdered()) {
+				int first = rrcIndex.first(analyzeBeginTime);
+				int last = rrcIndex.last(analyzeEndTime);
+				if (first < last) {
+					addStateRange(rrcCollection.get(first), analyzeBeginTime, analyzeEndTime,
+							result);
 				}
-			}
-
-			double energy = 0.0f;
-			double activeTime = 0.0f;
-			int m = rrcCollection.size();
-
-			for (int i = 0; i < m; i++) {
-				double beginTime;
-				double endTime;
-
-				RrcStateRange rrc = rrcCollection.get(i);
-				if (rrc.getEndTime() < analyzeBeginTime) {
-					continue;
+				if (last - first > 1) {
+					addStateRange(rrcCollection.get(last - 1), analyzeBeginTime,
+							analyzeEndTime, result);
 				}
-				if (rrc.getBeginTime() > analyzeEndTime) {
-					continue;
+				if (last - first > 2) {
+					result[0] += rrcEnergy[last - 1] - rrcEnergy[first + 1];
+					result[1] += rrcActiveTime[last - 1] - rrcActiveTime[first + 1];
 				}
-
-				if (rrc.getBeginTime() >= analyzeBeginTime) {
-					beginTime = rrc.getBeginTime();
-				} else {
-					beginTime = analyzeBeginTime;
+			} else {
+				for (RrcStateRange rrc : rrcCollection) {
+					addStateRange(rrc, analyzeBeginTime, analyzeEndTime, result);
 				}
+			}
+			double energy = result[0];
+			double activeTime = result[1];
 
-				if (rrc.getEndTime() <= analyzeEndTime) {
-					endTime = rrc.getEndTime();
-				} else {
-					endTime = analyzeEndTime;
+			return new TimeRangeAnalysis(analyzeBeginTime, analyzeEndTime, totalBytes,
+					payloadLength, activeTime, energy);
+		}
+
+		/**
+		 * Returns the time index of the RRC state ranges, creating it and the
+		 * prefix sums of the energy and active time of the ranges on first
+		 * use.
+		 */
+		private synchronized TimeIndex<RrcStateRange> getRrcIndex() {
+			if (rrcIndex == null) {
+				List<RrcStateRange> rrcCollection = rrcStateMachine.getRRcStateRanges();
+				int n = rrcCollection.size();
+				rrcEnergy = new double[n + 1];
+				rrcActiveTime = new double[n + 1];
+				double[] result = new double[2];
+				for (int i = 0; i < n; ++i) {
+					RrcStateRange rrc = rrcCollection.get(i);
+					addStateRange(rrc, rrc.getBeginTime(), rrc.getEndTime(), result);
+					rrcEnergy[i + 1] = result[0];
+					rrcActiveTime[i + 1] = result[1];
 				}
+				rrcIndex = new TimeIndex<RrcStateRange>(rrcCollection) {
+					@Override
+					double getBeginTime(RrcStateRange event) {
+						return event.getBeginTime();
+					}
+
+					@Override
+					double getEndTime(RrcStateRange event) {
+						return event.getEndTime();
+					}
+				};
+			}
+			return rrcIndex;
+		}
 
-				RRCState s = rrc.getState();
+		/**
+		 * Adds the energy and the active time of the part of the specified
+		 * RRC state range that is within the time range to the first and
+		 * second elements of the result.
+		 */
+		private void addStateRange(RrcStateRange rrc, double analyzeBeginTime,
+				double analyzeEndTime, double[] result) {
+			if (rrc.getEndTime() < analyzeBeginTime) {
+				return;
+			}
+			if (rrc.getBeginTime() > analyzeEndTime) {
+				return;
+			}
 
-				energy += profile.energy(beginTime, endTime, s, packets);
-				if ((profile.getProfileType() == ProfileType.T3G && (s == RRCState.STATE_DCH || s == RRCState.TAIL_DCH))
-						|| (profile.getProfileType() == ProfileType.LTE && (s == RRCState.LTE_CONTINUOUS || s == RRCState.LTE_CR_TAIL))
-						|| (profile.getProfileType() == ProfileType.WIFI && (s == RRCState.WIFI_ACTIVE || s == RRCState.WIFI_TAIL))) {
+			double beginTime;
+			double endTime;
+			if (rrc.getBeginTime() >= analyzeBeginTime) {
+				beginTime = rrc.getBeginTime();
+			} else {
+				beginTime = analyzeBeginTime;
+			}
 
-					activeTime += endTime - beginTime;
-				}
+			if (rrc.getEndTime() <= analyzeEndTime) {
+				endTime = rrc.getEndTime();
+			} else {
+				endTime = analyzeEndTime;
 			}
 
-			return new TimeRangeAnalysis(analyzeBeginTime, analyzeEndTime, totalBytes,
-					payloadLength, activeTime, energy);
+			RRCState s = rrc.getState();
+
+			result[0] += profile.energy(beginTime, endTime, s, packets);
+			if ((profile.getProfileType() == ProfileType.T3G && (s == RRCState.STATE_DCH || s == RRCState.TAIL_DCH))
+					|| (profile.getProfileType() == ProfileType.LTE && (s == RRCState.LTE_CONTINUOUS || s == RRCState.LTE_CR_TAIL))
+					|| (profile.getProfileType() == ProfileType.WIFI && (s == RRCState.WIFI_ACTIVE || s == RRCState.WIFI_TAIL))) {
+
+				result[1] += endTime - beginTime;
+			}
 		}
 
 		/**
@@ -382,13 +479,7 @@ public class TraceData implements Serializable {
 		}
 
 		public void clear() {
-			for (PacketInfo p : allPackets) {
-				p.setBurst(null);
-				p.setRequestResponseInfo(null);
-				p.setSession(null);
-				p.setStateMachine(null);
-				p.setTcpInfo(null);
-			}
+			allPackets.clearAnalysis();
 		}
 
 		/**
@@ -417,7 +508,9 @@ public class TraceData implements Serializable {
 		 * @return The list of packets.
 		 */
 		public List<PacketInfo> getPackets() {
-			return Collections.unmodifiableList(packets);
+
+			// Unmodifiable list that keeps the throughput index
+			return packets;
 		}
 
 		/**
@@ -448,6 +541,26 @@ public class TraceData implements Serializable {
 			return Collections.unmodifiableList(tcpSessions);
 		}
 
+		/**
+		 * Returns the UDP flows of the analyzed time range, in the order of
+		 * their first packet.
+		 *
+		 * @return A list of UDP flows.
+		 */
+		public List<UDPFlow> getUdpFlows() {
+			return Collections.unmodifiableList(udpFlows);
+		}
+
+		/**
+		 * Returns the DNS lookups made in the analyzed time range, in the order
+		 * of their first packet.
+		 *
+		 * @return A list of DNS lookups.
+		 */
+		public List<DnsLookup> getDnsLookups() {
+			return Collections.unmodifiableList(dnsLookups);
+		}
+
 		/**
 		 * @return The rrcStateMachine
 		 */
@@ -532,17 +645,62 @@ public class TraceData implements Serializable {
 		/**
 		 * Runs the basic analysis on the trace data using the current
 		 * configuration after the applications/ip addresses selections are
-		 * made.
+		 * made. The statistics and session stages depend only on the packets
+		 * and are reused from the last analysis when it had the same packets,
+		 * in which case only the RRC, energy, burst and best practice stages
+		 * are run for the profile.
 		 * 
 		 * @throws IOException
 		 */
 		private synchronized void runAnalysis() throws IOException {
 
-			// Collect basic statistics
+			Analysis last = TraceData.this.lastAnalysis;
+			if (last != null && last.rows.equals(rows)) {
+				this.packetSizeToCountMap = last.packetSizeToCountMap;
+				this.appNames = last.appNames;
+				this.applicationPacketSummary = last.applicationPacketSummary;
+				this.ipPacketSummary = last.ipPacketSummary;
+				this.totalBytes = last.totalBytes;
+				this.packetsDuration = last.packetsDuration;
+				this.avgKbps = last.avgKbps;
+				this.sessionStage = last.sessionStage;
+				sessionStage.restore();
+			} else {
+				collectStatistics();
+
+				// Analyze packets for TCP sessions and do cache analysis
+				this.sessionStage = getSessionStage(packets, rows);
+			}
+			this.tcpSessions = sessionStage.getTcpSessions();
+			this.udpFlows = sessionStage.getUdpFlows();
+			this.dnsLookups = sessionStage.getDnsLookups();
+			this.cacheAnalysis = sessionStage.getCacheAnalysis();
+
+			// Simulate RRC state machine
+			this.rrcStateMachine = new RRCStateMachine(this);
+
+			// Create energy model
+			this.energyModel = new EnergyModel(this);
+
+			// Burst Analysis
+			this.bcAnalysis = new BurstCollectionAnalysis(this);
+
+			// Creates BestPractices object
+			this.bestPractice = new BestPractices(this);
+
+			TraceData.this.lastAnalysis = this;
+		}
+
+		/**
+		 * Collects the basic statistics of the packets.
+		 */
+		private void collectStatistics() {
 			if (packets.size() > 0) {
 				PacketInfo lastPacket = packets.get(packets.size() - 1);
 				Map<String, PacketCounter> appPackets = new HashMap<String, PacketCounter>();
-				Map<InetAddress, PacketCounter> ipPackets = new HashMap<InetAddress, PacketCounter>();
+				// IP address summary indexed by remote endpoint id + 1, the
+				// first element counts packets without a remote address
+				PacketCounter[] ipPackets = new PacketCounter[endpoints.size() + 1];
 				for (PacketInfo packet : packets) {
 					totalBytes += packet.getLen();
 
@@ -555,7 +713,7 @@ public class TraceData implements Serializable {
 					}
 					pc.add(packet);
 
-					if (packet.getPacket() instanceof IPPacket) {
+					if (packet.isIP()) {
 
 						// Count packets by packet size
 						Integer packetSize = packet.getPayloadLen();
@@ -569,18 +727,21 @@ public class TraceData implements Serializable {
 						packetSizeToCountMap.put(packetSize, iValue);
 
 						// Get IP address summary
-						InetAddress ip = packet.getRemoteIPAddress();
-						pc = ipPackets.get(ip);
+						int ip = packet.getRemoteEndpoint() + 1;
+						pc = ipPackets[ip];
 						if (pc == null) {
 							pc = new PacketCounter();
-							ipPackets.put(ip, pc);
+							ipPackets[ip] = pc;
 						}
 						pc.add(packet);
 					}
 				}
-				for (Map.Entry<InetAddress, PacketCounter> m : ipPackets.entrySet()) {
-					ipPacketSummary.add(new IPPacketSummary(m.getKey(), m.getValue().packetCount, m
-							.getValue().totalBytes));
+				for (int ip = 0; ip < ipPackets.length; ++ip) {
+					PacketCounter m = ipPackets[ip];
+					if (m != null) {
+						ipPacketSummary.add(new IPPacketSummary(ip > 0 ? endpoints
+								.getAddress(ip - 1) : null, m.packetCount, m.totalBytes));
+					}
 				}
 				for (Map.Entry<String, PacketCounter> m : appPackets.entrySet()) {
 					applicationPacketSummary.add(new ApplicationPacketSummary(m.getKey(), m
@@ -598,339 +759,6 @@ public class TraceData implements Serializable {
 					logger.fine("");
 				}
 			}
-			// Analyze packets for TCP sessions
-			this.tcpSessions = TCPSession.extractTCPSessions(packets);
-
-			// Do cache analysis
-			this.cacheAnalysis = new CacheAnalysis(this.tcpSessions);
-
-			// Simulate RRC state machine
-			this.rrcStateMachine = new RRCStateMachine(this);
-
-			// Create energy model
-			this.energyModel = new EnergyModel(this);
-
-			// Burst Analysis
-			this.bcAnalysis = new BurstCollectionAnalysis(this);
-
-			// Creates BestPractices object
-			this.bestPractice = new BestPractices(this);
-		}
-
-		/**
-		 * Returns the list of user events filtered based on the time range.
-		 */
-
-		private List<UserEvent> getUserEventsForTheTimeRange(List<UserEvent> userEvents,
-				double beginTime, double endTime) {
-			List<UserEvent> filteredUserEvents = new ArrayList<UserEvent>();
-			for (UserEvent userEvent : userEvents) {
-				if (userEvent.getPressTime() >= beginTime && userEvent.getReleaseTime() <= endTime) {
-
-					filteredUserEvents.add(userEvent);
-				}
-			}
-			return filteredUserEvents;
-		}
-
-		/**
-		 * Returns the list of screen events filtered based on the time range.
-		 */
-
-		private List<ScreenStateInfo> getScreenInfosForTheTimeRange(
-				List<ScreenStateInfo> screenStateInfos, double beginTime, double endTime) {
-
-			List<ScreenStateInfo> filteredScreenStateInfos = new ArrayList<ScreenStateInfo>();
-			for (ScreenStateInfo screenStateInfo : screenStateInfos) {
-
-				if (screenStateInfo.getBeginTimeStamp() >= beginTime
-						&& screenStateInfo.getEndTimeStamp() <= endTime) {
-					filteredScreenStateInfos.add(screenStateInfo);
-				} else if (screenStateInfo.getBeginTimeStamp() <= beginTime
-						&& screenStateInfo.getEndTimeStamp() <= endTime
-						&& screenStateInfo.getEndTimeStamp() > beginTime) {
-					filteredScreenStateInfos.add(new ScreenStateInfo(beginTime, screenStateInfo
-							.getEndTimeStamp(), screenStateInfo.getScreenState(), screenStateInfo
-							.getScreenBrightness(), screenStateInfo.getScreenTimeout()));
-				} else if (screenStateInfo.getBeginTimeStamp() <= beginTime
-						&& screenStateInfo.getEndTimeStamp() >= endTime) {
-					filteredScreenStateInfos.add(new ScreenStateInfo(beginTime, endTime,
-							screenStateInfo.getScreenState(),
-							screenStateInfo.getScreenBrightness(), screenStateInfo
-									.getScreenTimeout()));
-				} else if (screenStateInfo.getBeginTimeStamp() >= beginTime
-						&& screenStateInfo.getBeginTimeStamp() < endTime
-						&& screenStateInfo.getEndTimeStamp() >= endTime) {
-					filteredScreenStateInfos.add(new ScreenStateInfo(screenStateInfo
-							.getBeginTimeStamp(), endTime, screenStateInfo.getScreenState(),
-							screenStateInfo.getScreenBrightness(), screenStateInfo
-									.getScreenTimeout()));
-				}
-			}
-			return filteredScreenStateInfos;
-		}
-
-		/**
-		 * Returns the list of camera events filtered based on the time range.
-		 */
-		private List<CameraInfo> getCameraInfosForTheTimeRange(List<CameraInfo> cameraInfos,
-				double beginTime, double endTime) {
-
-			List<CameraInfo> filteredCameraInfos = new ArrayList<CameraInfo>();
-			CameraInfo filteredCameraInfo = null;
-			for (CameraInfo cameraInfo : cameraInfos) {
-
-				if (cameraInfo.getBeginTimeStamp() >= beginTime
-						&& cameraInfo.getEndTimeStamp() <= endTime) {
-					filteredCameraInfo = cameraInfo;
-					filteredCameraInfos.add(filteredCameraInfo);
-					if (filteredCameraInfo.getCameraState() == CameraState.CAMERA_ON) {
-						this.cameraActiveDuration += filteredCameraInfo.getEndTimeStamp()
-								- filteredCameraInfo.getBeginTimeStamp();
-					}
-				} else if (cameraInfo.getBeginTimeStamp() <= beginTime
-						&& cameraInfo.getEndTimeStamp() <= endTime
-						&& cameraInfo.getEndTimeStamp() > beginTime) {
-					filteredCameraInfo = new CameraInfo(beginTime, cameraInfo.getEndTimeStamp(),
-							cameraInfo.getCameraState());
-					filteredCameraInfos.add(filteredCameraInfo);
-					if (filteredCameraInfo.getCameraState() == CameraState.CAMERA_ON) {
-						this.cameraActiveDuration += filteredCameraInfo.getEndTimeStamp()
-								- filteredCameraInfo.getBeginTimeStamp();
-					}
-				} else if (cameraInfo.getBeginTimeStamp() <= beginTime
-						&& cameraInfo.getEndTimeStamp() >= endTime) {
-					filteredCameraInfo = new CameraInfo(beginTime, endTime,
-							cameraInfo.getCameraState());
-					filteredCameraInfos.add(filteredCameraInfo);
-					if (filteredCameraInfo.getCameraState() == CameraState.CAMERA_ON) {
-						this.cameraActiveDuration += filteredCameraInfo.getEndTimeStamp()
-								- filteredCameraInfo.getBeginTimeStamp();
-					}
-				} else if (cameraInfo.getBeginTimeStamp() >= beginTime
-						&& cameraInfo.getBeginTimeStamp() < endTime
-						&& cameraInfo.getEndTimeStamp() >= endTime) {
-					filteredCameraInfo = new CameraInfo(cameraInfo.getBeginTimeStamp(), endTime,
-							cameraInfo.getCameraState());
-					filteredCameraInfos.add(filteredCameraInfo);
-					if (filteredCameraInfo.getCameraState() == CameraState.CAMERA_ON) {
-						this.cameraActiveDuration += filteredCameraInfo.getEndTimeStamp()
-								- filteredCameraInfo.getBeginTimeStamp();
-					}
-				}
-			}
-			return filteredCameraInfos;
-		}
-
-		/**
-		 * Returns the list of radio events filtered based on the time range.
-		 */
-
-		private List<RadioInfo> getRadioInfosForTheTimeRange(List<RadioInfo> radioInfos,
-				double beginTime, double endTime) {
-
-			List<RadioInfo> filteredRadioInfos = new ArrayList<RadioInfo>();
-			for (RadioInfo radioInfo : radioInfos) {
-
-				if (radioInfo.getTimeStamp() >= beginTime && radioInfo.getTimeStamp() <= endTime) {
-					filteredRadioInfos.add(radioInfo);
-				}
-			}
-			return filteredRadioInfos;
-		}
-
-		/**
-		 * Returns the list of battery events filtered based on the time range.
-		 */
-		private List<BatteryInfo> getBatteryInfosForTheTimeRange(List<BatteryInfo> batteryInfos,
-				double beginTime, double endTime) {
-
-			List<BatteryInfo> filteredBatteryInfos = new ArrayList<BatteryInfo>();
-			for (BatteryInfo batteryInfo : batteryInfos) {
-
-				if (batteryInfo.getBatteryTimeStamp() >= beginTime
-						&& batteryInfo.getBatteryTimeStamp() <= endTime) {
-					filteredBatteryInfos.add(batteryInfo);
-				}
-			}
-			return filteredBatteryInfos;
-		}
-
-		/**
-		 * Returns the list of wifi events filtered based on the time range.
-		 */
-		private List<WifiInfo> getWifiInfosForTheTimeRange(List<WifiInfo> wifiInfos,
-				double beginTime, double endTime) {
-
-			List<WifiInfo> filteredWifiInfos = new ArrayList<WifiInfo>();
-			for (WifiInfo wifiInfo : wifiInfos) {
-
-				if (wifiInfo.getBeginTimeStamp() >= beginTime
-						&& wifiInfo.getEndTimeStamp() <= endTime) {
-					filteredWifiInfos.add(wifiInfo);
-				} else if (wifiInfo.getBeginTimeStamp() <= beginTime
-						&& wifiInfo.getEndTimeStamp() <= endTime
-						&& wifiInfo.getEndTimeStamp() > beginTime) {
-					filteredWifiInfos.add(new WifiInfo(beginTime, wifiInfo.getEndTimeStamp(),
-							wifiInfo.getWifiState(), wifiInfo.getWifiMacAddress(), wifiInfo
-									.getWifiRSSI(), wifiInfo.getWifiSSID()));
-				} else if (wifiInfo.getBeginTimeStamp() <= beginTime
-						&& wifiInfo.getEndTimeStamp() >= endTime) {
-					filteredWifiInfos.add(new WifiInfo(beginTime, endTime, wifiInfo.getWifiState(),
-							wifiInfo.getWifiMacAddress(), wifiInfo.getWifiRSSI(), wifiInfo
-									.getWifiSSID()));
-				} else if (wifiInfo.getBeginTimeStamp() >= beginTime
-						&& wifiInfo.getBeginTimeStamp() < endTime
-						&& wifiInfo.getEndTimeStamp() >= endTime) {
-					filteredWifiInfos.add(new WifiInfo(wifiInfo.getBeginTimeStamp(), endTime,
-							wifiInfo.getWifiState(), wifiInfo.getWifiMacAddress(), wifiInfo
-									.getWifiRSSI(), wifiInfo.getWifiSSID()));
-				}
-			}
-			return filteredWifiInfos;
-		}
-
-		/**
-		 * Returns the list of bluetooth events filtered based on the time
-		 * range.
-		 */
-		private List<BluetoothInfo> getBluetoothInfosForTheTimeRange(
-				List<BluetoothInfo> bluetoothInfos, double beginTime, double endTime) {
-
-			List<BluetoothInfo> filteredBluetoothInfos = new ArrayList<BluetoothInfo>();
-
-			BluetoothInfo filteredBluetoothInfo = null;
-
-			for (BluetoothInfo bluetoothInfo : bluetoothInfos) {
-
-				if (bluetoothInfo.getBeginTimeStamp() >= beginTime
-						&& bluetoothInfo.getEndTimeStamp() <= endTime) {
-					filteredBluetoothInfo = bluetoothInfo;
-					filteredBluetoothInfos.add(filteredBluetoothInfo);
-					if (filteredBluetoothInfo.getBluetoothState() == BluetoothState.BLUETOOTH_CONNECTED) {
-						this.bluetoothActiveDuration += filteredBluetoothInfo.getEndTimeStamp()
-								- filteredBluetoothInfo.getBeginTimeStamp();
-					}
-				} else if (bluetoothInfo.getBeginTimeStamp() <= beginTime
-						&& bluetoothInfo.getEndTimeStamp() <= endTime
-						&& bluetoothInfo.getEndTimeStamp() > beginTime) {
-					filteredBluetoothInfo = new BluetoothInfo(beginTime,
-							bluetoothInfo.getEndTimeStamp(), bluetoothInfo.getBluetoothState());
-					filteredBluetoothInfos.add(filteredBluetoothInfo);
-					if (filteredBluetoothInfo.getBluetoothState() == BluetoothState.BLUETOOTH_CONNECTED) {
-						this.bluetoothActiveDuration += filteredBluetoothInfo.getEndTimeStamp()
-								- filteredBluetoothInfo.getBeginTimeStamp();
-					}
-				} else if (bluetoothInfo.getBeginTimeStamp() <= beginTime
-						&& bluetoothInfo.getEndTimeStamp() >= endTime) {
-					filteredBluetoothInfo = new BluetoothInfo(beginTime, endTime,
-							bluetoothInfo.getBluetoothState());
-					filteredBluetoothInfos.add(filteredBluetoothInfo);
-					if (filteredBluetoothInfo.getBluetoothState() == BluetoothState.BLUETOOTH_CONNECTED) {
-						this.bluetoothActiveDuration += filteredBluetoothInfo.getEndTimeStamp()
-								- filteredBluetoothInfo.getBeginTimeStamp();
-					}
-				} else if (bluetoothInfo.getBeginTimeStamp() >= beginTime
-						&& bluetoothInfo.getBeginTimeStamp() < endTime
-						&& bluetoothInfo.getEndTimeStamp() >= endTime) {
-					filteredBluetoothInfo = new BluetoothInfo(bluetoothInfo.getBeginTimeStamp(),
-							endTime, bluetoothInfo.getBluetoothState());
-					filteredBluetoothInfos.add(filteredBluetoothInfo);
-					if (filteredBluetoothInfo.getBluetoothState() == BluetoothState.BLUETOOTH_CONNECTED) {
-						this.bluetoothActiveDuration += filteredBluetoothInfo.getEndTimeStamp()
-								- filteredBluetoothInfo.getBeginTimeStamp();
-					}
-				}
-			}
-
-			return filteredBluetoothInfos;
-		}
-
-		/**
-		 * Returns the list of gps events filtered based on the time range.
-		 */
-		private List<GpsInfo> getGpsInfosForTheTimeRange(List<GpsInfo> gpsInfos, double beginTime,
-				double endTime) {
-
-			List<GpsInfo> filteredGpsInfos = new ArrayList<GpsInfo>();
-
-			GpsInfo filteredGpsInfo = null;
-
-			for (GpsInfo gpsInfo : gpsInfos) {
-
-				if (gpsInfo.getBeginTimeStamp() >= beginTime
-						&& gpsInfo.getEndTimeStamp() <= endTime) {
-					filteredGpsInfo = gpsInfo;
-					filteredGpsInfos.add(filteredGpsInfo);
-					if (filteredGpsInfo.getGpsState() == GpsState.GPS_ACTIVE) {
-						this.gpsActiveDuration += filteredGpsInfo.getEndTimeStamp()
-								- filteredGpsInfo.getBeginTimeStamp();
-					}
-
-				} else if (gpsInfo.getBeginTimeStamp() <= beginTime
-						&& gpsInfo.getEndTimeStamp() <= endTime
-						&& gpsInfo.getEndTimeStamp() > beginTime) {
-					filteredGpsInfo = new GpsInfo(beginTime, gpsInfo.getEndTimeStamp(),
-							gpsInfo.getGpsState());
-					filteredGpsInfos.add(filteredGpsInfo);
-					if (filteredGpsInfo.getGpsState() == GpsState.GPS_ACTIVE) {
-						this.gpsActiveDuration += filteredGpsInfo.getEndTimeStamp()
-								- filteredGpsInfo.getBeginTimeStamp();
-					}
-				} else if (gpsInfo.getBeginTimeStamp() <= beginTime
-						&& gpsInfo.getEndTimeStamp() >= endTime) {
-					filteredGpsInfo = new GpsInfo(beginTime, endTime, gpsInfo.getGpsState());
-					filteredGpsInfos.add(filteredGpsInfo);
-					if (filteredGpsInfo.getGpsState() == GpsState.GPS_ACTIVE) {
-						this.gpsActiveDuration += filteredGpsInfo.getEndTimeStamp()
-								- filteredGpsInfo.getBeginTimeStamp();
-					}
-				} else if (gpsInfo.getBeginTimeStamp() >= beginTime
-						&& gpsInfo.getBeginTimeStamp() < endTime
-						&& gpsInfo.getEndTimeStamp() >= endTime) {
-					filteredGpsInfo = new GpsInfo(gpsInfo.getBeginTimeStamp(), endTime,
-							gpsInfo.getGpsState());
-					filteredGpsInfos.add(filteredGpsInfo);
-					if (filteredGpsInfo.getGpsState() == GpsState.GPS_ACTIVE) {
-						this.gpsActiveDuration += filteredGpsInfo.getEndTimeStamp()
-								- filteredGpsInfo.getBeginTimeStamp();
-					}
-
-				}
-			}
-
-			return filteredGpsInfos;
-		}
-
-		/**
-		 * Returns the list of cpu events filtered based on the time range.
-		 */
-		private List<CpuActivity> getCpuInfosForTheTimeRange(List<CpuActivity> cpuActivityList,
-				double beginTime, double endTime) {
-
-			List<CpuActivity> filteredCpuActivities = new ArrayList<CpuActivity>();
-			for (CpuActivity cpuActivity : cpuActivityList) {
-
-				if (cpuActivity.getBeginTimeStamp() >= beginTime
-						&& cpuActivity.getEndTimeStamp() <= endTime) {
-					filteredCpuActivities.add(cpuActivity);
-				} else if (cpuActivity.getBeginTimeStamp() <= beginTime
-						&& cpuActivity.getEndTimeStamp() <= endTime
-						&& cpuActivity.getEndTimeStamp() > beginTime) {
-					filteredCpuActivities.add(new CpuActivity(beginTime, cpuActivity
-							.getEndTimeStamp(), cpuActivity.getUsage()));
-				} else if (cpuActivity.getBeginTimeStamp() <= beginTime
-						&& cpuActivity.getEndTimeStamp() >= endTime) {
-					filteredCpuActivities.add(new CpuActivity(beginTime, endTime, cpuActivity
-							.getUsage()));
-				} else if (cpuActivity.getBeginTimeStamp() >= beginTime
-						&& cpuActivity.getBeginTimeStamp() < endTime
-						&& cpuActivity.getEndTimeStamp() >= endTime) {
-					filteredCpuActivities.add(new CpuActivity(cpuActivity.getBeginTimeStamp(),
-							endTime, cpuActivity.getUsage()));
-				}
-			}
-			return filteredCpuActivities;
 		}
 
 		/**
@@ -1153,6 +981,9 @@ public class TraceData implements Serializable {
 	private static final int PACKET_UNKNOWN_APP = -1;
 	private static final int PACKET_EOF = -127;
 
+	// Maximum number of threads used to read the trace files
+	private static final int MAX_READER_THREADS = 8;
+
 	// Trace network types
 	private static final int WIFI = -1;
 	private static final int GPRS = 1;
@@ -1211,7 +1042,8 @@ public class TraceData implements Serializable {
 
 	private File traceDir;
 
-	private Set<InetAddress> localIPAddresses = new HashSet<InetAddress>(1);
+	// Endpoint ids of the local IP addresses
+	private BitSet localEndpoints = new BitSet();
 
 	// App Info
 	private List<String> appInfos = new ArrayList<String>();
@@ -1263,17 +1095,43 @@ public class TraceData implements Serializable {
 	private double bluetoothActiveDuration;
 	private double cameraActiveDuration;
 
-	private Set<String> missingFiles = new HashSet<String>();
+	// Trace files are read concurrently
+	private Set<String> missingFiles = Collections.synchronizedSet(new HashSet<String>());
 
 	// All packets included in the trace (not filtered)
 	private File pcapFile;
-	private List<PacketInfo> allPackets = new ArrayList<PacketInfo>(1000);
-	private Map<InetAddress, Integer> ipCountMap = new HashMap<InetAddress, Integer>();
+	private EndpointTable endpoints = new EndpointTable();
+	private PacketTable allPackets = new PacketTable(1000, endpoints);
+	private int frameCount;
+	private double firstFrameTime;
+	private double lastFrameTime;
+	// Number of packets in which each endpoint appears, indexed by endpoint id
+	private int[] endpointCounts = new int[256];
 
 	// private WhatIf whatIf = new WhatIf(WhatIf.WhatIfType.WHATIF_NO) ;
 	private Set<String> allAppNames = new HashSet<String>();
 	private Map<String, Set<InetAddress>> appIps = new HashMap<String, Set<InetAddress>>();
 
+	// Time indexes of the event lists, created for the first analysis of a
+	// time range
+	private transient TimeIndex<CpuActivity> cpuIndex;
+	private transient TimeIndex<GpsInfo> gpsIndex;
+	private transient TimeIndex<BluetoothInfo> bluetoothIndex;
+	private transient TimeIndex<WifiInfo> wifiIndex;
+	private transient TimeIndex<BatteryInfo> batteryIndex;
+	private transient TimeIndex<RadioInfo> radioIndex;
+	private transient TimeIndex<CameraInfo> cameraIndex;
+	private transient TimeIndex<ScreenStateInfo> screenStateIndex;
+	private transient TimeIndex<UserEvent> userEventIndex;
+
+	// Stages kept for reuse by the next analysis: the last analysis, and the
+	// session stage of all packets that is subset when the filter changes
+	private transient Analysis lastAnalysis;
+	private transient SessionStage allPacketsSessionStage;
+
+	// DNS lookups of all packets, that name the sessions of every analysis
+	private transient List<DnsLookup> dnsLookups;
+
 	/**
 	 * Pcap packet listener
 	 */
@@ -1283,19 +1141,23 @@ public class TraceData implements Serializable {
 		public void packetArrived(Packet packet) {
 			if (packet instanceof IPPacket) { // Replaces GetPacketInfo(...)
 				IPPacket ip = (IPPacket) packet;
-				if (ip.getIPVersion() != 4) {
-					logger.warning("225 - Non IPv4 packet received.  Version: " + ip.getIPVersion());
+				if (ip.getIPVersion() != 4 && ip.getIPVersion() != 6) {
+					logger.warning("225 - Unknown IP version received.  Version: " + ip.getIPVersion());
 				}
 
-				// no IP fragmentation
-				if (ip.getFragmentOffset() != 0) {
-					logger.warning("226 - no IP fragmentation");
-				}
+				// Set packet ID to match Wireshark ID
+				int row = allPackets.add(packet);
+				allPackets.setId(row, frameCount + 1);
+				addIpCount(allPackets.getSourceEndpoint(row));
+				addIpCount(allPackets.getDestinationEndpoint(row));
+			}
 
-				addIpCount(ip.getSourceIPAddress());
-				addIpCount(ip.getDestinationIPAddress());
+			// Non-IP packets are not stored but still count as frames
+			if (frameCount == 0) {
+				firstFrameTime = packet.getTimeStamp();
 			}
-			allPackets.add(new PacketInfo(packet));
+			lastFrameTime = packet.getTimeStamp();
+			++frameCount;
 
 		}
 	};
@@ -1322,10 +1184,17 @@ public class TraceData implements Serializable {
 		}
 		this.traceDir = traceDir;
 
+		// Content cached for the previous trace is no longer needed
+		ContentCache.clear();
+
 		if (traceDir.isDirectory()) {
 
-			// Full data collector trace
-			readData();
+			// Full data collector trace, read from the trace cache when it is
+			// up to date
+			if (!readCache()) {
+				readData();
+				writeCache();
+			}
 		} else {
 
 			// Read PCAP file only
@@ -1497,6 +1366,296 @@ public class TraceData implements Serializable {
 		return new Analysis(profile, filter);
 	}
 
+	/**
+	 * Creates the time indexes of the event lists. Events that are partly
+	 * within a time range are limited to the range, and user events are only
+	 * included when both press and release are within the range.
+	 */
+	private synchronized void createEventIndexes() {
+		if (cpuIndex != null) {
+			return;
+		}
+
+		cpuIndex = new TimeIndex<CpuActivity>(cpuActivityList) {
+			@Override
+			double getBeginTime(CpuActivity event) {
+				return event.getBeginTimeStamp();
+			}
+
+			@Override
+			double getEndTime(CpuActivity event) {
+				return event.getEndTimeStamp();
+			}
+
+			@Override
+			CpuActivity filter(CpuActivity cpuActivity, double beginTime, double endTime) {
+				if (cpuActivity.getBeginTimeStamp() >= beginTime
+						&& cpuActivity.getEndTimeStamp() <= endTime) {
+					return cpuActivity;
+				} else if (cpuActivity.getBeginTimeStamp() <= beginTime
+						&& cpuActivity.getEndTimeStamp() <= endTime
+						&& cpuActivity.getEndTimeStamp() > beginTime) {
+					return new CpuActivity(beginTime, cpuActivity.getEndTimeStamp(),
+							cpuActivity.getUsage());
+				} else if (cpuActivity.getBeginTimeStamp() <= beginTime
+						&& cpuActivity.getEndTimeStamp() >= endTime) {
+					return new CpuActivity(beginTime, endTime, cpuActivity.getUsage());
+				} else if (cpuActivity.getBeginTimeStamp() >= beginTime
+						&& cpuActivity.getBeginTimeStamp() < endTime
+						&& cpuActivity.getEndTimeStamp() >= endTime) {
+					return new CpuActivity(cpuActivity.getBeginTimeStamp(), endTime,
+							cpuActivity.getUsage());
+				}
+				return null;
+			}
+		};
+
+		gpsIndex = new TimeIndex<GpsInfo>(gpsInfos) {
+			@Override
+			double getBeginTime(GpsInfo event) {
+				return event.getBeginTimeStamp();
+			}
+
+			@Override
+			double getEndTime(GpsInfo event) {
+				return event.getEndTimeStamp();
+			}
+
+			@Override
+			GpsInfo filter(GpsInfo gpsInfo, double beginTime, double endTime) {
+				if (gpsInfo.getBeginTimeStamp() >= beginTime
+						&& gpsInfo.getEndTimeStamp() <= endTime) {
+					return gpsInfo;
+				} else if (gpsInfo.getBeginTimeStamp() <= beginTime
+						&& gpsInfo.getEndTimeStamp() <= endTime
+						&& gpsInfo.getEndTimeStamp() > beginTime) {
+					return new GpsInfo(beginTime, gpsInfo.getEndTimeStamp(),
+							gpsInfo.getGpsState());
+				} else if (gpsInfo.getBeginTimeStamp() <= beginTime
+						&& gpsInfo.getEndTimeStamp() >= endTime) {
+					return new GpsInfo(beginTime, endTime, gpsInfo.getGpsState());
+				} else if (gpsInfo.getBeginTimeStamp() >= beginTime
+						&& gpsInfo.getBeginTimeStamp() < endTime
+						&& gpsInfo.getEndTimeStamp() >= endTime) {
+					return new GpsInfo(gpsInfo.getBeginTimeStamp(), endTime,
+							gpsInfo.getGpsState());
+				}
+				return null;
+			}
+		};
+
+		bluetoothIndex = new TimeIndex<BluetoothInfo>(bluetoothInfos) {
+			@Override
+			double getBeginTime(BluetoothInfo event) {
+				return event.getBeginTimeStamp();
+			}
+
+			@Override
+			double getEndTime(BluetoothInfo event) {
+				return event.getEndTimeStamp();
+			}
+
+			@Override
+			BluetoothInfo filter(BluetoothInfo bluetoothInfo, double beginTime, double endTime) {
+				if (bluetoothInfo.getBeginTimeStamp() >= beginTime
+						&& bluetoothInfo.getEndTimeStamp() <= endTime) {
+					return bluetoothInfo;
+				} else if (bluetoothInfo.getBeginTimeStamp() <= beginTime
+						&& bluetoothInfo.getEndTimeStamp() <= endTime
+						&& bluetoothInfo.getEndTimeStamp() > beginTime) {
+					return new BluetoothInfo(beginTime, bluetoothInfo.getEndTimeStamp(),
+							bluetoothInfo.getBluetoothState());
+				} else if (bluetoothInfo.getBeginTimeStamp() <= beginTime
+						&& bluetoothInfo.getEndTimeStamp() >= endTime) {
+					return new BluetoothInfo(beginTime, endTime,
+							bluetoothInfo.getBluetoothState());
+				} else if (bluetoothInfo.getBeginTimeStamp() >= beginTime
+						&& bluetoothInfo.getBeginTimeStamp() < endTime
+						&& bluetoothInfo.getEndTimeStamp() >= endTime) {
+					return new BluetoothInfo(bluetoothInfo.getBeginTimeStamp(), endTime,
+							bluetoothInfo.getBluetoothState());
+				}
+				return null;
+			}
+		};
+
+		wifiIndex = new TimeIndex<WifiInfo>(wifiInfos) {
+			@Override
+			double getBeginTime(WifiInfo event) {
+				return event.getBeginTimeStamp();
+			}
+
+			@Override
+			double getEndTime(WifiInfo event) {
+				return event.getEndTimeStamp();
+			}
+
+			@Override
+			WifiInfo filter(WifiInfo wifiInfo, double beginTime, double endTime) {
+				if (wifiInfo.getBeginTimeStamp() >= beginTime
+						&& wifiInfo.getEndTimeStamp() <= endTime) {
+					return wifiInfo;
+				} else if (wifiInfo.getBeginTimeStamp() <= beginTime
+						&& wifiInfo.getEndTimeStamp() <= endTime
+						&& wifiInfo.getEndTimeStamp() > beginTime) {
+					return new WifiInfo(beginTime, wifiInfo.getEndTimeStamp(),
+							wifiInfo.getWifiState(), wifiInfo.getWifiMacAddress(),
+							wifiInfo.getWifiRSSI(), wifiInfo.getWifiSSID());
+				} else if (wifiInfo.getBeginTimeStamp() <= beginTime
+						&& wifiInfo.getEndTimeStamp() >= endTime) {
+					return new WifiInfo(beginTime, endTime, wifiInfo.getWifiState(),
+							wifiInfo.getWifiMacAddress(), wifiInfo.getWifiRSSI(),
+							wifiInfo.getWifiSSID());
+				} else if (wifiInfo.getBeginTimeStamp() >= beginTime
+						&& wifiInfo.getBeginTimeStamp() < endTime
+						&& wifiInfo.getEndTimeStamp() >= endTime) {
+					return new WifiInfo(wifiInfo.getBeginTimeStamp(), endTime,
+							wifiInfo.getWifiState(), wifiInfo.getWifiMacAddress(),
+							wifiInfo.getWifiRSSI(), wifiInfo.getWifiSSID());
+				}
+				return null;
+			}
+		};
+
+		batteryIndex = new TimeIndex<BatteryInfo>(batteryInfos) {
+			@Override
+			double getBeginTime(BatteryInfo event) {
+				return event.getBatteryTimeStamp();
+			}
+
+			@Override
+			double getEndTime(BatteryInfo event) {
+				return event.getBatteryTimeStamp();
+			}
+		};
+
+		radioIndex = new TimeIndex<RadioInfo>(radioInfos) {
+			@Override
+			double getBeginTime(RadioInfo event) {
+				return event.getTimeStamp();
+			}
+
+			@Override
+			double getEndTime(RadioInfo event) {
+				return event.getTimeStamp();
+			}
+		};
+
+		cameraIndex = new TimeIndex<CameraInfo>(cameraInfos) {
+			@Override
+			double getBeginTime(CameraInfo event) {
+				return event.getBeginTimeStamp();
+			}
+
+			@Override
+			double getEndTime(CameraInfo event) {
+				return event.getEndTimeStamp();
+			}
+
+			@Override
+			CameraInfo filter(CameraInfo cameraInfo, double beginTime, double endTime) {
+				if (cameraInfo.getBeginTimeStamp() >= beginTime
+						&& cameraInfo.getEndTimeStamp() <= endTime) {
+					return cameraInfo;
+				} else if (cameraInfo.getBeginTimeStamp() <= beginTime
+						&& cameraInfo.getEndTimeStamp() <= endTime
+						&& cameraInfo.getEndTimeStamp() > beginTime) {
+					return new CameraInfo(beginTime, cameraInfo.getEndTimeStamp(),
+							cameraInfo.getCameraState());
+				} else if (cameraInfo.getBeginTimeStamp() <= beginTime
+						&& cameraInfo.getEndTimeStamp() >= endTime) {
+					return new CameraInfo(beginTime, endTime, cameraInfo.getCameraState());
+				} else if (cameraInfo.getBeginTimeStamp() >= beginTime
+						&& cameraInfo.getBeginTimeStamp() < endTime
+						&& cameraInfo.getEndTimeStamp() >= endTime) {
+					return new CameraInfo(cameraInfo.getBeginTimeStamp(), endTime,
+							cameraInfo.getCameraState());
+				}
+				return null;
+			}
+		};
+
+		screenStateIndex = new TimeIndex<ScreenStateInfo>(screenStateInfos) {
+			@Override
+			double getBeginTime(ScreenStateInfo event) {
+				return event.getBeginTimeStamp();
+			}
+
+			@Override
+			double getEndTime(ScreenStateInfo event) {
+				return event.getEndTimeStamp();
+			}
+
+			@Override
+			ScreenStateInfo filter(ScreenStateInfo screenStateInfo, double beginTime,
+					double endTime) {
+				if (screenStateInfo.getBeginTimeStamp() >= beginTime
+						&& screenStateInfo.getEndTimeStamp() <= endTime) {
+					return screenStateInfo;
+				} else if (screenStateInfo.getBeginTimeStamp() <= beginTime
+						&& screenStateInfo.getEndTimeStamp() <= endTime
+						&& screenStateInfo.getEndTimeStamp() > beginTime) {
+					return new ScreenStateInfo(beginTime, screenStateInfo.getEndTimeStamp(),
+							screenStateInfo.getScreenState(),
+							screenStateInfo.getScreenBrightness(),
+							screenStateInfo.getScreenTimeout());
+				} else if (screenStateInfo.getBeginTimeStamp() <= beginTime
+						&& screenStateInfo.getEndTimeStamp() >= endTime) {
+					return new ScreenStateInfo(beginTime, endTime,
+							screenStateInfo.getScreenState(),
+							screenStateInfo.getScreenBrightness(),
+							screenStateInfo.getScreenTimeout());
+				} else if (screenStateInfo.getBeginTimeStamp() >= beginTime
+						&& screenStateInfo.getBeginTimeStamp() < endTime
+						&& screenStateInfo.getEndTimeStamp() >= endTime) {
+					return new ScreenStateInfo(screenStateInfo.getBeginTimeStamp(), endTime,
+							screenStateInfo.getScreenState(),
+							screenStateInfo.getScreenBrightness(),
+							screenStateInfo.getScreenTimeout());
+				}
+				return null;
+			}
+		};
+
+		userEventIndex = new TimeIndex<UserEvent>(userEvents) {
+			@Override
+			double getBeginTime(UserEvent event) {
+				return event.getPressTime();
+			}
+
+			@Override
+			double getEndTime(UserEvent event) {
+				return event.getReleaseTime();
+			}
+		};
+	}
+
+	/**
+	 * Returns the session stage for the specified packets. The session stage
+	 * of all packets is kept, and the stage of a subset of the packets is
+	 * derived from it.
+	 */
+	private SessionStage getSessionStage(List<PacketInfo> packets, BitSet rows)
+			throws IOException {
+		SessionStage all = allPacketsSessionStage;
+		if (all != null) {
+			if (all.isStageOf(rows)) {
+				all.restore();
+				return all;
+			}
+			return all.subset(packets, rows);
+		}
+
+		if (dnsLookups == null) {
+			dnsLookups = DnsLookup.extractDnsLookups(allPackets);
+		}
+		SessionStage result = new SessionStage(allPackets, packets, rows, dnsLookups);
+		if (rows.cardinality() == allPackets.size()) {
+			allPacketsSessionStage = result;
+		}
+		return result;
+	}
+
 	/**
 	 * Reads the application names from the appinfo trace file.
 	 * 
@@ -1582,6 +1741,45 @@ public class TraceData implements Serializable {
 		readPcapTrace(pcap, readAppIDs(), startTime, duration, false);
 	}
 
+	/**
+	 * Reads the trace file with the NetMon library after the pcap readers
+	 * failed to read it.
+	 * 
+	 * @param reassembler
+	 *            The listener that the packets are passed to.
+	 * @param e
+	 *            The error from the pcap readers, which is thrown if NetMon
+	 *            cannot read the file either.
+	 * @throws IOException
+	 */
+	private void readNetmonTrace(FragmentReassembler reassembler, IOException e)
+			throws IOException, UnsatisfiedLinkError {
+		try {
+			new NetmonAdapter(pcapFile, reassembler);
+		} catch (UnsatisfiedLinkError er) {
+			// TODO This indicates that NetMon is not installed on user PC
+			throw er;
+		} catch (IOException io) {
+			// Throw the original IOException
+			throw e;
+		} catch (Exception ex) {
+			// Throw the original IOException
+			throw e;
+		} catch (Error e2) {
+			// TODO: handle exception
+			throw new UnsatisfiedLinkError();
+		}
+	}
+
+	/**
+	 * Returns true if the analyzer runs on Windows, where NetMon files can be
+	 * read.
+	 */
+	private static boolean isWindows() {
+		String osname = System.getProperty("os.name");
+		return osname != null && osname.contains("Windows");
+	}
+
 	/**
 	 * Reads a device Info from the device file in trace folder.
 	 * 
@@ -1601,7 +1799,8 @@ public class TraceData implements Serializable {
 
 				// In case of IPv6 scoped address, remove scope ID
 				int i = s.indexOf('%');
-				localIPAddresses.add(InetAddress.getByName(i >= 0 ? s.substring(0, i) : s));
+				localEndpoints.set(endpoints.getId(InetAddress.getByName(i >= 0 ? s
+						.substring(0, i) : s)));
 			}
 
 		} finally {
@@ -1672,8 +1871,9 @@ public class TraceData implements Serializable {
 	}
 
 	/**
-	 * Reads the pcap trace file from the trace folder. Using Jpcap library it
-	 * iterate through all packet in the pcap file.
+	 * Reads the pcap trace file from the trace folder. libpcap files are read
+	 * directly from a memory mapping of the file; other formats fall back to
+	 * the native Jpcap/NetMon libraries to iterate through all packets.
 	 * 
 	 * @throws IOException
 	 *             when an unexpected I/O error occurs
@@ -1690,59 +1890,62 @@ public class TraceData implements Serializable {
 			new FileInputStream(pcap);
 		}
 		this.pcapFile = pcap;
+
+		// Fragmented IP datagrams are reassembled as the packets arrive
+		FragmentReassembler reassembler = new FragmentReassembler(packetListener,
+				UserPreferences.getInstance().getFragmentMemoryBudget());
 		try {
-			new PCapAdapter(pcap, packetListener);
+			if (PCapFileReader.isPcapFile(pcap)) {
+
+				// Pure Java reader, does not need the native pcap library
+				new PCapFileReader(pcap, reassembler);
+			} else {
+				new PCapAdapter(pcap, reassembler);
+			}
+		} catch (LinkageError e) {
+
+			// The native library is only loaded for formats that the pure
+			// Java reader does not handle, so it may be missing
+			logger.log(Level.WARNING, "Native pcap library not available", e);
+			IOException ioe = new IOException(MessageFormat.format(
+					rb.getString("Error.nativePcap"), pcap.getName()), e);
+			if (!isFile || !isWindows()) {
+				throw ioe;
+			}
+			readNetmonTrace(reassembler, ioe);
 		} catch (IOException e) {
-			String osname = System.getProperty("os.name");
-			if (isFile && osname != null && osname.contains("Windows")) {
-				try {
-					new NetmonAdapter(pcapFile, packetListener);
-				} catch (UnsatisfiedLinkError er) {
-					// TODO This indicates that NetMon is not installed on user PC
-					throw er;
-				} catch (IOException io) {
-					// Throw the original IOException
-					throw e;
-				} catch (Exception ex) {
-					// Throw the original IOException
-					throw e;
-				} catch (Error e2) {
-					// TODO: handle exception
-					throw new UnsatisfiedLinkError();
-				}
+			if (isFile && isWindows()) {
+				readNetmonTrace(reassembler, e);
 			}
 		}
 
+		if (reassembler.getDiscardedCount() > 0) {
+			logger.warning("226 - Unable to reassemble " + reassembler.getDiscardedCount()
+					+ " fragmented IP datagrams");
+		}
+
 		// Ignore the last packet (nexus one data collector's problem)
 		// Don't know why this is done in prototype
 		// Commented out so results match wireshark
 		// allPackets.remove(allPackets.size() - 1);
 
 		// Determine application name associated with each packet
-		if (allPackets.size() > 0) {
-			int i = 0;
+		if (frameCount > 0) {
 			final String pcapAppName = "";
-			this.pcapTime0 = startTime != null ? startTime.doubleValue() : allPackets.get(0)
-					.getTimeStamp();
-			this.traceDuration = duration != null ? duration.doubleValue() : allPackets.get(
-					allPackets.size() - 1).getTimeStamp()
+			this.pcapTime0 = startTime != null ? startTime.doubleValue() : firstFrameTime;
+			this.traceDuration = duration != null ? duration.doubleValue() : lastFrameTime
 					- this.pcapTime0;
 			if (appIds == null) {
 				appIds = Collections.emptyList();
 			}
-			for (Iterator<PacketInfo> iter = allPackets.iterator(); iter.hasNext(); ++i) {
-				PacketInfo packet = iter.next();
 
-				// Filter out non-IP packets
-				if (!(packet.getPacket() instanceof IPPacket)) {
-					iter.remove();
-					continue;
-				}
-
-				IPPacket ip = (IPPacket) packet.getPacket();
-				packet.setDir(determinePacketDirection(ip.getSourceIPAddress(),
-						ip.getDestinationIPAddress()));
-				packet.setTimestamp(ip.getTimeStamp() - this.pcapTime0);
+			// Non-IP packets were filtered out as they arrived
+			Map<String, BitSet> appEndpoints = new HashMap<String, BitSet>();
+			for (int row = 0; row < allPackets.size(); ++row) {
+				int i = allPackets.getId(row) - 1;
+				allPackets.setDir(row, determinePacketDirection(allPackets
+						.getSourceEndpoint(row), allPackets.getDestinationEndpoint(row)));
+				allPackets.setTimeStamp(row, allPackets.getTimeStamp(row) - this.pcapTime0);
 
 				String appName;
 				if (i < appIds.size()) {
@@ -1762,23 +1965,37 @@ public class TraceData implements Serializable {
 				} else {
 					appName = pcapAppName;
 				}
-				packet.setAppName(appName);
+				allPackets.setAppName(row, appName);
 				this.allAppNames.add(appName);
 
 				// Group IPs by app
-				Set<InetAddress> ips = appIps.get(appName);
-				if (ips == null) {
-					ips = new HashSet<InetAddress>();
-					appIps.put(appName, ips);
+				BitSet ids = appEndpoints.get(appName);
+				if (ids == null) {
+					ids = new BitSet();
+					appEndpoints.put(appName, ids);
+				}
+				ids.set(allPackets.getRemoteEndpoint(row));
+			}
+			for (Map.Entry<String, BitSet> entry : appEndpoints.entrySet()) {
+				BitSet ids = entry.getValue();
+				Set<InetAddress> ips = new HashSet<InetAddress>(ids.cardinality() * 2);
+				for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+					ips.add(endpoints.getAddress(id));
 				}
-				ips.add(packet.getRemoteIPAddress());
+				appIps.put(entry.getKey(), ips);
+			}
 
-				// Set packet ID to match Wireshark ID
-				packet.setId(i + 1);
+			allPackets.sort();
 
+			// Packets read by the pure Java reader are read back from the
+			// file when they are needed instead of being held
+			if (PCapFileReader.isPcapFile(pcap)) {
+				PCapFileReader source = PCapFileReader.open(pcap);
+				long[] recordOffsets = source.getRecordOffsets();
+				if (recordOffsets.length == frameCount) {
+					allPackets.attach(source, recordOffsets);
+				}
 			}
-
-			Collections.sort(allPackets);
 		} else {
 			this.pcapTime0 = startTime != null ? startTime.doubleValue()
 					: pcap.lastModified() / 1000.0;
@@ -1945,97 +2162,371 @@ public class TraceData implements Serializable {
 	}
 
 	/**
-	 * Method to Read the data from the trace folder for all the files.
+	 * Reads one trace file, logging a warning instead of failing when the file
+	 * cannot be read.
 	 */
-	private synchronized void readData() throws IOException {
+	private abstract static class TraceFileTask implements Callable<Void> {
+		private String warning;
 
-		try {
-			readAppInfo();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no app information found ***");
+		TraceFileTask(String warning) {
+			this.warning = warning;
 		}
 
-		// Read the time file and PCAP trace
-		readTimeAndPcap();
-
-		try {
-			readDeviceInfo();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no device information found ***");
+		@Override
+		public Void call() throws Exception {
+			try {
+				read();
+			} catch (IOException e) {
+				logger.warning(warning);
+			}
+			return null;
 		}
 
-		try {
-			readDeviceDetails();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no device detail information found ***");
-		}
+		protected abstract void read() throws IOException;
+	}
 
-		try {
-			readCpu();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no CPU information found ***");
-		}
+	/**
+	 * Method to Read the data from the trace folder for all the files. The
+	 * app info, time and pcap files are read first. The other files only
+	 * depend on the trace times and are read concurrently.
+	 */
+	private synchronized void readData() throws IOException {
 
 		try {
-			readGps();
+			readAppInfo();
 		} catch (IOException e) {
-			logger.warning("*** Warning: no GPS information found ***");
+			logger.warning("*** Warning: no app information found ***");
 		}
 
-		try {
-			readBluetooth();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no Bluetooth information found ***");
-		}
+		// Read the time file and PCAP trace
+		readTimeAndPcap();
 
-		try {
-			readWifi();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no Wifi information found ***");
-		}
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		tasks.add(new TraceFileTask("*** Warning: no device information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readDeviceInfo();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no device detail information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readDeviceDetails();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no CPU information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readCpu();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no GPS information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readGps();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no Bluetooth information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readBluetooth();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no Wifi information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readWifi();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no Camera information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readCamera();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no Screen State information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readScreenState();
+			}
+		});
+		// Screen rotations are added to the user events, so both files are
+		// read by the same task
+		final TraceFileTask userEventsTask = new TraceFileTask("*** Warning: no user event information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readUserEvents();
+			}
+		};
+		final TraceFileTask screenRotationsTask = new TraceFileTask("*** Warning: no screen rotations information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readScreenRotations();
+			}
+		};
+		tasks.add(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				userEventsTask.call();
+				return screenRotationsTask.call();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no battery information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readBattery();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no Radio Events information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readRadioEvents();
+			}
+		});
+		tasks.add(new TraceFileTask("*** Warning: no Video time information found ***") {
+			@Override
+			protected void read() throws IOException {
+				readVideoTime();
+			}
+		});
 
+		int threads = Math.min(tasks.size(), Math.min(MAX_READER_THREADS, Runtime.getRuntime()
+				.availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
 		try {
-			readCamera();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no Camera information found ***");
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new IOException(cause.getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted reading trace files");
+		} finally {
+			executor.shutdown();
 		}
+	}
 
-		try {
-			readScreenState();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no Screen State information found ***");
+	/**
+	 * Reads the trace data from the trace cache of the trace directory.
+	 * 
+	 * @return true if the trace data was read from the cache, false if there
+	 *         is no up to date cache.
+	 */
+	private boolean readCache() {
+		ByteBuffer in = TraceCache.open(traceDir);
+		if (in == null) {
+			return false;
 		}
 
 		try {
-			readUserEvents();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no user event information found ***");
-		}
-		try {
-			readScreenRotations();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no screen rotations information found ***");
-		}
+			this.pcapFile = new File(traceDir, PCAP_FILE);
+			PCapFileReader source = PCapFileReader.open(pcapFile);
+
+			this.pcapTime0 = in.getDouble();
+			this.eventTime0 = in.getDouble();
+			this.traceDuration = in.getDouble();
+			this.traceDateTime = new Date(in.getLong());
+			this.videoStartTime = in.getDouble();
+			this.screenRotationCounter = in.getInt();
+			this.gpsActiveDuration = in.getDouble();
+			this.wifiActiveDuration = in.getDouble();
+			this.bluetoothActiveDuration = in.getDouble();
+			this.cameraActiveDuration = in.getDouble();
+			this.frameCount = in.getInt();
+			this.firstFrameTime = in.getDouble();
+			this.lastFrameTime = in.getDouble();
+
+			this.collectorName = TraceCache.readString(in);
+			this.deviceModel = TraceCache.readString(in);
+			this.deviceMake = TraceCache.readString(in);
+			this.osType = TraceCache.readString(in);
+			this.osVersion = TraceCache.readString(in);
+			this.collectorVersion = TraceCache.readString(in);
+			byte type = in.get();
+			this.networkType = type >= 0 ? NetworkType.values()[type] : null;
+
+			this.missingFiles.addAll(TraceCache.readStrings(in));
+			this.appInfos.addAll(TraceCache.readStrings(in));
+			for (int i = in.getInt(); i > 0; --i) {
+				this.appVersionMap.put(TraceCache.readString(in), TraceCache.readString(in));
+			}
+			this.allAppNames.addAll(TraceCache.readStrings(in));
+
+			// Endpoints
+			this.endpoints.read(in);
+			this.endpointCounts = TraceCache.readInts(in, endpoints.size(), Math.max(endpoints
+					.size(), 1));
+			for (int i = in.getInt(); i > 0; --i) {
+				this.localEndpoints.set(in.getInt());
+			}
+			for (int i = in.getInt(); i > 0; --i) {
+				String appName = TraceCache.readString(in);
+				int n = in.getInt();
+				Set<InetAddress> ips = new HashSet<InetAddress>(n * 2);
+				for (int j = 0; j < n; ++j) {
+					ips.add(endpoints.getAddress(in.getInt()));
+				}
+				this.appIps.put(appName, ips);
+			}
 
-		try {
-			// Reads the battery information
-			readBattery();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no battery information found ***");
+			this.allPackets.read(in, source);
+
+			this.cpuActivityList.addAll(TraceCache.readCpuActivities(in));
+			this.gpsInfos.addAll(TraceCache.readGpsInfos(in));
+			this.bluetoothInfos.addAll(TraceCache.readBluetoothInfos(in));
+			this.wifiInfos.addAll(TraceCache.readWifiInfos(in));
+			this.batteryInfos.addAll(TraceCache.readBatteryInfos(in));
+			this.radioInfos.addAll(TraceCache.readRadioInfos(in));
+			this.cameraInfos.addAll(TraceCache.readCameraInfos(in));
+			this.screenStateInfos.addAll(TraceCache.readScreenStateInfos(in));
+			this.userEvents.addAll(TraceCache.readUserEvents(in));
+			return true;
+		} catch (Exception e) {
+			logger.warning("Unable to read trace cache, reading trace files: " + e.getMessage());
+			clearData();
+			return false;
 		}
+	}
 
+	/**
+	 * Writes the trace data to the trace cache of the trace directory. The
+	 * cache is only written for traces whose pcap file is read by the
+	 * PCapFileReader, because the packets are read back from the pcap file by
+	 * their file offsets.
+	 */
+	private void writeCache() {
 		try {
-			readRadioEvents();
-		} catch (IOException e) {
-			logger.warning("*** Warning: no Radio Events information found ***");
-		}
+			if (!pcapFile.exists() || !PCapFileReader.isPcapFile(pcapFile)) {
+				return;
+			}
+			long[] recordOffsets = PCapFileReader.open(pcapFile).getRecordOffsets();
+			if (recordOffsets.length != frameCount) {
+				return;
+			}
 
-		try {
-			readVideoTime();
+			DataOutputStream out = TraceCache.create(traceDir);
+			boolean success = false;
+			try {
+				out.writeDouble(pcapTime0);
+				out.writeDouble(eventTime0);
+				out.writeDouble(traceDuration);
+				out.writeLong(traceDateTime.getTime());
+				out.writeDouble(videoStartTime);
+				out.writeInt(screenRotationCounter);
+				out.writeDouble(gpsActiveDuration);
+				out.writeDouble(wifiActiveDuration);
+				out.writeDouble(bluetoothActiveDuration);
+				out.writeDouble(cameraActiveDuration);
+				out.writeInt(frameCount);
+				out.writeDouble(firstFrameTime);
+				out.writeDouble(lastFrameTime);
+
+				TraceCache.writeString(out, collectorName);
+				TraceCache.writeString(out, deviceModel);
+				TraceCache.writeString(out, deviceMake);
+				TraceCache.writeString(out, osType);
+				TraceCache.writeString(out, osVersion);
+				TraceCache.writeString(out, collectorVersion);
+				out.writeByte(networkType != null ? networkType.ordinal() : -1);
+
+				TraceCache.writeStrings(out, new ArrayList<String>(missingFiles));
+				TraceCache.writeStrings(out, appInfos);
+				out.writeInt(appVersionMap.size());
+				for (Map.Entry<String, String> entry : appVersionMap.entrySet()) {
+					TraceCache.writeString(out, entry.getKey());
+					TraceCache.writeString(out, entry.getValue());
+				}
+				TraceCache.writeStrings(out, new ArrayList<String>(allAppNames));
+
+				// Endpoints
+				endpoints.write(out);
+				TraceCache.writeInts(out, Arrays.copyOf(endpointCounts, endpoints.size()),
+						endpoints.size());
+				out.writeInt(localEndpoints.cardinality());
+				for (int i = localEndpoints.nextSetBit(0); i >= 0; i = localEndpoints
+						.nextSetBit(i + 1)) {
+					out.writeInt(i);
+				}
+				out.writeInt(appIps.size());
+				for (Map.Entry<String, Set<InetAddress>> entry : appIps.entrySet()) {
+					TraceCache.writeString(out, entry.getKey());
+					out.writeInt(entry.getValue().size());
+					for (InetAddress ip : entry.getValue()) {
+						out.writeInt(endpoints.getId(ip));
+					}
+				}
+
+				allPackets.write(out, recordOffsets);
+
+				TraceCache.writeCpuActivities(out, cpuActivityList);
+				TraceCache.writeGpsInfos(out, gpsInfos);
+				TraceCache.writeBluetoothInfos(out, bluetoothInfos);
+				TraceCache.writeWifiInfos(out, wifiInfos);
+				TraceCache.writeBatteryInfos(out, batteryInfos);
+				TraceCache.writeRadioInfos(out, radioInfos);
+				TraceCache.writeCameraInfos(out, cameraInfos);
+				TraceCache.writeScreenStateInfos(out, screenStateInfos);
+				TraceCache.writeUserEvents(out, userEvents);
+				success = true;
+			} finally {
+				TraceCache.commit(traceDir, out, success);
+			}
 		} catch (IOException e) {
-			logger.warning("*** Warning: no Video time information found ***");
+			logger.warning("Unable to write trace cache: " + e.getMessage());
 		}
+	}
 
+	/**
+	 * Discards all data read from the trace directory.
+	 */
+	private void clearData() {
+		this.pcapTime0 = 0.0;
+		this.eventTime0 = 0.0;
+		this.traceDuration = 0.0;
+		this.traceDateTime = null;
+		this.videoStartTime = 0.0;
+		this.screenRotationCounter = 0;
+		this.gpsActiveDuration = 0.0;
+		this.wifiActiveDuration = 0.0;
+		this.bluetoothActiveDuration = 0.0;
+		this.cameraActiveDuration = 0.0;
+		this.frameCount = 0;
+		this.firstFrameTime = 0.0;
+		this.lastFrameTime = 0.0;
+		this.collectorName = null;
+		this.deviceModel = null;
+		this.deviceMake = null;
+		this.osType = null;
+		this.osVersion = null;
+		this.collectorVersion = null;
+		this.networkType = null;
+		this.missingFiles.clear();
+		this.appInfos.clear();
+		this.appVersionMap.clear();
+		this.allAppNames.clear();
+		this.endpoints = new EndpointTable();
+		this.endpointCounts = new int[256];
+		this.localEndpoints.clear();
+		this.appIps.clear();
+		this.allPackets = new PacketTable(1000, endpoints);
+		this.cpuActivityList.clear();
+		this.gpsInfos.clear();
+		this.bluetoothInfos.clear();
+		this.wifiInfos.clear();
+		this.batteryInfos.clear();
+		this.radioInfos.clear();
+		this.cameraInfos.clear();
+		this.screenStateInfos.clear();
+		this.userEvents.clear();
 	}
 
 	/**
@@ -2788,47 +3279,52 @@ public class TraceData implements Serializable {
 	 * Attempts to determine packet direction based upon source and destination
 	 * IP addresses
 	 */
-	private PacketInfo.Direction determinePacketDirection(InetAddress source, InetAddress dest) {
+	private PacketInfo.Direction determinePacketDirection(int source, int dest) {
 
 		// Check identified local IP addresses
-		if (this.localIPAddresses.contains(source)) {
+		if (this.localEndpoints.get(source)) {
 			return Direction.UPLINK;
-		} else if (this.localIPAddresses.contains(dest)) {
+		} else if (this.localEndpoints.get(dest)) {
 			return Direction.DOWNLINK;
 		}
 
 		// Do same check done by ARO prototype
-		boolean srcLocal = isLocal(source);
-		boolean destLocal = isLocal(dest);
+		boolean srcLocal = isLocal(endpoints.getAddress(source));
+		boolean destLocal = isLocal(endpoints.getAddress(dest));
 		if (srcLocal && !destLocal) {
-			this.localIPAddresses.add(source);
+			this.localEndpoints.set(source);
 			return Direction.UPLINK;
 		} else if (destLocal && !srcLocal) {
-			this.localIPAddresses.add(dest);
+			this.localEndpoints.set(dest);
 			return Direction.DOWNLINK;
 		}
 
 		// Otherwise make a guess based upon the count of time the IP has been
 		// in a packet
-		int srcCount = ipCountMap.get(source).intValue();
-		int destCount = ipCountMap.get(dest).intValue();
+		int srcCount = endpointCounts[source];
+		int destCount = endpointCounts[dest];
 		if (srcCount >= destCount) {
-			this.localIPAddresses.add(source);
+			this.localEndpoints.set(source);
 			return Direction.UPLINK;
 		} else {
-			this.localIPAddresses.add(dest);
+			this.localEndpoints.set(dest);
 			return Direction.DOWNLINK;
 		}
 	}
 
 	/**
-	 * ARO prototype logic for finding local IP address
+	 * ARO prototype logic for finding local IP address. Devices are usually
+	 * given global IPv6 addresses, so only the link local and unique local
+	 * IPv6 addresses are known to be local.
 	 */
 	private boolean isLocal(InetAddress ip) {
 
 		if (ip instanceof Inet4Address) {
 			byte[] addr = ((Inet4Address) ip).getAddress();
 			return addr[0] == 10;
+		} else if (ip instanceof Inet6Address) {
+			byte[] addr = ((Inet6Address) ip).getAddress();
+			return ip.isLinkLocalAddress() || (addr[0] & 0xfe) == 0xfc;
 		}
 		return false;
 	}
@@ -2855,18 +3351,17 @@ public class TraceData implements Serializable {
 	}
 
 	/**
-	 * Adds the IP count in ipCountMap list.
+	 * Adds the IP count of the specified endpoint.
 	 * 
-	 * @param ip
-	 *            unique ip address.
+	 * @param endpoint
+	 *            endpoint id of the ip address.
 	 */
-	private void addIpCount(InetAddress ip) {
-		Integer ipCount = this.ipCountMap.get(ip);
-		if (ipCount == null) {
-			ipCount = Integer.valueOf(0);
+	private void addIpCount(int endpoint) {
+		if (endpoint >= endpointCounts.length) {
+			endpointCounts = Arrays.copyOf(endpointCounts, Math.max(endpoint + 1,
+					endpointCounts.length * 2));
 		}
-		int i = ipCount.intValue();
-		ipCountMap.put(ip, ++i);
+		++endpointCounts[endpoint];
 	}
 
 	/**
@@ -0,0 +1,294 @@
+/*
+ *  Copyright 2012 AT&T
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.att.aro.model;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The UDP packets exchanged between a local port and a remote address and
+ * port. UDP has no connection setup or teardown, so a flow ends when no
+ * packet is seen for IDLE_TIMEOUT seconds, and a later packet of the same
+ * ports and address starts a new flow.
+ * <p>
+ * The packets of a flow are grouped into exchanges, each of which begins
+ * with a packet sent more than EXCHANGE_GAP seconds after the previous one.
+ * The times of the exchanges show whether the flow repeats periodically, as
+ * do keep alive and polling traffic.
+ */
+public class UDPFlow implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Time in seconds without a packet after which a flow ends. NAT devices
+	 * must keep a UDP mapping for at least this long (RFC 4787).
+	 */
+	public static final double IDLE_TIMEOUT = 120.0;
+
+	/**
+	 * Time in seconds without a packet after which a packet begins a new
+	 * exchange of a flow.
+	 */
+	public static final double EXCHANGE_GAP = 1.0;
+
+	/**
+	 * Groups UDP packets into flows as they are passed, in timestamp order.
+	 * Packets that are not UDP packets are ignored, so every packet of a
+	 * trace may be passed.
+	 */
+	static class Extractor {
+		private ConnectionTable connections = new ConnectionTable();
+
+		// Current flow of each connection id
+		private List<UDPFlow> current = new ArrayList<UDPFlow>();
+		private List<UDPFlow> flows = new ArrayList<UDPFlow>();
+
+		/**
+		 * Adds a packet to the flow of its ports and remote address.
+		 */
+		void add(PacketInfo packet) {
+			if (!packet.isUDP()) {
+				return;
+			}
+			int localPort;
+			int remotePort;
+			switch (packet.getDir()) {
+			case UPLINK:
+				localPort = packet.getSourcePort();
+				remotePort = packet.getDestinationPort();
+				break;
+			case DOWNLINK:
+				localPort = packet.getDestinationPort();
+				remotePort = packet.getSourcePort();
+				break;
+			default:
+				return;
+			}
+
+			int id = connections.getId(TCPSession.getConnectionKey(localPort,
+					remotePort, packet.getRemoteEndpoint()));
+			if (id == current.size()) {
+				current.add(null);
+			}
+			UDPFlow flow = current.get(id);
+			if (flow == null || packet.getTimeStamp() - flow.getEndTime() > IDLE_TIMEOUT) {
+				flow = new UDPFlow(packet.getRemoteIPAddress(), remotePort, localPort);
+				current.set(id, flow);
+				flows.add(flow);
+			}
+			flow.add(packet);
+		}
+
+		/**
+		 * Returns the flows of the packets added, in the order of their
+		 * first packet.
+		 */
+		List<UDPFlow> getFlows() {
+			return flows;
+		}
+	}
+
+	private InetAddress remoteIP;
+	private int remotePort;
+	private int localPort;
+	private List<PacketInfo> packets = new ArrayList<PacketInfo>();
+	private int[] packetCounts = new int[DirectionIndex.COUNT];
+	private long[] bytes = new long[DirectionIndex.COUNT];
+	private long[] payloadBytes = new long[DirectionIndex.COUNT];
+	private double[] exchangeTimes = new double[4];
+	private int exchangeCount;
+
+	private UDPFlow(InetAddress remoteIP, int remotePort, int localPort) {
+		this.remoteIP = remoteIP;
+		this.remotePort = remotePort;
+		this.localPort = localPort;
+	}
+
+	private void add(PacketInfo packet) {
+		double time = packet.getTimeStamp();
+		if (packets.isEmpty() || time - getEndTime() > EXCHANGE_GAP) {
+			if (exchangeCount == exchangeTimes.length) {
+				exchangeTimes = Arrays.copyOf(exchangeTimes, exchangeCount * 2);
+			}
+			exchangeTimes[exchangeCount++] = time;
+		}
+		packets.add(packet);
+
+		int d = DirectionIndex.of(packet.getDir());
+		++packetCounts[d];
+		bytes[d] += packet.getLen();
+		payloadBytes[d] += packet.getPayloadLen();
+	}
+
+	/**
+	 * Returns the remote IP address of the flow.
+	 *
+	 * @return The remote IP address.
+	 */
+	public InetAddress getRemoteIP() {
+		return remoteIP;
+	}
+
+	/**
+	 * Returns the remote port of the flow.
+	 *
+	 * @return The remote port.
+	 */
+	public int getRemotePort() {
+		return remotePort;
+	}
+
+	/**
+	 * Returns the local port of the flow.
+	 *
+	 * @return The local port.
+	 */
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	/**
+	 * Returns the packets of the flow, in timestamp order.
+	 *
+	 * @return A list of PacketInfo objects.
+	 */
+	public List<PacketInfo> getPackets() {
+		return Collections.unmodifiableList(packets);
+	}
+
+	/**
+	 * Returns the number of packets sent in the specified direction.
+	 *
+	 * @param dir
+	 *            The direction of the packets.
+	 * @return The number of packets.
+	 */
+	public int getPacketCount(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? packetCounts[d] : 0;
+	}
+
+	/**
+	 * Returns the number of bytes of the packets sent in the specified
+	 * direction, including their headers.
+	 *
+	 * @param dir
+	 *            The direction of the packets.
+	 * @return The number of bytes.
+	 */
+	public long getBytes(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? bytes[d] : 0;
+	}
+
+	/**
+	 * Returns the number of payload bytes sent in the specified direction.
+	 *
+	 * @param dir
+	 *            The direction of the packets.
+	 * @return The number of payload bytes.
+	 */
+	public long getPayloadBytes(PacketInfo.Direction dir) {
+		int d = DirectionIndex.of(dir);
+		return d >= 0 ? payloadBytes[d] : 0;
+	}
+
+	/**
+	 * Returns the number of bytes of all of the packets of the flow.
+	 *
+	 * @return The number of bytes.
+	 */
+	public long getBytesTransferred() {
+		return bytes[DirectionIndex.UPLINK] + bytes[DirectionIndex.DOWNLINK];
+	}
+
+	/**
+	 * Returns the time of the first packet of the flow.
+	 *
+	 * @return The timestamp in seconds.
+	 */
+	public double getStartTime() {
+		return packets.get(0).getTimeStamp();
+	}
+
+	/**
+	 * Returns the time of the last packet of the flow.
+	 *
+	 * @return The timestamp in seconds.
+	 */
+	public double getEndTime() {
+		return packets.get(packets.size() - 1).getTimeStamp();
+	}
+
+	/**
+	 * Returns the time from the first to the last packet of the flow.
+	 *
+	 * @return The duration in seconds.
+	 */
+	public double getDuration() {
+		return getEndTime() - getStartTime();
+	}
+
+	/**
+	 * Returns the times at which the exchanges of the flow began.
+	 *
+	 * @return An array of timestamps in seconds.
+	 */
+	public double[] getExchangeTimes() {
+		return Arrays.copyOf(exchangeTimes, exchangeCount);
+	}
+
+	/**
+	 * Returns the mean time between the beginnings of consecutive exchanges
+	 * of the flow.
+	 *
+	 * @return The mean interval in seconds, or null if the flow has fewer
+	 *         than two exchanges.
+	 */
+	public Double getMeanExchangeInterval() {
+		if (exchangeCount < 2) {
+			return null;
+		}
+		return Double.valueOf((exchangeTimes[exchangeCount - 1] - exchangeTimes[0])
+				/ (exchangeCount - 1));
+	}
+
+	/**
+	 * Returns the standard deviation of the time between the beginnings of
+	 * consecutive exchanges of the flow. A small deviation relative to the
+	 * mean interval indicates that the flow repeats periodically.
+	 *
+	 * @return The standard deviation in seconds, or null if the flow has
+	 *         fewer than two exchanges.
+	 */
+	public Double getExchangeIntervalDeviation() {
+		Double mean = getMeanExchangeInterval();
+		if (mean == null) {
+			return null;
+		}
+		double sum = 0.0;
+		for (int i = 1; i < exchangeCount; ++i) {
+			double diff = exchangeTimes[i] - exchangeTimes[i - 1] - mean.doubleValue();
+			sum += diff * diff;
+		}
+		return Double.valueOf(Math.sqrt(sum / (exchangeCount - 1)));
+	}
+}
@@ -37,6 +37,20 @@ public class UserPreferences {
 	private static final String PROFILE_LTE = "PROFILE_LTE";
 	private static final String CHART_PLOT_OPTIONS = "CHART_PLOT_OPTIONS";
 	private static final String EXPORT_PATH = "EXPORT_PATH";
+	private static final String REASSEMBLY_MEMORY_BUDGET = "REASSEMBLY_MEMORY_BUDGET";
+	private static final String FRAGMENT_MEMORY_BUDGET = "FRAGMENT_MEMORY_BUDGET";
+
+	/**
+	 * Default number of bytes of each direction of a TCP session that are
+	 * reassembled in memory.
+	 */
+	public static final long DEFAULT_REASSEMBLY_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+	/**
+	 * Default number of bytes of IP fragments that are held while their
+	 * datagrams are incomplete.
+	 */
+	public static final long DEFAULT_FRAGMENT_MEMORY_BUDGET = 16L * 1024 * 1024;
 
 	private Preferences prefs;
 
@@ -223,4 +237,52 @@ public class UserPreferences {
 			prefs.remove(EXPORT_PATH);
 		}
 	}
+
+	/**
+	 * Returns the number of bytes of each direction of a TCP session that are
+	 * reassembled in memory. The rest of a larger session is stored in a
+	 * temporary file.
+	 * 
+	 * @return The reassembly memory budget in bytes, or a negative value if
+	 *         sessions are always reassembled in memory.
+	 */
+	public long getReassemblyMemoryBudget() {
+		return prefs.getLong(REASSEMBLY_MEMORY_BUDGET,
+				DEFAULT_REASSEMBLY_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Sets the number of bytes of each direction of a TCP session that are
+	 * reassembled in memory.
+	 * 
+	 * @param budget
+	 *            The reassembly memory budget in bytes, or a negative value
+	 *            if sessions are always to be reassembled in memory.
+	 */
+	public void setReassemblyMemoryBudget(long budget) {
+		prefs.putLong(REASSEMBLY_MEMORY_BUDGET, budget);
+	}
+
+	/**
+	 * Returns the number of bytes of IP fragments that are held while their
+	 * datagrams are incomplete. When there are more, the fragments of the
+	 * oldest datagrams are discarded.
+	 * 
+	 * @return The fragment memory budget in bytes.
+	 */
+	public long getFragmentMemoryBudget() {
+		return prefs.getLong(FRAGMENT_MEMORY_BUDGET,
+				DEFAULT_FRAGMENT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Sets the number of bytes of IP fragments that are held while their
+	 * datagrams are incomplete.
+	 * 
+	 * @param budget
+	 *            The fragment memory budget in bytes.
+	 */
+	public void setFragmentMemoryBudget(long budget) {
+		prefs.putLong(FRAGMENT_MEMORY_BUDGET, budget);
+	}
 }
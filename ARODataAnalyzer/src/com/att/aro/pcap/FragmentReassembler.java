@@ -0,0 +1,409 @@
+/*
+ Copyright [2012] [AT&T]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.att.aro.pcap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A PacketListener that reassembles fragmented IPv4 and IPv6 datagrams before
+ * handing the packets to another PacketListener. Fragments are grouped by the
+ * source and destination addresses, identification and protocol of their
+ * datagram.
+ * <p>
+ * Every packet is passed on when it arrives, so the packets stay in trace
+ * order and each packet still stands for one frame of the trace. A fragment
+ * that does not complete its datagram is passed on as a plain IPPacket, so
+ * that its bytes are counted but it is not decoded as a TCP or UDP packet.
+ * The fragment that completes a datagram is replaced by the reassembled
+ * datagram, whose length is that of the completing frame so that the lengths
+ * of the packets still add up to the size of the trace.
+ * <p>
+ * The fragments of a datagram that is not completed within the timeout are
+ * discarded, as are those of the oldest datagrams when the fragments held
+ * exceed the memory budget.
+ */
+public class FragmentReassembler implements PacketListener {
+
+	private static final Logger logger = Logger.getLogger(FragmentReassembler.class
+			.getName());
+
+	/**
+	 * Number of seconds the fragments of an incomplete datagram are held.
+	 */
+	public static final double TIMEOUT = 60.0;
+
+	private PacketListener pl;
+	private long memoryBudget;
+	private long memoryUsed;
+
+	// Incomplete datagrams, in the order their first fragment arrived
+	private Map<Key, Datagram> datagrams = new LinkedHashMap<Key, Datagram>();
+
+	private int reassembledCount;
+	private int discardedCount;
+
+	/**
+	 * Creates a new instance of the FragmentReassembler class that passes
+	 * the packets to the specified PacketListener.
+	 *
+	 * @param pl
+	 *            The PacketListener that receives the packets.
+	 * @param memoryBudget
+	 *            The number of captured bytes of fragments that may be held
+	 *            while their datagrams are incomplete.
+	 */
+	public FragmentReassembler(PacketListener pl, long memoryBudget) {
+		if (pl == null) {
+			throw new IllegalArgumentException("PacketListener cannot be null");
+		}
+		this.pl = pl;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @see com.att.aro.pcap.PacketListener#packetArrived(com.att.aro.pcap.Packet)
+	 */
+	@Override
+	public void packetArrived(Packet packet) {
+		if (!(packet instanceof IPPacket)) {
+			pl.packetArrived(packet);
+			return;
+		}
+		IPPacket ip = (IPPacket) packet;
+		if (!ip.isMoreFrag() && ip.getFragmentOffset() == 0) {
+			pl.packetArrived(packet);
+			return;
+		}
+
+		discardStale(ip.getTimeStamp());
+
+		// A fragment whose payload was not captured cannot be reassembled
+		ByteBuffer bytes = ip.getPacketBuffer();
+		int payloadOffset = getFragmentPayloadOffset(ip);
+		int payloadLen = getFragmentPayloadLen(ip);
+		if (payloadLen < 0 || bytes.limit() < payloadOffset + payloadLen) {
+			pl.packetArrived(asFragment(ip));
+			return;
+		}
+
+		Key key = new Key(ip);
+		Datagram datagram = datagrams.get(key);
+		if (datagram == null) {
+			datagram = new Datagram(ip.getTimeStamp());
+			datagrams.put(key, datagram);
+		}
+		datagram.fragments.add(ip);
+		memoryUsed += bytes.limit();
+
+		if (datagram.isComplete()) {
+			datagrams.remove(key);
+			Packet result = datagram.reassemble(ip);
+			if (result != null) {
+				memoryUsed -= datagram.size();
+				++reassembledCount;
+				pl.packetArrived(result);
+				return;
+			}
+			discard(datagram);
+		}
+
+		// Keep within the budget by discarding the oldest datagrams
+		Iterator<Datagram> iter = datagrams.values().iterator();
+		while (memoryUsed > memoryBudget && iter.hasNext()) {
+			discard(iter.next());
+			iter.remove();
+		}
+		pl.packetArrived(asFragment(ip));
+	}
+
+	/**
+	 * Returns the number of datagrams that were reassembled.
+	 *
+	 * @return The reassembled datagram count.
+	 */
+	public int getReassembledCount() {
+		return reassembledCount;
+	}
+
+	/**
+	 * Returns the number of datagrams whose fragments were discarded, because
+	 * they timed out or exceeded the memory budget, or that are still
+	 * incomplete.
+	 *
+	 * @return The discarded datagram count.
+	 */
+	public int getDiscardedCount() {
+		return discardedCount + datagrams.size();
+	}
+
+	/**
+	 * Discards the datagrams whose first fragment arrived more than the
+	 * timeout before the specified time.
+	 */
+	private void discardStale(double time) {
+		Iterator<Datagram> iter = datagrams.values().iterator();
+		while (iter.hasNext()) {
+			Datagram datagram = iter.next();
+			if (time - datagram.firstTime <= TIMEOUT) {
+				break;
+			}
+			discard(datagram);
+			iter.remove();
+		}
+	}
+
+	private void discard(Datagram datagram) {
+		memoryUsed -= datagram.size();
+		++discardedCount;
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Discarded " + datagram.fragments.size()
+					+ " fragments of an incomplete IP datagram");
+		}
+	}
+
+	/**
+	 * Returns the specified packet as it is passed on when it does not
+	 * complete a datagram. A fragment is not decoded beyond its IP header,
+	 * and other packets are returned unchanged. This is used to decode a
+	 * single packet the same way again without reassembling.
+	 *
+	 * @param packet
+	 *            The packet.
+	 * @return The packet, or a plain IPPacket for a fragment.
+	 */
+	public static Packet asFragment(Packet packet) {
+		if (!(packet instanceof IPPacket) || packet.getClass() == IPPacket.class) {
+			return packet;
+		}
+		IPPacket ip = (IPPacket) packet;
+		if (!ip.isMoreFrag() && ip.getFragmentOffset() == 0) {
+			return packet;
+		}
+		return new IPPacket(ip.getSeconds(), ip.getMicroSeconds(), ip.getLen(),
+				ip.getDatalinkHeaderSize(), ip.getPacketBuffer());
+	}
+
+	/**
+	 * Returns the offset of the fragmentable part of a fragment within the
+	 * packet buffer, which for IPv6 follows the fragment header.
+	 */
+	private static int getFragmentPayloadOffset(IPPacket ip) {
+		if (ip.getIPVersion() == 6) {
+			return ip.getFragmentHeaderOffset() + 8;
+		}
+		return ip.getDatalinkHeaderSize() + ((ip.getPacketBuffer().get(
+				ip.getDatalinkHeaderSize()) & 0x0f) << 2);
+	}
+
+	/**
+	 * Returns the length of the fragmentable part of a fragment. The lengths
+	 * are read from the IP header, because the lengths reported by the
+	 * packet of a first fragment are those of its UDP header.
+	 */
+	private static int getFragmentPayloadLen(IPPacket ip) {
+		ByteBuffer bytes = ip.getPacketBuffer();
+		int ipOffset = ip.getDatalinkHeaderSize();
+		int end = ipOffset + (ip.getIPVersion() == 6 ? 40 + (bytes.getShort(ipOffset + 4) & 0xFFFF)
+				: bytes.getShort(ipOffset + 2) & 0xFFFF);
+		return end - getFragmentPayloadOffset(ip);
+	}
+
+	/**
+	 * The fragments received so far of a datagram.
+	 */
+	private static class Datagram {
+		private double firstTime;
+		private List<IPPacket> fragments = new ArrayList<IPPacket>(4);
+
+		private Datagram(double firstTime) {
+			this.firstTime = firstTime;
+		}
+
+		/**
+		 * Returns the number of captured bytes of the fragments.
+		 */
+		private long size() {
+			long result = 0;
+			for (IPPacket ip : fragments) {
+				result += ip.getPacketBuffer().limit();
+			}
+			return result;
+		}
+
+		/**
+		 * Checks whether the fragments cover the datagram from its start to
+		 * its last fragment.
+		 */
+		private boolean isComplete() {
+			int total = -1;
+			for (IPPacket ip : fragments) {
+				if (!ip.isMoreFrag()) {
+					total = end(ip);
+				}
+			}
+			if (total < 0) {
+				return false;
+			}
+
+			// Fragments are few, so coverage is checked by repeatedly finding a
+			// fragment that starts within the covered part
+			int covered = 0;
+			boolean extended = true;
+			while (covered < total && extended) {
+				extended = false;
+				for (IPPacket ip : fragments) {
+					int start = ip.getFragmentOffset() << 3;
+					if (start <= covered && end(ip) > covered) {
+						covered = end(ip);
+						extended = true;
+					}
+				}
+			}
+			return covered >= total;
+		}
+
+		/**
+		 * Builds the datagram from its fragments. The headers are those of the
+		 * first fragment, with the fragmentation fields removed.
+		 *
+		 * @return The datagram, or null if the fragments are inconsistent.
+		 */
+		private Packet reassemble(IPPacket last) {
+			IPPacket first = null;
+			int total = 0;
+			for (IPPacket ip : fragments) {
+				if (ip.getFragmentOffset() == 0) {
+					first = ip;
+				}
+				total = Math.max(total, end(ip));
+			}
+			if (first == null) {
+				return null;
+			}
+
+			ByteBuffer src = first.getPacketBuffer();
+			int headerLen = getFragmentPayloadOffset(first);
+			int ipOffset = first.getDatalinkHeaderSize();
+			boolean ipv6 = first.getIPVersion() == 6;
+
+			// The fragment header of an IPv6 datagram is left out
+			int unfragmentableLen = ipv6 ? headerLen - 8 : headerLen;
+			if (ipv6 ? unfragmentableLen - ipOffset - 40 + total > 0xFFFF
+					: headerLen - ipOffset + total > 0xFFFF) {
+				return null;
+			}
+			byte[] data = new byte[unfragmentableLen + total];
+			ByteBuffer bytes = src.duplicate();
+			bytes.position(0);
+			bytes.get(data, 0, unfragmentableLen);
+			for (IPPacket ip : fragments) {
+				int start = ip.getFragmentOffset() << 3;
+				bytes = ip.getPacketBuffer().duplicate();
+				bytes.position(getFragmentPayloadOffset(ip));
+				bytes.get(data, unfragmentableLen + start, end(ip) - start);
+			}
+
+			ByteBuffer result = ByteBuffer.wrap(data);
+			if (ipv6) {
+
+				// Link the header that preceded the fragment header to the one
+				// that followed it
+				int fragmentHeader = first.getFragmentHeaderOffset();
+				int nextHeader = ipOffset + 6;
+				int offset = ipOffset + 40;
+				while (offset < fragmentHeader) {
+					int type = data[nextHeader] & 0xFF;
+					nextHeader = offset;
+					offset += IPPacket.getExtensionHeaderLength(type, result, offset);
+				}
+				data[nextHeader] = src.get(fragmentHeader);
+				result.putShort(ipOffset + 4, (short) (data.length - ipOffset - 40));
+			} else {
+				result.putShort(ipOffset + 2, (short) (data.length - ipOffset));
+				result.putShort(ipOffset + 6, (short) (result.getShort(ipOffset + 6) & 0xC000));
+			}
+
+			int len = last.getLen() - last.getDatalinkHeaderSize() + ipOffset;
+			return Packet.createDatagram(last.getSeconds(), last.getMicroSeconds(), len,
+					ipOffset, data);
+		}
+
+		/**
+		 * Returns the end of the fragmentable data of a fragment, relative to
+		 * the start of the datagram.
+		 */
+		private static int end(IPPacket ip) {
+			return (ip.getFragmentOffset() << 3) + getFragmentPayloadLen(ip);
+		}
+	}
+
+	/**
+	 * Identifies the datagram of a fragment by its source and destination
+	 * addresses, identification and protocol. For IPv6 the protocol is that
+	 * of the header following the fragment header.
+	 */
+	private static class Key {
+		private long sourceHigh;
+		private long sourceLow;
+		private long destinationHigh;
+		private long destinationLow;
+		private int version;
+		private int identification;
+		private int protocol;
+
+		private Key(IPPacket ip) {
+			version = ip.getIPVersion();
+			if (version == 6) {
+				sourceHigh = ip.getSourceIPv6AddressHigh();
+				sourceLow = ip.getSourceIPv6AddressLow();
+				destinationHigh = ip.getDestinationIPv6AddressHigh();
+				destinationLow = ip.getDestinationIPv6AddressLow();
+				protocol = ip.getPacketBuffer().get(ip.getFragmentHeaderOffset()) & 0xFF;
+			} else {
+				sourceLow = ip.getSourceIPv4Address();
+				destinationLow = ip.getDestinationIPv4Address();
+				protocol = ip.getProtocol();
+			}
+			identification = ip.getIdentification();
+		}
+
+		@Override
+		public int hashCode() {
+			long h = sourceHigh ^ sourceLow * 31 ^ destinationHigh * 961 ^ destinationLow
+					* 29791;
+			return ((int) (h ^ (h >>> 32)) * 31 + identification) * 31 + protocol;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return version == other.version && sourceHigh == other.sourceHigh && sourceLow == other.sourceLow
+					&& destinationHigh == other.destinationHigh
+					&& destinationLow == other.destinationLow
+					&& identification == other.identification && protocol == other.protocol;
+		}
+	}
+}
@@ -21,61 +21,171 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 
 /**
- * A bean class that provides access to IP Packet data.
+ * A bean class that provides access to IP Packet data. Both IPv4 and IPv6
+ * packets are supported. The extension headers of an IPv6 packet are walked
+ * to find its upper layer protocol, and the fragmentation fields of an IPv6
+ * packet are those of its fragment header, if any.
  */
 public class IPPacket extends Packet implements Serializable {
 	private static final long serialVersionUID = 1L;
 
-	private byte ipVersion;
-	private byte priority;
-	private int packetLength;
-	private boolean rsvFrag;
-	private boolean dontFrag;
-	private boolean moreFrag;
-	private short fragmentOffset;
-	private short timeToLive;
-	private short protocol;
-	private InetAddress sourceIPAddress;
-	private InetAddress destinationIPAddress;
+	private static final int IPV6_HEADER_LEN = 40;
+
+	// IPv6 extension headers
+	private static final int HOP_BY_HOP_OPTIONS = 0;
+	private static final int ROUTING = 43;
+	private static final int FRAGMENT = 44;
+	private static final int AUTHENTICATION = 51;
+	private static final int DESTINATION_OPTIONS = 60;
+
+	/**
+	 * Walks the extension headers of the IPv6 header at the specified offset
+	 * of a packet buffer, without allocating. The walk stops at the first
+	 * header that is not an extension header, or at a fragment header of a
+	 * fragment other than the first, whose data is not an upper layer header.
+	 * The result packs the offset of the upper layer header in bits 0 to 31,
+	 * its protocol in bits 32 to 39, and the offset of the fragment header in
+	 * the bits above them, or 0 if there is no fragment header. Use the
+	 * payloadOffset, payloadProtocol and fragmentHeaderOffset methods to
+	 * unpack it.
+	 *
+	 * @return The packed result, or -1 if the captured bytes end within the
+	 *         extension headers.
+	 */
+	static long walkIPv6Headers(ByteBuffer bytes, int headerOffset) {
+		int capLen = bytes.limit();
+		int offset = headerOffset + IPV6_HEADER_LEN;
+		int protocol = bytes.get(headerOffset + 6) & 0xFF;
+		int fragmentHeader = 0;
+		while (true) {
+			switch (protocol) {
+			case HOP_BY_HOP_OPTIONS:
+			case ROUTING:
+			case DESTINATION_OPTIONS:
+			case AUTHENTICATION:
+			case FRAGMENT:
+				if (capLen < offset + 8) {
+					return -1;
+				}
+				int next = bytes.get(offset) & 0xFF;
+				boolean laterFragment = false;
+				if (protocol == FRAGMENT) {
+					fragmentHeader = offset;
+					laterFragment = (bytes.getShort(offset + 2) & 0xFFF8) != 0;
+				}
+				offset += getExtensionHeaderLength(protocol, bytes, offset);
+				protocol = next;
+				if (!laterFragment) {
+					continue;
+				}
+			}
+			return ((long) fragmentHeader << 40) | ((long) protocol << 32) | offset;
+		}
+	}
+
+	/**
+	 * Returns the length of the IPv6 extension header of the specified type
+	 * at the specified offset of a packet buffer.
+	 */
+	static int getExtensionHeaderLength(int type, ByteBuffer bytes, int offset) {
+		switch (type) {
+		case FRAGMENT:
+			return 8;
+		case AUTHENTICATION:
+			return ((bytes.get(offset + 1) & 0xFF) + 2) << 2;
+		default:
+			return ((bytes.get(offset + 1) & 0xFF) + 1) << 3;
+		}
+	}
+
+	/**
+	 * Returns the offset of the upper layer header from the result of
+	 * walkIPv6Headers.
+	 */
+	static int payloadOffset(long walk) {
+		return (int) walk;
+	}
+
+	/**
+	 * Returns the upper layer protocol from the result of walkIPv6Headers.
+	 */
+	static int payloadProtocol(long walk) {
+		return (int) (walk >>> 32) & 0xFF;
+	}
+
+	/**
+	 * Returns the offset of the fragment header, or 0 if there is none, from
+	 * the result of walkIPv6Headers.
+	 */
+	static int fragmentHeaderOffset(long walk) {
+		return (int) (walk >>> 40);
+	}
+
+	// Header fields are decoded from the packet buffer on request, except for
+	// those that are only known by walking the IPv6 extension headers
 	private int dataOffset;
 	private int payloadLen;
+	private boolean ipv6;
+	private short protocol;
+	private int fragmentHeaderOffset;
 
 	/**
 	 * Creates a new instance of the IPPacket class.
 	 */
 	protected IPPacket(long seconds, long microSeconds, int len, int datalinkHdrLen,
 			byte[] data) {
-		super(seconds, microSeconds, len, datalinkHdrLen, data);
-
-		// Parse data
-		ByteBuffer bytes = ByteBuffer.wrap(data);
-		int headerOffset = super.getDataOffset();
+		this(seconds, microSeconds, len, datalinkHdrLen, ByteBuffer.wrap(data));
+	}
 
-		ipVersion = (byte) ((bytes.get(super.getDataOffset()) & 0xf0) >> 4);
-		int hlen = ((bytes.get(headerOffset) & 0x0f) << 2);
-		dataOffset = headerOffset + hlen;
-		packetLength = bytes.getShort(headerOffset + 2);
-		payloadLen = packetLength - hlen;
+	/**
+	 * Creates a new instance of the IPPacket class. Only the offsets needed to
+	 * locate the payload are decoded here, the remaining header fields are
+	 * read from the packet buffer when they are first requested.
+	 */
+	protected IPPacket(long seconds, long microSeconds, int len, int datalinkHdrLen,
+			ByteBuffer bytes) {
+		super(seconds, microSeconds, len, datalinkHdrLen, bytes);
 
-		short i = bytes.getShort(headerOffset + 6);
-		rsvFrag = (i & 0x8000) != 0;
-		dontFrag = (i & 0x4000) != 0;
-		moreFrag = (i & 0x2000) != 0;
-		fragmentOffset = (short) (i & 0x1fff);
+		int headerOffset = super.getDataOffset();
+		ipv6 = ((bytes.get(headerOffset) & 0xf0) >> 4) == 6;
+		if (ipv6) {
+			long walk = walkIPv6Headers(bytes, headerOffset);
+			dataOffset = payloadOffset(walk);
+			protocol = (short) payloadProtocol(walk);
+			fragmentHeaderOffset = fragmentHeaderOffset(walk);
+			payloadLen = (bytes.getShort(headerOffset + 4) & 0xFFFF)
+					- (dataOffset - headerOffset - IPV6_HEADER_LEN);
+		} else {
+			int hlen = ((bytes.get(headerOffset) & 0x0f) << 2);
+			dataOffset = headerOffset + hlen;
+			payloadLen = (bytes.getShort(headerOffset + 2) & 0xFFFF) - hlen;
+			protocol = (short) (bytes.get(headerOffset + 9) & 0xff);
+		}
+	}
 
-		i = bytes.getShort(headerOffset + 8);
-		timeToLive = (short) ((i & 0xff00) >> 8);
-		protocol = (short) (i & 0xff);
+	/**
+	 * Returns the offset of the IP header within the packet buffer.
+	 */
+	private int getIPHeaderOffset() {
+		return getDatalinkHeaderSize();
+	}
 
-		byte[] b = new byte[4];
+	/**
+	 * Creates an address from the bytes at the specified offset of the IP
+	 * header.
+	 */
+	private InetAddress readIPAddress(int offset, int length) {
+		ByteBuffer bytes = getPacketBuffer();
+		int headerOffset = getIPHeaderOffset();
+		byte[] b = new byte[length];
+		for (int j = 0; j < length; ++j) {
+			b[j] = bytes.get(headerOffset + offset + j);
+		}
 		try {
-			bytes.position(headerOffset + 12);
-			bytes.get(b, 0, 4);
-			sourceIPAddress = InetAddress.getByAddress(b);
-			bytes.get(b, 0, 4);
-			destinationIPAddress = InetAddress.getByAddress(b);
+			return InetAddress.getByAddress(b);
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
+			return null;
 		}
 	}
 
@@ -101,7 +211,7 @@ public class IPPacket extends Packet implements Serializable {
 	 * @return A byte value that is the IP version. A value of 4 indicates IPv4.
 	 */
 	public byte getIPVersion() {
-		return ipVersion;
+		return (byte) ((getPacketBuffer().get(getIPHeaderOffset()) & 0xf0) >> 4);
 	}
 
 	/**
@@ -111,7 +221,10 @@ public class IPPacket extends Packet implements Serializable {
 	 * @return A byte value that is the priority value.
 	 */
 	public byte getPriority() {
-		return priority;
+		if (ipv6) {
+			return (byte) (getPacketBuffer().getShort(getIPHeaderOffset()) >> 4);
+		}
+		return getPacketBuffer().get(getIPHeaderOffset() + 1);
 	}
 
 	/**
@@ -120,7 +233,11 @@ public class IPPacket extends Packet implements Serializable {
 	 * @return An int value that is the length of the packet in bytes.
 	 */
 	public int getPacketLength() {
-		return packetLength;
+		if (ipv6) {
+			return IPV6_HEADER_LEN
+					+ (getPacketBuffer().getShort(getIPHeaderOffset() + 4) & 0xFFFF);
+		}
+		return getPacketBuffer().getShort(getIPHeaderOffset() + 2) & 0xFFFF;
 	}
 
 	/**
@@ -129,7 +246,7 @@ public class IPPacket extends Packet implements Serializable {
 	 * @return A boolean value that is the Fragmentation Reservation flag.
 	 */
 	public boolean isRsvFrag() {
-		return rsvFrag;
+		return (getFragmentField() & 0x8000) != 0;
 	}
 
 	/**
@@ -138,38 +255,65 @@ public class IPPacket extends Packet implements Serializable {
 	 * @return A boolean value that is the Dont Fragment flag.
 	 */
 	public boolean isDontFrag() {
-		return dontFrag;
+		return (getFragmentField() & 0x4000) != 0;
 	}
 
 	/**
-	 * Gets the value of the More Fragment flag. (IPv4 only)
+	 * Gets the value of the More Fragment flag.
 	 * 
 	 * @return A boolean value that is the More Fragment flag.
 	 */
 	public boolean isMoreFrag() {
-		return moreFrag;
+		return (getFragmentField() & 0x2000) != 0;
 	}
 
 	/**
-	 * gets the fragment offset.(IPv4 only)
+	 * gets the fragment offset in units of 8 bytes.
 	 * 
 	 * @return A short value that is the fragment offset.
 	 */
 	public short getFragmentOffset() {
-		return fragmentOffset;
+		return (short) (getFragmentField() & 0x1fff);
 	}
 
 	/**
-	 * Gets theTime to Live (TTL) value. (IPv4 only)
+	 * Gets the identification of the datagram that the packet is a fragment
+	 * of. For IPv6 this is the identification of the fragment header, or 0 if
+	 * there is no fragment header.
+	 * 
+	 * @return An int value that is the identification.
+	 */
+	public int getIdentification() {
+		if (ipv6) {
+			return fragmentHeaderOffset != 0 ? getPacketBuffer().getInt(
+					fragmentHeaderOffset + 4) : 0;
+		}
+		return getPacketBuffer().getShort(getIPHeaderOffset() + 4) & 0xFFFF;
+	}
+
+	/**
+	 * Returns the offset of the IPv6 fragment header within the packet
+	 * buffer, or 0 if there is none.
+	 */
+	int getFragmentHeaderOffset() {
+		return fragmentHeaderOffset;
+	}
+
+	/**
+	 * Gets theTime to Live (TTL) value. In IPv6 this is the Hop Limit.
 	 * 
 	 * @return A short that is the TTL value.
 	 */
 	public short getTimeToLive() {
-		return timeToLive;
+		if (ipv6) {
+			return (short) (getPacketBuffer().get(getIPHeaderOffset() + 7) & 0xff);
+		}
+		return (short) (getPacketBuffer().get(getIPHeaderOffset() + 8) & 0xff);
 	}
 
 	/**
-	 * Gets the protocol for the IPPacket.
+	 * Gets the protocol for the IPPacket. In IPv6 this is the protocol of the
+	 * header that follows the extension headers.
 	 * 
 	 * @return A short value that is the protocol.
 	 */
@@ -178,21 +322,96 @@ public class IPPacket extends Packet implements Serializable {
 	}
 
 	/**
-	 * Gets the source IP Address.
+	 * Gets the source IP Address. A new InetAddress object is created on each
+	 * call.
 	 * 
 	 * @return The source IP Address in the InetAddress format.
 	 */
 	public InetAddress getSourceIPAddress() {
-		return sourceIPAddress;
+		return ipv6 ? readIPAddress(8, 16) : readIPAddress(12, 4);
 	}
 
 	/**
-	 * Returns Gets the destination IP address.
+	 * Returns Gets the destination IP address. A new InetAddress object is
+	 * created on each call.
 	 * 
 	 * @return The destination IP address in the InetAddress format.
 	 */
 	public InetAddress getDestinationIPAddress() {
-		return destinationIPAddress;
+		return ipv6 ? readIPAddress(24, 16) : readIPAddress(16, 4);
+	}
+
+	/**
+	 * Gets the source IP address as a 32 bit value in network byte order.
+	 * (IPv4 only)
+	 * 
+	 * @return An int value that is the source IP address.
+	 */
+	public int getSourceIPv4Address() {
+		return getPacketBuffer().getInt(getIPHeaderOffset() + 12);
+	}
+
+	/**
+	 * Gets the destination IP address as a 32 bit value in network byte
+	 * order. (IPv4 only)
+	 * 
+	 * @return An int value that is the destination IP address.
+	 */
+	public int getDestinationIPv4Address() {
+		return getPacketBuffer().getInt(getIPHeaderOffset() + 16);
+	}
+
+	/**
+	 * Gets the upper 64 bits of the source IP address. (IPv6 only)
+	 * 
+	 * @return A long value that is the upper half of the source IP address.
+	 */
+	public long getSourceIPv6AddressHigh() {
+		return getPacketBuffer().getLong(getIPHeaderOffset() + 8);
+	}
+
+	/**
+	 * Gets the lower 64 bits of the source IP address. (IPv6 only)
+	 * 
+	 * @return A long value that is the lower half of the source IP address.
+	 */
+	public long getSourceIPv6AddressLow() {
+		return getPacketBuffer().getLong(getIPHeaderOffset() + 16);
+	}
+
+	/**
+	 * Gets the upper 64 bits of the destination IP address. (IPv6 only)
+	 * 
+	 * @return A long value that is the upper half of the destination IP
+	 *         address.
+	 */
+	public long getDestinationIPv6AddressHigh() {
+		return getPacketBuffer().getLong(getIPHeaderOffset() + 24);
+	}
+
+	/**
+	 * Gets the lower 64 bits of the destination IP address. (IPv6 only)
+	 * 
+	 * @return A long value that is the lower half of the destination IP
+	 *         address.
+	 */
+	public long getDestinationIPv6AddressLow() {
+		return getPacketBuffer().getLong(getIPHeaderOffset() + 32);
+	}
+
+	/**
+	 * Returns the flags and fragment offset field of the IP header. For IPv6
+	 * the fields of the fragment header are returned in the same layout.
+	 */
+	private int getFragmentField() {
+		if (ipv6) {
+			if (fragmentHeaderOffset == 0) {
+				return 0;
+			}
+			int field = getPacketBuffer().getShort(fragmentHeaderOffset + 2) & 0xFFFF;
+			return (field >> 3) | ((field & 0x0001) != 0 ? 0x2000 : 0);
+		}
+		return getPacketBuffer().getShort(getIPHeaderOffset() + 6) & 0xFFFF;
 	}
 
 }
@@ -0,0 +1,317 @@
+/*
+ Copyright [2012] [AT&T]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.att.aro.pcap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * A pure Java reader for libpcap trace files. The file is memory mapped and
+ * each packet handed to the PacketListener references a slice of the mapped
+ * region rather than a copy of the packet bytes. Unlike the PCapAdapter class
+ * this reader does not require the native jpcap library.
+ * <p>
+ * A file may also be opened for random access with the open method, in which
+ * case individual packets are read by the file offset of their record.
+ */
+public class PCapFileReader {
+
+	private static final Logger logger = Logger.getLogger(PCapFileReader.class
+			.getName());
+
+	private static final int MAGIC_MICROSECONDS = 0xa1b2c3d4;
+	private static final int MAGIC_NANOSECONDS = 0xa1b23c4d;
+
+	private static final int GLOBAL_HEADER_LEN = 24;
+	private static final int RECORD_HEADER_LEN = 16;
+
+	/**
+	 * Link type stored in pcap files for raw IP. libpcap reports it as DLT_RAW.
+	 */
+	private static final int LINKTYPE_RAW = 101;
+	private static final int DLT_RAW = 12;
+
+	/**
+	 * Largest region mapped at one time. Larger traces are mapped in windows.
+	 */
+	private static final long MAX_MAP_SIZE = 256L * 1024 * 1024;
+
+	/**
+	 * Checks whether the specified file starts with a libpcap file header that
+	 * can be read by this class.
+	 *
+	 * @param file
+	 *            The trace file to check.
+	 * @return true if the file is a libpcap trace file, otherwise false.
+	 * @throws IOException
+	 */
+	public static boolean isPcapFile(File file) throws IOException {
+		if (file.length() < GLOBAL_HEADER_LEN) {
+			return false;
+		}
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			byte[] header = new byte[4];
+			if (fis.read(header) != header.length) {
+				return false;
+			}
+			return byteOrder(ByteBuffer.wrap(header).getInt(0)) != null;
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Returns the byte order of the file for the specified magic number, or
+	 * null if it is not a pcap magic number.
+	 */
+	private static ByteOrder byteOrder(int magic) {
+		if (magic == MAGIC_MICROSECONDS || magic == MAGIC_NANOSECONDS) {
+			return ByteOrder.BIG_ENDIAN;
+		} else if (Integer.reverseBytes(magic) == MAGIC_MICROSECONDS
+				|| Integer.reverseBytes(magic) == MAGIC_NANOSECONDS) {
+			return ByteOrder.LITTLE_ENDIAN;
+		}
+		return null;
+	}
+
+	/**
+	 * Opens the specified pcap file for random access. The whole file is
+	 * mapped and the file is closed before this method returns.
+	 *
+	 * @param file
+	 *            The pcap file to open.
+	 * @return A reader whose readPacket method returns the packets of the file.
+	 * @throws IOException
+	 *             When the file cannot be read or is not a pcap file.
+	 */
+	public static PCapFileReader open(File file) throws IOException {
+		return new PCapFileReader(file);
+	}
+
+	private PacketListener pl;
+	private FileChannel channel;
+	private long fileSize;
+	private MappedByteBuffer region;
+	private long regionStart;
+
+	// File header fields
+	private ByteOrder order;
+	private boolean nanoSeconds;
+	private int datalink;
+	private int snapLen;
+
+	// Overlapping windows that map the whole file in random access mode
+	private MappedByteBuffer[] windows;
+
+	/**
+	 * Creates a new instance of the PCapFileReader class using the specified
+	 * file, and a PacketListener object that is called back for each packet
+	 * in the file. This constructor reads the entire file.
+	 *
+	 * @param file
+	 *            The pcap file to read.
+	 * @param pl
+	 *            A PacketListener object that receives the packets.
+	 * @throws java.io.IOException
+	 *             When the file cannot be read or is not a pcap file.
+	 */
+	public PCapFileReader(File file, final PacketListener pl) throws IOException {
+		if (pl == null) {
+			throw new IllegalArgumentException("PacketListener cannot be null");
+		}
+
+		this.pl = pl;
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			this.channel = fis.getChannel();
+			this.fileSize = channel.size();
+			readPackets();
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Creates a new instance of the PCapFileReader class for random access to
+	 * the specified file.
+	 */
+	private PCapFileReader(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			this.channel = fis.getChannel();
+			this.fileSize = channel.size();
+			readHeader();
+
+			// Each window overlaps the next by the largest record, so that any
+			// record is contained in the window in which it begins
+			long overlap = RECORD_HEADER_LEN + Math.max(snapLen, 0xFFFF);
+			windows = new MappedByteBuffer[(int) ((fileSize - 1) / MAX_MAP_SIZE) + 1];
+			for (int i = 0; i < windows.length; ++i) {
+				long start = i * MAX_MAP_SIZE;
+				long size = Math.min(MAX_MAP_SIZE + overlap, fileSize - start);
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+				windows[i].order(order);
+			}
+			region = null;
+		} finally {
+			fis.close();
+		}
+	}
+
+	/**
+	 * Returns the file offsets of all of the packet records in the file, in
+	 * file order. The offset of the record of the packet with id n is at
+	 * index n - 1. Only available for a reader created by the open method.
+	 *
+	 * @return An array of record offsets.
+	 */
+	public long[] getRecordOffsets() {
+		long[] result = new long[1024];
+		int count = 0;
+		long offset = GLOBAL_HEADER_LEN;
+		while (offset + RECORD_HEADER_LEN <= fileSize) {
+			ByteBuffer window = windows[(int) (offset / MAX_MAP_SIZE)];
+			int pos = (int) (offset % MAX_MAP_SIZE);
+			int capLen = window.getInt(pos + 8);
+			if (capLen < 0 || offset + RECORD_HEADER_LEN + capLen > fileSize) {
+				break;
+			}
+			if (count == result.length) {
+				result = Arrays.copyOf(result, count * 2);
+			}
+			result[count++] = offset;
+			offset += RECORD_HEADER_LEN + capLen;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Reads the packet of the record at the specified file offset. Only
+	 * available for a reader created by the open method.
+	 *
+	 * @param offset
+	 *            The file offset of the packet record.
+	 * @return The packet.
+	 * @throws IOException
+	 *             When there is no valid packet record at the offset.
+	 */
+	public Packet readPacket(long offset) throws IOException {
+		if (offset < GLOBAL_HEADER_LEN || offset + RECORD_HEADER_LEN > fileSize) {
+			throw new IOException("Invalid packet record offset: " + offset);
+		}
+		MappedByteBuffer window = windows[(int) (offset / MAX_MAP_SIZE)];
+		int pos = (int) (offset % MAX_MAP_SIZE);
+		int capLen = window.getInt(pos + 8);
+		if (capLen < 0 || pos + RECORD_HEADER_LEN + capLen > window.limit()) {
+			throw new IOException("Invalid packet record at offset: " + offset);
+		}
+		return createPacket(window, pos);
+	}
+
+	/**
+	 * Reads the file header fields.
+	 */
+	private void readHeader() throws IOException {
+		if (fileSize < GLOBAL_HEADER_LEN) {
+			throw new IOException("Truncated pcap file header");
+		}
+		map(0);
+
+		order = byteOrder(region.order(ByteOrder.BIG_ENDIAN).getInt(0));
+		if (order == null) {
+			throw new IOException("Unrecognized pcap file format");
+		}
+		nanoSeconds = region.order(order).getInt(0) == MAGIC_NANOSECONDS;
+		snapLen = region.getInt(16);
+		datalink = region.getInt(20);
+		if (datalink == LINKTYPE_RAW) {
+			datalink = DLT_RAW;
+		}
+	}
+
+	/**
+	 * Loops through all of the packet records in the file.
+	 */
+	private void readPackets() throws IOException {
+		readHeader();
+
+		long offset = GLOBAL_HEADER_LEN;
+		while (offset + RECORD_HEADER_LEN <= fileSize) {
+			int pos = position(offset, RECORD_HEADER_LEN);
+			int capLen = region.getInt(pos + 8);
+			if (capLen < 0 || offset + RECORD_HEADER_LEN + capLen > fileSize) {
+				logger.warning("Truncated packet record at end of pcap file");
+				break;
+			}
+
+			pos = position(offset, RECORD_HEADER_LEN + capLen);
+			pl.packetArrived(createPacket(region, pos));
+			offset += RECORD_HEADER_LEN + capLen;
+		}
+	}
+
+	/**
+	 * Creates the packet of the record at the specified position of a mapped
+	 * region. The packet data is a slice of the region.
+	 */
+	private Packet createPacket(MappedByteBuffer region, int pos) {
+		long seconds = region.getInt(pos) & 0xFFFFFFFFL;
+		long fraction = region.getInt(pos + 4) & 0xFFFFFFFFL;
+		int capLen = region.getInt(pos + 8);
+		int len = region.getInt(pos + 12);
+
+		ByteBuffer data = region.duplicate();
+		data.position(pos + RECORD_HEADER_LEN);
+		data.limit(pos + RECORD_HEADER_LEN + capLen);
+		data = data.slice().order(ByteOrder.BIG_ENDIAN);
+
+		return Packet.createPacketFromPcap(datalink, seconds, nanoSeconds ? fraction / 1000
+				: fraction, len, data);
+	}
+
+	/**
+	 * Returns the position within the current mapped region of the specified
+	 * file offset, remapping when the requested bytes are not in the region.
+	 */
+	private int position(long offset, int length) throws IOException {
+		if (offset < regionStart || offset + length > regionStart + region.limit()) {
+			map(offset);
+		}
+		return (int) (offset - regionStart);
+	}
+
+	/**
+	 * Maps the window of the file beginning at the specified offset. Regions
+	 * that are no longer current stay mapped for as long as packets reference
+	 * them.
+	 */
+	private void map(long offset) throws IOException {
+		long size = Math.min(MAX_MAP_SIZE, fileSize - offset);
+		region = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		if (order != null) {
+			region.order(order);
+		}
+		regionStart = offset;
+	}
+}
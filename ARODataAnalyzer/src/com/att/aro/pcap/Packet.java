@@ -25,6 +25,7 @@ public class Packet implements Serializable {
 	private static final long serialVersionUID = 1L;
 
 	private static final short IP = 0x0800;
+	private static final short IPV6 = (short) 0x86DD;
 
 	private static final int DLT_EN10MB = 1;
 	private static final int DLT_RAW = 12;
@@ -40,15 +41,25 @@ public class Packet implements Serializable {
 	 */
 	public static Packet createPacketFromPcap(int datalink, long seconds, long microSeconds, int len,
 			byte[] data) {
+		return createPacketFromPcap(datalink, seconds, microSeconds, len, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Creates a new instance of the Packet class from a buffer holding the
+	 * captured bytes of the packet. The buffer is referenced by the packet and
+	 * is not copied, so its position must be zero and its limit must be the
+	 * captured length.
+	 */
+	public static Packet createPacketFromPcap(int datalink, long seconds, long microSeconds, int len,
+			ByteBuffer bytes) {
 
 		// Determine network protocol
 		short network = 0;
 		int hdrLen = 0;
-		ByteBuffer bytes = ByteBuffer.wrap(data);
 		try {
 			switch (datalink) {
 			case DLT_RAW: // Raw IP
-				network = IP;
+				network = rawNetwork(bytes);
 				break;
 			case DLT_EN10MB: // Ethernet (WiFi)
 				network = bytes.getShort(12);
@@ -63,7 +74,7 @@ public class Packet implements Serializable {
 			// Truncated packet
 		}
 		
-		return createPacket(network, seconds, microSeconds, len, hdrLen, data);
+		return createPacket(network, seconds, microSeconds, len, hdrLen, bytes);
 	}
 
 	/**
@@ -85,7 +96,7 @@ public class Packet implements Serializable {
 			switch (datalink) {
 			case NETMON_RAW: // Raw IP
 			case NETMON_WIRELESSWAN:
-				network = IP;
+				network = rawNetwork(bytes);
 				break;
 			case NETMON_ETHERNET: // Ethernet (WiFi)
 				network = bytes.getShort(12);
@@ -125,52 +136,135 @@ public class Packet implements Serializable {
 	 */
 	public static Packet createPacket(short network, long seconds, long microSeconds, int len, int datalinkHdrLen,
 			byte[] data) {
+		return createPacket(network, seconds, microSeconds, len, datalinkHdrLen,
+				ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Creates a new instance of the Packet class from a buffer holding the
+	 * captured bytes of the packet.
+	 */
+	public static Packet createPacket(short network, long seconds, long microSeconds, int len, int datalinkHdrLen,
+			ByteBuffer bytes) {
 
 		// Minimum IP header length is 20 bytes
-		ByteBuffer bytes = ByteBuffer.wrap(data);
-		if (network == IP && data.length >= datalinkHdrLen + 20) {
+		int capLen = bytes.limit();
+		if (network == IP && capLen >= datalinkHdrLen + 20) {
 
 			byte iphlen = (byte) ((bytes.get(datalinkHdrLen) & 0x0f) << 2);
-			if (data.length < datalinkHdrLen + iphlen) {
+			if (capLen < datalinkHdrLen + iphlen) {
 
 				// Truncated packet
-				return new Packet(seconds, microSeconds, len, datalinkHdrLen, data);
+				return new Packet(seconds, microSeconds, len, datalinkHdrLen, bytes);
+			}
+
+			// The data of a fragment other than the first has no upper layer
+			// header
+			if ((bytes.getShort(datalinkHdrLen + 6) & 0x1fff) != 0) {
+				return new IPPacket(seconds, microSeconds, len, datalinkHdrLen, bytes);
 			}
 
 			// Determine IP protocol
 			byte protocol = bytes.get(datalinkHdrLen + 9);
-			switch (protocol) {
-			case 6: // TCP
-				if (data.length >= datalinkHdrLen + iphlen + 20) {
-					return new TCPPacket(seconds, microSeconds, len, datalinkHdrLen, data);
-				} else {
-					return new Packet(seconds, microSeconds, len, datalinkHdrLen, data);
-				}
-			case 17: // UDP
-				if (data.length >= datalinkHdrLen + iphlen + 6) {
-					return new UDPPacket(seconds, microSeconds, len, datalinkHdrLen, data);
-				} else {
-					return new Packet(seconds, microSeconds, len, datalinkHdrLen, data);
-				}
-			default:
-				return new IPPacket(seconds, microSeconds, len, datalinkHdrLen, data);
+			return createIPPacket(protocol, datalinkHdrLen + iphlen, seconds, microSeconds,
+					len, datalinkHdrLen, bytes);
+		} else if (network == IPV6 && capLen >= datalinkHdrLen + 40) {
+
+			// Walk the extension headers to find the upper layer protocol
+			long walk = IPPacket.walkIPv6Headers(bytes, datalinkHdrLen);
+			if (walk < 0) {
+
+				// Truncated packet
+				return new Packet(seconds, microSeconds, len, datalinkHdrLen, bytes);
+			}
+			int fragmentHeader = IPPacket.fragmentHeaderOffset(walk);
+			if (fragmentHeader != 0 && (bytes.getShort(fragmentHeader + 2) & 0xFFF8) != 0) {
+
+				// The data of a fragment other than the first has no upper
+				// layer header
+				return new IPPacket(seconds, microSeconds, len, datalinkHdrLen, bytes);
 			}
+			return createIPPacket((byte) IPPacket.payloadProtocol(walk),
+					IPPacket.payloadOffset(walk), seconds, microSeconds, len, datalinkHdrLen,
+					bytes);
 		} else {
-			return new Packet(seconds, microSeconds, len, datalinkHdrLen, data);
+			return new Packet(seconds, microSeconds, len, datalinkHdrLen, bytes);
 		}
 
 	}
 
-	private byte[] data;
+	/**
+	 * Creates a new instance of the Packet class for an IP datagram that was
+	 * reassembled from fragments. The network protocol is taken from the IP
+	 * version of the datagram.
+	 * 
+	 * @param len
+	 *            The length of the frame that completed the datagram.
+	 * @param data
+	 *            The datalink header of the first fragment followed by the
+	 *            reassembled datagram.
+	 * @return The packet of the datagram.
+	 */
+	public static Packet createDatagram(long seconds, long microSeconds, int len,
+			int datalinkHdrLen, byte[] data) {
+		short network = (data[datalinkHdrLen] & 0xf0) == 0x60 ? IPV6 : IP;
+		Packet packet = createPacket(network, seconds, microSeconds, len, datalinkHdrLen,
+				ByteBuffer.wrap(data));
+		packet.reassembled = true;
+		return packet;
+	}
+
+	/**
+	 * Creates the packet of the specified IP protocol, whose header starts at
+	 * the specified offset.
+	 */
+	private static Packet createIPPacket(byte protocol, int protocolHdrOffset, long seconds,
+			long microSeconds, int len, int datalinkHdrLen, ByteBuffer bytes) {
+		int capLen = bytes.limit();
+		switch (protocol) {
+		case 6: // TCP
+			if (capLen >= protocolHdrOffset + 20) {
+				return new TCPPacket(seconds, microSeconds, len, datalinkHdrLen, bytes);
+			} else {
+				return new Packet(seconds, microSeconds, len, datalinkHdrLen, bytes);
+			}
+		case 17: // UDP
+			if (capLen >= protocolHdrOffset + 6) {
+				return new UDPPacket(seconds, microSeconds, len, datalinkHdrLen, bytes);
+			} else {
+				return new Packet(seconds, microSeconds, len, datalinkHdrLen, bytes);
+			}
+		default:
+			return new IPPacket(seconds, microSeconds, len, datalinkHdrLen, bytes);
+		}
+	}
+
+	/**
+	 * Returns the network protocol of a raw IP packet from its IP version.
+	 */
+	private static short rawNetwork(ByteBuffer bytes) {
+		return (bytes.get(0) & 0xf0) == 0x60 ? IPV6 : IP;
+	}
+
+	// Packets read from a memory mapped trace reference a slice of the mapping
+	private transient ByteBuffer data;
 	private long seconds;
 	private long microSeconds;
 	private int len;
 	private int dataOffset;
+	private boolean reassembled;
 
 	/**
 	 * Constructor
 	 */
 	protected Packet(long seconds, long microSeconds, int len, int datalinkHdrLen, byte[] data) {
+		this(seconds, microSeconds, len, datalinkHdrLen, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Constructor
+	 */
+	protected Packet(long seconds, long microSeconds, int len, int datalinkHdrLen, ByteBuffer data) {
 		this.dataOffset = datalinkHdrLen;
 		this.seconds = seconds;
 		this.microSeconds = microSeconds;
@@ -179,11 +273,43 @@ public class Packet implements Serializable {
 	}
 
 	/**
-	 * Gets the data portion of the packet.
+	 * Gets the data portion of the packet. When the packet is backed by a
+	 * memory mapped trace file this returns a copy of the captured bytes, so
+	 * {@link #getBuffer()} should be preferred for read only access.
 	 * 
 	 * @return The packet data.
 	 */
 	public byte[] getData() {
+		if (data.hasArray() && data.arrayOffset() == 0 && data.array().length == data.limit()) {
+			return data.array();
+		}
+		byte[] result = new byte[data.limit()];
+		ByteBuffer bytes = data.duplicate();
+		bytes.position(0);
+		bytes.get(result);
+		return result;
+	}
+
+	/**
+	 * Gets the captured bytes of the packet without copying them. The returned
+	 * buffer starts at the datalink header (position 0) and its limit is the
+	 * captured length. Offsets returned by {@link #getDataOffset()} are
+	 * relative to this buffer.
+	 * 
+	 * @return A buffer view of the packet data.
+	 */
+	public ByteBuffer getBuffer() {
+		return data.duplicate();
+	}
+
+	/**
+	 * Gets the buffer holding the captured bytes for use by subclasses that
+	 * decode header fields on demand. Only absolute reads may be used on the
+	 * returned buffer because it is shared.
+	 * 
+	 * @return The packet buffer.
+	 */
+	protected final ByteBuffer getPacketBuffer() {
 		return data;
 	}
 
@@ -249,6 +375,17 @@ public class Packet implements Serializable {
 		return dataOffset;
 	}
 
+	/**
+	 * Indicates whether the packet is an IP datagram that was reassembled
+	 * from fragments. The data of such a packet is not that of a single frame
+	 * of the trace.
+	 * 
+	 * @return true if the packet was reassembled, otherwise false.
+	 */
+	public boolean isReassembled() {
+		return reassembled;
+	}
+
 	/**
 	 * Returns the size of the datalink header on the packet.
 	 * 
@@ -24,18 +24,7 @@ import java.nio.ByteBuffer;
 public class TCPPacket extends IPPacket implements Serializable {
 	private static final long serialVersionUID = 1L;
 
-	private int sourcePort;
-	private int destinationPort;
-	private long sequenceNumber;
-	private long ackNumber;
-	private boolean URG;
-	private boolean ACK;
-	private boolean PSH;
-	private boolean RST;
-	private boolean SYN;
-	private boolean FIN;
-	private int window;
-	private short urgentPointer;
+	// Header fields are decoded from the packet buffer on request
 	private int dataOffset;
 	private int payloadLen;
 
@@ -44,27 +33,21 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 */
 	protected TCPPacket(long seconds, long microSeconds, int len, int datalinkHdrLen,
 			byte[] data) {
-		super(seconds, microSeconds, len, datalinkHdrLen, data);
+		this(seconds, microSeconds, len, datalinkHdrLen, ByteBuffer.wrap(data));
+	}
 
-		int headerOffset = super.getDataOffset();
+	/**
+	 * Creates a new instance of the TCPPacket class. Only the offsets needed to
+	 * locate the payload are decoded here.
+	 */
+	protected TCPPacket(long seconds, long microSeconds, int len, int datalinkHdrLen,
+			ByteBuffer bytes) {
+		super(seconds, microSeconds, len, datalinkHdrLen, bytes);
 
-		ByteBuffer bytes = ByteBuffer.wrap(data);
-		sourcePort = bytes.getShort(headerOffset) & 0xFFFF;
-		destinationPort = bytes.getShort(headerOffset + 2) & 0xFFFF;
-		sequenceNumber = bytes.getInt(headerOffset + 4) & 0xFFFFFFFFL;
-		ackNumber = bytes.getInt(headerOffset + 8) & 0xFFFFFFFFL;
+		int headerOffset = super.getDataOffset();
 		int hlen = ((bytes.get(headerOffset + 12) & 0xF0) >> 2);
 		dataOffset = headerOffset + hlen;
 		payloadLen = super.getPayloadLen() - hlen;
-		short i = bytes.getShort(headerOffset + 12);
-		URG = (i & 0x0020) != 0;
-		ACK = (i & 0x0010) != 0;
-		PSH = (i & 0x0008) != 0;
-		RST = (i & 0x0004) != 0;
-		SYN = (i & 0x0002) != 0;
-		FIN = (i & 0x0001) != 0;
-		window = bytes.getShort(headerOffset + 14) & 0xFFFF;
-		urgentPointer = bytes.getShort(headerOffset + 18);
 	}
 
 	/**
@@ -89,7 +72,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 * @return An int value that is the source port number.
 	 */
 	public int getSourcePort() {
-		return sourcePort;
+		return getPacketBuffer().getShort(super.getDataOffset()) & 0xFFFF;
 	}
 
 	/**
@@ -98,7 +81,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 * @return An int value that is the destination port number.
 	 */
 	public int getDestinationPort() {
-		return destinationPort;
+		return getPacketBuffer().getShort(super.getDataOffset() + 2) & 0xFFFF;
 	}
 
 	/**
@@ -107,7 +90,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 * @return A long value that is the sequence number.
 	 */
 	public long getSequenceNumber() {
-		return sequenceNumber;
+		return getPacketBuffer().getInt(super.getDataOffset() + 4) & 0xFFFFFFFFL;
 	}
 
 	/**
@@ -116,7 +99,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 * @return A long value that is the acknowledgement number.
 	 */
 	public long getAckNumber() {
-		return ackNumber;
+		return getPacketBuffer().getInt(super.getDataOffset() + 8) & 0xFFFFFFFFL;
 	}
 
 	/**
@@ -126,7 +109,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 * @return true if prioritize are set with in the packet else it is false.
 	 */
 	public boolean isURG() {
-		return URG;
+		return (getFlags() & 0x0020) != 0;
 	}
 
 	/**
@@ -136,7 +119,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 *         packet, and is false otherwise.
 	 */
 	public boolean isACK() {
-		return ACK;
+		return (getFlags() & 0x0010) != 0;
 	}
 
 	/**
@@ -149,7 +132,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 *         is not required.
 	 */
 	public boolean isPSH() {
-		return PSH;
+		return (getFlags() & 0x0008) != 0;
 	}
 
 	/**
@@ -160,7 +143,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 *         in response to an error, and is false if it should not.
 	 */
 	public boolean isRST() {
-		return RST;
+		return (getFlags() & 0x0004) != 0;
 	}
 
 	/**
@@ -170,7 +153,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 *         and is false if a connection wont be initiated.
 	 */
 	public boolean isSYN() {
-		return SYN;
+		return (getFlags() & 0x0002) != 0;
 	}
 
 	/**
@@ -180,7 +163,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 *         closed, and is false if the connection should remain the same.
 	 */
 	public boolean isFIN() {
-		return FIN;
+		return (getFlags() & 0x0001) != 0;
 	}
 
 	/**
@@ -189,7 +172,7 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 * @return An int value that is the window.
 	 */
 	public int getWindow() {
-		return window;
+		return getPacketBuffer().getShort(super.getDataOffset() + 14) & 0xFFFF;
 	}
 
 	/**
@@ -198,7 +181,17 @@ public class TCPPacket extends IPPacket implements Serializable {
 	 * @return A short value that is the urgent pointer.
 	 */
 	public short getUrgentPointer() {
-		return urgentPointer;
+		return getPacketBuffer().getShort(super.getDataOffset() + 18);
+	}
+
+	/**
+	 * Gets the TCP flags byte. The individual flags are also available through
+	 * the isXXX methods of this class.
+	 * 
+	 * @return An int value that contains the TCP flag bits.
+	 */
+	public int getFlags() {
+		return getPacketBuffer().get(super.getDataOffset() + 13) & 0xFF;
 	}
 
 }
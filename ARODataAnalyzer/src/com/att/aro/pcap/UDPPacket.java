@@ -24,9 +24,7 @@ import java.nio.ByteBuffer;
 public class UDPPacket extends IPPacket implements Serializable {
 	private static final long serialVersionUID = 1L;
 
-	private int sourcePort;
-	private int destinationPort;
-	private int packetLength;
+	// Ports are decoded from the packet buffer on request
 	private int dataOffset;
 	private int payloadLen;
 
@@ -35,16 +33,19 @@ public class UDPPacket extends IPPacket implements Serializable {
 	 */
 	public UDPPacket(long seconds, long microSeconds, int len, int datalinkHdrLen,
 			byte[] data) {
-		super(seconds, microSeconds, len, datalinkHdrLen, data);
+		this(seconds, microSeconds, len, datalinkHdrLen, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Constructor
+	 */
+	public UDPPacket(long seconds, long microSeconds, int len, int datalinkHdrLen,
+			ByteBuffer bytes) {
+		super(seconds, microSeconds, len, datalinkHdrLen, bytes);
 
 		int headerOffset = super.getDataOffset();
 		dataOffset = headerOffset + 8;
-
-		ByteBuffer bytes = ByteBuffer.wrap(data);
-		sourcePort = bytes.getShort(headerOffset) & 0xFFFF;
-		destinationPort = bytes.getShort(headerOffset + 2) & 0xFFFF;
-		packetLength = bytes.getShort(headerOffset + 4) & 0xFFFF;
-		payloadLen = packetLength - 8;
+		payloadLen = (bytes.getShort(headerOffset + 4) & 0xFFFF) - 8;
 	}
 
 	/**
@@ -69,7 +70,7 @@ public class UDPPacket extends IPPacket implements Serializable {
 	 * @return An int value that is the source port number.
 	 */
 	public int getSourcePort() {
-		return sourcePort;
+		return getPacketBuffer().getShort(super.getDataOffset()) & 0xFFFF;
 	}
 
 	/**
@@ -78,7 +79,7 @@ public class UDPPacket extends IPPacket implements Serializable {
 	 * @return An int value that is the destination port number.
 	 */
 	public int getDestinationPort() {
-		return destinationPort;
+		return getPacketBuffer().getShort(super.getDataOffset() + 2) & 0xFFFF;
 	}
 
 	/**
@@ -87,7 +88,7 @@ public class UDPPacket extends IPPacket implements Serializable {
 	 * @return An int value that is the length of the packet (in bytes).
 	 */
 	public int getPacketLength() {
-		return packetLength;
+		return getPacketBuffer().getShort(super.getDataOffset() + 4) & 0xFFFF;
 	}
 
 }